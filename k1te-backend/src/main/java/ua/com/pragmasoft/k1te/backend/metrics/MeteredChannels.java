@@ -0,0 +1,172 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
+import ua.com.pragmasoft.k1te.backend.router.domain.ConnectionUri;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.MemberChanges;
+
+/** Times every {@link Channels} method tagged by the method name */
+public class MeteredChannels implements Channels, Closeable {
+
+  public static final String CHANNELS = "k1te.channels";
+  private static final String METHOD = "method";
+
+  private final Channels delegate;
+  private final Metrics metrics;
+
+  public MeteredChannels(Channels delegate, Metrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public Member hostChannel(String channel, String memberId, String ownerConnection, String title) {
+    return this.metrics.timed(
+        CHANNELS,
+        () -> this.delegate.hostChannel(channel, memberId, ownerConnection, title),
+        METHOD,
+        "hostChannel");
+  }
+
+  @Override
+  public Member dropChannel(String ownerConnection) {
+    return this.metrics.timed(
+        CHANNELS, () -> this.delegate.dropChannel(ownerConnection), METHOD, "dropChannel");
+  }
+
+  @Override
+  public Member joinChannel(
+      String channelName, String memberId, String connection, String memberName) {
+    return this.metrics.timed(
+        CHANNELS,
+        () -> this.delegate.joinChannel(channelName, memberId, connection, memberName),
+        METHOD,
+        "joinChannel");
+  }
+
+  @Override
+  public Member leaveChannel(String connection) {
+    return this.metrics.timed(
+        CHANNELS, () -> this.delegate.leaveChannel(connection), METHOD, "leaveChannel");
+  }
+
+  @Override
+  public Member find(String memberConnection) {
+    return this.metrics.timed(
+        CHANNELS, () -> this.delegate.find(memberConnection), METHOD, "findByConnection");
+  }
+
+  @Override
+  public Member find(ConnectionUri memberConnection) {
+    return this.metrics.timed(
+        CHANNELS, () -> this.delegate.find(memberConnection), METHOD, "findByConnection");
+  }
+
+  @Override
+  public Member find(String channel, String memberId) {
+    return this.metrics.timed(
+        CHANNELS, () -> this.delegate.find(channel, memberId), METHOD, "findById");
+  }
+
+  @Override
+  public Member findHost(String channelName) {
+    return this.metrics.timed(
+        CHANNELS, () -> this.delegate.findHost(channelName), METHOD, "findHost");
+  }
+
+  @Override
+  public List<Member> findMembers(String channelName) {
+    return this.metrics.timed(
+        CHANNELS, () -> this.delegate.findMembers(channelName), METHOD, "findMembers");
+  }
+
+  @Override
+  public String findUnAnsweredMessage(Member from, Member to) {
+    return this.metrics.timed(
+        CHANNELS,
+        () -> this.delegate.findUnAnsweredMessage(from, to),
+        METHOD,
+        "findUnAnsweredMessage");
+  }
+
+  @Override
+  public Member switchConnection(String channelName, String memberId, String newConnection) {
+    return this.metrics.timed(
+        CHANNELS,
+        () -> this.delegate.switchConnection(channelName, memberId, newConnection),
+        METHOD,
+        "switchConnection");
+  }
+
+  @Override
+  public void updateUnAnsweredMessage(Member from, Member to, String pinnedMessagedId) {
+    this.metrics.timed(
+        CHANNELS,
+        () -> this.delegate.updateUnAnsweredMessage(from, to, pinnedMessagedId),
+        METHOD,
+        "updateUnAnsweredMessage");
+  }
+
+  @Override
+  public void updatePeer(Member member, String peerMemberId) {
+    this.metrics.timed(
+        CHANNELS, () -> this.delegate.updatePeer(member, peerMemberId), METHOD, "updatePeer");
+  }
+
+  @Override
+  public void updateConnection(
+      Member memberToUpdate, String connectionUri, String messageId, Instant usageTime) {
+    this.metrics.timed(
+        CHANNELS,
+        () -> this.delegate.updateConnection(memberToUpdate, connectionUri, messageId, usageTime),
+        METHOD,
+        "updateConnection");
+  }
+
+  @Override
+  public void deleteUnAnsweredMessage(Member from, Member to) {
+    this.metrics.timed(
+        CHANNELS,
+        () -> this.delegate.deleteUnAnsweredMessage(from, to),
+        METHOD,
+        "deleteUnAnsweredMessage");
+  }
+
+  @Override
+  public void commit(MemberChanges changes) {
+    this.metrics.timed(CHANNELS, () -> this.delegate.commit(changes), METHOD, "commit");
+  }
+
+  @Override
+  public void purgeConnection(String connectionUri) {
+    this.metrics.timed(
+        CHANNELS, () -> this.delegate.purgeConnection(connectionUri), METHOD, "purgeConnection");
+  }
+
+  @Override
+  public void refreshConnection(String connectionUri) {
+    this.metrics.timed(
+        CHANNELS,
+        () -> this.delegate.refreshConnection(connectionUri),
+        METHOD,
+        "refreshConnection");
+  }
+
+  @Override
+  public int sweepConnections() {
+    return this.metrics.timed(
+        CHANNELS, this.delegate::sweepConnections, METHOD, "sweepConnections");
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.delegate instanceof Closeable closeable) {
+      closeable.close();
+    }
+  }
+}
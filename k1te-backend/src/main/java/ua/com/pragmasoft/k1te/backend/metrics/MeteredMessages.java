@@ -0,0 +1,54 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import ua.com.pragmasoft.k1te.backend.router.domain.HistoryMessage;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.Messages;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+
+/** Times every {@link Messages} method tagged by the method name */
+public class MeteredMessages implements Messages, Closeable {
+
+  public static final String MESSAGES = "k1te.messages";
+
+  private final Messages delegate;
+  private final Metrics metrics;
+
+  public MeteredMessages(Messages delegate, Metrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public HistoryMessage persist(
+      Member owner, String messageId, MessagePayload content, Instant time, boolean incoming) {
+    return this.metrics.timed(
+        MESSAGES,
+        () -> this.delegate.persist(owner, messageId, content, time, incoming),
+        "method",
+        "persist");
+  }
+
+  @Override
+  public List<HistoryMessage> findAll(Member member, String lastMessageId, Integer limit) {
+    return this.metrics.timed(
+        MESSAGES, () -> this.delegate.findAll(member, lastMessageId, limit), "method", "findAll");
+  }
+
+  @Override
+  public Page findPage(Member member, String cursor, int limit) {
+    return this.metrics.timed(
+        MESSAGES, () -> this.delegate.findPage(member, cursor, limit), "method", "findPage");
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.delegate instanceof Closeable closeable) {
+      closeable.close();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.metrics;
+
+import java.time.Instant;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.BinaryPayload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.UploadRequest;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.UploadResponse;
+import ua.com.pragmasoft.k1te.backend.ws.ObjectStore;
+
+/** Times object store operations and records the size of copied objects */
+public class MeteredObjectStore implements ObjectStore {
+
+  public static final String OBJECT_STORE = "k1te.objectstore";
+  public static final String COPIED_BYTES = "k1te.objectstore.copy.bytes";
+
+  private final ObjectStore delegate;
+  private final Metrics metrics;
+
+  public MeteredObjectStore(ObjectStore delegate, Metrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public UploadResponse presign(UploadRequest uploadRequest, String channelName, String memberId) {
+    return this.metrics.timed(
+        OBJECT_STORE,
+        () -> this.delegate.presign(uploadRequest, channelName, memberId),
+        "method",
+        "presign");
+  }
+
+  @Override
+  public BinaryPayload copyTransient(
+      BinaryPayload transientPayload, String channelName, String memberId) {
+    BinaryPayload copy =
+        this.metrics.timed(
+            OBJECT_STORE,
+            () -> this.delegate.copyTransient(transientPayload, channelName, memberId),
+            "method",
+            "copyTransient");
+    this.metrics.recordSize(COPIED_BYTES, transientPayload.fileSize());
+    return copy;
+  }
+
+  @Override
+  public String objectName(
+      String channelName, String memberId, String simpleName, Instant timestamp) {
+    return this.delegate.objectName(channelName, memberId, simpleName, timestamp);
+  }
+}
@@ -0,0 +1,42 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import ua.com.pragmasoft.k1te.backend.router.domain.RouterPostProcessor;
+import ua.com.pragmasoft.k1te.backend.router.domain.RoutingContext;
+
+/** Times post processor tagged by its class name */
+public class MeteredPostProcessor implements RouterPostProcessor, Closeable {
+
+  public static final String POST_PROCESSOR = "k1te.router.postprocessor";
+
+  private final RouterPostProcessor delegate;
+  private final Metrics metrics;
+  private final String name;
+
+  public MeteredPostProcessor(RouterPostProcessor delegate, Metrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+    this.name = delegate.getClass().getSimpleName();
+  }
+
+  @Override
+  public void accept(RoutingContext ctx) {
+    this.metrics.timed(POST_PROCESSOR, () -> this.delegate.accept(ctx), "processor", this.name);
+  }
+
+  @Override
+  public void acceptAll(List<RoutingContext> contexts) {
+    this.metrics.timed(
+        POST_PROCESSOR, () -> this.delegate.acceptAll(contexts), "processor", this.name);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.delegate instanceof Closeable closeable) {
+      closeable.close();
+    }
+  }
+}
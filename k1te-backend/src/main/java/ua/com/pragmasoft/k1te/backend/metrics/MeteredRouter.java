@@ -0,0 +1,99 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import ua.com.pragmasoft.k1te.backend.router.domain.Connector;
+import ua.com.pragmasoft.k1te.backend.router.domain.DeliveryReport;
+import ua.com.pragmasoft.k1te.backend.router.domain.Router;
+import ua.com.pragmasoft.k1te.backend.router.domain.RoutingContext;
+
+/**
+ * Times routing end to end, and every registered connector's dispatch tagged by the connector id.
+ */
+public class MeteredRouter implements Router, Closeable {
+
+  public static final String ROUTER_DISPATCH = "k1te.router.dispatch";
+  public static final String CONNECTOR_DISPATCH = "k1te.connector.dispatch";
+
+  private final Router delegate;
+  private final Metrics metrics;
+
+  public MeteredRouter(Router delegate, Metrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public String id() {
+    return this.delegate.id();
+  }
+
+  @Override
+  public Router registerConnector(Connector connector) {
+    this.delegate.registerConnector(new MeteredConnector(connector));
+    return this;
+  }
+
+  @Override
+  public void dispatch(RoutingContext ctx) {
+    this.metrics.timed(
+        ROUTER_DISPATCH, () -> this.delegate.dispatch(ctx), "operation", "dispatch");
+  }
+
+  @Override
+  public void dispatchAll(List<RoutingContext> contexts) {
+    this.metrics.timed(
+        ROUTER_DISPATCH, () -> this.delegate.dispatchAll(contexts), "operation", "dispatchAll");
+  }
+
+  @Override
+  public DeliveryReport broadcast(RoutingContext ctx) {
+    return this.metrics.timed(
+        ROUTER_DISPATCH, () -> this.delegate.broadcast(ctx), "operation", "broadcast");
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.delegate instanceof Closeable closeable) {
+      closeable.close();
+    }
+  }
+
+  private class MeteredConnector implements Connector {
+
+    private final Connector connector;
+
+    MeteredConnector(Connector connector) {
+      this.connector = connector;
+    }
+
+    @Override
+    public String id() {
+      return this.connector.id();
+    }
+
+    @Override
+    public void dispatch(RoutingContext context) {
+      metrics.timed(
+          CONNECTOR_DISPATCH,
+          () -> this.connector.dispatch(context),
+          "connector",
+          this.connector.id(),
+          "operation",
+          "dispatch");
+    }
+
+    @Override
+    public void dispatchAll(List<RoutingContext> contexts) {
+      metrics.timed(
+          CONNECTOR_DISPATCH,
+          () -> this.connector.dispatchAll(contexts),
+          "connector",
+          this.connector.id(),
+          "operation",
+          "dispatchAll");
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.metrics;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Minimal metrics facade, so the backend does not depend on a particular metrics library. Tags
+ * are passed as alternating names and values.
+ */
+public interface Metrics {
+
+  String OUTCOME = "outcome";
+  String SUCCESS = "success";
+  String ERROR = "error";
+
+  Metrics NONE =
+      new Metrics() {
+        @Override
+        public void recordTime(String name, long nanos, String... tags) {
+          // no op
+        }
+
+        @Override
+        public void recordSize(String name, long bytes, String... tags) {
+          // no op
+        }
+
+        @Override
+        public void recordValue(String name, long value, String... tags) {
+          // no op
+        }
+      };
+
+  /** Records the duration of the operation */
+  void recordTime(String name, long nanos, String... tags);
+
+  /** Records the size of the processed data */
+  void recordSize(String name, long bytes, String... tags);
+
+  /** Records the dimensionless value, like the queue depth */
+  void recordValue(String name, long value, String... tags);
+
+  /** Runs the operation and records its duration tagged with its outcome */
+  default <T> T timed(String name, Supplier<T> operation, String... tags) {
+    long start = System.nanoTime();
+    String outcome = ERROR;
+    try {
+      T result = operation.get();
+      outcome = SUCCESS;
+      return result;
+    } finally {
+      this.recordTime(name, System.nanoTime() - start, withOutcome(tags, outcome));
+    }
+  }
+
+  /** Runs the operation and records its duration tagged with its outcome */
+  default void timed(String name, Runnable operation, String... tags) {
+    this.timed(
+        name,
+        () -> {
+          operation.run();
+          return null;
+        },
+        tags);
+  }
+
+  private static String[] withOutcome(String[] tags, String outcome) {
+    String[] result = Arrays.copyOf(tags, tags.length + 2);
+    result[tags.length] = OUTCOME;
+    result[tags.length + 1] = outcome;
+    return result;
+  }
+}
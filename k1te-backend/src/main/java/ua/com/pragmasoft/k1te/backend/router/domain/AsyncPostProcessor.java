@@ -0,0 +1,198 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+
+/**
+ * Runs delegate post processors in the background, so the sender receives its acknowledge as soon
+ * as the connector has delivered the message.
+ *
+ * <p>Contexts are distributed between a fixed number of lanes by the channel of the conversation.
+ * Every conversation of the channel involves its host, so a lane per client would update the host
+ * from several lanes in no defined order, and an older context could overwrite the newer peer of
+ * the host. Post processing of the messages of the same member, host or client, thus preserves
+ * their order, at the cost of a busy channel being processed by a single lane.
+ * Each lane has a bounded queue; when it is full, the dispatching thread blocks until the lane
+ * catches up (backpressure). {@link #close()} stops accepting new contexts and drains the queued
+ * ones, contexts which arrive after that are processed by the dispatching thread.
+ *
+ * <p>Not suitable for the serverless deployment, where the function may be frozen right after the
+ * response is returned.
+ */
+public class AsyncPostProcessor implements RouterPostProcessor, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(AsyncPostProcessor.class);
+
+  public static final int DEFAULT_LANES = 8;
+  public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+  public static final Duration DEFAULT_SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+
+  /** How often an idle lane checks whether it is closed */
+  private static final long POLL_MILLIS = 100;
+
+  private final List<RouterPostProcessor> delegates;
+  private final Lane[] lanes;
+  private final Duration shutdownTimeout;
+  /** Contexts are queued under the read lock, so none is queued once close takes the write lock */
+  private final ReadWriteLock closing = new ReentrantReadWriteLock();
+  private volatile boolean closed;
+
+  public AsyncPostProcessor(List<RouterPostProcessor> delegates) {
+    this(delegates, DEFAULT_LANES, DEFAULT_QUEUE_CAPACITY, DEFAULT_SHUTDOWN_TIMEOUT);
+  }
+
+  public AsyncPostProcessor(
+      List<RouterPostProcessor> delegates,
+      int lanes,
+      int queueCapacity,
+      Duration shutdownTimeout) {
+    this(delegates, lanes, queueCapacity, shutdownTimeout, daemonThreadFactory());
+  }
+
+  /**
+   * @param delegates post processors to run in the background, in the given order
+   * @param lanes number of lanes, each one is served by a single thread
+   * @param queueCapacity max number of contexts waiting in a single lane
+   * @param shutdownTimeout max time to wait for the queued contexts on close
+   * @param threadFactory creates lane threads, pass virtual thread factory when available
+   */
+  public AsyncPostProcessor(
+      List<RouterPostProcessor> delegates,
+      int lanes,
+      int queueCapacity,
+      Duration shutdownTimeout,
+      ThreadFactory threadFactory) {
+    Objects.requireNonNull(delegates, "Post processors");
+    Objects.requireNonNull(shutdownTimeout, "Shutdown timeout");
+    Objects.requireNonNull(threadFactory, "Thread factory");
+    if (lanes < 1) throw new IllegalArgumentException("At least one lane is required");
+    if (queueCapacity < 1) throw new IllegalArgumentException("Queue capacity must be positive");
+    this.delegates = List.copyOf(delegates);
+    this.shutdownTimeout = shutdownTimeout;
+    this.lanes = new Lane[lanes];
+    for (int i = 0; i < lanes; i++) {
+      this.lanes[i] = new Lane(queueCapacity, threadFactory);
+    }
+    log.info("Async post processing with {} lanes, queue capacity {}", lanes, queueCapacity);
+  }
+
+  @Override
+  public void accept(RoutingContext ctx) {
+    Lock lock = this.closing.readLock();
+    lock.lock();
+    try {
+      if (this.closed) {
+        this.process(ctx);
+        return;
+      }
+      this.laneOf(ctx).queue.put(ctx);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KiteException("Interrupted while waiting for post processing queue", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Stops accepting new contexts and waits until already queued ones are processed. */
+  @Override
+  public void close() {
+    Lock lock = this.closing.writeLock();
+    lock.lock();
+    try {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+    } finally {
+      lock.unlock();
+    }
+    long deadline = System.nanoTime() + this.shutdownTimeout.toNanos();
+    try {
+      for (Lane lane : this.lanes) {
+        long remainingMillis = Math.max(1, (deadline - System.nanoTime()) / 1_000_000);
+        lane.thread.join(remainingMillis);
+        if (lane.thread.isAlive()) {
+          log.warn("Post processing lane did not complete, {} contexts left", lane.queue.size());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Number of contexts waiting for post processing in all lanes. */
+  public int backlog() {
+    int backlog = 0;
+    for (Lane lane : this.lanes) {
+      backlog += lane.queue.size();
+    }
+    return backlog;
+  }
+
+  private Lane laneOf(RoutingContext ctx) {
+    Member member = null != ctx.from ? ctx.from : ctx.to;
+    int hash = null != member ? member.getChannelName().hashCode() : ctx.hashCode();
+    return this.lanes[Math.floorMod(hash, this.lanes.length)];
+  }
+
+  private void process(RoutingContext ctx) {
+    for (RouterPostProcessor postProcessor : this.delegates) {
+      try {
+        postProcessor.accept(ctx);
+      } catch (Exception e) {
+        log.error("Post processing failed for %s".formatted(ctx), e);
+      }
+    }
+  }
+
+  private static ThreadFactory daemonThreadFactory() {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, "k1te-post-processor-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private final class Lane implements Runnable {
+
+    private final BlockingQueue<RoutingContext> queue;
+    private final Thread thread;
+
+    Lane(int queueCapacity, ThreadFactory threadFactory) {
+      this.queue = new ArrayBlockingQueue<>(queueCapacity);
+      this.thread = threadFactory.newThread(this);
+      this.thread.start();
+    }
+
+    /** Stops once closed and drained, nothing is queued after close */
+    @Override
+    public void run() {
+      try {
+        while (!AsyncPostProcessor.this.closed || !this.queue.isEmpty()) {
+          RoutingContext ctx = this.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+          if (null != ctx) {
+            AsyncPostProcessor.this.process(ctx);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -2,6 +2,7 @@
 package ua.com.pragmasoft.k1te.backend.router.domain;
 
 import java.time.Instant;
+import java.util.List;
 
 public interface Channels {
 
@@ -15,10 +16,17 @@ public interface Channels {
 
   Member find(String memberConnection);
 
+  default Member find(ConnectionUri memberConnection) {
+    return this.find(memberConnection.toString());
+  }
+
   Member find(String channel, String memberId);
 
   Member findHost(String channelName);
 
+  /** Returns all members of the channel, including its host */
+  List<Member> findMembers(String channelName);
+
   String findUnAnsweredMessage(Member from, Member to);
 
   Member switchConnection(String channelName, String memberId, String newConnection);
@@ -31,4 +39,47 @@ public interface Channels {
       Member memberToUpdate, String connectionUri, String messageId, Instant usageTime);
 
   void deleteUnAnsweredMessage(Member from, Member to);
+
+  /**
+   * Forgets the connection which is gone without the disconnect, so the member is routed to its
+   * most recent remaining connection instead. The member stays in the channel. Stores which never
+   * keep dead connections do nothing.
+   */
+  default void purgeConnection(String connectionUri) {}
+
+  /**
+   * Tells the connection is still alive, on any of its frames and pongs. Stores which expire the
+   * connections not refreshed for a while, so they can be swept, keep it.
+   */
+  default void refreshConnection(String connectionUri) {}
+
+  /**
+   * Purges the websocket connections which were not refreshed within their time to live, like the
+   * closed ones kept routed for the outbox and the ones of a crashed node. Stores which never keep
+   * dead connections do nothing.
+   *
+   * @return number of purged connections
+   */
+  default int sweepConnections() {
+    return 0;
+  }
+
+  /**
+   * Applies member changes collected while routing a message. Implementations should coalesce all
+   * changes of the same member into a single write.
+   */
+  default void commit(MemberChanges changes) {
+    for (MemberChanges.Change change : changes) {
+      for (MemberChanges.ConnectionUpdate update : change.connections()) {
+        this.updateConnection(
+            change.member(),
+            update.connectionUri().toString(),
+            update.messageId(),
+            update.usageTime());
+      }
+      if (null != change.peerMemberId()) {
+        this.updatePeer(change.member(), change.peerMemberId());
+      }
+    }
+  }
 }
@@ -0,0 +1,51 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Commits member changes recorded by the preceding post processors. Must be the last one in the
+ * post processors chain.
+ */
+public class CommitChangesPostProcessor implements RouterPostProcessor {
+
+  private static final Logger log = LoggerFactory.getLogger(CommitChangesPostProcessor.class);
+
+  private final Channels channels;
+
+  public CommitChangesPostProcessor(Channels channels) {
+    this.channels = channels;
+  }
+
+  @Override
+  public void accept(RoutingContext ctx) {
+    MemberChanges changes = ctx.changes;
+    if (null == changes || changes.isEmpty()) {
+      return;
+    }
+    try {
+      this.channels.commit(changes);
+      log.debug("Committed {}", changes);
+    } finally {
+      changes.clear();
+    }
+  }
+
+  /** Commits changes of the whole batch together, so each member is written once */
+  @Override
+  public void acceptAll(List<RoutingContext> contexts) {
+    MemberChanges changes = new MemberChanges();
+    for (RoutingContext ctx : contexts) {
+      if (null != ctx.changes) {
+        changes.addAll(ctx.changes);
+        ctx.changes.clear();
+      }
+    }
+    if (!changes.isEmpty()) {
+      this.channels.commit(changes);
+      log.debug("Committed batch {}", changes);
+    }
+  }
+}
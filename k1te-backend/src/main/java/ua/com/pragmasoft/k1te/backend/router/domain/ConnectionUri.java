@@ -0,0 +1,64 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import java.util.Objects;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
+
+/**
+ * Connection uri in the form {@code connectorId:rawConnection}, parsed once and carried through the
+ * routing instead of its string form.
+ */
+public final class ConnectionUri {
+
+  private static final char SEPARATOR = ':';
+
+  private final String connectorId;
+  private final String rawConnection;
+  private final String uri;
+
+  private ConnectionUri(String connectorId, String rawConnection, String uri) {
+    this.connectorId = connectorId;
+    this.rawConnection = rawConnection;
+    this.uri = uri;
+  }
+
+  public static ConnectionUri of(String connectorId, String rawConnection) {
+    Objects.requireNonNull(connectorId, "connector id");
+    Objects.requireNonNull(rawConnection, "raw connection");
+    return new ConnectionUri(connectorId, rawConnection, connectorId + SEPARATOR + rawConnection);
+  }
+
+  public static ConnectionUri parse(String uri) {
+    Objects.requireNonNull(uri, "connection uri");
+    int separator = uri.indexOf(SEPARATOR);
+    if (separator < 0) {
+      throw new ValidationException("Invalid connection uri " + uri);
+    }
+    return new ConnectionUri(uri.substring(0, separator), uri.substring(separator + 1), uri);
+  }
+
+  public String connectorId() {
+    return this.connectorId;
+  }
+
+  public String rawConnection() {
+    return this.rawConnection;
+  }
+
+  @Override
+  public int hashCode() {
+    return this.uri.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    return obj instanceof ConnectionUri other && this.uri.equals(other.uri);
+  }
+
+  /** Returns connection uri in its string form */
+  @Override
+  public String toString() {
+    return this.uri;
+  }
+}
@@ -1,7 +1,7 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.backend.router.domain;
 
-import java.util.Objects;
+import java.util.List;
 import ua.com.pragmasoft.k1te.backend.shared.KiteException;
 
 public interface Connector {
@@ -10,18 +10,25 @@ public interface Connector {
 
   void dispatch(RoutingContext context) throws KiteException;
 
+  /**
+   * Delivers contexts in the given order. Connectors which can deliver several messages in one
+   * round trip should override it.
+   */
+  default void dispatchAll(List<RoutingContext> contexts) throws KiteException {
+    for (RoutingContext context : contexts) {
+      this.dispatch(context);
+    }
+  }
+
   default String connectionUri(String rawConnection) {
     return id() + ':' + rawConnection;
   }
 
   static String rawConnection(String connectionUri) {
-    var array = connectionUri.split(":", 2);
-    Objects.checkIndex(1, array.length);
-    return array[1];
+    return ConnectionUri.parse(connectionUri).rawConnection();
   }
 
   static String connectorId(String connectionUri) {
-    var array = connectionUri.split(":", 2);
-    return array[0];
+    return ConnectionUri.parse(connectionUri).connectorId();
   }
 }
@@ -0,0 +1,29 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import java.util.Map;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+
+/**
+ * Outcome of the broadcast of a single message
+ *
+ * @param messageId id of the broadcasted message
+ * @param delivered acknowledges by recipient member id
+ * @param failed error descriptions by recipient member id
+ */
+public record DeliveryReport(
+    String messageId, Map<String, MessageAck> delivered, Map<String, String> failed) {
+
+  public DeliveryReport {
+    delivered = Map.copyOf(delivered);
+    failed = Map.copyOf(failed);
+  }
+
+  public int recipients() {
+    return this.delivered.size() + this.failed.size();
+  }
+
+  public boolean isComplete() {
+    return this.failed.isEmpty();
+  }
+}
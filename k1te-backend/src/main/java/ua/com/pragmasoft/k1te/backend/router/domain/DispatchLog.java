@@ -0,0 +1,26 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.shared.ConflictException;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+
+/** Remembers dispatched messages for a while, so redelivered messages are not routed again */
+public interface DispatchLog {
+
+  /**
+   * Claims the dispatch of the message, the claim must be completed or released by the caller.
+   *
+   * @param key identifies the message, see {@link IdempotentRouter}
+   * @return null if the caller should dispatch the message, otherwise the ack of the message which
+   *     was already dispatched
+   * @throws ConflictException if the message is still being dispatched by another caller
+   */
+  MessageAck claim(String key) throws KiteException;
+
+  /** Records the ack of the dispatched message, which is returned to later claims */
+  void complete(String key, MessageAck ack) throws KiteException;
+
+  /** Forgets the claim of the message which failed to dispatch, so it can be retried */
+  void release(String key) throws KiteException;
+}
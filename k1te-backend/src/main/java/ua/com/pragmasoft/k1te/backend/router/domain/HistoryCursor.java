@@ -0,0 +1,36 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
+
+/**
+ * Opaque cursor of the history page, the key of the last message of the page. It only holds the
+ * message id, the member is always the one asking, so the cursor cannot reach other histories.
+ */
+public final class HistoryCursor {
+
+  private HistoryCursor() {}
+
+  /** Cursor continuing right after the message */
+  public static String after(HistoryMessage message) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(message.getMessageId().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return id of the last message of the previous page, null for the first page
+   */
+  public static String messageId(String cursor) {
+    if (null == cursor || cursor.isEmpty()) {
+      return null;
+    }
+    try {
+      return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new ValidationException("Malformed history cursor", e);
+    }
+  }
+}
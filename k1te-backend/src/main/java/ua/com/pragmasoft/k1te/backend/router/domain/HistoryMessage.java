@@ -12,7 +12,10 @@ public interface HistoryMessage {
 
   String getMessageId();
 
-  String getContent();
+  /** Type of the message, cheaper than the payload when only the type is needed */
+  Payload.Type getType();
+
+  MessagePayload getPayload();
 
   Instant getTime();
 
@@ -1,17 +1,14 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.backend.router.domain;
 
-import ua.com.pragmasoft.k1te.backend.ws.PayloadEncoder;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
 import ua.com.pragmasoft.k1te.backend.ws.WsConnector;
 
 public class HistoryPostProcessor implements RouterPostProcessor {
 
-  private static final PayloadEncoder ENCODER = new PayloadEncoder();
-  private final Channels channels;
   private final Messages messages;
 
-  public HistoryPostProcessor(Channels channels, Messages messages) {
-    this.channels = channels;
+  public HistoryPostProcessor(Messages messages) {
     this.messages = messages;
   }
 
@@ -23,10 +20,10 @@ public class HistoryPostProcessor implements RouterPostProcessor {
         && (!messageId.equals("-"))) { // do nothing if it's join/left/switch/selfMessage messages
       String ownerMessageId;
       String toMessageId;
-      if (Connector.connectorId(ctx.originConnection).equals(WsConnector.WS)) {
+      if (ctx.originConnection.connectorId().equals(WsConnector.WS)) {
         ownerMessageId = destinationMessageId;
         toMessageId = destinationMessageId;
-      } else if (Connector.connectorId(ctx.destinationConnection).equals(WsConnector.WS)) {
+      } else if (ctx.destinationConnection.connectorId().equals(WsConnector.WS)) {
         ownerMessageId = messageId;
         toMessageId = messageId;
       } else {
@@ -34,12 +31,13 @@ public class HistoryPostProcessor implements RouterPostProcessor {
         toMessageId = destinationMessageId;
       }
 
-      this.channels.updateConnection(
-          ctx.from, ctx.originConnection, ownerMessageId, ctx.response.delivered());
-      this.channels.updateConnection(
-          ctx.to, ctx.destinationConnection, toMessageId, ctx.response.delivered());
+      ctx.changes()
+          .updateConnection(
+              ctx.from, ctx.originConnection, ownerMessageId, ctx.response.delivered())
+          .updateConnection(
+              ctx.to, ctx.destinationConnection, toMessageId, ctx.response.delivered());
 
-      String content = ENCODER.apply(ctx.request);
+      MessagePayload content = ctx.request;
       if (ctx.from.isHost()) {
         this.messages.persist(ctx.to, toMessageId, content, ctx.response.delivered(), true);
       } else {
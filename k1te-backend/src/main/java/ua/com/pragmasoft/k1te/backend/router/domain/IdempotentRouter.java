@@ -0,0 +1,146 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+
+/**
+ * Routes every message only once. Telegram redelivers webhook updates when the response is slow
+ * and web clients resend messages on flaky links, so the same message may be dispatched again,
+ * which would deliver it twice, write it to the history twice and copy its files twice.
+ *
+ * <p>Messages are identified by the origin connection and the message id, or by the {@link
+ * #ATTR_KEY} attribute if the connector knows better, like telegram does for edited messages. A
+ * duplicate gets the ack of the first dispatch without being routed. Idle contexts (history replay)
+ * and service messages without id are always routed. Broadcasts are not deduplicated.
+ */
+public class IdempotentRouter implements Router, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(IdempotentRouter.class);
+
+  public static final String ATTR_KEY = "k1te.idempotency.key";
+
+  private final Router delegate;
+  private final DispatchLog dispatchLog;
+
+  public IdempotentRouter(Router delegate, DispatchLog dispatchLog) {
+    this.delegate = Objects.requireNonNull(delegate, "Router");
+    this.dispatchLog = Objects.requireNonNull(dispatchLog, "Dispatch log");
+  }
+
+  @Override
+  public String id() {
+    return this.delegate.id();
+  }
+
+  @Override
+  public Router registerConnector(Connector connector) {
+    this.delegate.registerConnector(connector);
+    return this;
+  }
+
+  @Override
+  public void dispatch(RoutingContext ctx) throws KiteException {
+    String key = key(ctx);
+    if (null == key) {
+      this.delegate.dispatch(ctx);
+      return;
+    }
+    MessageAck previous = this.dispatchLog.claim(key);
+    if (null != previous) {
+      log.debug("Duplicate {} is already dispatched", key);
+      ctx.response = previous;
+      return;
+    }
+    try {
+      this.delegate.dispatch(ctx);
+    } catch (RuntimeException e) {
+      this.dispatchLog.release(key);
+      throw e;
+    }
+    this.dispatchLog.complete(key, ctx.response);
+  }
+
+  /** Dispatches the batch without duplicates, which get the acks of their first dispatch */
+  @Override
+  public void dispatchAll(List<RoutingContext> contexts) throws KiteException {
+    Map<String, RoutingContext> claimed = new LinkedHashMap<>(contexts.size());
+    Map<RoutingContext, RoutingContext> repeated = new HashMap<>(4);
+    List<RoutingContext> batch = new ArrayList<>(contexts.size());
+    try {
+      for (RoutingContext ctx : contexts) {
+        String key = key(ctx);
+        if (null == key) {
+          batch.add(ctx);
+          continue;
+        }
+        RoutingContext first = claimed.get(key);
+        if (null != first) {
+          repeated.put(ctx, first);
+          continue;
+        }
+        MessageAck previous = this.dispatchLog.claim(key);
+        if (null != previous) {
+          log.debug("Duplicate {} is already dispatched", key);
+          ctx.response = previous;
+          continue;
+        }
+        claimed.put(key, ctx);
+        batch.add(ctx);
+      }
+      this.delegate.dispatchAll(batch);
+    } finally {
+      // the batch stops on the first failed delivery, those delivered before it have responses
+      claimed.forEach(
+          (key, ctx) -> {
+            if (null != ctx.response) {
+              this.dispatchLog.complete(key, ctx.response);
+            } else {
+              this.dispatchLog.release(key);
+            }
+          });
+      repeated.forEach((ctx, first) -> ctx.response = first.response);
+    }
+  }
+
+  @Override
+  public DeliveryReport broadcast(RoutingContext ctx) throws KiteException {
+    return this.delegate.broadcast(ctx);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.delegate instanceof Closeable closeable) {
+      closeable.close();
+    }
+  }
+
+  /** Returns null for the messages which should always be routed */
+  static String key(RoutingContext ctx) {
+    if (ctx.isIdle) {
+      return null;
+    }
+    Object key = ctx.attribute(ATTR_KEY);
+    if (null != key) {
+      return key.toString();
+    }
+    if (null == ctx.originConnection || null == ctx.request) {
+      return null;
+    }
+    String messageId = ctx.request.messageId();
+    if ("-".equals(messageId)) { // join/left/switch service messages
+      return null;
+    }
+    return ctx.originConnection.toString() + '#' + messageId;
+  }
+}
@@ -1,15 +1,32 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.backend.router.domain;
 
-import java.util.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
 import ua.com.pragmasoft.k1te.backend.shared.KiteException;
 import ua.com.pragmasoft.k1te.backend.shared.NotFoundException;
 import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
 
-public class KiteRouter implements Router {
+public class KiteRouter implements Router, Closeable {
 
   private static final Logger log = LoggerFactory.getLogger(KiteRouter.class);
 
@@ -17,23 +34,73 @@ public class KiteRouter implements Router {
 
   public static final String ATTR_FROM = "k1te.member.from";
   public static final String ATTR_TO = "k1te.member.to";
+  public static final String ATTR_BROADCAST = "k1te.broadcast";
+
+  public static final int DEFAULT_BROADCAST_CONCURRENCY = 8;
 
   private final List<RouterPostProcessor> postProcessors;
-  private final Map<String, Connector> connectors = new HashMap<>(8);
+  /** Immutable snapshot, replaced on registration, so dispatch reads it without locking */
+  private final AtomicReference<Map<String, Connector>> connectors =
+      new AtomicReference<>(Map.of());
   private final Channels channels;
+  private final Executor broadcastExecutor;
+  private final boolean ownsBroadcastExecutor;
+  private final int broadcastConcurrency;
+  /** Limits concurrent broadcast deliveries per connector */
+  private final Map<String, Semaphore> broadcastPermits = new ConcurrentHashMap<>(8);
 
   /**
    * @param channels
    */
   public KiteRouter(Channels channels, List<RouterPostProcessor> postProcessors) {
+    this(channels, postProcessors, DEFAULT_BROADCAST_CONCURRENCY);
+  }
+
+  /**
+   * @param broadcastConcurrency max number of concurrent broadcast deliveries per connector
+   */
+  public KiteRouter(
+      Channels channels, List<RouterPostProcessor> postProcessors, int broadcastConcurrency) {
+    this(channels, postProcessors, newBroadcastExecutor(), true, broadcastConcurrency);
+  }
+
+  /**
+   * @param broadcastExecutor runs broadcast deliveries, it is not shut down on close
+   * @param broadcastConcurrency max number of concurrent broadcast deliveries per connector
+   */
+  public KiteRouter(
+      Channels channels,
+      List<RouterPostProcessor> postProcessors,
+      Executor broadcastExecutor,
+      int broadcastConcurrency) {
+    this(channels, postProcessors, broadcastExecutor, false, broadcastConcurrency);
+  }
+
+  private KiteRouter(
+      Channels channels,
+      List<RouterPostProcessor> postProcessors,
+      Executor broadcastExecutor,
+      boolean ownsBroadcastExecutor,
+      int broadcastConcurrency) {
     Objects.requireNonNull(postProcessors, "Post processors");
+    Objects.requireNonNull(broadcastExecutor, "Broadcast executor");
+    if (broadcastConcurrency < 1)
+      throw new IllegalArgumentException("Broadcast concurrency must be positive");
     this.channels = channels;
     this.postProcessors = postProcessors;
+    this.broadcastExecutor = broadcastExecutor;
+    this.ownsBroadcastExecutor = ownsBroadcastExecutor;
+    this.broadcastConcurrency = broadcastConcurrency;
   }
 
   @Override
-  public synchronized Router registerConnector(Connector connector) {
-    this.connectors.put(connector.id(), connector);
+  public Router registerConnector(Connector connector) {
+    this.connectors.updateAndGet(
+        current -> {
+          Map<String, Connector> updated = new HashMap<>(current);
+          updated.put(connector.id(), connector);
+          return Map.copyOf(updated);
+        });
     return this;
   }
 
@@ -44,6 +111,96 @@ public class KiteRouter implements Router {
 
   @Override
   public void dispatch(RoutingContext ctx) throws KiteException {
+    this.resolve(ctx);
+    Connector connector = requiredConnector(ctx.destinationConnection.connectorId());
+    connector.dispatch(ctx);
+    requireResponse(ctx, connector);
+
+    postProcessors.forEach(routerPostProcessor -> routerPostProcessor.accept(ctx));
+  }
+
+  @Override
+  public void dispatchAll(List<RoutingContext> contexts) throws KiteException {
+    if (contexts.isEmpty()) {
+      return;
+    }
+    Map<Connector, List<RoutingContext>> batches = new LinkedHashMap<>(4);
+    for (RoutingContext ctx : contexts) {
+      this.resolve(ctx);
+      batches
+          .computeIfAbsent(
+              requiredConnector(ctx.destinationConnection.connectorId()),
+              connector -> new ArrayList<>(contexts.size()))
+          .add(ctx);
+    }
+    for (Map.Entry<Connector, List<RoutingContext>> batch : batches.entrySet()) {
+      Connector connector = batch.getKey();
+      connector.dispatchAll(batch.getValue());
+      for (RoutingContext ctx : batch.getValue()) {
+        requireResponse(ctx, connector);
+      }
+    }
+
+    postProcessors.forEach(routerPostProcessor -> routerPostProcessor.acceptAll(contexts));
+  }
+
+  /**
+   * Dispatches a copy of the context to every recipient in parallel. Deliveries to the same
+   * connector are limited by the broadcast concurrency, so the caller waits for a permit when the
+   * connector is saturated. Failed deliveries do not stop the broadcast and are reported instead.
+   */
+  @Override
+  public DeliveryReport broadcast(RoutingContext ctx) throws KiteException {
+    if (null == ctx.originConnection) {
+      throw new RoutingException("unknown origin");
+    }
+    if (null == ctx.from) {
+      try {
+        ctx.from = this.channels.find(ctx.originConnection);
+      } catch (NotFoundException notFound) {
+        log.warn(notFound.getMessage());
+        throw new RoutingException();
+      }
+    }
+    Member from = ctx.from;
+    if (!from.isHost()) {
+      throw new ValidationException("Only host member can broadcast to its channel");
+    }
+    Map<String, CompletableFuture<MessageAck>> deliveries = new LinkedHashMap<>();
+    for (Member to : this.channels.findMembers(from.getChannelName())) {
+      if (!to.getId().equals(from.getId())) {
+        deliveries.put(to.getId(), this.deliver(ctx, to));
+      }
+    }
+    Map<String, MessageAck> delivered = new LinkedHashMap<>();
+    Map<String, String> failed = new LinkedHashMap<>();
+    deliveries.forEach(
+        (memberId, delivery) -> {
+          try {
+            delivered.put(memberId, delivery.join());
+          } catch (CompletionException e) {
+            Throwable cause = null != e.getCause() ? e.getCause() : e;
+            log.warn("Broadcast to {} failed: {}", memberId, cause.toString());
+            failed.put(memberId, String.valueOf(cause.getMessage()));
+          }
+        });
+    return new DeliveryReport(ctx.request.messageId(), delivered, failed);
+  }
+
+  /** Closes post processors which hold resources, like {@link AsyncPostProcessor} */
+  @Override
+  public void close() throws IOException {
+    for (RouterPostProcessor postProcessor : this.postProcessors) {
+      if (postProcessor instanceof Closeable closeable) {
+        closeable.close();
+      }
+    }
+    if (this.ownsBroadcastExecutor && this.broadcastExecutor instanceof ExecutorService executor) {
+      executor.shutdown();
+    }
+  }
+
+  private void resolve(RoutingContext ctx) {
     if (null == ctx.originConnection) {
       throw new RoutingException("unknown origin");
     }
@@ -59,20 +216,71 @@ public class KiteRouter implements Router {
       throw new RoutingException();
     }
     if (null == ctx.destinationConnection) {
-      ctx.destinationConnection = ctx.to.getConnectionUri();
+      ctx.destinationConnection = ctx.to.connectionUri();
     }
-    Connector connector = requiredConnector(Connector.connectorId(ctx.destinationConnection));
-    connector.dispatch(ctx);
-    MessageAck response = ctx.response;
-    if (null == response) {
+  }
+
+  private static void requireResponse(RoutingContext ctx, Connector connector) {
+    if (null == ctx.response) {
       throw new RoutingException("missing response from connector " + connector.id());
     }
+  }
 
-    postProcessors.forEach(routerPostProcessor -> routerPostProcessor.accept(ctx));
+  private CompletableFuture<MessageAck> deliver(RoutingContext broadcast, Member to) {
+    RoutingContext ctx =
+        RoutingContext.create()
+            .withOriginConnection(broadcast.originConnection)
+            .withFrom(broadcast.from)
+            .withTo(to)
+            .withRequest(broadcast.request)
+            .isIdle(broadcast.isIdle)
+            .withAttribute(ATTR_BROADCAST, Boolean.TRUE);
+    Semaphore permits;
+    try {
+      ctx.destinationConnection = to.connectionUri();
+      permits =
+          this.broadcastPermits.computeIfAbsent(
+              ctx.destinationConnection.connectorId(),
+              connectorId -> new Semaphore(this.broadcastConcurrency));
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KiteException("Interrupted while broadcasting", e);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    try {
+      return CompletableFuture.supplyAsync(
+          () -> {
+            try {
+              this.dispatch(ctx);
+              return ctx.response;
+            } finally {
+              permits.release();
+            }
+          },
+          this.broadcastExecutor);
+    } catch (RuntimeException e) {
+      permits.release();
+      return CompletableFuture.failedFuture(e);
+    }
   }
 
-  private synchronized Connector requiredConnector(String connectorId) throws NotFoundException {
-    return Optional.ofNullable(this.connectors.get(connectorId))
-        .orElseThrow(() -> new NotFoundException("No connector with id " + connectorId));
+  private static ExecutorService newBroadcastExecutor() {
+    AtomicInteger counter = new AtomicInteger();
+    return Executors.newCachedThreadPool(
+        runnable -> {
+          Thread thread = new Thread(runnable, "k1te-broadcast-" + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  private Connector requiredConnector(String connectorId) throws NotFoundException {
+    Connector connector = this.connectors.get().get(connectorId);
+    if (null == connector) {
+      throw new NotFoundException("No connector with id " + connectorId);
+    }
+    return connector;
   }
 }
@@ -13,6 +13,11 @@ public interface Member {
 
   public String getConnectionUri();
 
+  /** Parsed {@link #getConnectionUri()}, implementations are encouraged to cache it */
+  default ConnectionUri connectionUri() {
+    return ConnectionUri.parse(this.getConnectionUri());
+  }
+
   public String getLastMessageId();
 
   public String getPeerMemberId();
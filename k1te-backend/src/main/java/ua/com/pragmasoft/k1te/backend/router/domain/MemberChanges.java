@@ -0,0 +1,115 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Unit of work which collects member mutations made while routing a single message, so they can be
+ * committed with {@link Channels#commit(MemberChanges)} as at most one write per member.
+ *
+ * <p>Members are tracked by identity, as routing context holds the same member instances during
+ * the whole dispatch.
+ */
+public final class MemberChanges implements Iterable<MemberChanges.Change> {
+
+  private final Map<Member, Change> changes = new IdentityHashMap<>(4);
+
+  public MemberChanges updatePeer(Member member, String peerMemberId) {
+    Objects.requireNonNull(peerMemberId, "peer Member");
+    this.changeOf(member).peerMemberId = peerMemberId;
+    return this;
+  }
+
+  public MemberChanges updateConnection(
+      Member member, ConnectionUri connectionUri, String messageId, Instant usageTime) {
+    Objects.requireNonNull(connectionUri, "connection uri");
+    Objects.requireNonNull(messageId, "message id");
+    Objects.requireNonNull(usageTime, "usage time");
+    List<ConnectionUpdate> connections = this.changeOf(member).connections;
+    connections.removeIf(update -> update.connectionUri().equals(connectionUri));
+    connections.add(new ConnectionUpdate(connectionUri, messageId, usageTime));
+    return this;
+  }
+
+  /** Records all changes from the other change set, later ones win */
+  public MemberChanges addAll(MemberChanges other) {
+    for (Change change : other) {
+      for (ConnectionUpdate update : change.connections) {
+        this.updateConnection(
+            change.member, update.connectionUri(), update.messageId(), update.usageTime());
+      }
+      if (null != change.peerMemberId) {
+        this.updatePeer(change.member, change.peerMemberId);
+      }
+    }
+    return this;
+  }
+
+  public boolean isEmpty() {
+    return this.changes.isEmpty();
+  }
+
+  public void clear() {
+    this.changes.clear();
+  }
+
+  @Override
+  public Iterator<Change> iterator() {
+    return Collections.unmodifiableCollection(this.changes.values()).iterator();
+  }
+
+  private Change changeOf(Member member) {
+    Objects.requireNonNull(member, "member");
+    return this.changes.computeIfAbsent(member, Change::new);
+  }
+
+  @Override
+  public String toString() {
+    return "MemberChanges " + this.changes.values();
+  }
+
+  public static final class Change {
+
+    private final Member member;
+    private String peerMemberId;
+    private final List<ConnectionUpdate> connections = new ArrayList<>(1);
+
+    private Change(Member member) {
+      this.member = member;
+    }
+
+    public Member member() {
+      return this.member;
+    }
+
+    /** New peer member id or null if peer is not changed */
+    public String peerMemberId() {
+      return this.peerMemberId;
+    }
+
+    public List<ConnectionUpdate> connections() {
+      return Collections.unmodifiableList(this.connections);
+    }
+
+    @Override
+    public String toString() {
+      return "Change [member="
+          + member.getId()
+          + ", peerMemberId="
+          + peerMemberId
+          + ", connections="
+          + connections
+          + "]";
+    }
+  }
+
+  public record ConnectionUpdate(
+      ConnectionUri connectionUri, String messageId, Instant usageTime) {}
+}
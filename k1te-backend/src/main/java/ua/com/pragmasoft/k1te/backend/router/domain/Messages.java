@@ -3,11 +3,30 @@ package ua.com.pragmasoft.k1te.backend.router.domain;
 
 import java.time.Instant;
 import java.util.List;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
 
 public interface Messages {
 
   HistoryMessage persist(
-      Member owner, String messageId, String content, Instant time, boolean incoming);
+      Member owner, String messageId, MessagePayload content, Instant time, boolean incoming);
 
   List<HistoryMessage> findAll(Member member, String lastMessageId, Integer limit);
+
+  /**
+   * Reads the member's history page by page, newest first, without counting or skipping the
+   * messages of the previous pages
+   *
+   * @param cursor {@link HistoryCursor} of the previous page, null for the most recent messages
+   */
+  Page findPage(Member member, String cursor, int limit);
+
+  /**
+   * @param cursor continues after the last message, null if there are no older messages
+   */
+  record Page(List<HistoryMessage> messages, String cursor) {
+
+    public Page {
+      messages = List.copyOf(messages);
+    }
+  }
 }
@@ -0,0 +1,17 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import java.util.List;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+
+/**
+ * Messages routed to members while their connection was gone, kept until the member joins the
+ * channel again.
+ */
+public interface Outbox {
+
+  void enqueue(Member to, MessagePayload message);
+
+  /** Removes the queued messages of the member and returns them, oldest first */
+  List<MessagePayload> drain(Member member);
+}
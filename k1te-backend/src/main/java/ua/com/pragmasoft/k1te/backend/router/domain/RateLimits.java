@@ -0,0 +1,54 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import ua.com.pragmasoft.k1te.backend.shared.TokenBuckets;
+
+/**
+ * Limits the messages connectors accept from each member and each channel, so one client can not
+ * spend the DynamoDB and Telegram quotas shared by everybody.
+ */
+public class RateLimits {
+
+  private static final RateLimits UNLIMITED = new RateLimits(null, null);
+
+  private final TokenBuckets members;
+  private final TokenBuckets channels;
+
+  /**
+   * @param members buckets keyed by the member
+   * @param channels buckets keyed by the channel of the member
+   */
+  public RateLimits(TokenBuckets members, TokenBuckets channels) {
+    this.members = members;
+    this.channels = channels;
+  }
+
+  public static RateLimits unlimited() {
+    return UNLIMITED;
+  }
+
+  /**
+   * Counts the messages from the member, either in both buckets or in none. Hosts answer all the
+   * clients of the channel, so only the channel limit applies to them.
+   *
+   * @throws ua.com.pragmasoft.k1te.backend.shared.RateLimitExceededException if either limit is
+   *     exceeded
+   */
+  public void acquire(Member from, int messages) {
+    String member = from.getChannelName() + '/' + from.getId();
+    boolean limited = null != this.members && !from.isHost();
+    if (limited) {
+      this.members.acquire(member, messages);
+    }
+    if (null != this.channels) {
+      try {
+        this.channels.acquire(from.getChannelName(), messages);
+      } catch (RuntimeException e) {
+        if (limited) {
+          this.members.release(member, messages);
+        }
+        throw e;
+      }
+    }
+  }
+}
@@ -1,7 +1,25 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.backend.router.domain;
 
+import java.util.List;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+
 public interface Router extends Connector {
 
   Router registerConnector(Connector connector);
+
+  /**
+   * Delivers the request to all members of the sender's channel, except the sender. Only the
+   * channel host may broadcast.
+   *
+   * @param ctx context with the origin connection and request, the sender is resolved if missing
+   */
+  DeliveryReport broadcast(RoutingContext ctx) throws KiteException;
+
+  /**
+   * Dispatches contexts as a batch: contexts to the same connector are delivered with one {@link
+   * Connector#dispatchAll(List)} call in the given order, post processors run once for the whole
+   * batch. Stops on the first failed delivery.
+   */
+  void dispatchAll(List<RoutingContext> contexts) throws KiteException;
 }
@@ -1,6 +1,13 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.backend.router.domain;
 
+import java.util.List;
 import java.util.function.Consumer;
 
-public interface RouterPostProcessor extends Consumer<RoutingContext> {}
+public interface RouterPostProcessor extends Consumer<RoutingContext> {
+
+  /** Post processes contexts dispatched together with {@link Router#dispatchAll(List)} */
+  default void acceptAll(List<RoutingContext> contexts) {
+    contexts.forEach(this);
+  }
+}
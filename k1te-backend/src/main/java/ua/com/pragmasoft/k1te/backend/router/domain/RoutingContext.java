@@ -8,14 +8,15 @@ import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
 
 public final class RoutingContext {
 
-  public String originConnection;
-  public String destinationConnection;
+  public ConnectionUri originConnection;
+  public ConnectionUri destinationConnection;
   public Member from;
   public Member to;
   public MessagePayload request;
   public MessageAck response;
   public boolean isIdle;
   Map<String, Object> attributes;
+  MemberChanges changes;
 
   public Map<String, Object> attributes() {
     if (null == this.attributes) {
@@ -24,20 +25,36 @@ public final class RoutingContext {
     return this.attributes;
   }
 
+  /** Member changes to be committed once post processing is complete */
+  public MemberChanges changes() {
+    if (null == this.changes) {
+      this.changes = new MemberChanges();
+    }
+    return this.changes;
+  }
+
   public static RoutingContext create() {
     return new RoutingContext();
   }
 
-  public RoutingContext withOriginConnection(String originConnection) {
+  public RoutingContext withOriginConnection(ConnectionUri originConnection) {
     this.originConnection = originConnection;
     return this;
   }
 
-  public RoutingContext withDestinationConnection(String destinationConnection) {
+  public RoutingContext withOriginConnection(String originConnection) {
+    return this.withOriginConnection(ConnectionUri.parse(originConnection));
+  }
+
+  public RoutingContext withDestinationConnection(ConnectionUri destinationConnection) {
     this.destinationConnection = destinationConnection;
     return this;
   }
 
+  public RoutingContext withDestinationConnection(String destinationConnection) {
+    return this.withDestinationConnection(ConnectionUri.parse(destinationConnection));
+  }
+
   public RoutingContext withFrom(Member from) {
     this.from = from;
     return this;
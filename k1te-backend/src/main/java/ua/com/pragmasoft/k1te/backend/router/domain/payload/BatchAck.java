@@ -0,0 +1,24 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain.payload;
+
+import java.util.List;
+import java.util.Objects;
+
+/** Acknowledges messages of the {@link MessageBatch} in their order */
+public record BatchAck(List<MessageAck> acks) implements Payload {
+
+  public BatchAck(List<MessageAck> acks) {
+    Objects.requireNonNull(acks, "acks");
+    this.acks = List.copyOf(acks);
+  }
+
+  @Override
+  public Type type() {
+    return Type.ACKS;
+  }
+
+  @Override
+  public String toString() {
+    return type().label + " [acks=" + acks + "]";
+  }
+}
@@ -0,0 +1,40 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain.payload;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Messages of the member's history, newest first. The cursor continues right after the last of
+ * them, so the client may ask for the next page from any frame received, null cursor means there
+ * are no older messages.
+ */
+public record HistoryPage(List<Entry> entries, String cursor) implements Payload {
+
+  public HistoryPage(List<Entry> entries, String cursor) {
+    Objects.requireNonNull(entries, "entries");
+    this.entries = List.copyOf(entries);
+    this.cursor = cursor;
+  }
+
+  @Override
+  public Type type() {
+    return Type.PAGE;
+  }
+
+  @Override
+  public String toString() {
+    return type().label + " [entries=" + entries + ", cursor=" + cursor + "]";
+  }
+
+  /**
+   * @param incoming true if the message was sent to the member by the host
+   */
+  public record Entry(MessagePayload message, boolean incoming) implements Serializable {
+
+    public Entry {
+      Objects.requireNonNull(message, "message");
+    }
+  }
+}
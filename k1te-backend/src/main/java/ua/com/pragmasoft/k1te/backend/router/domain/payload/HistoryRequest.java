@@ -0,0 +1,22 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain.payload;
+
+/**
+ * Asks for the page of the member's history, newest first, answered with one or more {@link
+ * HistoryPage} frames
+ *
+ * @param cursor cursor of the previously received page, null for the most recent messages
+ * @param limit max number of messages of the page
+ */
+public record HistoryRequest(String cursor, int limit) implements Payload {
+
+  @Override
+  public Type type() {
+    return Type.HIST;
+  }
+
+  @Override
+  public String toString() {
+    return type().label + " [cursor=" + cursor + ", limit=" + limit + "]";
+  }
+}
@@ -0,0 +1,11 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain.payload;
+
+/** Leaves the channel joined on the same connection */
+public final class LeaveChannel implements Payload {
+
+  @Override
+  public Type type() {
+    return Type.LEAVE;
+  }
+}
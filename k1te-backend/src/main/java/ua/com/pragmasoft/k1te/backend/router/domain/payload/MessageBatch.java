@@ -0,0 +1,24 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain.payload;
+
+import java.util.List;
+import java.util.Objects;
+
+/** Several messages sent in one frame, answered with one {@link BatchAck} */
+public record MessageBatch(List<MessagePayload> messages) implements Payload {
+
+  public MessageBatch(List<MessagePayload> messages) {
+    Objects.requireNonNull(messages, "messages");
+    this.messages = List.copyOf(messages);
+  }
+
+  @Override
+  public Type type() {
+    return Type.BATCH;
+  }
+
+  @Override
+  public String toString() {
+    return type().label + " [messages=" + messages + "]";
+  }
+}
@@ -4,12 +4,24 @@ package ua.com.pragmasoft.k1te.backend.router.domain.payload;
 import java.io.Serializable;
 
 public sealed interface Payload extends Serializable
-    permits JoinChannel, MessagePayload, OkResponse, ErrorResponse, MessageAck, Ping, Pong {
+    permits JoinChannel,
+        LeaveChannel,
+        MessagePayload,
+        MessageBatch,
+        OkResponse,
+        ErrorResponse,
+        MessageAck,
+        BatchAck,
+        Ping,
+        Pong,
+        HistoryRequest,
+        HistoryPage {
 
   Type type();
 
   public enum Type {
     JOIN("Join request"),
+    LEAVE("Leave request"),
     ACK("Acknowledge"),
     OK("OK"),
     ERR("Error"),
@@ -17,7 +29,11 @@ public sealed interface Payload extends Serializable
     BIN("Binary message"),
     UPL("Upload"),
     PING("Ping"),
-    PONG("Pong");
+    PONG("Pong"),
+    BATCH("Message batch"),
+    ACKS("Batch acknowledge"),
+    HIST("History request"),
+    PAGE("History page");
 
     public final String label;
 
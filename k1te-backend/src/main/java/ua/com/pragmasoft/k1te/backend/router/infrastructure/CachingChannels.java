@@ -0,0 +1,372 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiPredicate;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
+import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
+import ua.com.pragmasoft.k1te.backend.router.domain.ConnectionUri;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.MemberChanges;
+import ua.com.pragmasoft.k1te.backend.shared.NotFoundException;
+import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+
+/**
+ * Keeps recently found members in a bounded near cache with limited time to live, so routing a
+ * message to a known member does not cost several reads from the underlying {@link Channels}.
+ * Lookups are counted as {@value #CACHE} tagged with the hit or miss result.
+ *
+ * <p>Connections are cached as a reference to the member (channel name and member id), so the
+ * member found by its connection and by its id is the same cached instance. Entries are
+ * invalidated both before and after the membership changes made through this instance, so a
+ * concurrent lookup cannot cache the member read before the change. Changes made by other
+ * instances (other nodes or lambda containers) are visible after ttl at most. Host members are
+ * never kept in the member cache, as their peer changes whenever another client writes to the
+ * host, and a stale peer would route a host's reply to the wrong client.
+ *
+ * <p>Mutable members are cached as a private snapshot and every lookup gets its own copy, so a
+ * request changing its member never changes the one read by concurrent requests. The member takes
+ * the written attributes only once the write succeeds, then the cached snapshot is replaced unless
+ * it is newer already. A failed write drops the cached member.
+ */
+public class CachingChannels implements Channels {
+
+  private static final Logger log = LoggerFactory.getLogger(CachingChannels.class);
+
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+  public static final Duration DEFAULT_TTL = Duration.ofSeconds(30);
+  public static final String CACHE = "k1te.channels.cache";
+  private static final String RESULT = "result";
+
+  private final Channels delegate;
+  private final NearCache<String, MemberKey> connections;
+  private final NearCache<MemberKey, Member> members;
+  private final Metrics metrics;
+
+  public CachingChannels(Channels delegate) {
+    this(delegate, DEFAULT_MAX_SIZE, DEFAULT_TTL, Metrics.NONE);
+  }
+
+  public CachingChannels(Channels delegate, int maxSize, Duration ttl, Metrics metrics) {
+    this(delegate, maxSize, ttl, metrics, System::nanoTime);
+  }
+
+  CachingChannels(
+      Channels delegate, int maxSize, Duration ttl, Metrics metrics, LongSupplier nanoClock) {
+    Objects.requireNonNull(delegate, "Channels");
+    Objects.requireNonNull(ttl, "Time to live");
+    Objects.requireNonNull(metrics, "Metrics");
+    if (maxSize < 1) throw new IllegalArgumentException("Cache size must be positive");
+    this.delegate = delegate;
+    this.metrics = metrics;
+    this.connections = new NearCache<>(maxSize, ttl.toNanos(), nanoClock);
+    this.members = new NearCache<>(maxSize, ttl.toNanos(), nanoClock);
+    log.info("Channels cache with max size {} and ttl {}", maxSize, ttl);
+  }
+
+  @Override
+  public Member hostChannel(String channel, String memberId, String ownerConnection, String title) {
+    this.invalidate(ownerConnection, channel, memberId);
+    try {
+      return this.delegate.hostChannel(channel, memberId, ownerConnection, title);
+    } finally {
+      this.invalidate(ownerConnection, channel, memberId);
+    }
+  }
+
+  @Override
+  public Member dropChannel(String ownerConnection) {
+    Member host = this.delegate.dropChannel(ownerConnection);
+    String channelName = host.getChannelName();
+    this.connections.removeIf((connection, key) -> key.channelName().equals(channelName));
+    this.members.removeIf((key, member) -> key.channelName().equals(channelName));
+    return host;
+  }
+
+  @Override
+  public Member joinChannel(
+      String channelName, String memberId, String connection, String memberName) {
+    this.invalidate(connection, channelName, memberId);
+    try {
+      return this.delegate.joinChannel(channelName, memberId, connection, memberName);
+    } finally {
+      this.invalidate(connection, channelName, memberId);
+    }
+  }
+
+  @Override
+  public Member leaveChannel(String connection) {
+    Member member = this.delegate.leaveChannel(connection);
+    this.invalidate(connection, member.getChannelName(), member.getId());
+    return member;
+  }
+
+  @Override
+  public Member switchConnection(String channelName, String memberId, String newConnection) {
+    this.invalidate(newConnection, channelName, memberId);
+    try {
+      return this.delegate.switchConnection(channelName, memberId, newConnection);
+    } finally {
+      this.invalidate(newConnection, channelName, memberId);
+    }
+  }
+
+  @Override
+  public Member find(String memberConnection) {
+    Objects.requireNonNull(memberConnection, "connection");
+    MemberKey key = this.connections.get(memberConnection);
+    if (null != key) {
+      Member member = this.members.get(key);
+      if (null != member) {
+        this.hit();
+        return snapshot(member);
+      }
+      this.miss();
+      try {
+        return this.cached(this.delegate.find(key.channelName(), key.memberId()));
+      } catch (NotFoundException e) {
+        this.connections.remove(memberConnection);
+        throw e;
+      }
+    }
+    this.miss();
+    Member member = this.delegate.find(memberConnection);
+    this.connections.put(memberConnection, MemberKey.of(member));
+    return this.cached(member);
+  }
+
+  @Override
+  public Member find(ConnectionUri memberConnection) {
+    return this.find(memberConnection.toString());
+  }
+
+  @Override
+  public Member find(String channel, String memberId) {
+    Member member = this.members.get(new MemberKey(channel, memberId));
+    if (null != member) {
+      this.hit();
+      return snapshot(member);
+    }
+    this.miss();
+    return this.cached(this.delegate.find(channel, memberId));
+  }
+
+  @Override
+  public Member findHost(String channelName) {
+    return this.delegate.findHost(channelName);
+  }
+
+  @Override
+  public List<Member> findMembers(String channelName) {
+    List<Member> members = this.delegate.findMembers(channelName);
+    members.forEach(this::cached);
+    return members;
+  }
+
+  @Override
+  public String findUnAnsweredMessage(Member from, Member to) {
+    return this.delegate.findUnAnsweredMessage(from, to);
+  }
+
+  @Override
+  public void updateUnAnsweredMessage(Member from, Member to, String pinnedMessagedId) {
+    this.write(from, () -> this.delegate.updateUnAnsweredMessage(from, to, pinnedMessagedId));
+  }
+
+  @Override
+  public void updatePeer(Member member, String peerMemberId) {
+    this.write(member, () -> this.delegate.updatePeer(member, peerMemberId));
+  }
+
+  @Override
+  public void updateConnection(
+      Member memberToUpdate, String connectionUri, String messageId, Instant usageTime) {
+    this.write(
+        memberToUpdate,
+        () -> this.delegate.updateConnection(memberToUpdate, connectionUri, messageId, usageTime));
+  }
+
+  @Override
+  public void deleteUnAnsweredMessage(Member from, Member to) {
+    this.write(from, () -> this.delegate.deleteUnAnsweredMessage(from, to));
+  }
+
+  @Override
+  public void commit(MemberChanges changes) {
+    try {
+      this.delegate.commit(changes);
+    } catch (RuntimeException e) {
+      changes.forEach(change -> this.invalidate(null, MemberKey.of(change.member())));
+      throw e;
+    }
+    changes.forEach(change -> this.written(change.member()));
+  }
+
+  @Override
+  public void purgeConnection(String connectionUri) {
+    MemberKey key = this.connections.get(connectionUri);
+    this.delegate.purgeConnection(connectionUri);
+    this.connections.remove(connectionUri);
+    if (null != key) {
+      this.members.remove(key);
+    } else {
+      // the member may still be cached by its id, routed to the purged connection
+      this.members.removeIf((memberKey, member) -> isRoutedTo(member, connectionUri));
+    }
+  }
+
+  @Override
+  public void refreshConnection(String connectionUri) {
+    this.delegate.refreshConnection(connectionUri);
+  }
+
+  /** Any cached member may have been routed to the purged connections */
+  @Override
+  public int sweepConnections() {
+    int purged = this.delegate.sweepConnections();
+    if (purged > 0) {
+      this.connections.removeIf((connection, key) -> true);
+      this.members.removeIf((key, member) -> true);
+    }
+    return purged;
+  }
+
+  private void hit() {
+    this.metrics.recordValue(CACHE, 1, RESULT, "hit");
+  }
+
+  private void miss() {
+    this.metrics.recordValue(CACHE, 1, RESULT, "miss");
+  }
+
+  private Member cached(Member member) {
+    if (!member.isHost()) {
+      this.members.put(MemberKey.of(member), snapshot(member));
+    }
+    return member;
+  }
+
+  private void write(Member member, Runnable write) {
+    try {
+      write.run();
+    } catch (RuntimeException e) {
+      this.invalidate(null, MemberKey.of(member));
+      throw e;
+    }
+    this.written(member);
+  }
+
+  /**
+   * Members changed in place carry the written attributes, the ones which are immutable do not,
+   * so their cached snapshot is dropped instead
+   */
+  private void written(Member member) {
+    MemberKey key = MemberKey.of(member);
+    if (member instanceof DynamoDbMember dynamoDbMember) {
+      this.members.replace(key, dynamoDbMember.copy(), CachingChannels::isNewer);
+    } else {
+      this.members.remove(key);
+    }
+  }
+
+  private static boolean isNewer(Member written, Member cached) {
+    Long writtenVersion = ((DynamoDbMember) written).getVersion();
+    Long cachedVersion = ((DynamoDbMember) cached).getVersion();
+    return null != writtenVersion && (null == cachedVersion || writtenVersion > cachedVersion);
+  }
+
+  /** Mutable members are copied, so the cached instance is never changed by a request */
+  private static Member snapshot(Member member) {
+    return member instanceof DynamoDbMember dynamoDbMember ? dynamoDbMember.copy() : member;
+  }
+
+  private static boolean isRoutedTo(Member member, String connectionUri) {
+    try {
+      return connectionUri.equals(member.getConnectionUri());
+    } catch (RoutingException e) {
+      return false;
+    }
+  }
+
+  private void invalidate(String connection, String channelName, String memberId) {
+    this.invalidate(connection, new MemberKey(channelName, memberId));
+  }
+
+  private void invalidate(String connection, MemberKey key) {
+    if (null != connection) {
+      this.connections.remove(connection);
+    }
+    this.members.remove(key);
+  }
+
+  record MemberKey(String channelName, String memberId) {
+
+    static MemberKey of(Member member) {
+      return new MemberKey(member.getChannelName(), member.getId());
+    }
+  }
+
+  /** Bounded LRU map whose entries expire after a fixed time since they were put */
+  static final class NearCache<K, V> {
+
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    NearCache(int maxSize, long ttlNanos, LongSupplier nanoClock) {
+      this.ttlNanos = ttlNanos;
+      this.nanoClock = nanoClock;
+      this.entries =
+          new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+              return this.size() > maxSize;
+            }
+          };
+    }
+
+    synchronized V get(K key) {
+      Entry<V> entry = this.entries.get(key);
+      if (null == entry) {
+        return null;
+      }
+      if (this.nanoClock.getAsLong() - entry.expiresAt() >= 0) {
+        this.entries.remove(key);
+        return null;
+      }
+      return entry.value();
+    }
+
+    synchronized void put(K key, V value) {
+      this.entries.put(key, new Entry<>(value, this.nanoClock.getAsLong() + this.ttlNanos));
+    }
+
+    /** Keeps the expiry of the entry, as the value still may be older than the one in the store */
+    synchronized void replace(K key, V value, BiPredicate<V, V> newer) {
+      Entry<V> entry = this.entries.get(key);
+      if (null != entry && newer.test(value, entry.value())) {
+        this.entries.put(key, new Entry<>(value, entry.expiresAt()));
+      }
+    }
+
+    synchronized void remove(K key) {
+      this.entries.remove(key);
+    }
+
+    synchronized void removeIf(BiPredicate<K, V> predicate) {
+      this.entries
+          .entrySet()
+          .removeIf(entry -> predicate.test(entry.getKey(), entry.getValue().value()));
+    }
+
+    private record Entry<V>(V value, long expiresAt) {}
+  }
+}
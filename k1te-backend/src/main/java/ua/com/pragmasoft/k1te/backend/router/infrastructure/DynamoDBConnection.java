@@ -1,6 +1,7 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.backend.router.infrastructure;
 
+import java.time.Instant;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortKey;
@@ -13,11 +14,20 @@ public class DynamoDBConnection {
   private String channelName;
   private String memberId;
 
+  /** Epoch second the connection expires at unless refreshed, zero if it never expires */
+  private long ttl;
+
   public DynamoDBConnection(String connector, String rawId, String channelName, String memberId) {
+    this(connector, rawId, channelName, memberId, 0);
+  }
+
+  public DynamoDBConnection(
+      String connector, String rawId, String channelName, String memberId, long ttl) {
     this.connector = connector;
     this.rawId = rawId;
     this.channelName = channelName;
     this.memberId = memberId;
+    this.ttl = ttl;
   }
 
   public DynamoDBConnection() {}
@@ -55,4 +65,16 @@ public class DynamoDBConnection {
   public void setMemberId(String memberId) {
     this.memberId = memberId;
   }
+
+  public long getTtl() {
+    return ttl;
+  }
+
+  public void setTtl(long ttl) {
+    this.ttl = ttl;
+  }
+
+  public boolean isExpired(Instant now) {
+    return this.ttl > 0 && this.ttl < now.getEpochSecond();
+  }
 }
@@ -1,10 +1,15 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.backend.router.infrastructure;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
@@ -13,18 +18,27 @@ import software.amazon.awssdk.enhanced.dynamodb.Expression;
 import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
 import software.amazon.awssdk.enhanced.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
 import ua.com.pragmasoft.k1te.backend.router.domain.ChannelName;
 import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
-import ua.com.pragmasoft.k1te.backend.router.domain.Connector;
+import ua.com.pragmasoft.k1te.backend.router.domain.ConnectionUri;
 import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.MemberChanges;
 import ua.com.pragmasoft.k1te.backend.shared.ConflictException;
 import ua.com.pragmasoft.k1te.backend.shared.KiteException;
 import ua.com.pragmasoft.k1te.backend.shared.NotFoundException;
 import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
-
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector;
+
+/**
+ * Websocket connections expire with the dynamodb ttl unless refreshed by their frames, pings
+ * included, as the ones which die without the disconnect stay in the tables otherwise. The ttl only
+ * deletes connection items, {@link #sweepConnections(int)} also reroutes the members to their
+ * remaining connections.
+ */
 public class DynamoDbChannels implements Channels {
 
   private static final Logger log = LoggerFactory.getLogger(DynamoDbChannels.class);
@@ -34,6 +48,12 @@ public class DynamoDbChannels implements Channels {
   public static final String CHANNELS = "Channels";
   public static final String CONNECTIONS = "Connections";
   public static final String REVERSE_CHANNEL_KEY_PREFIX = "host:";
+  public static final Duration DEFAULT_CONNECTION_TTL = Duration.ofMinutes(15);
+  /** Max number of keys of the batch get */
+  private static final int MAX_BATCH_GET = 100;
+  private static final int DEFAULT_SWEEP_PAGE_SIZE = 100;
+  private static final int MAX_REFRESHED = 10_000;
+  private static final int MAX_UPDATE_ATTEMPTS = 5;
   static final String CONDITION_FAILED = "ConditionalCheckFailed";
 
   private static Expression nameNotExistsCondition =
@@ -60,6 +80,12 @@ public class DynamoDbChannels implements Channels {
                   "#sk", "id"))
           .build();
 
+  private static final Expression connectionExistsCondition =
+      Expression.builder()
+          .expression("attribute_exists(#sk)")
+          .putExpressionName("#sk", "rawId")
+          .build();
+
   private final String channelsTableName;
   private final String membersTableName;
   private final String connectionsTableName;
@@ -67,8 +93,25 @@ public class DynamoDbChannels implements Channels {
   private final DynamoDbTable<DynamoDbChannel> channelsTable;
   private final DynamoDbTable<DynamoDbMember> membersTable;
   private final DynamoDbTable<DynamoDBConnection> connectionsTable;
+  private final Duration connectionTtl;
+  /** Connections refreshed recently enough, so their frames do not write every time */
+  private final CachingChannels.NearCache<String, Boolean> refreshed;
 
   public DynamoDbChannels(DynamoDbEnhancedClient enhancedDynamo, String serverlessEnvironmentName) {
+    this(enhancedDynamo, serverlessEnvironmentName, DEFAULT_CONNECTION_TTL);
+  }
+
+  /**
+   * @param connectionTtl time the websocket connection lives without any frame
+   */
+  public DynamoDbChannels(
+      DynamoDbEnhancedClient enhancedDynamo,
+      String serverlessEnvironmentName,
+      Duration connectionTtl) {
+    this.connectionTtl = connectionTtl;
+    this.refreshed =
+        new CachingChannels.NearCache<>(
+            MAX_REFRESHED, connectionTtl.dividedBy(3).toNanos(), System::nanoTime);
     this.membersTableName =
         null != serverlessEnvironmentName ? serverlessEnvironmentName + '.' + MEMBERS : MEMBERS;
     this.channelsTableName =
@@ -100,8 +143,9 @@ public class DynamoDbChannels implements Channels {
     if (null == title) {
       title = channel;
     }
-    String connectorId = Connector.connectorId(ownerConnection);
-    String rawConnection = Connector.rawConnection(ownerConnection);
+    ConnectionUri connection = ConnectionUri.parse(ownerConnection);
+    String connectorId = connection.connectorId();
+    String rawConnection = connection.rawConnection();
 
     DynamoDbMember hostMember =
         new DynamoDbMember.DynamoDbMemberBuilder()
@@ -117,7 +161,7 @@ public class DynamoDbChannels implements Channels {
     }
 
     DynamoDBConnection dbConnection =
-        new DynamoDBConnection(connectorId, rawConnection, channel, memberId);
+        this.newConnection(connectorId, rawConnection, channel, memberId);
 
     DynamoDbChannel newChannel = new DynamoDbChannel(channel, memberId);
 
@@ -143,6 +187,7 @@ public class DynamoDbChannels implements Channels {
                   .addPutItem(this.channelsTable, putReverseChannel)
                   .addPutItem(this.membersTable, hostMember)
                   .addPutItem(this.connectionsTable, dbConnection));
+      hostMember.incrementVersion();
       return hostMember;
     } catch (TransactionCanceledException e) {
       var reasons = e.cancellationReasons();
@@ -167,8 +212,9 @@ public class DynamoDbChannels implements Channels {
     if (!member.isHost()) throw new ValidationException("Only host member can drop its channel");
 
     String channelName = member.getChannelName();
-    String connectorId = Connector.connectorId(memberConnection);
-    String rawConnection = Connector.rawConnection(memberConnection);
+    ConnectionUri connection = ConnectionUri.parse(memberConnection);
+    String connectorId = connection.connectorId();
+    String rawConnection = connection.rawConnection();
 
     Key channelKey = Key.builder().partitionValue(channelName).build();
     Key reverseChannelKey =
@@ -207,8 +253,9 @@ public class DynamoDbChannels implements Channels {
     if (null == channel) {
       throw new NotFoundException("Channel not found");
     }
-    String connectorId = Connector.connectorId(memberConnection);
-    String rawConnection = Connector.rawConnection(memberConnection);
+    ConnectionUri connection = ConnectionUri.parse(memberConnection);
+    String connectorId = connection.connectorId();
+    String rawConnection = connection.rawConnection();
 
     Key memberKey = Key.builder().partitionValue(channelName).sortValue(memberId).build();
     DynamoDbMember maybeMember = this.membersTable.getItem(memberKey);
@@ -217,13 +264,14 @@ public class DynamoDbChannels implements Channels {
         throw new ValidationException("You are already in this Channel");
       }
       DynamoDBConnection dbConnection =
-          new DynamoDBConnection(connectorId, rawConnection, channelName, memberId);
+          this.newConnection(connectorId, rawConnection, channelName, memberId);
       maybeMember.updateConnectionUri(connectorId, rawConnection);
       try {
         this.enhancedDynamo.transactWriteItems(
             tx ->
                 tx.addUpdateItem(this.membersTable, maybeMember)
                     .addPutItem(this.connectionsTable, dbConnection));
+        maybeMember.incrementVersion();
         return maybeMember;
       } catch (Exception e) {
         throw new KiteException(e.getMessage(), e);
@@ -241,7 +289,7 @@ public class DynamoDbChannels implements Channels {
             .build();
     member.updateConnectionUri(connectorId, rawConnection);
     DynamoDBConnection dbConnection =
-        new DynamoDBConnection(connectorId, rawConnection, channelName, memberId);
+        this.newConnection(connectorId, rawConnection, channelName, memberId);
 
     var putMemberRequest =
         TransactPutItemEnhancedRequest.builder(DynamoDbMember.class)
@@ -253,6 +301,7 @@ public class DynamoDbChannels implements Channels {
           tx ->
               tx.addPutItem(this.membersTable, putMemberRequest)
                   .addPutItem(this.connectionsTable, dbConnection));
+      member.incrementVersion();
       return member;
     } catch (TransactionCanceledException e) {
       List<CancellationReason> reasons = e.cancellationReasons();
@@ -275,8 +324,9 @@ public class DynamoDbChannels implements Channels {
     if (member.isHost()) {
       throw new ValidationException("Host member cannot leave channel. You can only drop it");
     }
-    String connectorId = Connector.connectorId(memberConnection);
-    String rawConnection = Connector.rawConnection(memberConnection);
+    ConnectionUri connection = ConnectionUri.parse(memberConnection);
+    String connectorId = connection.connectorId();
+    String rawConnection = connection.rawConnection();
     Key connectionKey = Key.builder().partitionValue(connectorId).sortValue(rawConnection).build();
 
     if (!member.getConnectionUri().equals(memberConnection)) {
@@ -287,6 +337,7 @@ public class DynamoDbChannels implements Channels {
                       this.connectionsTable,
                       connectionKey) // Deletes only connection because it's not the most recent one
                   .addUpdateItem(this.membersTable, member));
+      member.incrementVersion();
       return member;
     }
 
@@ -325,14 +376,33 @@ public class DynamoDbChannels implements Channels {
     return find(channelName, channel.getHost());
   }
 
+  @Override
+  public List<Member> findMembers(String channelName) {
+    Objects.requireNonNull(channelName, "channel name");
+    Key channelKey = Key.builder().partitionValue(channelName).build();
+    List<Member> members = new ArrayList<>();
+    this.membersTable
+        .query(query -> query.queryConditional(QueryConditional.keyEqualTo(channelKey)))
+        .items()
+        .forEach(members::add);
+    return members;
+  }
+
   @Override
   public DynamoDbMember find(String memberConnection) {
     Objects.requireNonNull(memberConnection, "connection");
+    return this.find(ConnectionUri.parse(memberConnection));
+  }
 
-    String connectorId = Connector.connectorId(memberConnection);
-    String rawConnection = Connector.rawConnection(memberConnection);
+  @Override
+  public DynamoDbMember find(ConnectionUri memberConnection) {
+    Objects.requireNonNull(memberConnection, "connection");
 
-    Key connectionKey = Key.builder().partitionValue(connectorId).sortValue(rawConnection).build();
+    Key connectionKey =
+        Key.builder()
+            .partitionValue(memberConnection.connectorId())
+            .sortValue(memberConnection.rawConnection())
+            .build();
     DynamoDBConnection dbConnection = this.connectionsTable.getItem(connectionKey);
     if (dbConnection == null) throw new NotFoundException("Searched connection Not Found");
 
@@ -352,13 +422,14 @@ public class DynamoDbChannels implements Channels {
   public Member switchConnection(String channelName, String memberId, String newConnection) {
     DynamoDbMember member = find(channelName, memberId);
 
-    String connectorId = Connector.connectorId(newConnection);
-    String rawConnection = Connector.rawConnection(newConnection);
+    ConnectionUri connection = ConnectionUri.parse(newConnection);
+    String connectorId = connection.connectorId();
+    String rawConnection = connection.rawConnection();
 
     member.updateConnectionUri(connectorId, rawConnection);
 
     DynamoDBConnection dbConnection =
-        new DynamoDBConnection(connectorId, rawConnection, channelName, memberId);
+        this.newConnection(connectorId, rawConnection, channelName, memberId);
 
     try {
       this.enhancedDynamo.transactWriteItems(
@@ -366,6 +437,7 @@ public class DynamoDbChannels implements Channels {
     } catch (TransactionCanceledException e) {
       throw new KiteException(e.getMessage(), e);
     }
+    member.incrementVersion();
     return member;
   }
 
@@ -375,10 +447,8 @@ public class DynamoDbChannels implements Channels {
     if (peerMember.equals(myMember.getPeerMemberId())) {
       return;
     }
-    DynamoDbMember member = (DynamoDbMember) myMember;
-    member.setPeerMemberId(peerMember);
-
-    this.updateMemberIfExist(member);
+    this.updateMemberIfExist(
+        (DynamoDbMember) myMember, member -> member.setPeerMemberId(peerMember));
   }
 
   @Override
@@ -388,43 +458,241 @@ public class DynamoDbChannels implements Channels {
     Objects.requireNonNull(messageId);
     Objects.requireNonNull(usageTime);
 
-    String connectorId = Connector.connectorId(connectionUri);
-    String rawConnection = Connector.rawConnection(connectionUri);
+    ConnectionUri connection = ConnectionUri.parse(connectionUri);
+    String connectorId = connection.connectorId();
+    String rawConnection = connection.rawConnection();
 
-    DynamoDbMember member = (DynamoDbMember) memberToUpdate;
-
-    member.updateConnectionUri(connectorId, rawConnection, messageId, usageTime);
-    this.updateMemberIfExist(member);
+    this.updateMemberIfExist(
+        (DynamoDbMember) memberToUpdate,
+        member -> member.updateConnectionUri(connectorId, rawConnection, messageId, usageTime));
   }
 
   @Override
   public void updateUnAnsweredMessage(Member from, Member to, String pinnedMessagedId) {
-    DynamoDbMember member = (DynamoDbMember) from;
-    member.addPinnedMessage(to.getId(), pinnedMessagedId);
-
-    this.updateMemberIfExist(member);
+    this.updateMemberIfExist(
+        (DynamoDbMember) from, member -> member.addPinnedMessage(to.getId(), pinnedMessagedId));
   }
 
   @Override
   public void deleteUnAnsweredMessage(Member from, Member to) {
-    DynamoDbMember member = (DynamoDbMember) from;
-    member.deletePinnedMessage(to.getId());
+    this.updateMemberIfExist(
+        (DynamoDbMember) from, member -> member.deletePinnedMessage(to.getId()));
+  }
 
-    this.updateMemberIfExist(member);
+  /**
+   * Applies all changes of the same member to its item and writes it once. Separate conditional
+   * updates are cheaper than a transaction, which costs twice the write capacity, and a member
+   * which has already left the channel does not prevent updating its peer.
+   */
+  @Override
+  public void commit(MemberChanges changes) {
+    for (MemberChanges.Change change : changes) {
+      DynamoDbMember member = (DynamoDbMember) change.member();
+      String peerMemberId = change.peerMemberId();
+      boolean peerChanged = null != peerMemberId && !peerMemberId.equals(member.getPeerMemberId());
+      if (change.connections().isEmpty() && !peerChanged) {
+        continue;
+      }
+      this.updateMemberIfExist(
+          member,
+          item -> {
+            for (MemberChanges.ConnectionUpdate update : change.connections()) {
+              ConnectionUri connectionUri = update.connectionUri();
+              item.updateConnectionUri(
+                  connectionUri.connectorId(),
+                  connectionUri.rawConnection(),
+                  update.messageId(),
+                  update.usageTime());
+            }
+            if (peerChanged) {
+              item.setPeerMemberId(peerMemberId);
+            }
+          });
+    }
   }
 
-  private void updateMemberIfExist(DynamoDbMember member) {
-    var updateRequest =
-        UpdateItemEnhancedRequest.builder(DynamoDbMember.class)
-            .item(member)
-            .conditionExpression(pkAndSkExistCondition)
+  @Override
+  public void purgeConnection(String connectionUri) {
+    Objects.requireNonNull(connectionUri, "connection");
+    ConnectionUri connection = ConnectionUri.parse(connectionUri);
+    Key connectionKey = connectionKey(connection.connectorId(), connection.rawConnection());
+    DynamoDBConnection dbConnection = this.connectionsTable.getItem(connectionKey);
+    if (null == dbConnection) {
+      return;
+    }
+    Key memberKey =
+        Key.builder()
+            .partitionValue(dbConnection.getChannelName())
+            .sortValue(dbConnection.getMemberId())
+            .build();
+    DynamoDbMember member = this.membersTable.getItem(memberKey);
+    if (null != member) {
+      this.purgeMemberConnection(member, connection.connectorId(), connection.rawConnection());
+    }
+    this.connectionsTable.deleteItem(connectionKey);
+    this.refreshed.remove(connectionUri);
+    log.debug("Purged connection {}", connectionUri);
+  }
+
+  @Override
+  public void refreshConnection(String connectionUri) {
+    Objects.requireNonNull(connectionUri, "connection");
+    ConnectionUri connection = ConnectionUri.parse(connectionUri);
+    if (!WsConnector.WS.equals(connection.connectorId())
+        || null != this.refreshed.get(connectionUri)) {
+      return;
+    }
+    var update =
+        UpdateItemEnhancedRequest.builder(DynamoDBConnection.class)
+            .item(
+                new DynamoDBConnection(
+                    connection.connectorId(),
+                    connection.rawConnection(),
+                    null,
+                    null,
+                    this.connectionExpiresAt()))
+            .ignoreNulls(true)
+            .conditionExpression(connectionExistsCondition)
+            .build();
+    try {
+      this.connectionsTable.updateItem(update);
+      this.refreshed.put(connectionUri, Boolean.TRUE);
+    } catch (ConditionalCheckFailedException e) {
+      log.debug("Connection {} is gone", connectionUri);
+    }
+  }
+
+  @Override
+  public int sweepConnections() {
+    return this.sweepConnections(DEFAULT_SWEEP_PAGE_SIZE);
+  }
+
+  /**
+   * Scans members in pages and batch reads their websocket connections, the ones which expired or
+   * are deleted by the ttl are removed from the member, so it is routed to its other connections.
+   *
+   * @param pageSize number of members read at once
+   * @return number of purged connections
+   */
+  public int sweepConnections(int pageSize) {
+    Instant now = Instant.now();
+    int purged = 0;
+    for (Page<DynamoDbMember> page : this.membersTable.scan(scan -> scan.limit(pageSize))) {
+      purged += this.sweepConnections(page.items(), now);
+    }
+    log.info("Swept {} dead connections", purged);
+    return purged;
+  }
+
+  private int sweepConnections(List<DynamoDbMember> members, Instant now) {
+    Map<String, DynamoDbMember> routed = new LinkedHashMap<>();
+    for (DynamoDbMember member : members) {
+      if (null != member.getWsUri()) {
+        routed.put(member.getWsUri(), member);
+      }
+    }
+    Map<String, DynamoDBConnection> found = new HashMap<>(routed.size());
+    List<String> rawConnections = List.copyOf(routed.keySet());
+    for (int i = 0; i < rawConnections.size(); i += MAX_BATCH_GET) {
+      var batch =
+          ReadBatch.builder(DynamoDBConnection.class).mappedTableResource(this.connectionsTable);
+      rawConnections
+          .subList(i, Math.min(i + MAX_BATCH_GET, rawConnections.size()))
+          .forEach(raw -> batch.addGetItem(connectionKey(WsConnector.WS, raw)));
+      this.enhancedDynamo
+          .batchGetItem(request -> request.addReadBatch(batch.build()))
+          .resultsForTable(this.connectionsTable)
+          .forEach(connection -> found.put(connection.getRawId(), connection));
+    }
+    int purged = 0;
+    for (Map.Entry<String, DynamoDbMember> entry : routed.entrySet()) {
+      DynamoDBConnection connection = found.get(entry.getKey());
+      if (null != connection && !connection.isExpired(now)) {
+        continue;
+      }
+      this.purgeMemberConnection(entry.getValue(), WsConnector.WS, entry.getKey());
+      if (null != connection) {
+        this.connectionsTable.deleteItem(connection);
+      }
+      purged++;
+    }
+    return purged;
+  }
+
+  /** Unless the member has reconnected in the meantime */
+  private void purgeMemberConnection(
+      DynamoDbMember member, String connectorId, String rawConnection) {
+    if (!rawConnection.equals(member.rawConnection(connectorId))) {
+      return;
+    }
+    member.deleteConnection(connectorId);
+    var stillRoutedTo =
+        Expression.builder()
+            .expression("#uri = :uri")
+            .putExpressionName("#uri", DynamoDbMember.uriAttribute(connectorId))
+            .putExpressionValue(":uri", AttributeValue.fromS(rawConnection))
             .build();
     try {
-      this.membersTable.updateItem(updateRequest);
-    } catch (ConditionalCheckFailedException conditionalException) {
-      log.warn("Member has already left the Channel");
-    } catch (Exception e) {
-      throw new ValidationException(e.getMessage(), e);
+      member.assign(
+          this.membersTable.updateItem(
+              UpdateItemEnhancedRequest.builder(DynamoDbMember.class)
+                  .item(member)
+                  .conditionExpression(stillRoutedTo)
+                  .build()));
+    } catch (ConditionalCheckFailedException e) {
+      log.debug("Member {} has reconnected already", member.getId());
+    }
+  }
+
+  /** Websocket connections expire, other connectors have no heartbeats */
+  private DynamoDBConnection newConnection(
+      String connectorId, String rawConnection, String channelName, String memberId) {
+    long ttl = WsConnector.WS.equals(connectorId) ? this.connectionExpiresAt() : 0;
+    return new DynamoDBConnection(connectorId, rawConnection, channelName, memberId, ttl);
+  }
+
+  private long connectionExpiresAt() {
+    return Instant.now().plus(this.connectionTtl).getEpochSecond();
+  }
+
+  private static Key connectionKey(String connectorId, String rawConnection) {
+    return Key.builder().partitionValue(connectorId).sortValue(rawConnection).build();
+  }
+
+  /**
+   * Applies the change to the copy of the member and writes it, unless the member has left. The
+   * member, which may be shared by other requests, takes the written attributes only once the
+   * write succeeds. The version condition fails when the member was read before another write,
+   * then the change is applied to the item read again, so the newer attributes are not
+   * overwritten.
+   *
+   * @throws ConflictException if the member keeps changing concurrently
+   */
+  private void updateMemberIfExist(DynamoDbMember member, Consumer<DynamoDbMember> change) {
+    DynamoDbMember item = member.copy();
+    for (int attempt = 1; ; attempt++) {
+      change.accept(item);
+      var updateRequest =
+          UpdateItemEnhancedRequest.builder(DynamoDbMember.class)
+              .item(item)
+              .conditionExpression(pkAndSkExistCondition)
+              .build();
+      try {
+        member.assign(this.membersTable.updateItem(updateRequest));
+        return;
+      } catch (ConditionalCheckFailedException conditionalException) {
+        item = this.membersTable.getItem(this.membersTable.keyFrom(member));
+        if (null == item) {
+          log.debug("Member {} has already left the channel", member.getId());
+          return;
+        }
+        if (attempt == MAX_UPDATE_ATTEMPTS) {
+          throw new ConflictException(
+              "Member %s is changed concurrently".formatted(member.getId()), conditionalException);
+        }
+      } catch (Exception e) {
+        throw new ValidationException(e.getMessage(), e);
+      }
     }
   }
 }
@@ -0,0 +1,93 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import java.time.Instant;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+
+/** Claimed or dispatched message, the ack is missing while the message is being dispatched */
+@DynamoDbBean
+public class DynamoDbDispatch {
+
+  private String key;
+  private String messageId;
+  private String destinationMessageId;
+  private Instant delivered;
+  private long ttl;
+
+  public DynamoDbDispatch(String key, MessageAck ack, long ttl) {
+    this.key = key;
+    if (null != ack) {
+      this.messageId = ack.messageId();
+      this.destinationMessageId = ack.destinationMessageId();
+      this.delivered = ack.delivered();
+    }
+    this.ttl = ttl;
+  }
+
+  public DynamoDbDispatch() {}
+
+  @DynamoDbPartitionKey
+  public String getKey() {
+    return key;
+  }
+
+  public void setKey(String key) {
+    this.key = key;
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public void setMessageId(String messageId) {
+    this.messageId = messageId;
+  }
+
+  public String getDestinationMessageId() {
+    return destinationMessageId;
+  }
+
+  public void setDestinationMessageId(String destinationMessageId) {
+    this.destinationMessageId = destinationMessageId;
+  }
+
+  public Instant getDelivered() {
+    return delivered;
+  }
+
+  public void setDelivered(Instant delivered) {
+    this.delivered = delivered;
+  }
+
+  public long getTtl() {
+    return ttl;
+  }
+
+  public void setTtl(long ttl) {
+    this.ttl = ttl;
+  }
+
+  /** Returns null while the message is being dispatched */
+  MessageAck ack() {
+    return null != this.destinationMessageId
+        ? new MessageAck(this.messageId, this.destinationMessageId, this.delivered)
+        : null;
+  }
+
+  @Override
+  public String toString() {
+    return "DynamoDbDispatch [key="
+        + key
+        + ", messageId="
+        + messageId
+        + ", destinationMessageId="
+        + destinationMessageId
+        + ", delivered="
+        + delivered
+        + ", ttl="
+        + ttl
+        + "]";
+  }
+}
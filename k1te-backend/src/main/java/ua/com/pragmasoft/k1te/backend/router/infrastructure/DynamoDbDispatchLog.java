@@ -0,0 +1,153 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Expression;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.GetItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.PutItemEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import ua.com.pragmasoft.k1te.backend.router.domain.DispatchLog;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.shared.ConflictException;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+
+/**
+ * Claims messages with a conditional put to the Dispatches table, so a message redelivered to
+ * another lambda container is not routed again. Items expire with the dynamodb ttl, a claim of the
+ * dispatch which never completed (the container crashed) expires after the claim ttl.
+ */
+public class DynamoDbDispatchLog implements DispatchLog {
+
+  private static final Logger log = LoggerFactory.getLogger(DynamoDbDispatchLog.class);
+
+  public static final String DISPATCHES = "Dispatches";
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+  public static final Duration DEFAULT_CLAIM_TTL = Duration.ofMinutes(1);
+  public static final Duration DEFAULT_WAIT_TIMEOUT = Duration.ofSeconds(10);
+  private static final long MAX_POLL_INTERVAL_MILLIS = 1000;
+
+  private static final String NOT_CLAIMED =
+      "attribute_not_exists(#key) OR #ttl < :now"; // ttl removal lags behind expiration
+
+  private final String dispatchesTableName;
+  private final DynamoDbTable<DynamoDbDispatch> dispatchesTable;
+  private final Duration ttl;
+  private final Duration claimTtl;
+  private final Duration waitTimeout;
+
+  public DynamoDbDispatchLog(
+      DynamoDbEnhancedClient enhancedDynamo, String serverlessEnvironmentName) {
+    this(
+        enhancedDynamo,
+        serverlessEnvironmentName,
+        DEFAULT_TTL,
+        DEFAULT_CLAIM_TTL,
+        DEFAULT_WAIT_TIMEOUT);
+  }
+
+  /**
+   * @param ttl how long the message is remembered after its dispatch
+   * @param claimTtl how long the claim of the message which is being dispatched is kept
+   * @param waitTimeout how long a duplicate waits for the message which is being dispatched
+   */
+  public DynamoDbDispatchLog(
+      DynamoDbEnhancedClient enhancedDynamo,
+      String serverlessEnvironmentName,
+      Duration ttl,
+      Duration claimTtl,
+      Duration waitTimeout) {
+    this.dispatchesTableName =
+        null != serverlessEnvironmentName
+            ? serverlessEnvironmentName + '.' + DISPATCHES
+            : DISPATCHES;
+    this.dispatchesTable =
+        enhancedDynamo.table(
+            this.dispatchesTableName, TableSchema.fromClass(DynamoDbDispatch.class));
+    this.ttl = Objects.requireNonNull(ttl, "Time to live");
+    this.claimTtl = Objects.requireNonNull(claimTtl, "Claim time to live");
+    this.waitTimeout = Objects.requireNonNull(waitTimeout, "Wait timeout");
+  }
+
+  @Override
+  public MessageAck claim(String key) throws KiteException {
+    Instant deadline = Instant.now().plus(this.waitTimeout);
+    long pollInterval = 50;
+    while (true) {
+      if (this.tryClaim(key)) {
+        return null;
+      }
+      DynamoDbDispatch dispatch =
+          this.dispatchesTable.getItem(
+              GetItemEnhancedRequest.builder()
+                  .key(Key.builder().partitionValue(key).build())
+                  .consistentRead(true)
+                  .build());
+      if (null != dispatch && null != dispatch.ack()) {
+        return dispatch.ack();
+      }
+      if (null != dispatch && Instant.now().isAfter(deadline)) {
+        throw new ConflictException("Message is still being dispatched");
+      }
+      if (null != dispatch) {
+        log.debug("Wait {}ms for the dispatch of {}", pollInterval, key);
+        sleep(pollInterval);
+        pollInterval = Math.min(pollInterval * 2, MAX_POLL_INTERVAL_MILLIS);
+      }
+    }
+  }
+
+  @Override
+  public void complete(String key, MessageAck ack) {
+    Objects.requireNonNull(ack, "ack");
+    this.dispatchesTable.putItem(new DynamoDbDispatch(key, ack, expiresAt(this.ttl)));
+  }
+
+  @Override
+  public void release(String key) {
+    this.dispatchesTable.deleteItem(Key.builder().partitionValue(key).build());
+  }
+
+  private boolean tryClaim(String key) {
+    var now = AttributeValue.builder().n(Long.toString(Instant.now().getEpochSecond())).build();
+    var condition =
+        Expression.builder()
+            .expression(NOT_CLAIMED)
+            .expressionNames(Map.of("#key", "key", "#ttl", "ttl"))
+            .expressionValues(Map.of(":now", now))
+            .build();
+    var request =
+        PutItemEnhancedRequest.builder(DynamoDbDispatch.class)
+            .item(new DynamoDbDispatch(key, null, expiresAt(this.claimTtl)))
+            .conditionExpression(condition)
+            .build();
+    try {
+      this.dispatchesTable.putItem(request);
+      return true;
+    } catch (ConditionalCheckFailedException claimed) {
+      return false;
+    }
+  }
+
+  private static long expiresAt(Duration ttl) {
+    return Instant.now().plus(ttl).getEpochSecond();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KiteException("Interrupted while waiting for the message dispatch", e);
+    }
+  }
+}
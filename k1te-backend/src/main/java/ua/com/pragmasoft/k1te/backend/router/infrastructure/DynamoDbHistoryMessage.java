@@ -7,23 +7,34 @@ import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortKey;
 import ua.com.pragmasoft.k1te.backend.router.domain.HistoryMessage;
-
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.ws.PayloadDecoder;
+
+/**
+ * Content is stored as the compact binary {@link HistoryContent} record in the body attribute and
+ * decoded lazily. Messages stored before have the json frame in the content attribute instead.
+ */
 @DynamoDbBean
 public class DynamoDbHistoryMessage implements HistoryMessage {
   public static final Duration DEFAULT_TIMEOUT = Duration.ofDays(92);
+  private static final PayloadDecoder LEGACY_DECODER = new PayloadDecoder();
 
   private String id;
   private String messageId;
   private String content;
+  private byte[] body;
   private Instant time;
   private boolean incoming;
   private long ttl;
+  private MessagePayload payload;
 
   public DynamoDbHistoryMessage(
-      String id, String messageId, String content, Instant time, boolean incoming) {
+      String id, String messageId, MessagePayload payload, Instant time, boolean incoming) {
     this.id = id;
     this.messageId = messageId;
-    this.content = content;
+    this.body = HistoryContent.encode(payload);
+    this.payload = payload;
     this.time = time;
     this.incoming = incoming;
     this.ttl = Instant.now().plus(DEFAULT_TIMEOUT).getEpochSecond();
@@ -66,13 +77,42 @@ public class DynamoDbHistoryMessage implements HistoryMessage {
     this.messageId = messageId;
   }
 
-  @Override
+  /** Json frame of the messages stored before the binary body */
   public String getContent() {
     return content;
   }
 
   public void setContent(String content) {
     this.content = content;
+    this.payload = null;
+  }
+
+  public byte[] getBody() {
+    return body;
+  }
+
+  public void setBody(byte[] body) {
+    this.body = body;
+    this.payload = null;
+  }
+
+  @Override
+  public Payload.Type getType() {
+    if (null != this.payload) {
+      return this.payload.type();
+    }
+    return null != this.body ? HistoryContent.type(this.body) : this.getPayload().type();
+  }
+
+  @Override
+  public MessagePayload getPayload() {
+    if (null == this.payload) {
+      this.payload =
+          null != this.body
+              ? HistoryContent.decode(this.body)
+              : (MessagePayload) LEGACY_DECODER.apply(this.content);
+    }
+    return this.payload;
   }
 
   @Override
@@ -113,6 +153,8 @@ public class DynamoDbHistoryMessage implements HistoryMessage {
         + ", content='"
         + content
         + '\''
+        + ", body="
+        + (null != body ? body.length + " bytes" : null)
         + ", time="
         + time
         + ", incoming="
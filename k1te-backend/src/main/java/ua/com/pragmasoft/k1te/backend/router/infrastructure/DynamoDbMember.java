@@ -4,11 +4,12 @@ package ua.com.pragmasoft.k1te.backend.router.infrastructure;
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
+import software.amazon.awssdk.enhanced.dynamodb.extensions.annotations.DynamoDbVersionAttribute;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbIgnoreNulls;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortKey;
-import ua.com.pragmasoft.k1te.backend.router.domain.Connector;
+import ua.com.pragmasoft.k1te.backend.router.domain.ConnectionUri;
 import ua.com.pragmasoft.k1te.backend.router.domain.Member;
 import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
 import ua.com.pragmasoft.k1te.backend.tg.TelegramConnector;
@@ -32,6 +33,8 @@ public class DynamoDbMember implements Member {
   private boolean host;
   private String peerMemberId;
   private Map<String, String> pinnedMessages = new HashMap<>();
+  private Long version;
+  private ConnectionUri connection;
 
   public DynamoDbMember(
       String id,
@@ -72,33 +75,47 @@ public class DynamoDbMember implements Member {
 
   @Override
   public String getConnectionUri() {
-    String maybeTgUri = this.tgUri != null ? TelegramConnector.TG + ":" + this.tgUri : null;
-    String maybeWsUri = this.wsUri != null ? WsConnector.WS + ":" + this.wsUri : null;
-    String maybeAiUri = this.aiUri != null ? "ai:" + this.aiUri : null;
+    return this.connectionUri().toString();
+  }
 
-    String[] uris = {maybeTgUri, maybeWsUri, maybeAiUri};
-    Instant[] lastTimes = {this.tgLastTime, this.wsLastTime, this.aiLastTime};
+  /** Most recently used connection, cached until any of the connections changes */
+  @Override
+  public ConnectionUri connectionUri() {
+    ConnectionUri connection = this.connection;
+    if (null == connection) {
+      connection = this.mostRecentConnection();
+      this.connection = connection;
+    }
+    return connection;
+  }
 
-    String connectionUri = null;
+  private ConnectionUri mostRecentConnection() {
+    String connectorId = null;
+    String rawConnection = null;
     Instant mostRecentTime = null;
-
-    for (int i = 0; i < uris.length; i++) {
-      if (uris[i] != null && (mostRecentTime == null || lastTimes[i].isAfter(mostRecentTime))) {
-        connectionUri = uris[i];
-        mostRecentTime = lastTimes[i];
-      }
+    if (this.tgUri != null) {
+      connectorId = TelegramConnector.TG;
+      rawConnection = this.tgUri;
+      mostRecentTime = this.tgLastTime;
+    }
+    if (this.wsUri != null && (mostRecentTime == null || this.wsLastTime.isAfter(mostRecentTime))) {
+      connectorId = WsConnector.WS;
+      rawConnection = this.wsUri;
+      mostRecentTime = this.wsLastTime;
+    }
+    if (this.aiUri != null && (mostRecentTime == null || this.aiLastTime.isAfter(mostRecentTime))) {
+      connectorId = "ai";
+      rawConnection = this.aiUri;
     }
 
-    if (connectionUri == null) throw new RoutingException("missing connectionUri");
+    if (connectorId == null) throw new RoutingException("missing connectionUri");
 
-    return connectionUri;
+    return ConnectionUri.of(connectorId, rawConnection);
   }
 
   @Override
   public String getLastMessageId() {
-    String connectionUri = this.getConnectionUri();
-    String connectorId = Connector.connectorId(connectionUri);
-    return switch (connectorId) {
+    return switch (this.connectionUri().connectorId()) {
       case (TelegramConnector.TG) -> getTgLastMessageId();
       case (WsConnector.WS) -> getWsLastMessageId();
       case ("ai") -> getAiLastMessageId();
@@ -131,6 +148,26 @@ public class DynamoDbMember implements Member {
     }
   }
 
+  /** Raw connection of the connector, null if the member has none */
+  public String rawConnection(String connectorId) {
+    return switch (connectorId) {
+      case (TelegramConnector.TG) -> this.tgUri;
+      case (WsConnector.WS) -> this.wsUri;
+      case ("ai") -> this.aiUri;
+      default -> null;
+    };
+  }
+
+  /** Name of the attribute holding the raw connection of the connector */
+  static String uriAttribute(String connectorId) {
+    return switch (connectorId) {
+      case (TelegramConnector.TG) -> "tgUri";
+      case (WsConnector.WS) -> "wsUri";
+      case ("ai") -> "aiUri";
+      default -> throw new IllegalStateException("Unsupported connector id");
+    };
+  }
+
   public boolean hasConnection(String connection) {
     return (this.tgUri != null && this.tgUri.equals(connection))
         || (this.wsUri != null && this.wsUri.equals(connection))
@@ -187,6 +224,7 @@ public class DynamoDbMember implements Member {
 
   public void setTgUri(String tgUri) {
     this.tgUri = tgUri;
+    this.connection = null;
   }
 
   @DynamoDbIgnoreNulls
@@ -196,6 +234,7 @@ public class DynamoDbMember implements Member {
 
   public void setTgLastTime(Instant tgLastTime) {
     this.tgLastTime = tgLastTime;
+    this.connection = null;
   }
 
   @DynamoDbIgnoreNulls
@@ -214,6 +253,7 @@ public class DynamoDbMember implements Member {
 
   public void setWsUri(String wsUri) {
     this.wsUri = wsUri;
+    this.connection = null;
   }
 
   @DynamoDbIgnoreNulls
@@ -223,6 +263,7 @@ public class DynamoDbMember implements Member {
 
   public void setWsLastTime(Instant wsLastTime) {
     this.wsLastTime = wsLastTime;
+    this.connection = null;
   }
 
   @DynamoDbIgnoreNulls
@@ -241,6 +282,7 @@ public class DynamoDbMember implements Member {
 
   public void setAiUri(String aiUri) {
     this.aiUri = aiUri;
+    this.connection = null;
   }
 
   @DynamoDbIgnoreNulls
@@ -250,6 +292,7 @@ public class DynamoDbMember implements Member {
 
   public void setAiLastTime(Instant aiLastTime) {
     this.aiLastTime = aiLastTime;
+    this.connection = null;
   }
 
   @DynamoDbIgnoreNulls
@@ -298,6 +341,53 @@ public class DynamoDbMember implements Member {
     this.pinnedMessages = pinnedMessages;
   }
 
+  /**
+   * Optimistic lock of the item, so the member read before another write, for example the one
+   * kept in the near cache, fails the condition instead of overwriting the newer attributes.
+   */
+  @DynamoDbVersionAttribute
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
+
+  /** Follows the version increment of the write which has not returned the item */
+  void incrementVersion() {
+    this.version = null == this.version ? 1L : this.version + 1;
+  }
+
+  /** Takes the attributes of the item returned by the write */
+  void assign(DynamoDbMember item) {
+    this.tgUri = item.tgUri;
+    this.tgLastTime = item.tgLastTime;
+    this.tgLastMessageId = item.tgLastMessageId;
+    this.wsUri = item.wsUri;
+    this.wsLastTime = item.wsLastTime;
+    this.wsLastMessageId = item.wsLastMessageId;
+    this.aiUri = item.aiUri;
+    this.aiLastTime = item.aiLastTime;
+    this.aiLastMessageId = item.aiLastMessageId;
+    this.userName = item.userName;
+    this.host = item.host;
+    this.peerMemberId = item.peerMemberId;
+    this.pinnedMessages = null != item.pinnedMessages ? item.pinnedMessages : new HashMap<>();
+    this.version = item.version;
+    this.connection = null;
+  }
+
+  /** Separate instance changed and written by one request, while others read the original */
+  DynamoDbMember copy() {
+    DynamoDbMember copy = new DynamoDbMember();
+    copy.id = this.id;
+    copy.channelName = this.channelName;
+    copy.assign(this);
+    copy.pinnedMessages = new HashMap<>(copy.pinnedMessages);
+    return copy;
+  }
+
   public void addPinnedMessage(String memberId, String pinnedMessageId) {
     this.pinnedMessages.put(memberId, pinnedMessageId);
   }
@@ -352,6 +442,8 @@ public class DynamoDbMember implements Member {
         + '\''
         + ", pinnedMessageId="
         + pinnedMessages
+        + ", version="
+        + version
         + '}';
   }
 
@@ -3,6 +3,7 @@ package ua.com.pragmasoft.k1te.backend.router.infrastructure;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
@@ -10,9 +11,12 @@ import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
 import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
 import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import ua.com.pragmasoft.k1te.backend.router.domain.HistoryCursor;
 import ua.com.pragmasoft.k1te.backend.router.domain.HistoryMessage;
 import ua.com.pragmasoft.k1te.backend.router.domain.Member;
 import ua.com.pragmasoft.k1te.backend.router.domain.Messages;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
 import ua.com.pragmasoft.k1te.backend.shared.KiteException;
 
 public class DynamoDbMessages implements Messages {
@@ -34,7 +38,7 @@ public class DynamoDbMessages implements Messages {
 
   @Override
   public HistoryMessage persist(
-      Member owner, String messageId, String content, Instant time, boolean incoming) {
+      Member owner, String messageId, MessagePayload content, Instant time, boolean incoming) {
     Objects.requireNonNull(owner);
     Objects.requireNonNull(messageId);
     Objects.requireNonNull(content);
@@ -79,4 +83,39 @@ public class DynamoDbMessages implements Messages {
         .map(HistoryMessage.class::cast)
         .toList();
   }
+
+  /**
+   * Queries one page of the partition, the cursor is turned into the exclusive start key within the
+   * member's own partition. The page ends with the cursor whenever DynamoDB has more items to
+   * evaluate, so the last page may turn out empty.
+   */
+  @Override
+  public Page findPage(Member member, String cursor, int limit) {
+    Objects.requireNonNull(member);
+    String id = DynamoDbHistoryMessage.buildId(member.getChannelName(), member.getId());
+    var request =
+        QueryEnhancedRequest.builder()
+            .queryConditional(QueryConditional.keyEqualTo(Key.builder().partitionValue(id).build()))
+            .scanIndexForward(false)
+            .limit(limit);
+    String lastMessageId = HistoryCursor.messageId(cursor);
+    if (null != lastMessageId) {
+      request.exclusiveStartKey(
+          Map.of(
+              "id", AttributeValue.fromS(id), "messageId", AttributeValue.fromS(lastMessageId)));
+    }
+    try {
+      // one query request, the table pages are not followed
+      var page = this.messageTable.query(request.build()).iterator().next();
+      List<HistoryMessage> messages =
+          page.items().stream().limit(limit).map(HistoryMessage.class::cast).toList();
+      String next =
+          null != page.lastEvaluatedKey() && !messages.isEmpty()
+              ? HistoryCursor.after(messages.get(messages.size() - 1))
+              : null;
+      return new Page(messages, next);
+    } catch (Exception e) {
+      throw new KiteException(e.getMessage(), e);
+    }
+  }
 }
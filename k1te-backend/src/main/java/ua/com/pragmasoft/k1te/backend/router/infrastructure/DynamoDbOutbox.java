@@ -0,0 +1,150 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.BatchWriteResult;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.WriteBatch;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.Outbox;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+
+/**
+ * Queues messages as items of the member partition, sorted by the time they were queued. Queues are
+ * bounded by the ttl of the items rather than by their number, as counting them costs a query per
+ * message. Concurrent drains may both return the same message, clients ignore duplicate ids.
+ */
+public class DynamoDbOutbox implements Outbox {
+
+  private static final Logger log = LoggerFactory.getLogger(DynamoDbOutbox.class);
+
+  public static final String OUTBOX = "Outbox";
+  public static final Duration DEFAULT_TTL = Duration.ofDays(1);
+  /** Max number of items of the batch write */
+  private static final int MAX_BATCH_WRITE = 25;
+  /** Throttled deletes come back unprocessed, they are retried with exponential backoff */
+  private static final int MAX_DELETE_ATTEMPTS = 5;
+  private static final long DELETE_BACKOFF_MILLIS = 50;
+
+  private final DynamoDbEnhancedClient enhancedDynamo;
+  private final DynamoDbTable<DynamoDbQueuedMessage> outboxTable;
+  private final Duration ttl;
+  /** Tells apart messages queued within the same millisecond by this instance */
+  private final AtomicInteger counter = new AtomicInteger();
+
+  public DynamoDbOutbox(DynamoDbEnhancedClient enhancedDynamo, String serverlessEnvironmentName) {
+    this(enhancedDynamo, serverlessEnvironmentName, DEFAULT_TTL);
+  }
+
+  /**
+   * @param ttl time the message is kept for the member which does not join again
+   */
+  public DynamoDbOutbox(
+      DynamoDbEnhancedClient enhancedDynamo, String serverlessEnvironmentName, Duration ttl) {
+    String outboxTableName =
+        null != serverlessEnvironmentName ? serverlessEnvironmentName + '.' + OUTBOX : OUTBOX;
+    this.enhancedDynamo = enhancedDynamo;
+    this.outboxTable =
+        enhancedDynamo.table(outboxTableName, TableSchema.fromClass(DynamoDbQueuedMessage.class));
+    this.ttl = ttl;
+  }
+
+  @Override
+  public void enqueue(Member to, MessagePayload message) {
+    Objects.requireNonNull(message);
+    Instant now = Instant.now();
+    String seq =
+        "%013d:%05d:%s"
+            .formatted(
+                now.toEpochMilli(),
+                Math.floorMod(this.counter.getAndIncrement(), 100_000),
+                message.messageId());
+    try {
+      this.outboxTable.putItem(
+          new DynamoDbQueuedMessage(id(to), seq, message, now.plus(this.ttl).getEpochSecond()));
+    } catch (Exception e) {
+      throw new KiteException(e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public List<MessagePayload> drain(Member member) {
+    long now = Instant.now().getEpochSecond();
+    Key key = Key.builder().partitionValue(id(member)).build();
+    List<DynamoDbQueuedMessage> queued =
+        this.outboxTable
+            .query(
+                QueryEnhancedRequest.builder()
+                    .queryConditional(QueryConditional.keyEqualTo(key))
+                    .consistentRead(true)
+                    .build())
+            .items()
+            .stream()
+            .toList();
+    if (queued.isEmpty()) {
+      return List.of();
+    }
+    List<Key> keys = queued.stream().map(this.outboxTable::keyFrom).toList();
+    for (int i = 0; i < keys.size(); i += MAX_BATCH_WRITE) {
+      this.delete(keys.subList(i, Math.min(i + MAX_BATCH_WRITE, keys.size())));
+    }
+    List<MessagePayload> messages = new ArrayList<>(queued.size());
+    for (DynamoDbQueuedMessage message : queued) {
+      // expired items stay until the ttl deletes them
+      if (message.getTtl() >= now) {
+        messages.add(message.payload());
+      }
+    }
+    return messages;
+  }
+
+  /**
+   * Messages whose deletes are still unprocessed after the last attempt are delivered again by the
+   * next drain, clients ignore duplicate ids
+   */
+  private void delete(List<Key> keys) {
+    List<Key> pending = keys;
+    for (int attempt = 1; ; attempt++) {
+      var batch =
+          WriteBatch.builder(DynamoDbQueuedMessage.class).mappedTableResource(this.outboxTable);
+      pending.forEach(batch::addDeleteItem);
+      BatchWriteResult result =
+          this.enhancedDynamo.batchWriteItem(request -> request.addWriteBatch(batch.build()));
+      pending = result.unprocessedDeleteItemsForTable(this.outboxTable);
+      if (pending.isEmpty()) {
+        return;
+      }
+      if (attempt == MAX_DELETE_ATTEMPTS) {
+        log.warn("{} outbox messages were not deleted, delivered again later", pending.size());
+        return;
+      }
+      sleep(DELETE_BACKOFF_MILLIS << (attempt - 1));
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KiteException("Interrupted while deleting outbox messages", e);
+    }
+  }
+
+  private static String id(Member member) {
+    return member.getChannelName() + ':' + member.getId();
+  }
+}
@@ -0,0 +1,70 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortKey;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+
+/** Message of the outbox, packed as the {@link HistoryContent} record */
+@DynamoDbBean
+public class DynamoDbQueuedMessage {
+
+  private String id;
+  private String seq;
+  private byte[] body;
+  private long ttl;
+
+  /**
+   * @param id channel and member the message is queued for
+   * @param seq sorts messages of the member in the order they were queued
+   * @param payload queued message
+   * @param ttl epoch second the message expires at
+   */
+  public DynamoDbQueuedMessage(String id, String seq, MessagePayload payload, long ttl) {
+    this.id = id;
+    this.seq = seq;
+    this.body = HistoryContent.encode(payload);
+    this.ttl = ttl;
+  }
+
+  public DynamoDbQueuedMessage() {}
+
+  @DynamoDbPartitionKey
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  @DynamoDbSortKey
+  public String getSeq() {
+    return seq;
+  }
+
+  public void setSeq(String seq) {
+    this.seq = seq;
+  }
+
+  public byte[] getBody() {
+    return body;
+  }
+
+  public void setBody(byte[] body) {
+    this.body = body;
+  }
+
+  public long getTtl() {
+    return ttl;
+  }
+
+  public void setTtl(long ttl) {
+    this.ttl = ttl;
+  }
+
+  public MessagePayload payload() {
+    return HistoryContent.decode(this.body);
+  }
+}
@@ -0,0 +1,264 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.BinaryMessage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.BinaryPayload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+
+/**
+ * Packs the content of the history message to the compact record: the format version, the type tag
+ * with flags, then fields as varints and varint length prefixed utf-8 strings. Well known media
+ * types are stored as indexes of {@link #MEDIA_TYPES}, long text is deflated.
+ *
+ * <pre>
+ * TXT: version tag messageId created text
+ * BIN: version tag messageId created uri fileName fileType fileSize
+ * </pre>
+ *
+ * The type is read from the tag alone, so readers which only need the type do not decode the rest.
+ */
+final class HistoryContent {
+
+  static final int VERSION = 1;
+
+  private static final int TXT = 1;
+  private static final int BIN = 2;
+  private static final int TYPE_MASK = 0x0f;
+  private static final int DEFLATED = 0x10;
+
+  /** Shorter text does not compress enough to pay for the deflate */
+  static final int DEFLATE_THRESHOLD = 256;
+
+  /** Indexes are stored, so types are only ever appended. Zero means the type follows inline */
+  private static final List<String> MEDIA_TYPES =
+      List.of(
+          "image/jpeg",
+          "image/png",
+          "image/webp",
+          "image/gif",
+          "video/mp4",
+          "application/pdf",
+          "application/zip",
+          "application/x-zip-compressed",
+          "text/plain",
+          "application/octet-stream",
+          "audio/mpeg",
+          "audio/ogg",
+          "video/quicktime",
+          "application/msword",
+          "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+          "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+
+  private static final Map<String, Integer> MEDIA_TYPE_INDEXES = new HashMap<>();
+
+  static {
+    for (int i = 0; i < MEDIA_TYPES.size(); i++) {
+      MEDIA_TYPE_INDEXES.put(MEDIA_TYPES.get(i), i + 1);
+    }
+  }
+
+  private HistoryContent() {}
+
+  static byte[] encode(MessagePayload payload) {
+    var out = new Output();
+    out.write(VERSION);
+    if (payload instanceof PlaintextMessage message) {
+      byte[] text = message.text().getBytes(StandardCharsets.UTF_8);
+      byte[] deflated = text.length >= DEFLATE_THRESHOLD ? deflate(text) : null;
+      boolean compressed = null != deflated && deflated.length < text.length;
+      out.write(compressed ? TXT | DEFLATED : TXT);
+      out.writeString(message.messageId());
+      out.writeInstant(message.created());
+      if (compressed) {
+        out.writeVarint(text.length);
+        out.write(deflated, 0, deflated.length);
+      } else {
+        out.writeBlob(text);
+      }
+    } else if (payload instanceof BinaryPayload message) {
+      out.write(BIN);
+      out.writeString(message.messageId());
+      out.writeInstant(message.created());
+      out.writeString(message.uri().toString());
+      out.writeString(message.fileName());
+      Integer mediaType = MEDIA_TYPE_INDEXES.get(message.fileType());
+      if (null != mediaType) {
+        out.writeVarint(mediaType);
+      } else {
+        out.writeVarint(0);
+        out.writeString(message.fileType());
+      }
+      out.writeVarint(message.fileSize());
+    } else {
+      throw new KiteException("Unsupported history message type " + payload.type());
+    }
+    return out.toByteArray();
+  }
+
+  static Payload.Type type(byte[] content) {
+    return switch (tag(ByteBuffer.wrap(content)) & TYPE_MASK) {
+      case TXT -> Payload.Type.TXT;
+      case BIN -> Payload.Type.BIN;
+      default -> throw new KiteException("Unsupported history message type tag");
+    };
+  }
+
+  static MessagePayload decode(byte[] content) {
+    var in = ByteBuffer.wrap(content);
+    try {
+      int tag = tag(in);
+      String messageId = readString(in);
+      Instant created = readInstant(in);
+      return switch (tag & TYPE_MASK) {
+        case TXT -> {
+          String text =
+              (tag & DEFLATED) != 0
+                  ? new String(inflate(in, (int) readVarint(in)), StandardCharsets.UTF_8)
+                  : readString(in);
+          yield new PlaintextMessage(text, messageId, created);
+        }
+        case BIN -> {
+          String uri = readString(in);
+          String fileName = readString(in);
+          int mediaType = (int) readVarint(in);
+          String fileType = mediaType > 0 ? MEDIA_TYPES.get(mediaType - 1) : readString(in);
+          long fileSize = readVarint(in);
+          yield new BinaryMessage(uri, fileName, fileType, fileSize, messageId, created);
+        }
+        default -> throw new KiteException("Unsupported history message type tag");
+      };
+    } catch (BufferUnderflowException
+        | IndexOutOfBoundsException
+        | IllegalArgumentException
+        | DateTimeException e) {
+      throw new KiteException("Malformed history message content", e);
+    }
+  }
+
+  private static int tag(ByteBuffer in) {
+    if (in.remaining() < 2) {
+      throw new KiteException("Malformed history message content");
+    }
+    int version = in.get();
+    if (version != VERSION) {
+      throw new KiteException("Unsupported history message content version " + version);
+    }
+    return in.get() & 0xff;
+  }
+
+  private static long readVarint(ByteBuffer in) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.get();
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new KiteException("Malformed history message content");
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = (int) readVarint(in);
+    if (length < 0 || length > in.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    var value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+    in.position(in.position() + length);
+    return value;
+  }
+
+  private static Instant readInstant(ByteBuffer in) {
+    long seconds = readVarint(in);
+    return Instant.ofEpochSecond((seconds >>> 1) ^ -(seconds & 1), readVarint(in));
+  }
+
+  private static byte[] deflate(byte[] bytes) {
+    var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      var out = new ByteArrayOutputStream(bytes.length / 2);
+      byte[] chunk = new byte[1024];
+      while (!deflater.finished()) {
+        out.write(chunk, 0, deflater.deflate(chunk));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(ByteBuffer in, int length) {
+    if (length < 0) {
+      throw new KiteException("Malformed history message content");
+    }
+    var inflater = new Inflater(true);
+    try {
+      inflater.setInput(in.array(), in.position(), in.remaining());
+      byte[] bytes = new byte[length];
+      int inflated = 0;
+      while (inflated < length && !inflater.finished()) {
+        int count = inflater.inflate(bytes, inflated, length - inflated);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        inflated += count;
+      }
+      if (inflated != length) {
+        throw new KiteException("Malformed history message content");
+      }
+      return bytes;
+    } catch (DataFormatException e) {
+      throw new KiteException("Malformed history message content", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static final class Output extends ByteArrayOutputStream {
+
+    Output() {
+      super(64);
+    }
+
+    void writeVarint(long value) {
+      while ((value & ~0x7fL) != 0) {
+        this.write((int) (value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      this.write((int) value);
+    }
+
+    void writeBlob(byte[] bytes) {
+      this.writeVarint(bytes.length);
+      this.write(bytes, 0, bytes.length);
+    }
+
+    void writeString(String value) {
+      this.writeBlob(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Seconds are zigzag encoded, as instants before the epoch are negative */
+    void writeInstant(Instant value) {
+      long seconds = value.getEpochSecond();
+      this.writeVarint((seconds << 1) ^ (seconds >> 63));
+      this.writeVarint(value.getNano());
+    }
+  }
+}
@@ -0,0 +1,742 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.readInstant;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.readString;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.writeInstant;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.writeString;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.router.domain.ChannelName;
+import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
+import ua.com.pragmasoft.k1te.backend.router.domain.ConnectionUri;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.MemberChanges;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryMember.Connection;
+import ua.com.pragmasoft.k1te.backend.shared.ConflictException;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+import ua.com.pragmasoft.k1te.backend.shared.NotFoundException;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector;
+
+/**
+ * Channels kept in memory of a single node, for deployments which do not need a shared database.
+ *
+ * <p>Lookups by connection and by channel and member id are plain reads of concurrent maps holding
+ * immutable {@link InMemoryMember} instances. Changes are serialized and, when a directory is
+ * given, written ahead to the {@link Journal} before they are applied, so the state survives
+ * restarts and crashes. Periodic snapshots keep the log short.
+ *
+ * <p>The time each websocket connection was last seen is kept in memory only, recovered
+ * connections are seen at the recovery, so the ones which do not come back are swept after the
+ * connection ttl.
+ */
+public class InMemoryChannels implements Channels, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(InMemoryChannels.class);
+
+  static final String JOURNAL_NAME = "channels";
+
+  private static final byte HOST = 1;
+  private static final byte DROP = 2;
+  private static final byte JOIN = 3;
+  private static final byte LEAVE = 4;
+  private static final byte SWITCH = 5;
+  private static final byte PEER = 6;
+  private static final byte CONNECTION = 7;
+  private static final byte PIN = 8;
+  private static final byte PURGE = 9;
+
+  public static final Duration DEFAULT_CONNECTION_TTL = Duration.ofMinutes(15);
+
+  private final Map<MemberKey, InMemoryMember> members = new ConcurrentHashMap<>();
+  private final Map<String, MemberKey> connections = new ConcurrentHashMap<>();
+  private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+  private final Map<String, String> hostedChannels = new ConcurrentHashMap<>();
+  private final Map<String, Instant> seen = new ConcurrentHashMap<>();
+  private final Object lock = new Object();
+  private final Journal journal;
+  private final Duration connectionTtl;
+
+  /** Keeps channels in memory only, they are lost on restart */
+  public InMemoryChannels() {
+    this(DEFAULT_CONNECTION_TTL);
+  }
+
+  /**
+   * @param connectionTtl time the websocket connection lives without any frame
+   */
+  public InMemoryChannels(Duration connectionTtl) {
+    this.journal = null;
+    this.connectionTtl = Objects.requireNonNull(connectionTtl, "connection ttl");
+  }
+
+  /**
+   * Recovers channels from the directory and journals all changes there.
+   *
+   * @param directory local directory for the journal and snapshots
+   * @param snapshotInterval how often to write the snapshot, zero disables periodic snapshots
+   */
+  public InMemoryChannels(Path directory, Duration snapshotInterval) {
+    this(directory, snapshotInterval, DEFAULT_CONNECTION_TTL);
+  }
+
+  /**
+   * @param connectionTtl time the websocket connection lives without any frame
+   */
+  public InMemoryChannels(Path directory, Duration snapshotInterval, Duration connectionTtl) {
+    Objects.requireNonNull(directory, "directory");
+    this.connectionTtl = Objects.requireNonNull(connectionTtl, "connection ttl");
+    this.journal = new Journal(directory, JOURNAL_NAME);
+    try {
+      this.journal.recover(this::readSnapshot, this::replay);
+    } catch (IOException e) {
+      throw new KiteException("Cannot recover channels from " + directory, e);
+    }
+    if (!snapshotInterval.isZero()) {
+      this.journal.scheduleSnapshots(snapshotInterval, this::snapshot);
+    }
+    log.info("Recovered {} channels with {} members", this.channels.size(), this.members.size());
+  }
+
+  @Override
+  public Member hostChannel(String channel, String memberId, String ownerConnection, String title) {
+    ChannelName.validate(channel);
+    Objects.requireNonNull(memberId, "member id");
+    Objects.requireNonNull(ownerConnection, "owner connection");
+    String userName = null != title ? title : channel;
+    ConnectionUri connection = ConnectionUri.parse(ownerConnection);
+    Instant time = Instant.now();
+    synchronized (this.lock) {
+      if (this.channels.containsKey(channel)) {
+        throw new ConflictException("Channel name is already taken");
+      }
+      if (this.hostedChannels.containsKey(memberId)) {
+        throw new ConflictException("You cannot host more than one channel");
+      }
+      this.append(
+          out -> {
+            out.writeByte(HOST);
+            writeString(out, channel);
+            writeString(out, memberId);
+            writeString(out, ownerConnection);
+            writeString(out, userName);
+            writeInstant(out, time);
+          });
+      return this.applyHost(channel, memberId, connection, userName, time);
+    }
+  }
+
+  @Override
+  public Member dropChannel(String ownerConnection) {
+    Objects.requireNonNull(ownerConnection, "owner connection");
+    synchronized (this.lock) {
+      InMemoryMember host = this.find(ownerConnection);
+      if (!host.isHost()) {
+        throw new ValidationException("Only host member can drop its channel");
+      }
+      String channel = host.getChannelName();
+      this.append(
+          out -> {
+            out.writeByte(DROP);
+            writeString(out, channel);
+          });
+      this.applyDrop(channel);
+      return host;
+    }
+  }
+
+  @Override
+  public Member joinChannel(
+      String channelName, String memberId, String connection, String memberName) {
+    ChannelName.validate(channelName);
+    Objects.requireNonNull(memberId, "member id");
+    Objects.requireNonNull(connection, "connection");
+    Objects.requireNonNull(memberName, "user name");
+    ConnectionUri connectionUri = ConnectionUri.parse(connection);
+    Instant time = Instant.now();
+    synchronized (this.lock) {
+      if (!this.channels.containsKey(channelName)) {
+        throw new NotFoundException("Channel not found");
+      }
+      if (this.hostedChannels.containsKey(memberId)) {
+        throw new ValidationException(
+            "You are Host in another Channel. To check the channel use /info");
+      }
+      InMemoryMember existing = this.members.get(new MemberKey(channelName, memberId));
+      if (null != existing && existing.hasConnection(connectionUri)) {
+        throw new ValidationException("You are already in this Channel");
+      }
+      this.append(
+          out -> {
+            out.writeByte(JOIN);
+            writeString(out, channelName);
+            writeString(out, memberId);
+            writeString(out, connection);
+            writeString(out, memberName);
+            writeInstant(out, time);
+          });
+      return this.applyJoin(channelName, memberId, connectionUri, memberName, time);
+    }
+  }
+
+  @Override
+  public Member leaveChannel(String connection) {
+    Objects.requireNonNull(connection, "member connection");
+    synchronized (this.lock) {
+      InMemoryMember member = this.find(connection);
+      if (member.isHost()) {
+        throw new ValidationException("Host member cannot leave channel. You can only drop it");
+      }
+      this.append(
+          out -> {
+            out.writeByte(LEAVE);
+            writeString(out, connection);
+          });
+      this.applyLeave(ConnectionUri.parse(connection));
+      return member;
+    }
+  }
+
+  @Override
+  public void purgeConnection(String connectionUri) {
+    Objects.requireNonNull(connectionUri, "connection");
+    synchronized (this.lock) {
+      if (!this.connections.containsKey(connectionUri)) {
+        return;
+      }
+      this.append(
+          out -> {
+            out.writeByte(PURGE);
+            writeString(out, connectionUri);
+          });
+      this.applyPurge(ConnectionUri.parse(connectionUri));
+    }
+  }
+
+  @Override
+  public void refreshConnection(String connectionUri) {
+    Objects.requireNonNull(connectionUri, "connection");
+    this.seen.computeIfPresent(connectionUri, (uri, time) -> Instant.now());
+  }
+
+  @Override
+  public int sweepConnections() {
+    Instant expired = Instant.now().minus(this.connectionTtl);
+    int purged = 0;
+    for (Map.Entry<String, Instant> connection : this.seen.entrySet()) {
+      // the connection refreshed meanwhile is kept
+      if (connection.getValue().isBefore(expired)
+          && this.seen.remove(connection.getKey(), connection.getValue())) {
+        this.purgeConnection(connection.getKey());
+        purged++;
+      }
+    }
+    if (purged > 0) {
+      log.info("Swept {} dead connections", purged);
+    }
+    return purged;
+  }
+
+  @Override
+  public Member switchConnection(String channelName, String memberId, String newConnection) {
+    Objects.requireNonNull(newConnection, "connection");
+    ConnectionUri connection = ConnectionUri.parse(newConnection);
+    Instant time = Instant.now();
+    synchronized (this.lock) {
+      this.find(channelName, memberId);
+      this.append(
+          out -> {
+            out.writeByte(SWITCH);
+            writeString(out, channelName);
+            writeString(out, memberId);
+            writeString(out, newConnection);
+            writeInstant(out, time);
+          });
+      return this.applyConnection(channelName, memberId, connection, null, time);
+    }
+  }
+
+  @Override
+  public InMemoryMember find(String memberConnection) {
+    Objects.requireNonNull(memberConnection, "connection");
+    MemberKey key = this.connections.get(memberConnection);
+    if (null == key) {
+      throw new NotFoundException("Searched connection Not Found");
+    }
+    InMemoryMember member = this.members.get(key);
+    if (null == member) {
+      throw new NotFoundException("Searched connection Not Found");
+    }
+    return member;
+  }
+
+  @Override
+  public InMemoryMember find(ConnectionUri memberConnection) {
+    Objects.requireNonNull(memberConnection, "connection");
+    return this.find(memberConnection.toString());
+  }
+
+  @Override
+  public InMemoryMember find(String channel, String memberId) {
+    InMemoryMember member = this.members.get(new MemberKey(channel, memberId));
+    if (null == member) {
+      throw new NotFoundException("Not found member");
+    }
+    return member;
+  }
+
+  @Override
+  public Member findHost(String channelName) {
+    Objects.requireNonNull(channelName, "channel name");
+    Channel channel = this.channels.get(channelName);
+    if (null == channel) {
+      throw new NotFoundException("Channel has not been found by a given channelName");
+    }
+    return this.find(channelName, channel.hostId());
+  }
+
+  @Override
+  public List<Member> findMembers(String channelName) {
+    Objects.requireNonNull(channelName, "channel name");
+    Channel channel = this.channels.get(channelName);
+    if (null == channel) {
+      return List.of();
+    }
+    List<Member> channelMembers = new ArrayList<>(channel.memberIds().size());
+    for (String memberId : channel.memberIds()) {
+      InMemoryMember member = this.members.get(new MemberKey(channelName, memberId));
+      if (null != member) {
+        channelMembers.add(member);
+      }
+    }
+    return channelMembers;
+  }
+
+  @Override
+  public String findUnAnsweredMessage(Member from, Member to) {
+    InMemoryMember current = this.members.get(MemberKey.of(from));
+    return null == current ? null : current.pinnedMessages().get(to.getId());
+  }
+
+  @Override
+  public void updateUnAnsweredMessage(Member from, Member to, String pinnedMessagedId) {
+    Objects.requireNonNull(pinnedMessagedId, "pinned message id");
+    this.pin(from, to.getId(), pinnedMessagedId);
+  }
+
+  @Override
+  public void deleteUnAnsweredMessage(Member from, Member to) {
+    this.pin(from, to.getId(), null);
+  }
+
+  @Override
+  public void updatePeer(Member member, String peerMemberId) {
+    Objects.requireNonNull(peerMemberId, "peer Member");
+    synchronized (this.lock) {
+      this.recordPeer(MemberKey.of(member), peerMemberId);
+    }
+  }
+
+  @Override
+  public void updateConnection(
+      Member memberToUpdate, String connectionUri, String messageId, Instant usageTime) {
+    Objects.requireNonNull(connectionUri);
+    Objects.requireNonNull(messageId);
+    Objects.requireNonNull(usageTime);
+    synchronized (this.lock) {
+      this.recordConnection(
+          MemberKey.of(memberToUpdate), ConnectionUri.parse(connectionUri), messageId, usageTime);
+    }
+  }
+
+  /** Applies all changes under a single lock, members which have already left are skipped */
+  @Override
+  public void commit(MemberChanges changes) {
+    synchronized (this.lock) {
+      for (MemberChanges.Change change : changes) {
+        MemberKey key = MemberKey.of(change.member());
+        for (MemberChanges.ConnectionUpdate update : change.connections()) {
+          this.recordConnection(
+              key, update.connectionUri(), update.messageId(), update.usageTime());
+        }
+        if (null != change.peerMemberId()) {
+          this.recordPeer(key, change.peerMemberId());
+        }
+      }
+    }
+  }
+
+  /** Writes the snapshot of the current state, does nothing without the journal */
+  public void snapshot() {
+    if (null == this.journal) {
+      return;
+    }
+    Map<String, String> hosts = new LinkedHashMap<>();
+    List<InMemoryMember> state;
+    long sequence;
+    try {
+      synchronized (this.lock) {
+        this.channels.forEach((name, channel) -> hosts.put(name, channel.hostId()));
+        state = List.copyOf(this.members.values());
+        sequence = this.journal.rotate();
+      }
+      this.journal.writeSnapshot(sequence, out -> writeState(out, hosts, state));
+    } catch (IOException e) {
+      throw new KiteException("Cannot write channels snapshot", e);
+    }
+  }
+
+  /** Writes the final snapshot and closes the journal */
+  @Override
+  public void close() throws IOException {
+    if (null != this.journal) {
+      this.snapshot();
+      this.journal.close();
+    }
+  }
+
+  private void pin(Member from, String toMemberId, String pinnedMessageId) {
+    MemberKey key = MemberKey.of(from);
+    synchronized (this.lock) {
+      InMemoryMember current = this.members.get(key);
+      if (null == current
+          || Objects.equals(pinnedMessageId, current.pinnedMessages().get(toMemberId))) {
+        return;
+      }
+      this.append(
+          out -> {
+            out.writeByte(PIN);
+            writeString(out, key.channelName());
+            writeString(out, key.memberId());
+            writeString(out, toMemberId);
+            writeString(out, pinnedMessageId);
+          });
+      this.applyPin(key, toMemberId, pinnedMessageId);
+    }
+  }
+
+  private void recordPeer(MemberKey key, String peerMemberId) {
+    InMemoryMember current = this.members.get(key);
+    if (null == current || peerMemberId.equals(current.getPeerMemberId())) {
+      return;
+    }
+    this.append(
+        out -> {
+          out.writeByte(PEER);
+          writeString(out, key.channelName());
+          writeString(out, key.memberId());
+          writeString(out, peerMemberId);
+        });
+    this.applyPeer(key, peerMemberId);
+  }
+
+  private void recordConnection(
+      MemberKey key, ConnectionUri connection, String messageId, Instant usageTime) {
+    if (!this.members.containsKey(key)) {
+      return;
+    }
+    this.append(
+        out -> {
+          out.writeByte(CONNECTION);
+          writeString(out, key.channelName());
+          writeString(out, key.memberId());
+          writeString(out, connection.toString());
+          writeString(out, messageId);
+          writeInstant(out, usageTime);
+        });
+    this.applyConnection(key.channelName(), key.memberId(), connection, messageId, usageTime);
+  }
+
+  private void append(Journal.Writer record) {
+    if (null != this.journal) {
+      try {
+        this.journal.append(record);
+      } catch (IOException e) {
+        throw new KiteException("Cannot write channels journal", e);
+      }
+    }
+  }
+
+  private InMemoryMember applyHost(
+      String channel, String memberId, ConnectionUri connection, String userName, Instant time) {
+    this.channels.put(channel, new Channel(memberId, ConcurrentHashMap.newKeySet()));
+    this.hostedChannels.put(memberId, channel);
+    InMemoryMember host =
+        InMemoryMember.of(channel, memberId, userName, true, null)
+            .withConnection(connection, null, time);
+    this.store(null, host);
+    return host;
+  }
+
+  private void applyDrop(String channelName) {
+    Channel channel = this.channels.remove(channelName);
+    if (null == channel) {
+      return;
+    }
+    this.hostedChannels.remove(channel.hostId(), channelName);
+    for (String memberId : List.copyOf(channel.memberIds())) {
+      this.remove(new MemberKey(channelName, memberId));
+    }
+  }
+
+  private InMemoryMember applyJoin(
+      String channelName,
+      String memberId,
+      ConnectionUri connection,
+      String userName,
+      Instant time) {
+    MemberKey key = new MemberKey(channelName, memberId);
+    InMemoryMember existing = this.members.get(key);
+    if (null != existing) {
+      return this.applyConnection(channelName, memberId, connection, null, time);
+    }
+    Channel channel = this.channels.get(channelName);
+    if (null == channel) {
+      return null;
+    }
+    InMemoryMember member =
+        InMemoryMember.of(channelName, memberId, userName, false, channel.hostId())
+            .withConnection(connection, null, time);
+    this.store(null, member);
+    return member;
+  }
+
+  private void applyLeave(ConnectionUri connection) {
+    MemberKey key = this.connections.get(connection.toString());
+    InMemoryMember member = null == key ? null : this.members.get(key);
+    if (null == member) {
+      return;
+    }
+    if (member.connectionUri().equals(connection)) {
+      this.remove(key);
+    } else {
+      // keeps the member reachable with its more recent connection
+      this.store(member, member.withoutConnection(connection.connectorId()));
+    }
+  }
+
+  /** Unlike leave, keeps the member even without connections, so it can reconnect */
+  private void applyPurge(ConnectionUri connection) {
+    MemberKey key = this.connections.get(connection.toString());
+    InMemoryMember member = null == key ? null : this.members.get(key);
+    if (null != member) {
+      this.store(member, member.withoutConnection(connection.connectorId()));
+    }
+  }
+
+  private InMemoryMember applyConnection(
+      String channelName,
+      String memberId,
+      ConnectionUri connection,
+      String messageId,
+      Instant time) {
+    InMemoryMember current = this.members.get(new MemberKey(channelName, memberId));
+    if (null == current) {
+      return null;
+    }
+    InMemoryMember updated = current.withConnection(connection, messageId, time);
+    this.store(current, updated);
+    return updated;
+  }
+
+  private void applyPeer(MemberKey key, String peerMemberId) {
+    InMemoryMember current = this.members.get(key);
+    if (null != current) {
+      this.members.put(key, current.withPeer(peerMemberId));
+    }
+  }
+
+  private void applyPin(MemberKey key, String toMemberId, String pinnedMessageId) {
+    InMemoryMember current = this.members.get(key);
+    if (null != current) {
+      this.members.put(key, current.withPinnedMessage(toMemberId, pinnedMessageId));
+    }
+  }
+
+  /** Replaces the member and reindexes its connections */
+  private void store(InMemoryMember previous, InMemoryMember member) {
+    MemberKey key = MemberKey.of(member);
+    if (null != previous) {
+      previous
+          .connections()
+          .forEach(
+              (connectorId, connection) -> {
+                Connection kept = member.connections().get(connectorId);
+                if (null == kept || !kept.rawConnection().equals(connection.rawConnection())) {
+                  this.unindex(uri(connectorId, connection), key);
+                }
+              });
+    }
+    member
+        .connections()
+        .forEach(
+            (connectorId, connection) -> {
+              String uri = uri(connectorId, connection);
+              this.connections.put(uri, key);
+              if (WsConnector.WS.equals(connectorId)) {
+                this.seen.putIfAbsent(uri, Instant.now());
+              }
+            });
+    this.members.put(key, member);
+    Channel channel = this.channels.get(key.channelName());
+    if (null != channel) {
+      channel.memberIds().add(key.memberId());
+    }
+  }
+
+  private void remove(MemberKey key) {
+    InMemoryMember member = this.members.remove(key);
+    if (null == member) {
+      return;
+    }
+    member
+        .connections()
+        .forEach((connectorId, connection) -> this.unindex(uri(connectorId, connection), key));
+    Channel channel = this.channels.get(key.channelName());
+    if (null != channel) {
+      channel.memberIds().remove(key.memberId());
+    }
+  }
+
+  private void unindex(String uri, MemberKey key) {
+    if (this.connections.remove(uri, key)) {
+      this.seen.remove(uri);
+    }
+  }
+
+  private void replay(DataInput in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case HOST -> this.applyHost(
+          readString(in),
+          readString(in),
+          ConnectionUri.parse(readString(in)),
+          readString(in),
+          readInstant(in));
+      case DROP -> this.applyDrop(readString(in));
+      case JOIN -> this.applyJoin(
+          readString(in),
+          readString(in),
+          ConnectionUri.parse(readString(in)),
+          readString(in),
+          readInstant(in));
+      case LEAVE -> this.applyLeave(ConnectionUri.parse(readString(in)));
+      case PURGE -> this.applyPurge(ConnectionUri.parse(readString(in)));
+      case SWITCH -> this.applyConnection(
+          readString(in),
+          readString(in),
+          ConnectionUri.parse(readString(in)),
+          null,
+          readInstant(in));
+      case PEER -> this.applyPeer(new MemberKey(readString(in), readString(in)), readString(in));
+      case CONNECTION -> this.applyConnection(
+          readString(in),
+          readString(in),
+          ConnectionUri.parse(readString(in)),
+          readString(in),
+          readInstant(in));
+      case PIN -> this.applyPin(
+          new MemberKey(readString(in), readString(in)), readString(in), readString(in));
+      default -> throw new IOException("Unknown channels journal record " + type);
+    }
+  }
+
+  private static void writeState(
+      DataOutput out, Map<String, String> hosts, List<InMemoryMember> state) throws IOException {
+    out.writeInt(hosts.size());
+    for (Map.Entry<String, String> host : hosts.entrySet()) {
+      writeString(out, host.getKey());
+      writeString(out, host.getValue());
+    }
+    out.writeInt(state.size());
+    for (InMemoryMember member : state) {
+      writeString(out, member.getChannelName());
+      writeString(out, member.getId());
+      writeString(out, member.getUserName());
+      out.writeBoolean(member.isHost());
+      writeString(out, member.getPeerMemberId());
+      out.writeInt(member.connections().size());
+      for (Map.Entry<String, Connection> entry : member.connections().entrySet()) {
+        Connection connection = entry.getValue();
+        writeString(out, entry.getKey());
+        writeString(out, connection.rawConnection());
+        writeInstant(out, connection.lastTime());
+        writeString(out, connection.lastMessageId());
+      }
+      out.writeInt(member.pinnedMessages().size());
+      for (Map.Entry<String, String> pinned : member.pinnedMessages().entrySet()) {
+        writeString(out, pinned.getKey());
+        writeString(out, pinned.getValue());
+      }
+    }
+  }
+
+  private void readSnapshot(DataInput in) throws IOException {
+    int channelCount = in.readInt();
+    for (int i = 0; i < channelCount; i++) {
+      String channelName = readString(in);
+      String hostId = readString(in);
+      this.channels.put(channelName, new Channel(hostId, ConcurrentHashMap.newKeySet()));
+      this.hostedChannels.put(hostId, channelName);
+    }
+    int memberCount = in.readInt();
+    for (int i = 0; i < memberCount; i++) {
+      String channelName = readString(in);
+      String id = readString(in);
+      String userName = readString(in);
+      boolean host = in.readBoolean();
+      String peerMemberId = readString(in);
+      int connectionCount = in.readInt();
+      Map<String, Connection> memberConnections = new LinkedHashMap<>();
+      for (int c = 0; c < connectionCount; c++) {
+        memberConnections.put(
+            readString(in), new Connection(readString(in), readInstant(in), readString(in)));
+      }
+      int pinnedCount = in.readInt();
+      Map<String, String> pinnedMessages = new LinkedHashMap<>();
+      for (int p = 0; p < pinnedCount; p++) {
+        pinnedMessages.put(readString(in), readString(in));
+      }
+      this.store(
+          null,
+          new InMemoryMember(
+              channelName,
+              id,
+              userName,
+              host,
+              peerMemberId,
+              Collections.unmodifiableMap(memberConnections),
+              Collections.unmodifiableMap(pinnedMessages)));
+    }
+  }
+
+  private static String uri(String connectorId, Connection connection) {
+    return connectorId + ':' + connection.rawConnection();
+  }
+
+  private record MemberKey(String channelName, String memberId) {
+
+    static MemberKey of(Member member) {
+      return new MemberKey(member.getChannelName(), member.getId());
+    }
+  }
+
+  private record Channel(String hostId, Set<String> memberIds) {}
+}
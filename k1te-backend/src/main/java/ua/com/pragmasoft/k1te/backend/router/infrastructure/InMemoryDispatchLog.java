@@ -0,0 +1,111 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.router.domain.DispatchLog;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.CachingChannels.NearCache;
+import ua.com.pragmasoft.k1te.backend.shared.ConflictException;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+
+/**
+ * Keeps acks of recently dispatched messages in a bounded LRU cache with limited time to live. A
+ * duplicate which arrives while the message is still being dispatched waits for the first
+ * dispatch to complete and gets its ack, or takes over if the first dispatch fails.
+ *
+ * <p>Only duplicates received by the same process are detected, use {@link DynamoDbDispatchLog}
+ * when messages may be redelivered to another instance.
+ */
+public class InMemoryDispatchLog implements DispatchLog {
+
+  private static final Logger log = LoggerFactory.getLogger(InMemoryDispatchLog.class);
+
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+  public static final Duration DEFAULT_WAIT_TIMEOUT = Duration.ofSeconds(10);
+
+  private final NearCache<String, MessageAck> dispatched;
+  private final Map<String, CompletableFuture<MessageAck>> inFlight = new ConcurrentHashMap<>();
+  private final long waitTimeoutMillis;
+
+  public InMemoryDispatchLog() {
+    this(DEFAULT_MAX_SIZE, DEFAULT_TTL, DEFAULT_WAIT_TIMEOUT);
+  }
+
+  /**
+   * @param maxSize max number of remembered messages, least recently used are forgotten first
+   * @param ttl how long the message is remembered after its dispatch
+   * @param waitTimeout how long a duplicate waits for the message which is being dispatched
+   */
+  public InMemoryDispatchLog(int maxSize, Duration ttl, Duration waitTimeout) {
+    this(maxSize, ttl, waitTimeout, System::nanoTime);
+  }
+
+  InMemoryDispatchLog(int maxSize, Duration ttl, Duration waitTimeout, LongSupplier nanoClock) {
+    Objects.requireNonNull(ttl, "Time to live");
+    if (maxSize < 1) throw new IllegalArgumentException("Dispatch log size must be positive");
+    this.dispatched = new NearCache<>(maxSize, ttl.toNanos(), nanoClock);
+    this.waitTimeoutMillis = waitTimeout.toMillis();
+    log.info("Dispatch log with max size {} and ttl {}", maxSize, ttl);
+  }
+
+  @Override
+  public MessageAck claim(String key) throws KiteException {
+    while (true) {
+      MessageAck ack = this.dispatched.get(key);
+      if (null != ack) {
+        return ack;
+      }
+      var claim = new CompletableFuture<MessageAck>();
+      CompletableFuture<MessageAck> pending = this.inFlight.putIfAbsent(key, claim);
+      if (null == pending) {
+        // could be completed between the lookup and the claim
+        ack = this.dispatched.get(key);
+        if (null != ack) {
+          this.inFlight.remove(key, claim);
+          claim.complete(ack);
+          return ack;
+        }
+        return null;
+      }
+      try {
+        return pending.get(this.waitTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (CancellationException | ExecutionException released) {
+        // the first dispatch failed, try to claim it again
+      } catch (TimeoutException e) {
+        throw new ConflictException("Message is still being dispatched");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new KiteException("Interrupted while waiting for the message dispatch", e);
+      }
+    }
+  }
+
+  @Override
+  public void complete(String key, MessageAck ack) {
+    this.dispatched.put(key, ack);
+    CompletableFuture<MessageAck> claim = this.inFlight.remove(key);
+    if (null != claim) {
+      claim.complete(ack);
+    }
+  }
+
+  @Override
+  public void release(String key) {
+    CompletableFuture<MessageAck> claim = this.inFlight.remove(key);
+    if (null != claim) {
+      claim.cancel(false);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import ua.com.pragmasoft.k1te.backend.router.domain.ConnectionUri;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+
+/**
+ * Immutable member state kept by {@link InMemoryChannels}. Every change produces a new instance,
+ * so members can be read without locks while another thread updates them.
+ */
+public final class InMemoryMember implements Member {
+
+  private final String channelName;
+  private final String id;
+  private final String userName;
+  private final boolean host;
+  private final String peerMemberId;
+  private final Map<String, Connection> connections;
+  private final Map<String, String> pinnedMessages;
+  private final ConnectionUri connection;
+
+  InMemoryMember(
+      String channelName,
+      String id,
+      String userName,
+      boolean host,
+      String peerMemberId,
+      Map<String, Connection> connections,
+      Map<String, String> pinnedMessages) {
+    this.channelName = Objects.requireNonNull(channelName, "channel name");
+    this.id = Objects.requireNonNull(id, "member id");
+    this.userName = userName;
+    this.host = host;
+    this.peerMemberId = peerMemberId;
+    this.connections = connections;
+    this.pinnedMessages = pinnedMessages;
+    this.connection = mostRecentConnection(connections);
+  }
+
+  static InMemoryMember of(
+      String channelName, String id, String userName, boolean host, String peerMemberId) {
+    return new InMemoryMember(channelName, id, userName, host, peerMemberId, Map.of(), Map.of());
+  }
+
+  @Override
+  public String getId() {
+    return this.id;
+  }
+
+  @Override
+  public String getChannelName() {
+    return this.channelName;
+  }
+
+  @Override
+  public String getUserName() {
+    return this.userName;
+  }
+
+  @Override
+  public boolean isHost() {
+    return this.host;
+  }
+
+  @Override
+  public String getConnectionUri() {
+    return this.connectionUri().toString();
+  }
+
+  /** Most recently used connection */
+  @Override
+  public ConnectionUri connectionUri() {
+    if (null == this.connection) {
+      throw new RoutingException("missing connectionUri");
+    }
+    return this.connection;
+  }
+
+  @Override
+  public String getLastMessageId() {
+    return this.connections.get(this.connectionUri().connectorId()).lastMessageId();
+  }
+
+  @Override
+  public String getPeerMemberId() {
+    return this.peerMemberId;
+  }
+
+  /** Connections by connector id */
+  public Map<String, Connection> connections() {
+    return this.connections;
+  }
+
+  /** Pinned message ids by the member id they are addressed to */
+  public Map<String, String> pinnedMessages() {
+    return this.pinnedMessages;
+  }
+
+  public boolean hasConnection(ConnectionUri connectionUri) {
+    Connection existing = this.connections.get(connectionUri.connectorId());
+    return null != existing && existing.rawConnection().equals(connectionUri.rawConnection());
+  }
+
+  InMemoryMember withPeer(String peerMemberId) {
+    return new InMemoryMember(
+        this.channelName,
+        this.id,
+        this.userName,
+        this.host,
+        peerMemberId,
+        this.connections,
+        this.pinnedMessages);
+  }
+
+  InMemoryMember withConnection(
+      ConnectionUri connectionUri, String messageId, Instant usageTime) {
+    Map<String, Connection> updated = new LinkedHashMap<>(this.connections);
+    updated.put(
+        connectionUri.connectorId(),
+        new Connection(connectionUri.rawConnection(), usageTime, messageId));
+    return new InMemoryMember(
+        this.channelName,
+        this.id,
+        this.userName,
+        this.host,
+        this.peerMemberId,
+        Collections.unmodifiableMap(updated),
+        this.pinnedMessages);
+  }
+
+  InMemoryMember withoutConnection(String connectorId) {
+    Map<String, Connection> updated = new LinkedHashMap<>(this.connections);
+    updated.remove(connectorId);
+    return new InMemoryMember(
+        this.channelName,
+        this.id,
+        this.userName,
+        this.host,
+        this.peerMemberId,
+        Collections.unmodifiableMap(updated),
+        this.pinnedMessages);
+  }
+
+  InMemoryMember withPinnedMessage(String memberId, String messageId) {
+    Map<String, String> updated = new LinkedHashMap<>(this.pinnedMessages);
+    if (null == messageId) {
+      updated.remove(memberId);
+    } else {
+      updated.put(memberId, messageId);
+    }
+    return new InMemoryMember(
+        this.channelName,
+        this.id,
+        this.userName,
+        this.host,
+        this.peerMemberId,
+        this.connections,
+        Collections.unmodifiableMap(updated));
+  }
+
+  private static ConnectionUri mostRecentConnection(Map<String, Connection> connections) {
+    String connectorId = null;
+    Connection mostRecent = null;
+    for (Map.Entry<String, Connection> entry : connections.entrySet()) {
+      Connection candidate = entry.getValue();
+      if (null == mostRecent || candidate.lastTime().isAfter(mostRecent.lastTime())) {
+        connectorId = entry.getKey();
+        mostRecent = candidate;
+      }
+    }
+    return null == mostRecent ? null : ConnectionUri.of(connectorId, mostRecent.rawConnection());
+  }
+
+  @Override
+  public String toString() {
+    return "InMemoryMember [channelName="
+        + channelName
+        + ", id="
+        + id
+        + ", userName="
+        + userName
+        + ", host="
+        + host
+        + ", peerMemberId="
+        + peerMemberId
+        + ", connections="
+        + connections
+        + "]";
+  }
+
+  /**
+   * @param rawConnection connector specific connection
+   * @param lastTime last time the connection was used
+   * @param lastMessageId id of the last message sent or received with this connection
+   */
+  public record Connection(String rawConnection, Instant lastTime, String lastMessageId) {
+
+    public Connection {
+      Objects.requireNonNull(rawConnection, "raw connection");
+      Objects.requireNonNull(lastTime, "last time");
+    }
+  }
+}
@@ -0,0 +1,325 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.readBytes;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.readInstant;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.readString;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.writeBytes;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.writeInstant;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.writeString;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.router.domain.HistoryCursor;
+import ua.com.pragmasoft.k1te.backend.router.domain.HistoryMessage;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.Messages;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+
+/**
+ * Keeps the most recent messages of every member in a bounded ring buffer in memory, optionally
+ * journaled to the local disk like {@link InMemoryChannels}. Payloads are kept as is and packed to
+ * {@link HistoryContent} records only in the journal.
+ */
+public class InMemoryMessages implements Messages, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(InMemoryMessages.class);
+
+  static final String JOURNAL_NAME = "messages";
+
+  /** Same as the history replayed to the member switching to telegram */
+  public static final int DEFAULT_CAPACITY = 10;
+
+  private final int capacity;
+  private final Map<String, History> histories = new ConcurrentHashMap<>();
+  private final Object lock = new Object();
+  private final Journal journal;
+
+  /** Keeps messages in memory only, they are lost on restart */
+  public InMemoryMessages(int capacity) {
+    this.capacity = requirePositive(capacity);
+    this.journal = null;
+  }
+
+  /**
+   * Recovers messages from the directory and journals all new messages there.
+   *
+   * @param capacity number of the most recent messages kept for every member
+   * @param directory local directory for the journal and snapshots
+   * @param snapshotInterval how often to write the snapshot, zero disables periodic snapshots
+   */
+  public InMemoryMessages(int capacity, Path directory, Duration snapshotInterval) {
+    Objects.requireNonNull(directory, "directory");
+    this.capacity = requirePositive(capacity);
+    this.journal = new Journal(directory, JOURNAL_NAME);
+    try {
+      this.journal.recover(this::readSnapshot, this::replay);
+    } catch (IOException e) {
+      throw new KiteException("Cannot recover messages from " + directory, e);
+    }
+    if (!snapshotInterval.isZero()) {
+      this.journal.scheduleSnapshots(snapshotInterval, this::snapshot);
+    }
+    log.info("Recovered history of {} members", this.histories.size());
+  }
+
+  @Override
+  public HistoryMessage persist(
+      Member owner, String messageId, MessagePayload content, Instant time, boolean incoming) {
+    Objects.requireNonNull(owner);
+    Objects.requireNonNull(messageId);
+    Objects.requireNonNull(content);
+    Objects.requireNonNull(time);
+    var message =
+        new StoredMessage(
+            owner.getChannelName(), owner.getId(), messageId, content, time, incoming);
+    synchronized (this.lock) {
+      if (null != this.journal) {
+        try {
+          this.journal.append(out -> write(out, message));
+        } catch (IOException e) {
+          throw new KiteException("Cannot write messages journal", e);
+        }
+      }
+      this.add(message);
+    }
+    return message;
+  }
+
+  /** Returns messages newest first, only those with id greater than lastMessageId if given */
+  @Override
+  public List<HistoryMessage> findAll(Member member, String lastMessageId, Integer limit) {
+    Objects.requireNonNull(member);
+    Objects.requireNonNull(limit);
+    History history = this.histories.get(key(member.getChannelName(), member.getId()));
+    if (null == history) {
+      return List.of();
+    }
+    return history.latest(lastMessageId, limit);
+  }
+
+  /**
+   * Pages messages in the order they were persisted. The page after the message which is no longer
+   * kept is empty, as its position is lost.
+   */
+  @Override
+  public Page findPage(Member member, String cursor, int limit) {
+    Objects.requireNonNull(member);
+    String lastMessageId = HistoryCursor.messageId(cursor);
+    History history = this.histories.get(key(member.getChannelName(), member.getId()));
+    if (null == history) {
+      return new Page(List.of(), null);
+    }
+    return history.page(lastMessageId, limit);
+  }
+
+  /** Writes the snapshot of the current state, does nothing without the journal */
+  public void snapshot() {
+    if (null == this.journal) {
+      return;
+    }
+    List<StoredMessage> state = new ArrayList<>();
+    long sequence;
+    try {
+      synchronized (this.lock) {
+        this.histories.values().forEach(history -> history.copyTo(state));
+        sequence = this.journal.rotate();
+      }
+      this.journal.writeSnapshot(
+          sequence,
+          out -> {
+            out.writeInt(state.size());
+            for (StoredMessage message : state) {
+              write(out, message);
+            }
+          });
+    } catch (IOException e) {
+      throw new KiteException("Cannot write messages snapshot", e);
+    }
+  }
+
+  /** Writes the final snapshot and closes the journal */
+  @Override
+  public void close() throws IOException {
+    if (null != this.journal) {
+      this.snapshot();
+      this.journal.close();
+    }
+  }
+
+  private void add(StoredMessage message) {
+    this.histories
+        .computeIfAbsent(
+            key(message.channelName(), message.memberId()), k -> new History(this.capacity))
+        .add(message);
+  }
+
+  private void replay(DataInput in) throws IOException {
+    this.add(read(in));
+  }
+
+  private void readSnapshot(DataInput in) throws IOException {
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      this.add(read(in));
+    }
+  }
+
+  private static void write(DataOutput out, StoredMessage message) throws IOException {
+    writeString(out, message.channelName());
+    writeString(out, message.memberId());
+    writeString(out, message.messageId());
+    writeBytes(out, HistoryContent.encode(message.payload()));
+    writeInstant(out, message.time());
+    out.writeBoolean(message.incoming());
+  }
+
+  private static StoredMessage read(DataInput in) throws IOException {
+    return new StoredMessage(
+        readString(in),
+        readString(in),
+        readString(in),
+        HistoryContent.decode(readBytes(in)),
+        readInstant(in),
+        in.readBoolean());
+  }
+
+  private static String key(String channelName, String memberId) {
+    return channelName + ':' + memberId;
+  }
+
+  private static int requirePositive(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("History capacity must be positive");
+    }
+    return capacity;
+  }
+
+  /** Ring buffer of the most recent messages of a member, in the order they were persisted */
+  private static final class History {
+
+    private final StoredMessage[] messages;
+    private int next;
+    private int size;
+
+    History(int capacity) {
+      this.messages = new StoredMessage[capacity];
+    }
+
+    synchronized void add(StoredMessage message) {
+      for (int i = 0; i < this.size; i++) {
+        int index = this.index(i);
+        if (this.messages[index].messageId().equals(message.messageId())) {
+          // same message id replaces the message, like put to the database does
+          this.messages[index] = message;
+          return;
+        }
+      }
+      this.messages[this.next] = message;
+      this.next = (this.next + 1) % this.messages.length;
+      if (this.size < this.messages.length) {
+        this.size++;
+      }
+    }
+
+    synchronized List<HistoryMessage> latest(String lastMessageId, int limit) {
+      boolean after = null != lastMessageId && !lastMessageId.isEmpty();
+      List<HistoryMessage> page = new ArrayList<>(Math.min(limit, this.size));
+      for (int i = this.size - 1; i >= 0 && page.size() < limit; i--) {
+        StoredMessage message = this.messages[this.index(i)];
+        if (!after || message.messageId().compareTo(lastMessageId) > 0) {
+          page.add(message);
+        }
+      }
+      return page;
+    }
+
+    synchronized Page page(String lastMessageId, int limit) {
+      int i = this.size - 1;
+      if (null != lastMessageId) {
+        while (i >= 0 && !this.messages[this.index(i)].messageId().equals(lastMessageId)) {
+          i--;
+        }
+        i--;
+      }
+      List<HistoryMessage> page = new ArrayList<>(Math.max(0, Math.min(limit, i + 1)));
+      for (; i >= 0 && page.size() < limit; i--) {
+        page.add(this.messages[this.index(i)]);
+      }
+      String next =
+          i >= 0 && !page.isEmpty() ? HistoryCursor.after(page.get(page.size() - 1)) : null;
+      return new Page(page, next);
+    }
+
+    synchronized void copyTo(List<StoredMessage> target) {
+      for (int i = 0; i < this.size; i++) {
+        target.add(this.messages[this.index(i)]);
+      }
+    }
+
+    /** Position of the i-th oldest message */
+    private int index(int i) {
+      int oldest = this.size < this.messages.length ? 0 : this.next;
+      return (oldest + i) % this.messages.length;
+    }
+  }
+
+  private record StoredMessage(
+      String channelName,
+      String memberId,
+      String messageId,
+      MessagePayload payload,
+      Instant time,
+      boolean incoming)
+      implements HistoryMessage {
+
+    @Override
+    public String getChannelName() {
+      return this.channelName;
+    }
+
+    @Override
+    public String getMemberId() {
+      return this.memberId;
+    }
+
+    @Override
+    public String getMessageId() {
+      return this.messageId;
+    }
+
+    @Override
+    public Payload.Type getType() {
+      return this.payload.type();
+    }
+
+    @Override
+    public MessagePayload getPayload() {
+      return this.payload;
+    }
+
+    @Override
+    public Instant getTime() {
+      return this.time;
+    }
+
+    @Override
+    public boolean isIncoming() {
+      return this.incoming;
+    }
+  }
+}
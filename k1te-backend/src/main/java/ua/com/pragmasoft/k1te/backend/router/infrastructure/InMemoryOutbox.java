@@ -0,0 +1,193 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.readBytes;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.readString;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.writeBytes;
+import static ua.com.pragmasoft.k1te.backend.router.infrastructure.Journal.writeString;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.Outbox;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+
+/**
+ * Keeps queued messages of every member in memory, optionally journaled to the local disk like
+ * {@link InMemoryMessages}. Queues are bounded, the oldest message is dropped from the full one.
+ */
+public class InMemoryOutbox implements Outbox, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(InMemoryOutbox.class);
+
+  static final String JOURNAL_NAME = "outbox";
+
+  private static final byte ENQUEUE = 1;
+  private static final byte DRAIN = 2;
+
+  private final int capacity;
+  private final Map<String, ArrayDeque<MessagePayload>> queues = new HashMap<>();
+  private final Object lock = new Object();
+  private final Journal journal;
+
+  /** Keeps messages in memory only, they are lost on restart */
+  public InMemoryOutbox(int capacity) {
+    this.capacity = requirePositive(capacity);
+    this.journal = null;
+  }
+
+  /**
+   * Recovers queued messages from the directory and journals all changes there.
+   *
+   * @param capacity max number of messages queued for every member
+   * @param directory local directory for the journal and snapshots
+   * @param snapshotInterval how often to write the snapshot, zero disables periodic snapshots
+   */
+  public InMemoryOutbox(int capacity, Path directory, Duration snapshotInterval) {
+    Objects.requireNonNull(directory, "directory");
+    this.capacity = requirePositive(capacity);
+    this.journal = new Journal(directory, JOURNAL_NAME);
+    try {
+      this.journal.recover(this::readSnapshot, this::replay);
+    } catch (IOException e) {
+      throw new KiteException("Cannot recover outbox from " + directory, e);
+    }
+    if (!snapshotInterval.isZero()) {
+      this.journal.scheduleSnapshots(snapshotInterval, this::snapshot);
+    }
+    log.info("Recovered outbox of {} members", this.queues.size());
+  }
+
+  @Override
+  public void enqueue(Member to, MessagePayload message) {
+    Objects.requireNonNull(message);
+    String key = key(to.getChannelName(), to.getId());
+    synchronized (this.lock) {
+      this.append(
+          out -> {
+            out.writeByte(ENQUEUE);
+            writeString(out, key);
+            writeBytes(out, HistoryContent.encode(message));
+          });
+      this.add(key, message);
+    }
+  }
+
+  @Override
+  public List<MessagePayload> drain(Member member) {
+    String key = key(member.getChannelName(), member.getId());
+    synchronized (this.lock) {
+      if (!this.queues.containsKey(key)) {
+        return List.of();
+      }
+      this.append(
+          out -> {
+            out.writeByte(DRAIN);
+            writeString(out, key);
+          });
+      return List.copyOf(this.queues.remove(key));
+    }
+  }
+
+  /** Writes the snapshot of the current state, does nothing without the journal */
+  public void snapshot() {
+    if (null == this.journal) {
+      return;
+    }
+    Map<String, List<MessagePayload>> state = new HashMap<>();
+    long sequence;
+    try {
+      synchronized (this.lock) {
+        this.queues.forEach((key, queue) -> state.put(key, List.copyOf(queue)));
+        sequence = this.journal.rotate();
+      }
+      this.journal.writeSnapshot(
+          sequence,
+          out -> {
+            out.writeInt(state.size());
+            for (Map.Entry<String, List<MessagePayload>> entry : state.entrySet()) {
+              writeString(out, entry.getKey());
+              out.writeInt(entry.getValue().size());
+              for (MessagePayload message : entry.getValue()) {
+                writeBytes(out, HistoryContent.encode(message));
+              }
+            }
+          });
+    } catch (IOException e) {
+      throw new KiteException("Cannot write outbox snapshot", e);
+    }
+  }
+
+  /** Writes the final snapshot and closes the journal */
+  @Override
+  public void close() throws IOException {
+    if (null != this.journal) {
+      this.snapshot();
+      this.journal.close();
+    }
+  }
+
+  private void append(Journal.Writer record) {
+    if (null == this.journal) {
+      return;
+    }
+    try {
+      this.journal.append(record);
+    } catch (IOException e) {
+      throw new KiteException("Cannot write outbox journal", e);
+    }
+  }
+
+  private void add(String key, MessagePayload message) {
+    var queue = this.queues.computeIfAbsent(key, k -> new ArrayDeque<>());
+    if (queue.size() == this.capacity) {
+      MessagePayload dropped = queue.removeFirst();
+      log.warn("Outbox of {} is full, dropped message #{}", key, dropped.messageId());
+    }
+    queue.addLast(message);
+  }
+
+  private void replay(DataInput in) throws IOException {
+    byte type = in.readByte();
+    String key = readString(in);
+    switch (type) {
+      case ENQUEUE -> this.add(key, HistoryContent.decode(readBytes(in)));
+      case DRAIN -> this.queues.remove(key);
+      default -> throw new IOException("Unknown outbox journal record " + type);
+    }
+  }
+
+  private void readSnapshot(DataInput in) throws IOException {
+    int members = in.readInt();
+    for (int i = 0; i < members; i++) {
+      String key = readString(in);
+      int count = in.readInt();
+      for (int j = 0; j < count; j++) {
+        this.add(key, HistoryContent.decode(readBytes(in)));
+      }
+    }
+  }
+
+  private static String key(String channelName, String memberId) {
+    return channelName + ':' + memberId;
+  }
+
+  private static int requirePositive(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Outbox capacity must be positive");
+    }
+    return capacity;
+  }
+}
@@ -0,0 +1,325 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead log with periodic snapshots on the local disk, which lets in-memory stores recover
+ * after restart or crash.
+ *
+ * <p>Records are appended to numbered segments {@code name-N.wal}, each framed with its length and
+ * CRC32, so a record torn by a crash is detected and ignored during recovery. A snapshot {@code
+ * name.snapshot} contains the whole store state and the number of the first segment which is not
+ * included in it. Store captures its state and calls {@link #rotate()} atomically with respect to
+ * appends, then writes the captured state with {@link #writeSnapshot(long, Writer)} without
+ * blocking writers, after which older segments are deleted.
+ */
+final class Journal implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(Journal.class);
+
+  private static final int SNAPSHOT_MAGIC = 0x4b315445;
+  private static final String WAL_SUFFIX = ".wal";
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+  private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+  private static final String CORRUPTED =
+      "Corrupted record in {} after {} records, ignoring the rest";
+
+  @FunctionalInterface
+  interface Writer {
+    void write(DataOutput out) throws IOException;
+  }
+
+  @FunctionalInterface
+  interface Reader {
+    void read(DataInput in) throws IOException;
+  }
+
+  private final Path directory;
+  private final String name;
+  private final Pattern segmentPattern;
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+  private final DataOutputStream recordOut = new DataOutputStream(this.record);
+  private final CRC32 crc = new CRC32();
+  private final Object snapshotLock = new Object();
+  private long sequence;
+  private DataOutputStream segment;
+  private ScheduledExecutorService scheduler;
+
+  Journal(Path directory, String name) {
+    this.directory = directory;
+    this.name = name;
+    this.segmentPattern =
+        Pattern.compile(Pattern.quote(name) + "-(\\d+)" + Pattern.quote(WAL_SUFFIX));
+  }
+
+  /**
+   * Reads the snapshot, replays later records and opens a new segment for appends.
+   *
+   * @param snapshot reads the store state written by the snapshot writer
+   * @param replay applies a single record
+   */
+  synchronized void recover(Reader snapshot, Reader replay) throws IOException {
+    Files.createDirectories(this.directory);
+    long first = 0;
+    Path snapshotFile = this.directory.resolve(this.name + SNAPSHOT_SUFFIX);
+    if (Files.exists(snapshotFile)) {
+      try (var in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+          throw new IOException("Not a snapshot " + snapshotFile);
+        }
+        first = in.readLong();
+        snapshot.read(in);
+      }
+      log.info("Loaded snapshot {}", snapshotFile);
+    }
+    long next = first;
+    int replayed = 0;
+    for (long number : this.segments()) {
+      if (number < first) {
+        Files.deleteIfExists(this.segmentFile(number));
+      } else {
+        replayed += this.replay(this.segmentFile(number), replay);
+        next = number + 1;
+      }
+    }
+    this.sequence = next;
+    this.segment = this.open(next);
+    log.info("Replayed {} records of {}, appending to segment {}", replayed, this.name, next);
+  }
+
+  /** Appends the record and flushes it to the operating system */
+  synchronized void append(Writer writer) throws IOException {
+    this.record.reset();
+    writer.write(this.recordOut);
+    this.recordOut.flush();
+    byte[] bytes = this.record.toByteArray();
+    this.crc.reset();
+    this.crc.update(bytes);
+    this.segment.writeInt(bytes.length);
+    this.segment.writeInt((int) this.crc.getValue());
+    this.segment.write(bytes);
+    this.segment.flush();
+  }
+
+  /**
+   * Starts a new segment. Records appended after this call are not a part of the snapshot with the
+   * returned sequence.
+   */
+  synchronized long rotate() throws IOException {
+    this.segment.close();
+    this.sequence++;
+    this.segment = this.open(this.sequence);
+    return this.sequence;
+  }
+
+  /** Replaces the snapshot and deletes the segments it includes */
+  void writeSnapshot(long sequence, Writer state) throws IOException {
+    synchronized (this.snapshotLock) {
+      Path snapshotFile = this.directory.resolve(this.name + SNAPSHOT_SUFFIX);
+      Path temporary = this.directory.resolve(this.name + SNAPSHOT_SUFFIX + ".tmp");
+      try (FileChannel channel =
+          FileChannel.open(
+              temporary,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeLong(sequence);
+        state.write(out);
+        out.flush();
+        channel.force(true);
+      }
+      Files.move(
+          temporary,
+          snapshotFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      for (long number : this.segments()) {
+        if (number < sequence) {
+          Files.deleteIfExists(this.segmentFile(number));
+        }
+      }
+      log.debug("Written snapshot {} at segment {}", snapshotFile, sequence);
+    }
+  }
+
+  /** Runs the snapshot task periodically until the journal is closed */
+  synchronized void scheduleSnapshots(Duration interval, Runnable snapshot) {
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "k1te-snapshot-" + this.name);
+              thread.setDaemon(true);
+              return thread;
+            });
+    long period = interval.toMillis();
+    this.scheduler.scheduleWithFixedDelay(
+        () -> {
+          try {
+            snapshot.run();
+          } catch (RuntimeException e) {
+            log.error("Snapshot of {} failed", this.name, e);
+          }
+        },
+        period,
+        period,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void close() throws IOException {
+    ScheduledExecutorService snapshots;
+    synchronized (this) {
+      snapshots = this.scheduler;
+      this.scheduler = null;
+    }
+    if (null != snapshots) {
+      snapshots.shutdown();
+      try {
+        snapshots.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      if (null != this.segment) {
+        this.segment.close();
+        this.segment = null;
+      }
+    }
+  }
+
+  static void writeString(DataOutput out, String value) throws IOException {
+    if (null == value) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeInstant(DataOutput out, Instant value) throws IOException {
+    out.writeLong(value.getEpochSecond());
+    out.writeInt(value.getNano());
+  }
+
+  static Instant readInstant(DataInput in) throws IOException {
+    return Instant.ofEpochSecond(in.readLong(), in.readInt());
+  }
+
+  static void writeBytes(DataOutput out, byte[] value) throws IOException {
+    out.writeInt(value.length);
+    out.write(value);
+  }
+
+  static byte[] readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private int replay(Path segmentFile, Reader replay) throws IOException {
+    int count = 0;
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentFile)))) {
+      while (true) {
+        int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException end) {
+          return count;
+        }
+        if (length < 0 || length > MAX_RECORD_SIZE) {
+          log.warn(CORRUPTED, segmentFile, count);
+          return count;
+        }
+        try {
+          int checksum = in.readInt();
+          byte[] bytes = new byte[length];
+          in.readFully(bytes);
+          this.crc.reset();
+          this.crc.update(bytes);
+          if ((int) this.crc.getValue() != checksum) {
+            log.warn(CORRUPTED, segmentFile, count);
+            return count;
+          }
+          replay.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+          count++;
+        } catch (EOFException torn) {
+          log.warn("Incomplete record in {} after {} records, ignoring it", segmentFile, count);
+          return count;
+        }
+      }
+    }
+  }
+
+  private DataOutputStream open(long number) throws IOException {
+    OutputStream out =
+        Files.newOutputStream(
+            this.segmentFile(number), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    return new DataOutputStream(new BufferedOutputStream(out));
+  }
+
+  private Path segmentFile(long number) {
+    return this.directory.resolve(this.name + '-' + number + WAL_SUFFIX);
+  }
+
+  private List<Long> segments() throws IOException {
+    List<Long> numbers = new ArrayList<>();
+    try (Stream<Path> files = Files.list(this.directory)) {
+      files.forEach(
+          file -> {
+            Matcher matcher = this.segmentPattern.matcher(file.getFileName().toString());
+            if (matcher.matches()) {
+              numbers.add(Long.parseLong(matcher.group(1)));
+            }
+          });
+    }
+    numbers.sort(null);
+    return numbers;
+  }
+}
@@ -0,0 +1,59 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.shared;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent calls. Thread per task executors do not limit concurrency by
+ * the pool size, so the bulkhead keeps thousands of tasks from calling downstream services at
+ * once. Callers over the limit wait for the permit up to the timeout.
+ */
+public class Bulkhead {
+
+  private final String name;
+  private final Semaphore permits;
+  private final long timeoutNanos;
+
+  /**
+   * @param name used in the error message
+   * @param maxConcurrency max number of concurrent calls
+   * @param timeout max time to wait for the permit
+   */
+  public Bulkhead(String name, int maxConcurrency, Duration timeout) {
+    if (maxConcurrency < 1) throw new IllegalArgumentException("Max concurrency must be positive");
+    this.name = name;
+    this.permits = new Semaphore(maxConcurrency, true);
+    this.timeoutNanos = timeout.toNanos();
+  }
+
+  public <T> T call(Supplier<T> operation) {
+    try {
+      if (!this.permits.tryAcquire(this.timeoutNanos, TimeUnit.NANOSECONDS)) {
+        throw new RoutingException("Too many concurrent calls to " + this.name);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KiteException("Interrupted while waiting for " + this.name, e);
+    }
+    try {
+      return operation.get();
+    } finally {
+      this.permits.release();
+    }
+  }
+
+  public void run(Runnable operation) {
+    this.call(
+        () -> {
+          operation.run();
+          return null;
+        });
+  }
+
+  public int available() {
+    return this.permits.availablePermits();
+  }
+}
@@ -0,0 +1,30 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.shared;
+
+/** The destination connection is gone, so the member is offline rather than unreachable */
+public class DisconnectedException extends RoutingException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String connectionUri;
+
+  /**
+   * @param connectionUri
+   */
+  public DisconnectedException(String connectionUri) {
+    this(connectionUri, null);
+  }
+
+  /**
+   * @param connectionUri
+   * @param cause
+   */
+  public DisconnectedException(String connectionUri, Throwable cause) {
+    super("Web client disconnected", cause);
+    this.connectionUri = connectionUri;
+  }
+
+  public String getConnectionUri() {
+    return connectionUri;
+  }
+}
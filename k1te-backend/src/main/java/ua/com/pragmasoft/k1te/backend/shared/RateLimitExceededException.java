@@ -0,0 +1,32 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.shared;
+
+import java.time.Duration;
+
+public class RateLimitExceededException extends KiteException {
+
+  private static final long serialVersionUID = 1L;
+  public static final int TOO_MANY_REQUESTS = 429;
+
+  private final Duration retryAfter;
+
+  /**
+   * @param limit name of the exceeded limit
+   * @param retryAfter time until the limit allows the request
+   */
+  public RateLimitExceededException(String limit, Duration retryAfter) {
+    super(
+        "Too many messages from the %s, retry after %ds"
+            .formatted(limit, Math.max(1, (retryAfter.toMillis() + 999) / 1000)));
+    this.retryAfter = retryAfter;
+  }
+
+  public Duration getRetryAfter() {
+    return retryAfter;
+  }
+
+  @Override
+  public int code() {
+    return TOO_MANY_REQUESTS;
+  }
+}
@@ -0,0 +1,184 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.shared;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timing wheel. Timeouts are linked into the bucket of their deadline tick, so scheduling
+ * and cancelling is O(1) whatever the number of pending timeouts, and the single thread advances
+ * the wheel once per tick, running the timeouts of the bucket under the hand. Timeouts further than
+ * one revolution wait for their remaining rounds. Timeouts never run early, and run up to one tick
+ * late.
+ *
+ * <p>Tasks run on the wheel thread, so they should only start the work, not wait for it.
+ */
+public class TimingWheel implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(TimingWheel.class);
+
+  private final long tickNanos;
+  private final Timeout[] buckets;
+  private final int mask;
+  private final Thread worker;
+  private final Object lock = new Object();
+  private final long start = System.nanoTime();
+
+  /** Ticks processed so far, guarded by the lock */
+  private long tick;
+
+  private int size;
+  private volatile boolean closed;
+
+  /**
+   * @param name name of the wheel thread
+   * @param tickDuration precision of the deadlines
+   * @param wheelSize number of buckets, rounded up to the power of two
+   */
+  public TimingWheel(String name, Duration tickDuration, int wheelSize) {
+    if (tickDuration.isNegative() || tickDuration.isZero()) {
+      throw new IllegalArgumentException("Tick duration must be positive");
+    }
+    if (wheelSize < 1 || wheelSize > 1 << 20) {
+      throw new IllegalArgumentException("Wheel size must be between 1 and 2^20");
+    }
+    this.tickNanos = tickDuration.toNanos();
+    int buckets = Integer.highestOneBit(((wheelSize - 1) << 1) | 1);
+    this.buckets = new Timeout[buckets];
+    this.mask = buckets - 1;
+    this.worker = new Thread(this::run, name);
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  public Timeout schedule(Runnable task, Duration delay) {
+    long elapsed = System.nanoTime() - this.start + Math.max(0, delay.toNanos());
+    // tick k runs once k ticks have elapsed since the start
+    long deadline = (elapsed + this.tickNanos - 1) / this.tickNanos;
+    var timeout = new Timeout(task);
+    synchronized (this.lock) {
+      if (this.closed) {
+        throw new IllegalStateException("Timing wheel is closed");
+      }
+      // the hand has passed the deadline already, when the wheel is late
+      deadline = Math.max(deadline, this.tick + 1);
+      timeout.rounds = (deadline - this.tick - 1) / this.buckets.length;
+      timeout.link((int) (deadline & this.mask));
+    }
+    return timeout;
+  }
+
+  /** Number of pending timeouts */
+  public int size() {
+    synchronized (this.lock) {
+      return this.size;
+    }
+  }
+
+  /** Stops the wheel, pending timeouts never run */
+  @Override
+  public void close() {
+    this.closed = true;
+    LockSupport.unpark(this.worker);
+  }
+
+  private void run() {
+    while (!this.closed) {
+      long next;
+      synchronized (this.lock) {
+        next = this.start + (this.tick + 1) * this.tickNanos;
+      }
+      long wait;
+      while (!this.closed && (wait = next - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(this, wait);
+      }
+      if (this.closed) {
+        return;
+      }
+      for (Runnable task : this.advance()) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          log.warn("Timeout task failed", e);
+        }
+      }
+    }
+  }
+
+  /** Moves the hand to the next bucket and unlinks its expired timeouts */
+  private List<Runnable> advance() {
+    List<Runnable> expired = new ArrayList<>();
+    synchronized (this.lock) {
+      this.tick++;
+      Timeout timeout = this.buckets[(int) (this.tick & this.mask)];
+      while (null != timeout) {
+        Timeout next = timeout.next;
+        if (timeout.rounds > 0) {
+          timeout.rounds--;
+        } else {
+          timeout.unlink();
+          expired.add(timeout.task);
+        }
+        timeout = next;
+      }
+    }
+    return expired;
+  }
+
+  /** Pending task of the wheel, linked into its bucket until it runs or is cancelled */
+  public final class Timeout {
+
+    private final Runnable task;
+    private long rounds;
+    private int bucket = -1;
+    private Timeout prev;
+    private Timeout next;
+
+    private Timeout(Runnable task) {
+      this.task = task;
+    }
+
+    /**
+     * @return false if the task has already run or was cancelled
+     */
+    public boolean cancel() {
+      synchronized (TimingWheel.this.lock) {
+        if (this.bucket < 0) {
+          return false;
+        }
+        this.unlink();
+        return true;
+      }
+    }
+
+    private void link(int bucket) {
+      this.bucket = bucket;
+      this.next = TimingWheel.this.buckets[bucket];
+      if (null != this.next) {
+        this.next.prev = this;
+      }
+      TimingWheel.this.buckets[bucket] = this;
+      TimingWheel.this.size++;
+    }
+
+    private void unlink() {
+      if (null != this.prev) {
+        this.prev.next = this.next;
+      } else {
+        TimingWheel.this.buckets[this.bucket] = this.next;
+      }
+      if (null != this.next) {
+        this.next.prev = this.prev;
+      }
+      this.prev = null;
+      this.next = null;
+      this.bucket = -1;
+      TimingWheel.this.size--;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.shared;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets keyed by the sender. Each bucket is a single atomic time when it is full again,
+ * which the acquisition moves forward by the refill time of the taken tokens, so buckets never
+ * need the refill task and acquire without locks. Buckets which are full again hold nothing a new
+ * bucket would not, so they are evicted once there are more of them than the max.
+ */
+public class TokenBuckets {
+
+  private final String name;
+  private final int capacity;
+  private final long refillNanos;
+  private final long burstNanos;
+  private final int maxBuckets;
+  private final LongSupplier clock;
+  private final long start;
+  private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+  private final AtomicBoolean evicting = new AtomicBoolean();
+  private volatile long nextEviction;
+
+  /**
+   * @param name used in the error message
+   * @param capacity max number of tokens taken at once
+   * @param period time to refill the empty bucket
+   * @param maxBuckets number of buckets above which the full ones are evicted
+   */
+  public TokenBuckets(String name, int capacity, Duration period, int maxBuckets) {
+    this(name, capacity, period, maxBuckets, System::nanoTime);
+  }
+
+  TokenBuckets(String name, int capacity, Duration period, int maxBuckets, LongSupplier clock) {
+    if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+    if (period.isNegative() || period.isZero()) {
+      throw new IllegalArgumentException("Refill period must be positive");
+    }
+    this.name = name;
+    this.capacity = capacity;
+    this.refillNanos = Math.max(1, period.toNanos() / capacity);
+    this.burstNanos = this.refillNanos * capacity;
+    this.maxBuckets = maxBuckets;
+    this.clock = clock;
+    this.start = clock.getAsLong();
+  }
+
+  /**
+   * Takes the tokens from the bucket of the key
+   *
+   * @throws RateLimitExceededException if the bucket holds less tokens
+   */
+  public void acquire(String key, int tokens) {
+    Duration retryAfter = this.tryAcquire(key, tokens);
+    if (!retryAfter.isZero()) {
+      throw new RateLimitExceededException(this.name, retryAfter);
+    }
+  }
+
+  /**
+   * @return zero if the tokens were taken, otherwise time until the bucket holds them
+   */
+  public Duration tryAcquire(String key, int tokens) {
+    if (tokens > this.capacity) {
+      throw new ValidationException(
+          "%d messages exceed the limit of %d per %s".formatted(tokens, this.capacity, this.name));
+    }
+    long now = this.clock.getAsLong() - this.start;
+    AtomicLong fullAt = this.buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    long cost = tokens * this.refillNanos;
+    long current;
+    long next;
+    do {
+      current = fullAt.get();
+      next = Math.max(current, now) + cost;
+      if (next - this.burstNanos > now) {
+        return Duration.ofNanos(next - this.burstNanos - now);
+      }
+    } while (!fullAt.compareAndSet(current, next));
+    this.evictFull(now);
+    return Duration.ZERO;
+  }
+
+  /** Returns the tokens taken by the acquisition which was rejected by another limit */
+  public void release(String key, int tokens) {
+    AtomicLong fullAt = this.buckets.get(key);
+    if (null != fullAt) {
+      fullAt.addAndGet(-tokens * this.refillNanos);
+    }
+  }
+
+  public int size() {
+    return this.buckets.size();
+  }
+
+  /**
+   * Scans the buckets at most once per refill period while they are over the max, as the ones
+   * refilled since the last scan are only found by the next one. The bucket refilled just when
+   * another acquisition takes from it loses that acquisition.
+   */
+  private void evictFull(long now) {
+    if (this.buckets.size() <= this.maxBuckets || now < this.nextEviction) {
+      return;
+    }
+    if (this.evicting.compareAndSet(false, true)) {
+      try {
+        this.buckets.values().removeIf(fullAt -> fullAt.get() <= now);
+        this.nextEviction = now + this.burstNanos;
+      } finally {
+        this.evicting.set(false);
+      }
+    }
+  }
+}
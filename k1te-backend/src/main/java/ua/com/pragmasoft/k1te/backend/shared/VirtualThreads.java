@@ -0,0 +1,66 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.shared;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the thread per task executor with virtual threads when the runtime has them. The build
+ * targets Java 17, so virtual threads are looked up reflectively. Older runtimes are rejected
+ * rather than given platform threads, as a thread per task is only cheap when it is virtual.
+ */
+public final class VirtualThreads {
+
+  private static final Method OF_VIRTUAL;
+  private static final Method NAME;
+  private static final Method FACTORY;
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method factory = null;
+    Method newThreadPerTaskExecutor = null;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      name = builder.getMethod("name", String.class, long.class);
+      factory = builder.getMethod("factory");
+      newThreadPerTaskExecutor =
+          Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+    } catch (ReflectiveOperationException e) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    FACTORY = factory;
+    NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+  }
+
+  private VirtualThreads() {}
+
+  public static boolean isSupported() {
+    return null != OF_VIRTUAL;
+  }
+
+  /**
+   * @param name prefix of the thread names
+   * @throws UnsupportedOperationException when the runtime has no virtual threads
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String name) {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException(
+          "Virtual threads need Java 21, runtime is " + Runtime.version());
+    }
+    try {
+      // Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory())
+      Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+      ThreadFactory threads = (ThreadFactory) FACTORY.invoke(builder);
+      return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threads);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot create virtual threads", e);
+    }
+  }
+}
@@ -20,6 +20,7 @@ import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
@@ -31,13 +32,11 @@ import ua.com.pragmasoft.k1te.backend.router.domain.payload.*;
 import ua.com.pragmasoft.k1te.backend.shared.NotFoundException;
 import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
 import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
-import ua.com.pragmasoft.k1te.backend.ws.PayloadDecoder;
 
 public class TelegramConnector implements Connector, Closeable {
 
   private static final Logger log = LoggerFactory.getLogger(TelegramConnector.class);
 
-  private static final PayloadDecoder DECODER = new PayloadDecoder();
   private static final boolean PIN_FEATURE_FLAG = true;
 
   private static final Integer HISTORY_LIMIT = 10;
@@ -52,6 +51,7 @@ public class TelegramConnector implements Connector, Closeable {
 
       /host *channel* set up current chat as a support channel named *channel*
       /drop unregister current support channel
+      /broadcast *text* send *text* to all members of your support channel
 
       /join *channel* start conversation with support channel named *channel*
       /leave leave current support channel
@@ -90,6 +90,7 @@ public class TelegramConnector implements Connector, Closeable {
   private final Messages messages;
   private final URI base;
   private final URI wsApi;
+  private final RateLimits rateLimits;
 
   public TelegramConnector(
       final TelegramBot bot,
@@ -98,11 +99,23 @@ public class TelegramConnector implements Connector, Closeable {
       final Messages messages,
       final URI base,
       URI wsApi) {
+    this(bot, router, channels, messages, base, wsApi, RateLimits.unlimited());
+  }
+
+  public TelegramConnector(
+      final TelegramBot bot,
+      final Router router,
+      final Channels channels,
+      final Messages messages,
+      final URI base,
+      URI wsApi,
+      RateLimits rateLimits) {
     this.bot = bot;
     this.router = router;
     this.router.registerConnector(this);
     this.channels = channels;
     this.messages = messages;
+    this.rateLimits = rateLimits;
     this.base = base;
     if (wsApi.getScheme().equals("wss")) {
       this.wsApi = wsApi;
@@ -209,7 +222,7 @@ public class TelegramConnector implements Connector, Closeable {
 
   @Override
   public void dispatch(RoutingContext ctx) {
-    Long destinationChatId = toLong(Connector.rawConnection(ctx.destinationConnection));
+    Long destinationChatId = toLong(ctx.destinationConnection.rawConnection());
     Member from = ctx.from;
     Member to = ctx.to;
     AbstractSendRequest<?> sendMessage;
@@ -252,7 +265,7 @@ public class TelegramConnector implements Connector, Closeable {
               .formatted(this.id(), sendResponse.errorCode(), sendResponse.description()));
     }
 
-    if (PIN_FEATURE_FLAG && !ctx.isIdle) {
+    if (PIN_FEATURE_FLAG && !ctx.isIdle && null == ctx.attribute(KiteRouter.ATTR_BROADCAST)) {
       String text = sendResponse.message().text();
       boolean isJoinMessage =
           text != null && text.contains(SUCCESS) && text.contains("joined channel");
@@ -356,6 +369,21 @@ public class TelegramConnector implements Connector, Closeable {
                           .formatted(client.getUserName(), client.getChannelName()))));
       response = "✅ You left channel %s".formatted(client.getChannelName());
 
+    } else if ("/broadcast".equals(command)) {
+      if (cmd.args.isBlank()) throw new ValidationException("Nothing to broadcast");
+      DeliveryReport report =
+          this.router.broadcast(
+              RoutingContext.create()
+                  .withOriginConnection(originConnection)
+                  .withRequest(
+                      new PlaintextMessage(
+                          cmd.args,
+                          fromLong(message.messageId().longValue()),
+                          Instant.ofEpochSecond(message.date()))));
+      response =
+          "✅ Delivered to %d of %d members"
+              .formatted(report.delivered().size(), report.recipients());
+
     } else if ("/drop".equals(command)) {
       Member client = this.channels.dropChannel(originConnection);
       response = "✅ You dropped channel %s".formatted(client.getChannelName());
@@ -417,12 +445,15 @@ public class TelegramConnector implements Connector, Closeable {
     this.router.dispatch(ctx);
 
     List<HistoryMessage> historyMessages = this.messages.findAll(member, null, HISTORY_LIMIT);
+    List<RoutingContext> replay = new ArrayList<>(historyMessages.size());
 
     for (int i = historyMessages.size() - 1; i >= 0; i--) {
       HistoryMessage message = historyMessages.get(i);
-      Payload payload = DECODER.apply(message.getContent());
 
-      if (message.isIncoming() && payload.type() == Payload.Type.BIN) {
+      if (message.isIncoming() && message.getType() == Payload.Type.BIN) {
+        // keep the history order, as the host's files are copied directly
+        this.router.dispatchAll(replay);
+        replay.clear();
         Long fromChatId = toLong(host.getId());
         int messageId = toLong(message.getMessageId()).intValue();
         CopyMessage copyMessage =
@@ -431,6 +462,7 @@ public class TelegramConnector implements Connector, Closeable {
                 .caption("#Host");
         this.bot.execute(copyMessage);
       } else {
+        MessagePayload payload = message.getPayload();
         if (message.isIncoming() && payload.type() == Payload.Type.TXT) {
           PlaintextMessage textMessage = (PlaintextMessage) payload;
           payload =
@@ -443,10 +475,11 @@ public class TelegramConnector implements Connector, Closeable {
                 .withFrom(member)
                 .withTo(member)
                 .isIdle(true)
-                .withRequest((MessagePayload) payload);
-        this.router.dispatch(context);
+                .withRequest(payload);
+        replay.add(context);
       }
     }
+    this.router.dispatchAll(replay);
     return "✅ You switched to Telegram";
   }
 
@@ -454,6 +487,7 @@ public class TelegramConnector implements Connector, Closeable {
     Long rawChatId = message.chat().id();
     String originConnection = this.connectionUri(fromLong(rawChatId));
     Member from = this.channels.find(originConnection);
+    this.rateLimits.acquire(from, 1);
     final String toMemberId =
         Optional.ofNullable(message.replyToMessage())
             .flatMap(TelegramConnector::memberIdFromHashTag)
@@ -497,6 +531,11 @@ public class TelegramConnector implements Connector, Closeable {
             .withFrom(from)
             .withTo(to)
             .withRequest(request);
+    if (isEdited) {
+      // edited message keeps its id, but should be routed again
+      ctx.withAttribute(
+          IdempotentRouter.ATTR_KEY, originConnection + '#' + msgId + '@' + message.editDate());
+    }
     this.router.dispatch(ctx);
 
     if (PIN_FEATURE_FLAG) {
@@ -604,7 +643,9 @@ public class TelegramConnector implements Connector, Closeable {
     if (command.contains("@")) {
       command = command.split("@")[0];
     }
-    return new CommandWithArgs(command, SubCommand.of(args), args);
+    // only deep link /start carries sub commands, other arguments may be free text
+    var subCommand = "/start".equals(command) ? SubCommand.of(args) : SubCommand.NONE;
+    return new CommandWithArgs(command, subCommand, args);
   }
 
   private static Optional<String> memberIdFromHashTag(final Message replyTo) {
@@ -656,6 +697,8 @@ public class TelegramConnector implements Connector, Closeable {
   }
 
   private static class SubCommand {
+    private static final SubCommand NONE = new SubCommand(SubCommandType.NONE, null);
+
     private final SubCommandType type;
     private final String[] args;
 
@@ -674,7 +717,7 @@ public class TelegramConnector implements Connector, Closeable {
         return new SubCommand(commandType, newArgs);
       }
 
-      return new SubCommand(SubCommandType.NONE, null);
+      return NONE;
     }
 
     private enum SubCommandType {
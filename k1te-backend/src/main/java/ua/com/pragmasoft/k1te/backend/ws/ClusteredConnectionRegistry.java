@@ -0,0 +1,119 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.shared.DisconnectedException;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnection;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnectionRegistry;
+
+/**
+ * Registry of the cluster node. Connections held by this node are returned as they are, the ones
+ * held by other nodes are looked up in the {@link ConnectionDirectory} and returned as the remote
+ * connections, which forward payloads to the owning node with the {@link NodeTransport}.
+ */
+public class ClusteredConnectionRegistry implements WsConnectionRegistry {
+
+  private static final Logger log = LoggerFactory.getLogger(ClusteredConnectionRegistry.class);
+
+  private final String nodeId;
+  private final WsConnectionRegistry local;
+  private final ConnectionDirectory directory;
+  private final NodeTransport transport;
+
+  /**
+   * @param nodeId id of this node
+   * @param local connections held by this node
+   * @param directory owners of all the connections of the cluster
+   * @param transport forwards payloads to other nodes
+   */
+  public ClusteredConnectionRegistry(
+      String nodeId,
+      WsConnectionRegistry local,
+      ConnectionDirectory directory,
+      NodeTransport transport) {
+    this.nodeId = nodeId;
+    this.local = local;
+    this.directory = directory;
+    this.transport = transport;
+  }
+
+  public String nodeId() {
+    return this.nodeId;
+  }
+
+  @Override
+  public WsConnection getConnection(String connectionUri) {
+    var connection = this.local.getConnection(connectionUri);
+    if (null != connection) {
+      return connection;
+    }
+    var owner = this.directory.ownerOf(connectionUri);
+    if (null == owner || this.nodeId.equals(owner)) {
+      // the connection this node owned is closed already
+      return null;
+    }
+    return new RemoteConnection(owner, connectionUri);
+  }
+
+  @Override
+  public void track(CompletionStage<?> stage) {
+    this.local.track(stage);
+  }
+
+  /** Sends the payload forwarded by another node to the connection held by this node */
+  public CompletionStage<Instant> deliver(String connectionUri, Payload payload) {
+    var connection = this.local.getConnection(connectionUri);
+    if (null == connection) {
+      return CompletableFuture.failedFuture(new DisconnectedException(connectionUri));
+    }
+    return connection.sendAsync(payload);
+  }
+
+  /** Connection held by another node */
+  private class RemoteConnection implements WsConnection {
+
+    private final String owner;
+    private final String connectionUri;
+
+    RemoteConnection(String owner, String connectionUri) {
+      this.owner = owner;
+      this.connectionUri = connectionUri;
+    }
+
+    @Override
+    public String connectionUri() {
+      return this.connectionUri;
+    }
+
+    @Override
+    public void sendObject(Payload payload) throws IOException {
+      try {
+        this.sendAsync(payload).toCompletableFuture().join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+
+    @Override
+    public CompletionStage<Instant> sendAsync(Payload payload) {
+      log.debug("Forward {} to {} on node {}", payload.type(), this.connectionUri, this.owner);
+      return transport.forward(this.owner, this.connectionUri, payload);
+    }
+
+    /** Only the owning node closes its connections */
+    @Override
+    public void close() {
+      log.warn("Connection {} is held by node {}, not closed", this.connectionUri, this.owner);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+/** Maps websocket connections to the cluster nodes which hold them */
+public interface ConnectionDirectory {
+
+  /** Records the node as the owner of the connection opened on it */
+  void register(String connectionUri, String nodeId);
+
+  /** Forgets the connection, unless it is owned by another node already */
+  void unregister(String connectionUri, String nodeId);
+
+  /**
+   * @return id of the node which owns the connection, null if unknown
+   */
+  String ownerOf(String connectionUri);
+}
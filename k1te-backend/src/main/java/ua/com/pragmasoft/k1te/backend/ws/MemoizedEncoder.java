@@ -0,0 +1,52 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+
+/**
+ * Keeps frames of the messages while the messages are referenced, so the message broadcasted to
+ * many connections is encoded once per subprotocol. Payloads are values, so the derived copy, like
+ * the one made by {@link ObjectStore#copyTransient}, gets its own frame. Other payloads are sent
+ * once and are encoded on every call.
+ *
+ * <p>The frames are shared by all the threads, so connections only encode with it the payloads sent
+ * with {@link WsConnector.WsConnection#broadcastAsync}, and encode the ones sent to a single
+ * connection directly.
+ *
+ * <p>Returned frames are shared, callers must not modify them.
+ */
+public class MemoizedEncoder<T> implements Function<Payload, T> {
+
+  private static final Set<Payload.Type> MEMOIZED = EnumSet.of(Payload.Type.TXT, Payload.Type.BIN);
+
+  private final Function<Payload, T> encoder;
+  private final Map<Payload, T> frames = Collections.synchronizedMap(new WeakHashMap<>());
+
+  public MemoizedEncoder(Function<Payload, T> encoder) {
+    this.encoder = encoder;
+  }
+
+  public static boolean isMemoized(Payload payload) {
+    return MEMOIZED.contains(payload.type());
+  }
+
+  @Override
+  public T apply(Payload payload) {
+    if (!isMemoized(payload)) {
+      return this.encoder.apply(payload);
+    }
+    T frame = this.frames.get(payload);
+    if (null == frame) {
+      // encoded outside of the lock, concurrent encoding of the same message is harmless
+      frame = this.encoder.apply(payload);
+      this.frames.put(payload, frame);
+    }
+    return frame;
+  }
+}
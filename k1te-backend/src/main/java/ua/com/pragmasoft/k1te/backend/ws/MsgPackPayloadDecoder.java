@@ -0,0 +1,397 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.BinaryMessage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.HistoryRequest;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.JoinChannel;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.LeaveChannel;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageBatch;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload.Type;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Ping;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.UploadRequest;
+import ua.com.pragmasoft.k1te.backend.shared.TooLargeException;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
+
+/**
+ * Decodes payloads of the {@code k1te.chat.v2} subprotocol, packed as by {@link
+ * MsgPackPayloadEncoder}. Like {@link PayloadDecoder}, trailing array elements are ignored and
+ * malformed or too large frames are rejected.
+ */
+public class MsgPackPayloadDecoder implements Function<byte[], Payload> {
+
+  private static final Logger log = LoggerFactory.getLogger(MsgPackPayloadDecoder.class);
+
+  static final EnumMap<Type, Function<Unpacker, Payload>> DECODERS = new EnumMap<>(Type.class);
+
+  static {
+    DECODERS.put(Type.JOIN, MsgPackPayloadDecoder::decodeJoinChannel);
+    DECODERS.put(Type.LEAVE, MsgPackPayloadDecoder::decodeLeaveChannel);
+    DECODERS.put(Type.TXT, MsgPackPayloadDecoder::decodePlaintextMessage);
+    DECODERS.put(Type.BIN, MsgPackPayloadDecoder::decodeBinaryMessage);
+    DECODERS.put(Type.UPL, MsgPackPayloadDecoder::decodeUploadRequest);
+    DECODERS.put(Type.PING, MsgPackPayloadDecoder::decodePing);
+    DECODERS.put(Type.BATCH, MsgPackPayloadDecoder::decodeBatch);
+    DECODERS.put(Type.HIST, MsgPackPayloadDecoder::decodeHistoryRequest);
+  }
+
+  private final int maxFrameSize;
+
+  public MsgPackPayloadDecoder() {
+    this(PayloadDecoder.DEFAULT_MAX_FRAME_SIZE);
+  }
+
+  /**
+   * @param maxFrameSize max size of the frame in bytes
+   */
+  public MsgPackPayloadDecoder(int maxFrameSize) {
+    if (maxFrameSize < 1) throw new IllegalArgumentException("Max frame size must be positive");
+    this.maxFrameSize = maxFrameSize;
+  }
+
+  @Override
+  public Payload apply(byte[] frame) {
+    return this.decode(ByteBuffer.wrap(frame));
+  }
+
+  /** Decodes frame from its position to its limit, the position is not changed */
+  public Payload decode(ByteBuffer frame) {
+    if (frame.remaining() > this.maxFrameSize) {
+      throw new TooLargeException(this.maxFrameSize / 1024L, frame.remaining() / 1024L);
+    }
+    log.debug("decode {} bytes", frame.remaining());
+    var unpacker = new Unpacker(frame.duplicate());
+    try {
+      int length = unpacker.unpackArrayHeader();
+      if (length < 1) {
+        throw new ValidationException("Malformed payload: empty array");
+      }
+      Type type = Type.valueOf(unpacker.unpackString());
+      var decoder = DECODERS.get(type);
+      if (null == decoder) {
+        throw new ValidationException("No decoder for " + type);
+      }
+      unpacker.remaining = length - 1;
+      Payload payload = decoder.apply(unpacker);
+      // trailing elements are ignored
+      unpacker.skipRemaining();
+      if (unpacker.buffer.hasRemaining()) {
+        throw new ValidationException("Malformed payload: unexpected content after the array");
+      }
+      return payload;
+    } catch (BufferUnderflowException e) {
+      throw new ValidationException("Malformed payload: unexpected end of the frame", e);
+    } catch (IllegalArgumentException | DateTimeException | ArithmeticException e) {
+      throw new ValidationException("Malformed payload: " + e.getMessage(), e);
+    }
+  }
+
+  private static Payload decodeJoinChannel(Unpacker unpacker) {
+    String memberId = unpacker.nextString();
+    String memberName = unpacker.nextNullableString();
+    String channelName = unpacker.nextString();
+    return new JoinChannel(memberId, null != memberName ? memberName : memberId, channelName);
+  }
+
+  private static Payload decodeLeaveChannel(Unpacker unpacker) {
+    return new LeaveChannel();
+  }
+
+  private static Payload decodePlaintextMessage(Unpacker unpacker) {
+    String messageId = unpacker.nextString();
+    String text = unpacker.nextString();
+    Instant timestamp = unpacker.nextTimestamp();
+    return new PlaintextMessage(text, messageId, timestamp);
+  }
+
+  private static Payload decodeBinaryMessage(Unpacker unpacker) {
+    var messageId = unpacker.nextString();
+    var url = unpacker.nextString();
+    var fileName = unpacker.nextString();
+    var fileType = unpacker.nextString();
+    var fileSize = unpacker.nextLong();
+    Instant timestamp = unpacker.nextTimestamp();
+    return new BinaryMessage(url, fileName, fileType, fileSize, messageId, timestamp);
+  }
+
+  private static Payload decodeUploadRequest(Unpacker unpacker) {
+    var messageId = unpacker.nextString();
+    var fileName = unpacker.nextString();
+    var fileType = unpacker.nextString();
+    var fileSize = unpacker.nextLong();
+    Instant timestamp = unpacker.nextTimestamp();
+    return new UploadRequest(fileName, fileType, fileSize, messageId, timestamp);
+  }
+
+  private static Payload decodePing(Unpacker unpacker) {
+    return new Ping();
+  }
+
+  private static Payload decodeHistoryRequest(Unpacker unpacker) {
+    String cursor = unpacker.nextNullableString();
+    int limit = Math.toIntExact(unpacker.nextLong());
+    return new HistoryRequest(cursor, limit);
+  }
+
+  /** Reads the rest of the batch array, each element is the array of the message */
+  private static Payload decodeBatch(Unpacker unpacker) {
+    List<MessagePayload> messages = new ArrayList<>(Math.min(unpacker.remaining, 16));
+    while (unpacker.remaining > 0) {
+      int batchRemaining = unpacker.remaining - 1;
+      int length = unpacker.unpackArrayHeader();
+      if (length < 1) {
+        throw new ValidationException("Malformed payload: empty array");
+      }
+      Type type = Type.valueOf(unpacker.unpackString());
+      if (!PayloadDecoder.BATCHED.contains(type)) {
+        throw new ValidationException("Unsupported batched payload " + type);
+      }
+      unpacker.remaining = length - 1;
+      messages.add((MessagePayload) DECODERS.get(type).apply(unpacker));
+      unpacker.skipRemaining();
+      unpacker.remaining = batchRemaining;
+    }
+    return new MessageBatch(messages);
+  }
+
+  /** Unpacks the subset of the MessagePack format used by the payloads */
+  static final class Unpacker {
+
+    private static final byte TIMESTAMP = -1;
+    private static final int MAX_DEPTH = 16;
+
+    private final ByteBuffer buffer;
+    /** Elements of the payload array which are not read yet */
+    private int remaining;
+
+    Unpacker(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    String nextString() {
+      this.next();
+      return this.unpackString();
+    }
+
+    String nextNullableString() {
+      this.next();
+      if (this.peek() == 0xc0) {
+        this.buffer.get();
+        return null;
+      }
+      return this.unpackString();
+    }
+
+    long nextLong() {
+      this.next();
+      return this.unpackLong();
+    }
+
+    Instant nextTimestamp() {
+      this.next();
+      return this.unpackTimestamp();
+    }
+
+    int unpackArrayHeader() {
+      int b = this.peek();
+      if ((b & 0xf0) == 0x90) {
+        this.buffer.get();
+        return b & 0x0f;
+      }
+      return switch (this.unpackFormat()) {
+        case 0xdc -> this.unpackUnsignedShort();
+        case 0xdd -> this.unpackLength();
+        default -> throw unexpected("array", b);
+      };
+    }
+
+    String unpackString() {
+      int b = this.peek();
+      int length;
+      if ((b & 0xe0) == 0xa0) {
+        this.buffer.get();
+        length = b & 0x1f;
+      } else {
+        length =
+            switch (this.unpackFormat()) {
+              case 0xd9 -> this.buffer.get() & 0xff;
+              case 0xda -> this.unpackUnsignedShort();
+              case 0xdb -> this.unpackLength();
+              default -> throw unexpected("string", b);
+            };
+      }
+      if (length > this.buffer.remaining()) {
+        throw new BufferUnderflowException();
+      }
+      String value;
+      if (this.buffer.hasArray()) {
+        int offset = this.buffer.arrayOffset() + this.buffer.position();
+        value = new String(this.buffer.array(), offset, length, StandardCharsets.UTF_8);
+        this.buffer.position(this.buffer.position() + length);
+      } else {
+        byte[] bytes = new byte[length];
+        this.buffer.get(bytes);
+        value = new String(bytes, StandardCharsets.UTF_8);
+      }
+      return value;
+    }
+
+    long unpackLong() {
+      int b = this.peek();
+      if (b < 0x80 || b >= 0xe0) {
+        return this.buffer.get();
+      }
+      return switch (this.unpackFormat()) {
+        case 0xcc -> this.buffer.get() & 0xffL;
+        case 0xcd -> this.buffer.getShort() & 0xffffL;
+        case 0xce -> this.buffer.getInt() & 0xffffffffL;
+        case 0xcf -> {
+          long value = this.buffer.getLong();
+          if (value < 0) throw new ArithmeticException("Integer overflow");
+          yield value;
+        }
+        case 0xd0 -> this.buffer.get();
+        case 0xd1 -> this.buffer.getShort();
+        case 0xd2 -> this.buffer.getInt();
+        case 0xd3 -> this.buffer.getLong();
+        default -> throw unexpected("integer", b);
+      };
+    }
+
+    Instant unpackTimestamp() {
+      int b = this.unpackFormat();
+      int length =
+          switch (b) {
+            case 0xd6 -> 4;
+            case 0xd7 -> 8;
+            case 0xc7 -> this.buffer.get() & 0xff;
+            default -> throw unexpected("timestamp", b);
+          };
+      if (this.buffer.get() != TIMESTAMP) {
+        throw new ValidationException("Malformed payload: expected timestamp extension");
+      }
+      return switch (length) {
+        case 4 -> Instant.ofEpochSecond(this.buffer.getInt() & 0xffffffffL);
+        case 8 -> {
+          long data = this.buffer.getLong();
+          yield Instant.ofEpochSecond(data & 0x3ffffffffL, data >>> 34);
+        }
+        case 12 -> {
+          long nanos = this.buffer.getInt() & 0xffffffffL;
+          yield Instant.ofEpochSecond(this.buffer.getLong(), nanos);
+        }
+        default -> throw new ValidationException("Malformed payload: invalid timestamp length");
+      };
+    }
+
+    /** Skips trailing values, which may be of any type */
+    void skipValue(int depth) {
+      if (depth > MAX_DEPTH) {
+        throw new ValidationException("Malformed payload: too deeply nested");
+      }
+      int b = this.unpackFormat();
+      if (b < 0x80 || b >= 0xe0 || b == 0xc0 || b == 0xc2 || b == 0xc3) {
+        return;
+      }
+      if ((b & 0xe0) == 0xa0) {
+        this.skip(b & 0x1f);
+        return;
+      }
+      if ((b & 0xf0) == 0x90 || (b & 0xf0) == 0x80) {
+        this.skipValues((b & 0x0f) * ((b & 0xf0) == 0x80 ? 2 : 1), depth);
+        return;
+      }
+      switch (b) {
+        case 0xcc, 0xd0 -> this.skip(1);
+        case 0xcd, 0xd1 -> this.skip(2);
+        case 0xce, 0xd2, 0xca -> this.skip(4);
+        case 0xcf, 0xd3, 0xcb -> this.skip(8);
+        case 0xd4 -> this.skip(2);
+        case 0xd5 -> this.skip(3);
+        case 0xd6 -> this.skip(5);
+        case 0xd7 -> this.skip(9);
+        case 0xd8 -> this.skip(17);
+        case 0xc4, 0xd9 -> this.skip(this.buffer.get() & 0xff);
+        case 0xc5, 0xda -> this.skip(this.unpackUnsignedShort());
+        case 0xc6, 0xdb -> this.skip(this.unpackLength());
+        case 0xc7 -> this.skip((this.buffer.get() & 0xff) + 1);
+        case 0xc8 -> this.skip(this.unpackUnsignedShort() + 1);
+        case 0xc9 -> this.skip(this.unpackLength() + 1);
+        case 0xdc -> this.skipValues(this.unpackUnsignedShort(), depth);
+        case 0xdd -> this.skipValues(this.unpackLength(), depth);
+        case 0xde -> this.skipValues(this.unpackUnsignedShort() * 2L, depth);
+        case 0xdf -> this.skipValues(this.unpackLength() * 2L, depth);
+        default -> throw unexpected("value", b);
+      }
+    }
+
+    /** Skips elements of the payload array which are not read */
+    void skipRemaining() {
+      while (this.remaining > 0) {
+        this.remaining--;
+        this.skipValue(0);
+      }
+    }
+
+    private void next() {
+      if (this.remaining-- < 1) {
+        throw new ValidationException("Malformed payload: too few array elements");
+      }
+    }
+
+    private void skipValues(long count, int depth) {
+      for (long i = 0; i < count; i++) {
+        this.skipValue(depth + 1);
+      }
+    }
+
+    private void skip(int length) {
+      if (length > this.buffer.remaining()) {
+        throw new BufferUnderflowException();
+      }
+      this.buffer.position(this.buffer.position() + length);
+    }
+
+    private int peek() {
+      if (!this.buffer.hasRemaining()) {
+        throw new BufferUnderflowException();
+      }
+      return this.buffer.get(this.buffer.position()) & 0xff;
+    }
+
+    private int unpackFormat() {
+      return this.buffer.get() & 0xff;
+    }
+
+    private int unpackUnsignedShort() {
+      return this.buffer.getShort() & 0xffff;
+    }
+
+    /** Lengths over the frame size are not valid anyway, so they are rejected as negative */
+    private int unpackLength() {
+      int length = this.buffer.getInt();
+      if (length < 0) {
+        throw new ValidationException("Malformed payload: invalid length");
+      }
+      return length;
+    }
+
+    private static ValidationException unexpected(String expected, int format) {
+      return new ValidationException(
+          "Malformed payload: expected %s but 0x%02x".formatted(expected, format));
+    }
+  }
+}
@@ -0,0 +1,250 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.*;
+
+/**
+ * Encodes payloads of the {@code k1te.chat.v2} subprotocol. Frames have the same layout as the json
+ * frames of {@link PayloadEncoder}, packed as <a href="https://msgpack.org">MessagePack</a> arrays,
+ * with timestamps packed to the MessagePack timestamp extension instead of the iso strings.
+ */
+public class MsgPackPayloadEncoder implements Function<Payload, byte[]> {
+
+  static final EnumMap<Payload.Type, BiConsumer<Payload, Packer>> ENCODERS =
+      new EnumMap<>(Payload.Type.class);
+
+  static {
+    ENCODERS.put(Payload.Type.ACK, MsgPackPayloadEncoder::encodeAck);
+    ENCODERS.put(Payload.Type.OK, MsgPackPayloadEncoder::encodeTypeOnlyPayload);
+    ENCODERS.put(Payload.Type.ERR, MsgPackPayloadEncoder::encodeError);
+    ENCODERS.put(Payload.Type.TXT, MsgPackPayloadEncoder::encodePlaintext);
+    ENCODERS.put(Payload.Type.BIN, MsgPackPayloadEncoder::encodeBinary);
+    ENCODERS.put(Payload.Type.UPL, MsgPackPayloadEncoder::encodeUploadResponse);
+    ENCODERS.put(Payload.Type.PONG, MsgPackPayloadEncoder::encodeTypeOnlyPayload);
+    ENCODERS.put(Payload.Type.ACKS, MsgPackPayloadEncoder::encodeBatchAck);
+    ENCODERS.put(Payload.Type.BATCH, MsgPackPayloadEncoder::encodeBatch);
+    ENCODERS.put(Payload.Type.PAGE, MsgPackPayloadEncoder::encodeHistoryPage);
+  }
+
+  @Override
+  public byte[] apply(Payload payload) {
+    final var type = payload.type();
+    var encoder = ENCODERS.get(type);
+    Objects.requireNonNull(encoder, "No encoder for " + type);
+    var packer = new Packer();
+    encoder.accept(payload, packer);
+    return packer.toByteArray();
+  }
+
+  private static void encodeAck(Payload payload, Packer packer) {
+    var ack = (MessageAck) payload;
+    packer
+        .packArrayHeader(4)
+        .packString(payload.type().name())
+        .packString(ack.messageId())
+        .packString(ack.destinationMessageId())
+        .packTimestamp(ack.delivered());
+  }
+
+  private static void encodeBatchAck(Payload payload, Packer packer) {
+    var batch = (BatchAck) payload;
+    packer.packArrayHeader(1 + batch.acks().size()).packString(payload.type().name());
+    for (MessageAck ack : batch.acks()) {
+      packer
+          .packArrayHeader(3)
+          .packString(ack.messageId())
+          .packString(ack.destinationMessageId())
+          .packTimestamp(ack.delivered());
+    }
+  }
+
+  private static void encodeBatch(Payload payload, Packer packer) {
+    var batch = (MessageBatch) payload;
+    packer.packArrayHeader(1 + batch.messages().size()).packString(payload.type().name());
+    for (MessagePayload message : batch.messages()) {
+      ENCODERS.get(message.type()).accept(message, packer);
+    }
+  }
+
+  private static void encodeHistoryPage(Payload payload, Packer packer) {
+    var page = (HistoryPage) payload;
+    packer
+        .packArrayHeader(2 + page.entries().size())
+        .packString(payload.type().name())
+        .packString(page.cursor());
+    for (HistoryPage.Entry entry : page.entries()) {
+      MessagePayload message = entry.message();
+      packer.packArrayHeader(2).packBoolean(entry.incoming());
+      ENCODERS.get(message.type()).accept(message, packer);
+    }
+  }
+
+  private static void encodeError(Payload payload, Packer packer) {
+    var error = (ErrorResponse) payload;
+    packer
+        .packArrayHeader(3)
+        .packString(payload.type().name())
+        .packString(error.reason())
+        .packLong(error.code());
+  }
+
+  private static void encodePlaintext(Payload payload, Packer packer) {
+    var message = (PlaintextMessage) payload;
+    packer
+        .packArrayHeader(4)
+        .packString(payload.type().name())
+        .packString(message.messageId())
+        .packString(message.text())
+        .packTimestamp(message.created());
+  }
+
+  private static void encodeBinary(Payload payload, Packer packer) {
+    var message = (BinaryPayload) payload;
+    packer
+        .packArrayHeader(7)
+        .packString(payload.type().name())
+        .packString(message.messageId())
+        .packString(message.uri().toString())
+        .packString(message.fileName())
+        .packString(message.fileType())
+        .packLong(message.fileSize())
+        .packTimestamp(message.created());
+  }
+
+  private static void encodeUploadResponse(Payload payload, Packer packer) {
+    var message = (UploadResponse) payload;
+    boolean upload = null != message.uploadUri();
+    packer
+        .packArrayHeader(upload ? 4 : 3)
+        .packString(payload.type().name())
+        .packString(message.messageId())
+        .packString(message.canonicalUri().toString());
+    if (upload) {
+      packer.packString(message.uploadUri().toString());
+    }
+  }
+
+  private static void encodeTypeOnlyPayload(Payload payload, Packer packer) {
+    packer.packArrayHeader(1).packString(payload.type().name());
+  }
+
+  /** Packs the subset of the MessagePack format used by the payloads */
+  static final class Packer {
+
+    private static final int TIMESTAMP = -1;
+
+    private byte[] buf = new byte[128];
+    private int size;
+
+    Packer packArrayHeader(int length) {
+      if (length < 16) {
+        return this.write(0x90 | length);
+      } else if (length < 0x10000) {
+        return this.write(0xdc).writeShort(length);
+      }
+      return this.write(0xdd).writeInt(length);
+    }
+
+    Packer packString(String value) {
+      if (null == value) {
+        return this.write(0xc0);
+      }
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      int length = bytes.length;
+      if (length < 32) {
+        this.write(0xa0 | length);
+      } else if (length < 0x100) {
+        this.write(0xd9).write(length);
+      } else if (length < 0x10000) {
+        this.write(0xda).writeShort(length);
+      } else {
+        this.write(0xdb).writeInt(length);
+      }
+      this.ensureCapacity(length);
+      System.arraycopy(bytes, 0, this.buf, this.size, length);
+      this.size += length;
+      return this;
+    }
+
+    Packer packBoolean(boolean value) {
+      return this.write(value ? 0xc3 : 0xc2);
+    }
+
+    Packer packLong(long value) {
+      if (value >= 0) {
+        if (value < 0x80) {
+          return this.write((int) value);
+        } else if (value < 0x100) {
+          return this.write(0xcc).write((int) value);
+        } else if (value < 0x10000) {
+          return this.write(0xcd).writeShort((int) value);
+        } else if (value < 0x100000000L) {
+          return this.write(0xce).writeInt((int) value);
+        }
+        return this.write(0xcf).writeLong(value);
+      }
+      if (value >= -32) {
+        return this.write((int) value & 0xff);
+      } else if (value >= Byte.MIN_VALUE) {
+        return this.write(0xd0).write((int) value & 0xff);
+      } else if (value >= Short.MIN_VALUE) {
+        return this.write(0xd1).writeShort((int) value);
+      } else if (value >= Integer.MIN_VALUE) {
+        return this.write(0xd2).writeInt((int) value);
+      }
+      return this.write(0xd3).writeLong(value);
+    }
+
+    /** Uses the shortest of the 32, 64 and 96 bit timestamp formats which fits the instant */
+    Packer packTimestamp(Instant value) {
+      if (null == value) {
+        return this.write(0xc0);
+      }
+      long seconds = value.getEpochSecond();
+      int nanos = value.getNano();
+      if (seconds >>> 34 == 0) {
+        long data = ((long) nanos << 34) | seconds;
+        if ((data & 0xffffffff00000000L) == 0) {
+          return this.write(0xd6).write(TIMESTAMP & 0xff).writeInt((int) data);
+        }
+        return this.write(0xd7).write(TIMESTAMP & 0xff).writeLong(data);
+      }
+      return this.write(0xc7).write(12).write(TIMESTAMP & 0xff).writeInt(nanos).writeLong(seconds);
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(this.buf, this.size);
+    }
+
+    private Packer write(int b) {
+      this.ensureCapacity(1);
+      this.buf[this.size++] = (byte) b;
+      return this;
+    }
+
+    private Packer writeShort(int value) {
+      return this.write(value >>> 8).write(value);
+    }
+
+    private Packer writeInt(int value) {
+      return this.writeShort(value >>> 16).writeShort(value);
+    }
+
+    private Packer writeLong(long value) {
+      return this.writeInt((int) (value >>> 32)).writeInt((int) value);
+    }
+
+    private void ensureCapacity(int length) {
+      if (this.size + length > this.buf.length) {
+        this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.size + length));
+      }
+    }
+  }
+}
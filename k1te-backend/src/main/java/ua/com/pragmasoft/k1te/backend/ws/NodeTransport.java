@@ -0,0 +1,20 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+import java.time.Instant;
+import java.util.concurrent.CompletionStage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+
+/**
+ * Carries payloads to the connections owned by other cluster nodes. The receiving node delivers
+ * them with {@link ClusteredConnectionRegistry#deliver(String, Payload)}.
+ */
+public interface NodeTransport {
+
+  /**
+   * @return stage which completes with the time the frame was written by the owning node, or fails
+   *     with {@link ua.com.pragmasoft.k1te.backend.shared.RoutingException} when the node or the
+   *     connection is gone
+   */
+  CompletionStage<Instant> forward(String nodeId, String connectionUri, Payload payload);
+}
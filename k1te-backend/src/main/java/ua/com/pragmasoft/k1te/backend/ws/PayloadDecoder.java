@@ -1,35 +1,87 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.backend.ws;
 
-import jakarta.json.Json;
-import jakarta.json.JsonArray;
+import jakarta.json.JsonException;
+import jakarta.json.spi.JsonProvider;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
+import jakarta.json.stream.JsonParserFactory;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.EnumMap;
-import java.util.Objects;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.BinaryMessage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.HistoryRequest;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.JoinChannel;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.LeaveChannel;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageBatch;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload.Type;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.Ping;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.UploadRequest;
+import ua.com.pragmasoft.k1te.backend.shared.TooLargeException;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
 
+/**
+ * Decodes payload frames like {@code ["TXT","messageId","text","2023-10-17T10:15:30Z"]} reading
+ * parser events straight into the payload, without building the json tree. Frames larger than the
+ * max frame size and malformed frames are rejected with {@link ValidationException} as soon as
+ * detected, without reading the rest of the frame.
+ */
 public class PayloadDecoder implements Function<String, Payload> {
 
   private static final Logger log = LoggerFactory.getLogger(PayloadDecoder.class);
 
-  static final EnumMap<Type, Function<JsonArray, Payload>> DECODERS = new EnumMap<>(Type.class);
+  /** Resolving the provider with the service loader is costly, so it is done only once */
+  private static final JsonParserFactory PARSERS =
+      JsonProvider.provider().createParserFactory(Map.of());
+
+  /** Same as the max frame size of the API Gateway websocket */
+  public static final int DEFAULT_MAX_FRAME_SIZE = 32 * 1024;
+
+  static final EnumMap<Type, Function<JsonParser, Payload>> DECODERS = new EnumMap<>(Type.class);
 
   static {
     DECODERS.put(Type.JOIN, PayloadDecoder::decodeJoinChannel);
+    DECODERS.put(Type.LEAVE, PayloadDecoder::decodeLeaveChannel);
     DECODERS.put(Type.TXT, PayloadDecoder::decodePlaintextMessage);
     DECODERS.put(Type.BIN, PayloadDecoder::decodeBinaryMessage);
     DECODERS.put(Type.UPL, PayloadDecoder::decodeUploadRequest);
     DECODERS.put(Type.PING, PayloadDecoder::decodePing);
+    DECODERS.put(Type.BATCH, PayloadDecoder::decodeBatch);
+    DECODERS.put(Type.HIST, PayloadDecoder::decodeHistoryRequest);
+  }
+
+  /** Types of the messages which may be sent in the batch */
+  static final Set<Type> BATCHED = EnumSet.of(Type.TXT, Type.BIN);
+
+  private final int maxFrameSize;
+
+  public PayloadDecoder() {
+    this(DEFAULT_MAX_FRAME_SIZE);
+  }
+
+  /**
+   * @param maxFrameSize max size of the frame, in characters for text and in bytes otherwise
+   */
+  public PayloadDecoder(int maxFrameSize) {
+    if (maxFrameSize < 1) throw new IllegalArgumentException("Max frame size must be positive");
+    this.maxFrameSize = maxFrameSize;
   }
 
   @Override
@@ -37,54 +89,253 @@ public class PayloadDecoder implements Function<String, Payload> {
 
     log.debug("decode {}", text);
 
-    try (var reader = Json.createReader(new StringReader(text))) {
-      var array = reader.readArray();
-      String typeLabel = array.getString(0);
-      Type type = Type.valueOf(typeLabel);
+    this.requireSize(text.length());
+    try (var parser = PARSERS.createParser(new StringReader(text))) {
+      return decode(parser);
+    }
+  }
+
+  /** Decodes utf-8 frame from its position to its limit, the position is not changed */
+  public Payload decode(ByteBuffer frame) {
+    this.requireSize(frame.remaining());
+    var in = new ByteBufferInputStream(frame.duplicate());
+    try (var parser = PARSERS.createParser(in, StandardCharsets.UTF_8)) {
+      return decode(parser);
+    }
+  }
+
+  /** Decodes utf-8 frame, the stream is not closed */
+  public Payload decode(InputStream frame) {
+    try (var parser =
+        PARSERS.createParser(
+            new LimitedInputStream(frame, this.maxFrameSize), StandardCharsets.UTF_8)) {
+      return decode(parser);
+    }
+  }
+
+  private void requireSize(long size) {
+    if (size > this.maxFrameSize) {
+      throw new TooLargeException(this.maxFrameSize / 1024L, size / 1024);
+    }
+  }
+
+  private static Payload decode(JsonParser parser) {
+    try {
+      expect(parser, Event.START_ARRAY);
+      Type type = Type.valueOf(readString(parser));
       var decoder = DECODERS.get(type);
-      Objects.requireNonNull(decoder, "No decoder for " + type);
-      return decoder.apply(array);
+      if (null == decoder) {
+        throw new ValidationException("No decoder for " + type);
+      }
+      Payload payload = decoder.apply(parser);
+      if (type != Type.BATCH) {
+        // trailing elements are ignored
+        skipRest(parser);
+      }
+      if (parser.hasNext()) {
+        throw new ValidationException("Malformed payload: unexpected content after the array");
+      }
+      return payload;
+    } catch (JsonException
+        | IllegalArgumentException
+        | DateTimeParseException
+        | ArithmeticException e) {
+      throw new ValidationException("Malformed payload: " + e.getMessage(), e);
     }
   }
 
-  private static Payload decodeJoinChannel(JsonArray array) {
-    Objects.checkIndex(3, array.size());
-    String memberId = array.getString(1);
-    String memberName = array.getString(2, memberId);
-    String channelName = array.getString(3);
-    return new JoinChannel(memberId, memberName, channelName);
+  private static Payload decodeJoinChannel(JsonParser parser) {
+    String memberId = readString(parser);
+    String memberName = readNullableString(parser);
+    String channelName = readString(parser);
+    return new JoinChannel(memberId, null != memberName ? memberName : memberId, channelName);
   }
 
-  private static Payload decodePlaintextMessage(JsonArray array) {
-    Objects.checkIndex(3, array.size());
-    String messageId = array.getString(1);
-    String text = array.getString(2);
-    Instant timestamp = Instant.parse(array.getString(3));
+  private static Payload decodeLeaveChannel(JsonParser parser) {
+    return new LeaveChannel();
+  }
+
+  private static Payload decodePlaintextMessage(JsonParser parser) {
+    String messageId = readString(parser);
+    String text = readString(parser);
+    Instant timestamp = Instant.parse(readString(parser));
     return new PlaintextMessage(text, messageId, timestamp);
   }
 
-  private static Payload decodeBinaryMessage(JsonArray array) {
-    Objects.checkIndex(6, array.size());
-    var messageId = array.getString(1);
-    var url = array.getString(2);
-    var fileName = array.getString(3);
-    var fileType = array.getString(4);
-    var fileSize = array.getJsonNumber(5).longValueExact();
-    Instant timestamp = Instant.parse(array.getString(6));
+  private static Payload decodeBinaryMessage(JsonParser parser) {
+    var messageId = readString(parser);
+    var url = readString(parser);
+    var fileName = readString(parser);
+    var fileType = readString(parser);
+    var fileSize = readLong(parser);
+    Instant timestamp = Instant.parse(readString(parser));
     return new BinaryMessage(url, fileName, fileType, fileSize, messageId, timestamp);
   }
 
-  private static Payload decodeUploadRequest(JsonArray array) {
-    Objects.checkIndex(5, array.size());
-    var messageId = array.getString(1);
-    var fileName = array.getString(2);
-    var fileType = array.getString(3);
-    var fileSize = array.getJsonNumber(4).longValueExact();
-    Instant timestamp = Instant.parse(array.getString(5));
+  private static Payload decodeUploadRequest(JsonParser parser) {
+    var messageId = readString(parser);
+    var fileName = readString(parser);
+    var fileType = readString(parser);
+    var fileSize = readLong(parser);
+    Instant timestamp = Instant.parse(readString(parser));
     return new UploadRequest(fileName, fileType, fileSize, messageId, timestamp);
   }
 
-  private static Payload decodePing(JsonArray array) {
+  private static Payload decodePing(JsonParser parser) {
     return new Ping();
   }
+
+  /** Like {@code ["HIST","cursor",20]}, the cursor is null for the most recent messages */
+  private static Payload decodeHistoryRequest(JsonParser parser) {
+    String cursor = readNullableString(parser);
+    int limit = Math.toIntExact(readLong(parser));
+    return new HistoryRequest(cursor, limit);
+  }
+
+  /** Reads messages up to the end of the batch array, like {@code ["BATCH",["TXT",...],...]} */
+  private static Payload decodeBatch(JsonParser parser) {
+    List<MessagePayload> messages = new ArrayList<>();
+    Event event;
+    while ((event = next(parser)) == Event.START_ARRAY) {
+      Type type = Type.valueOf(readString(parser));
+      if (!BATCHED.contains(type)) {
+        throw new ValidationException("Unsupported batched payload " + type);
+      }
+      messages.add((MessagePayload) DECODERS.get(type).apply(parser));
+      // trailing elements are ignored
+      skipRest(parser);
+    }
+    if (event != Event.END_ARRAY) {
+      throw new ValidationException("Malformed payload: expected START_ARRAY but " + event);
+    }
+    return new MessageBatch(messages);
+  }
+
+  /**
+   * Reads up to the end of the array whose elements are being read, skipping the remaining elements
+   * with whatever they nest. The parser's own {@code skipArray()} is not used, as it leaves the end
+   * of the array unread once all its elements have been read.
+   */
+  private static void skipRest(JsonParser parser) {
+    int depth = 1;
+    while (depth > 0) {
+      switch (next(parser)) {
+        case START_ARRAY, START_OBJECT -> depth++;
+        case END_ARRAY, END_OBJECT -> depth--;
+        default -> {
+          // scalar elements are skipped as they are
+        }
+      }
+    }
+  }
+
+  private static Event next(JsonParser parser) {
+    if (!parser.hasNext()) {
+      throw new ValidationException("Malformed payload: unexpected end of the frame");
+    }
+    return parser.next();
+  }
+
+  private static void expect(JsonParser parser, Event expected) {
+    Event event = next(parser);
+    if (event != expected) {
+      throw new ValidationException("Malformed payload: expected " + expected + " but " + event);
+    }
+  }
+
+  private static String readString(JsonParser parser) {
+    expect(parser, Event.VALUE_STRING);
+    return parser.getString();
+  }
+
+  private static String readNullableString(JsonParser parser) {
+    Event event = next(parser);
+    if (event == Event.VALUE_NULL) {
+      return null;
+    }
+    if (event != Event.VALUE_STRING) {
+      throw new ValidationException("Malformed payload: expected VALUE_STRING but " + event);
+    }
+    return parser.getString();
+  }
+
+  private static long readLong(JsonParser parser) {
+    expect(parser, Event.VALUE_NUMBER);
+    return parser.getBigDecimal().longValueExact();
+  }
+
+  /** Reads the buffer without copying it to the intermediate array */
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return this.buffer.hasRemaining() ? this.buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!this.buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, this.buffer.remaining());
+      this.buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return this.buffer.remaining();
+    }
+  }
+
+  /** Fails as soon as more than the limit is read, leaves the underlying stream open */
+  private static final class LimitedInputStream extends FilterInputStream {
+
+    private final int limit;
+    private long count;
+
+    LimitedInputStream(InputStream in, int limit) {
+      super(in);
+      this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        this.count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int read = super.read(bytes, offset, length);
+      if (read > 0) {
+        this.count(read);
+      }
+      return read;
+    }
+
+    @Override
+    public void close() {
+      // the caller owns the stream
+    }
+
+    private void count(int read) {
+      this.count += read;
+      if (this.count > this.limit) {
+        throw new TooLargeException(this.limit / 1024L, this.count / 1024);
+      }
+    }
+  }
 }
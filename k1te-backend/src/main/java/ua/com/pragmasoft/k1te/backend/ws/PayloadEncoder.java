@@ -1,19 +1,39 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.backend.ws;
 
-import jakarta.json.Json;
-import jakarta.json.JsonWriter;
-import java.io.StringWriter;
+import jakarta.json.spi.JsonProvider;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonGeneratorFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.EnumMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.*;
 import ua.com.pragmasoft.k1te.backend.tg.TelegramConnector;
 
+/**
+ * Encodes payloads to frames like {@code ["TXT","messageId","text","2023-10-17T10:15:30Z"]},
+ * streaming the fields with the json generator. Frames are generated to the utf-8 buffer reused by
+ * the calling thread, so send paths get bytes without the intermediate string.
+ */
 public class PayloadEncoder implements Function<Payload, String> {
 
-  static final EnumMap<Payload.Type, BiConsumer<Payload, JsonWriter>> ENCODERS =
+  /** Resolving the provider with the service loader is costly, so it is done only once */
+  private static final JsonGeneratorFactory GENERATORS =
+      JsonProvider.provider().createGeneratorFactory(Map.of());
+
+  private static final int BUFFER_SIZE = 512;
+  /** Larger buffers are not kept, so a single large frame does not hold memory of the thread */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<FrameBuffer> BUFFERS = ThreadLocal.withInitial(FrameBuffer::new);
+
+  static final EnumMap<Payload.Type, BiConsumer<Payload, JsonGenerator>> ENCODERS =
       new EnumMap<>(Payload.Type.class);
 
   static {
@@ -24,89 +44,184 @@ public class PayloadEncoder implements Function<Payload, String> {
     ENCODERS.put(Payload.Type.BIN, PayloadEncoder::encodeBinary);
     ENCODERS.put(Payload.Type.UPL, PayloadEncoder::encodeUploadResponse);
     ENCODERS.put(Payload.Type.PONG, PayloadEncoder::encodeTypeOnlyPayload);
+    ENCODERS.put(Payload.Type.ACKS, PayloadEncoder::encodeBatchAck);
+    ENCODERS.put(Payload.Type.BATCH, PayloadEncoder::encodeBatch);
+    ENCODERS.put(Payload.Type.PAGE, PayloadEncoder::encodeHistoryPage);
   }
 
   @Override
   public String apply(Payload payload) {
-    var sw = new StringWriter();
-    try (var jw = Json.createWriter(sw)) {
-      final var type = payload.type();
-      var encoder = ENCODERS.get(type);
-      Objects.requireNonNull(encoder, "No encoder for " + type);
-      encoder.accept(payload, jw);
-      return sw.toString();
+    FrameBuffer buffer = this.generate(payload);
+    try {
+      return new String(buffer.array(), 0, buffer.size(), StandardCharsets.UTF_8);
+    } finally {
+      buffer.release();
+    }
+  }
+
+  /** Returns utf-8 bytes of the frame, owned by the caller */
+  public byte[] encode(Payload payload) {
+    FrameBuffer buffer = this.generate(payload);
+    try {
+      return Arrays.copyOf(buffer.array(), buffer.size());
+    } finally {
+      buffer.release();
+    }
+  }
+
+  /** Writes the frame to the writer and closes it, as the frame is complete */
+  public void encode(Payload payload, Writer writer) {
+    try (var generator = GENERATORS.createGenerator(writer)) {
+      encoder(payload).accept(payload, generator);
     }
   }
 
-  private static void encodeAck(Payload payload, JsonWriter jw) {
+  private FrameBuffer generate(Payload payload) {
+    var encoder = encoder(payload);
+    FrameBuffer buffer = BUFFERS.get();
+    buffer.reset();
+    try (var generator = GENERATORS.createGenerator(buffer, StandardCharsets.UTF_8)) {
+      encoder.accept(payload, generator);
+    } catch (RuntimeException e) {
+      buffer.release();
+      throw e;
+    }
+    return buffer;
+  }
+
+  private static BiConsumer<Payload, JsonGenerator> encoder(Payload payload) {
+    final var type = payload.type();
+    var encoder = ENCODERS.get(type);
+    Objects.requireNonNull(encoder, "No encoder for " + type);
+    return encoder;
+  }
+
+  private static void encodeAck(Payload payload, JsonGenerator generator) {
     var ack = (MessageAck) payload;
-    var array =
-        Json.createArrayBuilder()
-            .add(payload.type().name())
-            .add(ack.messageId())
-            .add(ack.destinationMessageId())
-            .add(ack.delivered().toString())
-            .build();
-    jw.writeArray(array);
+    generator
+        .writeStartArray()
+        .write(payload.type().name())
+        .write(ack.messageId())
+        .write(ack.destinationMessageId())
+        .write(ack.delivered().toString())
+        .writeEnd();
+  }
+
+  /** Acks of the batch are written without the type, like {@code ["ACKS",["id","id","ts"],...]} */
+  private static void encodeBatchAck(Payload payload, JsonGenerator generator) {
+    var batch = (BatchAck) payload;
+    generator.writeStartArray().write(payload.type().name());
+    for (MessageAck ack : batch.acks()) {
+      generator
+          .writeStartArray()
+          .write(ack.messageId())
+          .write(ack.destinationMessageId())
+          .write(ack.delivered().toString())
+          .writeEnd();
+    }
+    generator.writeEnd();
   }
 
-  private static void encodeError(Payload payload, JsonWriter jw) {
+  /** Messages of the batch are written like the batch sent by the client */
+  private static void encodeBatch(Payload payload, JsonGenerator generator) {
+    var batch = (MessageBatch) payload;
+    generator.writeStartArray().write(payload.type().name());
+    for (MessagePayload message : batch.messages()) {
+      encoder(message).accept(message, generator);
+    }
+    generator.writeEnd();
+  }
+
+  /** Like {@code ["PAGE","cursor",[true,["TXT",...]],...]}, the cursor is null on the last page */
+  private static void encodeHistoryPage(Payload payload, JsonGenerator generator) {
+    var page = (HistoryPage) payload;
+    generator.writeStartArray().write(payload.type().name());
+    if (null != page.cursor()) {
+      generator.write(page.cursor());
+    } else {
+      generator.writeNull();
+    }
+    for (HistoryPage.Entry entry : page.entries()) {
+      MessagePayload message = entry.message();
+      generator.writeStartArray().write(entry.incoming());
+      encoder(message).accept(message, generator);
+      generator.writeEnd();
+    }
+    generator.writeEnd();
+  }
+
+  private static void encodeError(Payload payload, JsonGenerator generator) {
     var error = (ErrorResponse) payload;
-    var array =
-        Json.createArrayBuilder()
-            .add(payload.type().name())
-            .add(error.reason())
-            .add(error.code())
-            .build();
-    jw.writeArray(array);
+    generator
+        .writeStartArray()
+        .write(payload.type().name())
+        .write(error.reason())
+        .write(error.code())
+        .writeEnd();
   }
 
-  private static void encodePlaintext(Payload payload, JsonWriter jw) {
+  private static void encodePlaintext(Payload payload, JsonGenerator generator) {
     var message = (PlaintextMessage) payload;
-    var array =
-        Json.createArrayBuilder()
-            .add(payload.type().name())
-            .add(message.messageId())
-            .add(message.text())
-            .add(message.created().toString())
-            .build();
-    jw.writeArray(array);
+    generator
+        .writeStartArray()
+        .write(payload.type().name())
+        .write(message.messageId())
+        .write(message.text())
+        .write(message.created().toString())
+        .writeEnd();
   }
 
-  private static void encodeBinary(Payload payload, JsonWriter jw) {
+  private static void encodeBinary(Payload payload, JsonGenerator generator) {
     var message =
         payload instanceof TelegramConnector.TelegramBinaryMessage
             ? (BinaryPayload) payload
             : (BinaryMessage) payload;
-    var array =
-        Json.createArrayBuilder()
-            .add(payload.type().name())
-            .add(message.messageId())
-            .add(message.uri().toString())
-            .add(message.fileName())
-            .add(message.fileType())
-            .add(message.fileSize())
-            .add(message.created().toString())
-            .build();
-    jw.writeArray(array);
-  }
-
-  private static void encodeUploadResponse(Payload payload, JsonWriter jw) {
+    generator
+        .writeStartArray()
+        .write(payload.type().name())
+        .write(message.messageId())
+        .write(message.uri().toString())
+        .write(message.fileName())
+        .write(message.fileType())
+        .write(message.fileSize())
+        .write(message.created().toString())
+        .writeEnd();
+  }
+
+  private static void encodeUploadResponse(Payload payload, JsonGenerator generator) {
     var message = (UploadResponse) payload;
-    var array =
-        Json.createArrayBuilder()
-            .add(payload.type().name())
-            .add(message.messageId())
-            .add(message.canonicalUri().toString());
+    generator
+        .writeStartArray()
+        .write(payload.type().name())
+        .write(message.messageId())
+        .write(message.canonicalUri().toString());
 
     if (null != message.uploadUri()) {
-      array.add(message.uploadUri().toString());
+      generator.write(message.uploadUri().toString());
     }
-    jw.writeArray(array.build());
+    generator.writeEnd();
   }
 
-  private static void encodeTypeOnlyPayload(Payload payload, JsonWriter jw) {
-    var array = Json.createArrayBuilder().add(payload.type().name()).build();
-    jw.writeArray(array);
+  private static void encodeTypeOnlyPayload(Payload payload, JsonGenerator generator) {
+    generator.writeStartArray().write(payload.type().name()).writeEnd();
+  }
+
+  /** Gives access to the buffered bytes without copying them */
+  private static final class FrameBuffer extends ByteArrayOutputStream {
+
+    FrameBuffer() {
+      super(BUFFER_SIZE);
+    }
+
+    byte[] array() {
+      return this.buf;
+    }
+
+    /** Drops the buffer which grew too large, the next frame of the thread gets a new one */
+    void release() {
+      if (this.buf.length > MAX_RETAINED_BUFFER_SIZE) {
+        BUFFERS.remove();
+      }
+    }
   }
 }
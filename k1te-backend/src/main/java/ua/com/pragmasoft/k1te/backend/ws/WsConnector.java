@@ -4,21 +4,41 @@ package ua.com.pragmasoft.k1te.backend.ws;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ua.com.pragmasoft.k1te.backend.router.domain.*;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.*;
+import ua.com.pragmasoft.k1te.backend.shared.DisconnectedException;
 import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+import ua.com.pragmasoft.k1te.backend.shared.NotFoundException;
 import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
 import ua.com.pragmasoft.k1te.backend.shared.TooLargeException;
 import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
 
 public class WsConnector implements Connector {
 
+  /** Json frames, see {@link PayloadEncoder} */
   public static final String SUBPROTOCOL = "k1te.chat.v1";
+  /** MessagePack frames, see {@link MsgPackPayloadEncoder} */
+  public static final String BINARY_SUBPROTOCOL = "k1te.chat.v2";
   public static final String WS = "ws";
 
+  /** Max number of messages in one {@link MessageBatch} frame */
+  public static final int MAX_BATCH_SIZE = 32;
+
+  /** Max number of messages of one {@link HistoryRequest} */
+  public static final int MAX_HISTORY_PAGE = 100;
+
+  /** Max number of messages in one {@link HistoryPage} frame, fits the API Gateway post limit */
+  public static final int HISTORY_FRAME_SIZE = 16;
+
   private static final Long BYTES_IN_MB = 1048576L;
   private static final Logger log = LoggerFactory.getLogger(WsConnector.class);
 
@@ -26,6 +46,9 @@ public class WsConnector implements Connector {
   private final Channels channels;
   private final WsConnectionRegistry connections;
   private final ObjectStore objectStore;
+  private final RateLimits rateLimits;
+  private final Outbox outbox;
+  private final Messages messages;
   private final Map<String, Integer> allowedMediaTypes =
       Map.of(
           "application/pdf", 20,
@@ -42,11 +65,48 @@ public class WsConnector implements Connector {
       final Channels channels,
       final WsConnectionRegistry connections,
       ObjectStore objectStore) {
+    this(router, channels, connections, objectStore, RateLimits.unlimited());
+  }
+
+  public WsConnector(
+      final Router router,
+      final Channels channels,
+      final WsConnectionRegistry connections,
+      ObjectStore objectStore,
+      RateLimits rateLimits) {
+    this(router, channels, connections, objectStore, rateLimits, null);
+  }
+
+  public WsConnector(
+      final Router router,
+      final Channels channels,
+      final WsConnectionRegistry connections,
+      ObjectStore objectStore,
+      RateLimits rateLimits,
+      Outbox outbox) {
+    this(router, channels, connections, objectStore, rateLimits, outbox, null);
+  }
+
+  /**
+   * @param outbox keeps messages to the members whose connection is gone, null to fail them
+   * @param messages history read by the members, null to reject history requests
+   */
+  public WsConnector(
+      final Router router,
+      final Channels channels,
+      final WsConnectionRegistry connections,
+      ObjectStore objectStore,
+      RateLimits rateLimits,
+      Outbox outbox,
+      Messages messages) {
     this.router = router;
     router.registerConnector(this);
     this.channels = channels;
     this.connections = connections;
     this.objectStore = objectStore;
+    this.rateLimits = rateLimits;
+    this.outbox = outbox;
+    this.messages = messages;
   }
 
   @Override
@@ -62,6 +122,12 @@ public class WsConnector implements Connector {
     return null;
   }
 
+  /**
+   * The member stays in the channel when its transport closes, only an explicit leave removes it.
+   * With the outbox the closed connection stays routed, so the messages sent meanwhile are queued
+   * until the member joins again, or until the connection expires without frames and the sweep
+   * purges it. Without the outbox the connection is purged at once.
+   */
   public Payload onClose(WsConnection connection) {
     final var connectionUri = this.connectionUriOf(connection);
     log.debug("Member disconnected from channel on {}", connectionUri);
@@ -71,9 +137,11 @@ public class WsConnector implements Connector {
             .withOriginConnection(connectionUri)
             .withRequest(
                 new PlaintextMessage(
-                    "✅ %s left channel %s"
+                    "✅ %s disconnected from channel %s"
                         .formatted(client.getUserName(), client.getChannelName()))));
-    this.channels.leaveChannel(connectionUri);
+    if (null == this.outbox) {
+      this.purge(ConnectionUri.parse(connectionUri));
+    }
     return null;
   }
 
@@ -90,15 +158,30 @@ public class WsConnector implements Connector {
     return errorResponse;
   }
 
+  /** Pong of the ping sent by the server proves the connection is alive, like any inbound frame */
+  public void onPong(WsConnection connection) {
+    this.refresh(connection);
+  }
+
   public Payload onPayload(Payload payload, WsConnection connection) {
+    if (!(payload instanceof JoinChannel)) {
+      // the join stores the connection with its full time to live anyway
+      this.refresh(connection);
+    }
     if (payload instanceof UploadRequest uploadRequest) {
       return this.onUploadRequest(uploadRequest, connection);
     } else if (payload instanceof MessagePayload message) {
       return this.onMessage(message, connection);
+    } else if (payload instanceof MessageBatch batch) {
+      return this.onBatch(batch, connection);
     } else if (payload instanceof Ping) {
       return new Pong();
     } else if (payload instanceof JoinChannel joinCommand) {
       return this.onJoinChannel(joinCommand, connection);
+    } else if (payload instanceof LeaveChannel) {
+      return this.onLeaveChannel(connection);
+    } else if (payload instanceof HistoryRequest historyRequest) {
+      return this.onHistoryRequest(historyRequest, connection);
     } else {
       throw new IllegalStateException(
           "Unsupported payload type %s".formatted(payload.getClass().getSimpleName()));
@@ -140,22 +223,151 @@ public class WsConnector implements Connector {
                     "✅ %s joined channel %s"
                         .formatted(client.getUserName(), client.getChannelName())));
     this.router.dispatch(ctx);
+    this.sendQueued(client, connection);
     return new OkResponse();
   }
 
+  /** Removes the member from the channel, with the messages queued for it */
+  private Payload onLeaveChannel(WsConnection connection) {
+    String originConnection = this.connectionUriOf(connection);
+    Member client = this.channels.leaveChannel(originConnection);
+    log.debug("Member {} left channel {}", client.getId(), client.getChannelName());
+    this.router.dispatch(
+        RoutingContext.create()
+            .withOriginConnection(originConnection)
+            .withFrom(client)
+            .withRequest(
+                new PlaintextMessage(
+                    "✅ %s left channel %s"
+                        .formatted(client.getUserName(), client.getChannelName()))));
+    if (null != this.outbox) {
+      this.outbox.drain(client);
+    }
+    return new OkResponse();
+  }
+
+  /** Sends messages queued while the member was away, in as few frames as the batch size allows */
+  private void sendQueued(Member member, WsConnection connection) {
+    if (null == this.outbox) {
+      return;
+    }
+    List<MessagePayload> queued = this.outbox.drain(member);
+    if (!queued.isEmpty()) {
+      log.debug("Send {} queued messages to {}", queued.size(), member.getId());
+    }
+    for (int i = 0; i < queued.size(); i += MAX_BATCH_SIZE) {
+      var messages = queued.subList(i, Math.min(i + MAX_BATCH_SIZE, queued.size()));
+      this.connections.track(
+          connection
+              .sendAsync(new MessageBatch(messages))
+              .whenComplete(
+                  (written, e) -> {
+                    if (null != e) {
+                      log.warn("Queued messages were not sent: {}", e.getMessage());
+                      messages.forEach(message -> this.queue(member, message));
+                    }
+                  }));
+    }
+  }
+
+  /**
+   * Reads one page of the member's history. Pages larger than the frame are streamed, every frame
+   * but the last is written before the response, each of them with the cursor after its last
+   * message, so the client may continue from whatever frame it got last.
+   */
+  private Payload onHistoryRequest(HistoryRequest request, WsConnection connection) {
+    if (null == this.messages) throw new ValidationException("History is not available");
+    int limit = request.limit();
+    if (limit < 1 || limit > MAX_HISTORY_PAGE)
+      throw new ValidationException(
+          "History page of %d messages is not within 1..%d".formatted(limit, MAX_HISTORY_PAGE));
+
+    Member client = this.channels.find(this.connectionUriOf(connection));
+    Messages.Page page = this.messages.findPage(client, request.cursor(), limit);
+    List<HistoryMessage> history = page.messages();
+    log.debug("History page of {} messages for {}", history.size(), client.getId());
+    // start of the last frame, which is the response
+    int last = Math.max(0, history.size() - 1) / HISTORY_FRAME_SIZE * HISTORY_FRAME_SIZE;
+    for (int i = 0; i < last; i += HISTORY_FRAME_SIZE) {
+      var frame = history.subList(i, i + HISTORY_FRAME_SIZE);
+      var cursor = HistoryCursor.after(frame.get(frame.size() - 1));
+      writtenAt(connection.sendAsync(historyPage(frame, cursor)).toCompletableFuture());
+    }
+    return historyPage(history.subList(last, history.size()), page.cursor());
+  }
+
+  private static HistoryPage historyPage(List<HistoryMessage> messages, String cursor) {
+    return new HistoryPage(
+        messages.stream()
+            .map(message -> new HistoryPage.Entry(message.getPayload(), message.isIncoming()))
+            .toList(),
+        cursor);
+  }
+
   private Payload onMessage(MessagePayload message, WsConnection connection) {
     log.debug("Message {}", message);
 
+    requireTextSize(message);
+
+    var originConnection = this.connectionUriOf(connection);
+    Member client = this.acquire(originConnection, 1);
+    var ctx =
+        RoutingContext.create()
+            .withOriginConnection(originConnection)
+            .withFrom(client)
+            .withRequest(message);
+    this.router.dispatch(ctx);
+    return ctx.response;
+  }
+
+  /**
+   * Routes messages of the batch with one {@link Router#dispatchAll(List)} and acknowledges them
+   * with one frame. Like the single message, the batch fails on the first failed delivery, so the
+   * client resends it, and messages already delivered are not routed again by their ids.
+   */
+  private Payload onBatch(MessageBatch batch, WsConnection connection) {
+    final var messages = batch.messages();
+    log.debug("Batch of {} messages", messages.size());
+
+    if (messages.isEmpty()) throw new ValidationException("Empty batch");
+    if (messages.size() > MAX_BATCH_SIZE)
+      throw new ValidationException(
+          "Batch of %d messages exceeds %d".formatted(messages.size(), MAX_BATCH_SIZE));
+
+    var originConnection = this.connectionUriOf(connection);
+    messages.forEach(WsConnector::requireTextSize);
+    Member client = this.acquire(originConnection, messages.size());
+    List<RoutingContext> contexts = new ArrayList<>(messages.size());
+    for (MessagePayload message : messages) {
+      contexts.add(
+          RoutingContext.create()
+              .withOriginConnection(originConnection)
+              .withFrom(client)
+              .withRequest(message));
+    }
+    this.router.dispatchAll(contexts);
+    return new BatchAck(contexts.stream().map(ctx -> ctx.response).toList());
+  }
+
+  /** Resolves the sender before routing, as the limits are counted per member */
+  private Member acquire(String originConnection, int messages) {
+    Member client;
+    try {
+      client = this.channels.find(originConnection);
+    } catch (NotFoundException notFound) {
+      log.warn(notFound.getMessage());
+      throw new RoutingException();
+    }
+    this.rateLimits.acquire(client, messages);
+    return client;
+  }
+
+  private static void requireTextSize(MessagePayload message) {
     if (message.type() == Payload.Type.TXT) {
       PlaintextMessage plaintextMessage = (PlaintextMessage) message;
       byte[] size = plaintextMessage.text().getBytes(StandardCharsets.UTF_8);
       if (size.length > 4096) throw new TooLargeException(4L, size.length / 1024L);
     }
-
-    var originConnection = this.connectionUriOf(connection);
-    var ctx = RoutingContext.create().withOriginConnection(originConnection).withRequest(message);
-    this.router.dispatch(ctx);
-    return ctx.response;
   }
 
   @Override
@@ -177,12 +389,101 @@ public class WsConnector implements Connector {
           this.objectStore.copyTransient(
               binaryPayload, recipient.getChannelName(), recipient.getId());
     }
-    WsConnection connection = this.requiredConnection(ctx.destinationConnection);
+    final ConnectionUri destination = ctx.destinationConnection;
+    final Member recipient = ctx.to;
+    final MessagePayload message = messagePayload;
+    final String messageId = message.messageId();
+    WsConnection connection = this.connections.getConnection(destination.rawConnection());
+    if (null == connection) {
+      if (!this.onDisconnected(destination, recipient, message)) {
+        throw new DisconnectedException(destination.toString());
+      }
+      ctx.response = new MessageAck(messageId);
+      return;
+    }
+    CompletionStage<Instant> sent =
+        null != ctx.attribute(KiteRouter.ATTR_BROADCAST)
+            ? connection.broadcastAsync(message)
+            : connection.sendAsync(message);
+    CompletableFuture<Instant> written = sent.toCompletableFuture();
+    if (written.isDone()) {
+      try {
+        ctx.response = new MessageAck(messageId, messageId, writtenAt(written));
+      } catch (DisconnectedException e) {
+        if (!this.onDisconnected(destination, recipient, message)) {
+          throw e;
+        }
+        ctx.response = new MessageAck(messageId);
+      }
+    } else {
+      // the routing thread does not wait for the slow client, the ack tells when it was queued
+      // and the one sent to the origin once the frame is written tells when it was delivered.
+      // An undelivered message is queued by the stage, so the registry waits for it as well
+      ctx.response = new MessageAck(messageId);
+      final ConnectionUri origin = ctx.originConnection;
+      this.connections.track(
+          written.whenComplete(
+              (delivered, e) -> {
+                if (null == e) {
+                  this.ackWritten(origin, messageId, delivered);
+                } else {
+                  log.warn("Message #{} was not delivered: {}", messageId, e.getMessage());
+                  Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                  if (cause instanceof DisconnectedException) {
+                    this.onDisconnected(destination, recipient, message);
+                  }
+                }
+              }));
+    }
+  }
+
+  /** Telegram origins have no acks, so only the websocket ones learn when the frame was written */
+  private void ackWritten(ConnectionUri origin, String messageId, Instant delivered) {
+    if (null == origin || !WS.equals(origin.connectorId())) {
+      return;
+    }
+    WsConnection connection = this.connections.getConnection(origin.rawConnection());
+    if (null != connection) {
+      this.connections.track(connection.sendAsync(new MessageAck(messageId, messageId, delivered)));
+    }
+  }
+
+  /**
+   * Queues the message until the member joins again. Without the outbox, forgets the connection, so
+   * the member is routed to its other connections next time. The dead connection stays routed while
+   * messages are queued, until the member joins again or the connection expires.
+   *
+   * @return true if the message was queued
+   */
+  private boolean onDisconnected(
+      ConnectionUri destination, Member recipient, MessagePayload message) {
+    if (null != this.outbox && this.queue(recipient, message)) {
+      log.debug("Message #{} queued for {}", message.messageId(), recipient.getId());
+      return true;
+    }
+    this.purge(destination);
+    return false;
+  }
+
+  private boolean queue(Member recipient, MessagePayload message) {
     try {
-      connection.sendObject(messagePayload);
-      ctx.response = new MessageAck(messagePayload.messageId());
-    } catch (IOException e) {
-      throw new RoutingException(e.getMessage(), e);
+      this.outbox.enqueue(recipient, message);
+      return true;
+    } catch (RuntimeException e) {
+      log.warn("Failed to queue message #{}: {}", message.messageId(), e.getMessage());
+      return false;
+    }
+  }
+
+  private static Instant writtenAt(CompletableFuture<Instant> written) {
+    try {
+      return written.join();
+    } catch (CompletionException e) {
+      Throwable cause = null != e.getCause() ? e.getCause() : e;
+      if (cause instanceof KiteException kiteException) {
+        throw kiteException;
+      }
+      throw new RoutingException(cause.getMessage(), cause);
     }
   }
 
@@ -190,12 +491,22 @@ public class WsConnector implements Connector {
     return this.connectionUri(c.connectionUri());
   }
 
-  private WsConnection requiredConnection(String uri) {
-    var connection = this.connections.getConnection(Connector.rawConnection(uri));
-    if (null == connection) {
-      throw new RoutingException("Web client disconnected");
+  /** Keeps the connection from expiring, the store throttles the writes */
+  private void refresh(WsConnection connection) {
+    try {
+      this.channels.refreshConnection(this.connectionUriOf(connection));
+    } catch (RuntimeException e) {
+      log.warn("Failed to refresh connection {}: {}", connection.connectionUri(), e.getMessage());
+    }
+  }
+
+  /** The member is routed to its other connections next time, rather than to the dead one */
+  private void purge(ConnectionUri uri) {
+    try {
+      this.channels.purgeConnection(uri.toString());
+    } catch (RuntimeException e) {
+      log.warn("Failed to purge connection {}: {}", uri, e.getMessage());
     }
-    return connection;
   }
 
   public static interface WsConnection extends Closeable {
@@ -203,10 +514,37 @@ public class WsConnector implements Connector {
     public String connectionUri();
 
     public void sendObject(Payload payload) throws IOException;
+
+    /**
+     * Sends the payload without waiting for the write, the stage completes with the time the frame
+     * was written. Connections which only send blocking return the completed stage.
+     */
+    public default CompletionStage<Instant> sendAsync(Payload payload) {
+      try {
+        this.sendObject(payload);
+        return CompletableFuture.completedFuture(Instant.now());
+      } catch (IOException | RuntimeException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+
+    /**
+     * Sends the payload which is sent to many connections at once, like the broadcasted message.
+     * Connections may encode its frame once for all of them with the {@link MemoizedEncoder}.
+     */
+    public default CompletionStage<Instant> broadcastAsync(Payload payload) {
+      return this.sendAsync(payload);
+    }
   }
 
   public static interface WsConnectionRegistry {
 
     WsConnection getConnection(String connectionUri);
+
+    /**
+     * Keeps the stage which follows the send, like queueing the undelivered message, among the
+     * sends in flight, for the registries which wait for them
+     */
+    default void track(CompletionStage<?> stage) {}
   }
 }
@@ -0,0 +1,27 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws.infrastructure;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import ua.com.pragmasoft.k1te.backend.ws.ConnectionDirectory;
+
+/** Directory shared by the nodes running in the same process, like the ones of the tests */
+public class InMemoryConnectionDirectory implements ConnectionDirectory {
+
+  private final Map<String, String> owners = new ConcurrentHashMap<>();
+
+  @Override
+  public void register(String connectionUri, String nodeId) {
+    this.owners.put(connectionUri, nodeId);
+  }
+
+  @Override
+  public void unregister(String connectionUri, String nodeId) {
+    this.owners.remove(connectionUri, nodeId);
+  }
+
+  @Override
+  public String ownerOf(String connectionUri) {
+    return this.owners.get(connectionUri);
+  }
+}
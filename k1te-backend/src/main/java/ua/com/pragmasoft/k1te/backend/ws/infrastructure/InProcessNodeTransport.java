@@ -0,0 +1,36 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws.infrastructure;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+import ua.com.pragmasoft.k1te.backend.ws.ClusteredConnectionRegistry;
+import ua.com.pragmasoft.k1te.backend.ws.NodeTransport;
+
+/** Transport between the nodes running in the same process, like the ones of the tests */
+public class InProcessNodeTransport implements NodeTransport {
+
+  private final Map<String, ClusteredConnectionRegistry> nodes = new ConcurrentHashMap<>();
+
+  public void join(ClusteredConnectionRegistry node) {
+    this.nodes.put(node.nodeId(), node);
+  }
+
+  public void leave(ClusteredConnectionRegistry node) {
+    this.nodes.remove(node.nodeId(), node);
+  }
+
+  @Override
+  public CompletionStage<Instant> forward(String nodeId, String connectionUri, Payload payload) {
+    var node = this.nodes.get(nodeId);
+    if (null == node) {
+      return CompletableFuture.failedFuture(
+          new RoutingException("Node %s is unavailable".formatted(nodeId)));
+    }
+    return node.deliver(connectionUri, payload);
+  }
+}
@@ -0,0 +1,41 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws.infrastructure;
+
+import ua.com.pragmasoft.k1te.backend.ws.ConnectionDirectory;
+
+/**
+ * Directory which needs no shared store, as connections are opened with the ids prefixed with the
+ * id of their node, see {@link #scoped(String, String)}. Nodes of the StatefulSet keep their ids
+ * when restarted, so the connection of the restarted node is found disconnected rather than lost.
+ */
+public class NodePrefixConnectionDirectory implements ConnectionDirectory {
+
+  public static final char SEPARATOR = '~';
+
+  /** Connection id which is unique across the cluster and tells its owner */
+  public static String scoped(String nodeId, String connectionId) {
+    if (nodeId.indexOf(SEPARATOR) >= 0) {
+      throw new IllegalArgumentException("Node id must not contain " + SEPARATOR);
+    }
+    return nodeId + SEPARATOR + connectionId;
+  }
+
+  @Override
+  public void register(String connectionUri, String nodeId) {
+    if (!nodeId.equals(this.ownerOf(connectionUri))) {
+      throw new IllegalArgumentException(
+          "Connection %s is not scoped to node %s".formatted(connectionUri, nodeId));
+    }
+  }
+
+  @Override
+  public void unregister(String connectionUri, String nodeId) {
+    // nothing to forget
+  }
+
+  @Override
+  public String ownerOf(String connectionUri) {
+    int separator = connectionUri.indexOf(SEPARATOR);
+    return separator > 0 ? connectionUri.substring(0, separator) : null;
+  }
+}
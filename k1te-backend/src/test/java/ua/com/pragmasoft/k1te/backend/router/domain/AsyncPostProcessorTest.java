@@ -0,0 +1,108 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+
+class AsyncPostProcessorTest {
+
+  static final Member HOST = new TestMember("host", true);
+
+  @Test
+  void preservesOrderPerMemberAndFlushesOnClose() {
+    Map<String, List<String>> processed = new ConcurrentHashMap<>();
+    RouterPostProcessor recorder =
+        ctx -> {
+          for (Member member : List.of(ctx.from, ctx.to)) {
+            processed
+                .computeIfAbsent(member.getId(), id -> new ArrayList<>())
+                .add(ctx.request.messageId() + ":" + ctx.to.getId());
+          }
+        };
+    var postProcessor = new AsyncPostProcessor(List.of(recorder), 4, 2, Duration.ofSeconds(10));
+
+    for (int i = 0; i < 100; i++) {
+      for (int m = 0; m < 5; m++) {
+        Member client = new TestMember("client" + m, false);
+        boolean fromHost = i % 2 == 0;
+        postProcessor.accept(
+            RoutingContext.create()
+                .withFrom(fromHost ? HOST : client)
+                .withTo(fromHost ? client : HOST)
+                .withRequest(new PlaintextMessage("text", String.valueOf(i))));
+      }
+    }
+    postProcessor.close();
+
+    assertEquals(6, processed.size());
+    for (int m = 0; m < 5; m++) {
+      List<String> messageIds = processed.get("client" + m);
+      assertEquals(100, messageIds.size());
+      for (int i = 0; i < 100; i++) {
+        assertEquals(i + ":" + (i % 2 == 0 ? "client" + m : "host"), messageIds.get(i));
+      }
+    }
+    // the host takes part in all conversations, its updates keep the dispatch order too
+    List<String> hostUpdates = processed.get("host");
+    for (int i = 0; i < 100; i++) {
+      for (int m = 0; m < 5; m++) {
+        assertEquals(
+            i + ":" + (i % 2 == 0 ? "client" + m : "host"), hostUpdates.get(i * 5 + m));
+      }
+    }
+    assertEquals(0, postProcessor.backlog());
+  }
+
+  @Test
+  void closeDrainsFullLaneAndProcessesLateContexts() throws InterruptedException {
+    List<String> processed = new ArrayList<>();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RouterPostProcessor recorder =
+        ctx -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          synchronized (processed) {
+            processed.add(ctx.request.messageId());
+          }
+        };
+    var postProcessor = new AsyncPostProcessor(List.of(recorder), 1, 1, Duration.ofSeconds(10));
+    Member client = new TestMember("client", false);
+    postProcessor.accept(message(client, "0"));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    // fills the only slot, the lane has no room left for anything else
+    postProcessor.accept(message(client, "1"));
+
+    Thread closing = new Thread(postProcessor::close);
+    closing.start();
+    release.countDown();
+    closing.join(TimeUnit.SECONDS.toMillis(10));
+    assertFalse(closing.isAlive());
+    postProcessor.accept(message(client, "2"));
+
+    assertEquals(List.of("0", "1", "2"), processed);
+    assertEquals(0, postProcessor.backlog());
+  }
+
+  static RoutingContext message(Member client, String messageId) {
+    return RoutingContext.create()
+        .withFrom(client)
+        .withTo(HOST)
+        .withRequest(new PlaintextMessage("text", messageId));
+  }
+}
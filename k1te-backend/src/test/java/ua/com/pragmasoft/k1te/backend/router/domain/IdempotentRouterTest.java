@@ -0,0 +1,111 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryDispatchLog;
+import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+
+class IdempotentRouterTest {
+
+  static final ConnectionUri ORIGIN = ConnectionUri.parse("tg:client");
+
+  final AtomicInteger routed = new AtomicInteger();
+  volatile CountDownLatch inFlight = new CountDownLatch(0);
+  volatile CountDownLatch release = new CountDownLatch(0);
+  volatile boolean failing;
+
+  final Router delegate =
+      new Router() {
+        @Override
+        public String id() {
+          return "test";
+        }
+
+        @Override
+        public Router registerConnector(Connector connector) {
+          return this;
+        }
+
+        @Override
+        public void dispatch(RoutingContext ctx) {
+          inFlight.countDown();
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          if (failing) {
+            throw new RoutingException("Web client disconnected");
+          }
+          ctx.response = new MessageAck(ctx.request.messageId(), "d" + routed.incrementAndGet());
+        }
+
+        @Override
+        public DeliveryReport broadcast(RoutingContext ctx) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispatchAll(List<RoutingContext> contexts) {
+          contexts.forEach(this::dispatch);
+        }
+      };
+
+  final Router router =
+      new IdempotentRouter(
+          delegate, new InMemoryDispatchLog(100, Duration.ofMinutes(1), Duration.ofSeconds(5)));
+
+  @Test
+  void routesDuplicatesOnce() {
+    failing = true;
+    assertThrows(RoutingException.class, () -> router.dispatch(message("1")));
+    failing = false;
+
+    MessageAck first = dispatch(message("1"));
+    MessageAck duplicate = dispatch(message("1"));
+    router.dispatchAll(List.of(message("1"), message("2"), message("2")));
+    dispatch(ctx(new PlaintextMessage("✅ joined")));
+    dispatch(ctx(new PlaintextMessage("✅ joined")));
+
+    assertSame(first, duplicate);
+    assertEquals(4, routed.get());
+  }
+
+  @Test
+  void duplicateWaitsForDispatchInFlight() throws Exception {
+    inFlight = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    var first = CompletableFuture.supplyAsync(() -> dispatch(message("1")));
+    inFlight.await(5, TimeUnit.SECONDS);
+    var duplicate = CompletableFuture.supplyAsync(() -> dispatch(message("1")));
+    release.countDown();
+
+    assertEquals(first.get(5, TimeUnit.SECONDS), duplicate.get(5, TimeUnit.SECONDS));
+    assertEquals(1, routed.get());
+  }
+
+  private MessageAck dispatch(RoutingContext ctx) {
+    router.dispatch(ctx);
+    return ctx.response;
+  }
+
+  private static RoutingContext message(String messageId) {
+    return ctx(new PlaintextMessage("Hello", messageId));
+  }
+
+  private static RoutingContext ctx(PlaintextMessage message) {
+    return RoutingContext.create().withOriginConnection(ORIGIN).withRequest(message);
+  }
+}
@@ -0,0 +1,126 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
+
+class KiteRouterTest {
+
+  static final Member HOST = new TestMember("host", true);
+  static final List<Member> MEMBERS =
+      List.of(
+          HOST,
+          new TestMember("client1", false),
+          new TestMember("client2", false),
+          new TestMember("offline", false));
+
+  final AtomicInteger commits = new AtomicInteger();
+  final List<Integer> batches = new CopyOnWriteArrayList<>();
+
+  final Channels channels =
+      (Channels)
+          Proxy.newProxyInstance(
+              Channels.class.getClassLoader(),
+              new Class<?>[] {Channels.class},
+              (proxy, method, args) ->
+                  switch (method.getName()) {
+                    case "find" -> HOST;
+                    case "findMembers" -> MEMBERS;
+                    case "commit" -> {
+                      commits.incrementAndGet();
+                      yield null;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                  });
+
+  final Set<String> received = ConcurrentHashMap.newKeySet();
+
+  final Connector connector =
+      new Connector() {
+        @Override
+        public String id() {
+          return "test";
+        }
+
+        @Override
+        public void dispatch(RoutingContext ctx) {
+          if (ctx.to.getId().equals("offline")) {
+            throw new RoutingException("Web client disconnected");
+          }
+          received.add(ctx.to.getId());
+          ctx.response = new MessageAck(ctx.request.messageId());
+        }
+
+        @Override
+        public void dispatchAll(List<RoutingContext> contexts) {
+          batches.add(contexts.size());
+          Connector.super.dispatchAll(contexts);
+        }
+      };
+
+  @Test
+  void dispatchesBatchWithSingleCommit() {
+    var router =
+        new KiteRouter(
+            channels,
+            List.of(new PeerUpdatePostProcessor(), new CommitChangesPostProcessor(channels)));
+    router.registerConnector(connector);
+    Member client = MEMBERS.get(1);
+
+    List<RoutingContext> contexts = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      contexts.add(
+          RoutingContext.create()
+              .withOriginConnection("test:host")
+              .withFrom(HOST)
+              .withTo(client)
+              .withRequest(new PlaintextMessage("hello", String.valueOf(i))));
+    }
+    router.dispatchAll(contexts);
+
+    assertEquals(List.of(3), batches);
+    assertEquals(1, commits.get());
+  }
+
+  @Test
+  void broadcastsToAllMembersExceptSender() throws Exception {
+    var router = new KiteRouter(channels, List.of(new PeerUpdatePostProcessor()), 2);
+    router.registerConnector(connector);
+
+    DeliveryReport report =
+        router.broadcast(
+            RoutingContext.create()
+                .withOriginConnection("test:host")
+                .withRequest(new PlaintextMessage("hello", "1")));
+    router.close();
+
+    assertEquals(Set.of("client1", "client2"), received);
+    assertEquals(3, report.recipients());
+    assertEquals(Set.of("client1", "client2"), report.delivered().keySet());
+    assertEquals("Web client disconnected", report.failed().get("offline"));
+  }
+
+  @Test
+  void onlyHostBroadcasts() {
+    var router = new KiteRouter(channels, List.of());
+    var ctx =
+        RoutingContext.create()
+            .withOriginConnection("test:client1")
+            .withFrom(MEMBERS.get(1))
+            .withRequest(new PlaintextMessage("hello", "1"));
+    assertThrows(ValidationException.class, () -> router.broadcast(ctx));
+  }
+}
@@ -0,0 +1,148 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+
+class MemberChangesTest {
+
+  static final Member HOST = new TestMember("host", true);
+  static final Member CLIENT = new TestMember("client", false);
+
+  @Test
+  void coalescesChangesPerMember() {
+    var ctx =
+        RoutingContext.create()
+            .withOriginConnection("ws:abc")
+            .withDestinationConnection("tg:def")
+            .withFrom(CLIENT)
+            .withTo(HOST)
+            .withRequest(new PlaintextMessage("text", "1"))
+            .withResponse(new MessageAck("1", "2", Instant.ofEpochSecond(100)));
+
+    new PeerUpdatePostProcessor().accept(ctx);
+    new HistoryPostProcessor(new NoMessages()).accept(ctx);
+
+    List<MemberChanges.Change> changes = new ArrayList<>();
+    ctx.changes().forEach(changes::add);
+    assertEquals(2, changes.size());
+    for (MemberChanges.Change change : changes) {
+      assertEquals(1, change.connections().size());
+      Member peer = change.member() == HOST ? CLIENT : HOST;
+      assertEquals(peer.getId(), change.peerMemberId());
+    }
+
+    var channels = new CountingChannels();
+    new CommitChangesPostProcessor(channels).accept(ctx);
+    assertEquals(2, channels.commits);
+    assertTrue(ctx.changes().isEmpty());
+  }
+
+  static class NoMessages implements Messages {
+
+    @Override
+    public HistoryMessage persist(
+        Member owner, String messageId, MessagePayload content, Instant time, boolean incoming) {
+      return null;
+    }
+
+    @Override
+    public List<HistoryMessage> findAll(Member member, String lastMessageId, Integer limit) {
+      return List.of();
+    }
+
+    @Override
+    public Page findPage(Member member, String cursor, int limit) {
+      return new Page(List.of(), null);
+    }
+  }
+
+  static class CountingChannels implements Channels {
+
+    int commits;
+
+    @Override
+    public void commit(MemberChanges changes) {
+      changes.forEach(change -> this.commits++);
+    }
+
+    @Override
+    public Member hostChannel(String channel, String memberId, String ownerConnection, String t) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Member dropChannel(String ownerConnection) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Member joinChannel(String channel, String memberId, String connection, String name) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Member leaveChannel(String connection) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Member find(String memberConnection) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Member find(String channel, String memberId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Member findHost(String channelName) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Member> findMembers(String channelName) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String findUnAnsweredMessage(Member from, Member to) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Member switchConnection(String channelName, String memberId, String newConnection) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void updateUnAnsweredMessage(Member from, Member to, String pinnedMessagedId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void updatePeer(Member member, String peerMemberId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void updateConnection(
+        Member memberToUpdate, String connectionUri, String messageId, Instant usageTime) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deleteUnAnsweredMessage(Member from, Member to) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
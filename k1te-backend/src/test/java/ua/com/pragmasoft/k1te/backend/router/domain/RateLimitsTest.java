@@ -0,0 +1,35 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.shared.RateLimitExceededException;
+import ua.com.pragmasoft.k1te.backend.shared.TokenBuckets;
+
+class RateLimitsTest {
+
+  static final Member CLIENT = new TestMember("client", false);
+  static final Member HOST = new TestMember("host", true);
+
+  final TokenBuckets members = new TokenBuckets("member", 2, Duration.ofHours(1), 100);
+  final TokenBuckets channels = new TokenBuckets("channel", 3, Duration.ofHours(1), 100);
+  final RateLimits limits = new RateLimits(this.members, this.channels);
+
+  @Test
+  void rejectedByChannelLeavesMemberTokens() {
+    this.limits.acquire(HOST, 2);
+    assertThrows(RateLimitExceededException.class, () -> this.limits.acquire(CLIENT, 2));
+    assertEquals(Duration.ZERO, this.members.tryAcquire("testChannel/client", 2));
+  }
+
+  @Test
+  void hostsAreLimitedByChannelOnly() {
+    this.limits.acquire(HOST, 2);
+    this.limits.acquire(HOST, 1);
+    assertThrows(RateLimitExceededException.class, () -> this.limits.acquire(HOST, 1));
+    assertEquals(Duration.ZERO, this.members.tryAcquire("testChannel/host", 2));
+  }
+}
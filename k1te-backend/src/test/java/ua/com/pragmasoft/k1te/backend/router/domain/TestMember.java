@@ -0,0 +1,40 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.domain;
+
+record TestMember(String id, boolean host) implements Member {
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public String getChannelName() {
+    return "testChannel";
+  }
+
+  @Override
+  public String getUserName() {
+    return id;
+  }
+
+  @Override
+  public boolean isHost() {
+    return host;
+  }
+
+  @Override
+  public String getConnectionUri() {
+    return "test:" + id;
+  }
+
+  @Override
+  public String getLastMessageId() {
+    return null;
+  }
+
+  @Override
+  public String getPeerMemberId() {
+    return null;
+  }
+}
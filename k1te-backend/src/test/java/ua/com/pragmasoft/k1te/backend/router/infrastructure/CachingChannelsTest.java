@@ -0,0 +1,156 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
+import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.shared.ConflictException;
+
+class CachingChannelsTest {
+
+  record Client(String getId, String getChannelName) implements Member {
+
+    @Override
+    public String getUserName() {
+      return getId;
+    }
+
+    @Override
+    public boolean isHost() {
+      return false;
+    }
+
+    @Override
+    public String getConnectionUri() {
+      return "ws:" + getId;
+    }
+
+    @Override
+    public String getLastMessageId() {
+      return null;
+    }
+
+    @Override
+    public String getPeerMemberId() {
+      return "host";
+    }
+  }
+
+  final AtomicInteger reads = new AtomicInteger();
+  final List<String> lookups = new CopyOnWriteArrayList<>();
+  final Metrics metrics =
+      new Metrics() {
+        @Override
+        public void recordTime(String name, long nanos, String... tags) {}
+
+        @Override
+        public void recordSize(String name, long bytes, String... tags) {}
+
+        @Override
+        public void recordValue(String name, long value, String... tags) {
+          assertEquals(CachingChannels.CACHE, name);
+          lookups.add(tags[1]);
+        }
+      };
+  final Member client = new Client("client", "channel");
+  final Channels delegate =
+      (Channels)
+          Proxy.newProxyInstance(
+              Channels.class.getClassLoader(),
+              new Class<?>[] {Channels.class},
+              (proxy, method, args) ->
+                  switch (method.getName()) {
+                    case "find" -> {
+                      reads.incrementAndGet();
+                      yield client;
+                    }
+                    case "leaveChannel", "joinChannel" -> client;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                  });
+
+  @Test
+  void servesRepeatedLookupsFromCache() {
+    var channels = new CachingChannels(delegate, 10, Duration.ofMinutes(1), metrics);
+
+    assertSame(client, channels.find("ws:client"));
+    assertSame(client, channels.find("ws:client"));
+    assertSame(client, channels.find("channel", "client"));
+
+    assertEquals(1, reads.get());
+    assertEquals(List.of("miss", "hit", "hit"), lookups);
+  }
+
+  @Test
+  void invalidatesOnLeaveAndExpires() {
+    AtomicLong now = new AtomicLong();
+    var channels = new CachingChannels(delegate, 10, Duration.ofNanos(100), metrics, now::get);
+
+    channels.find("ws:client");
+    channels.leaveChannel("ws:client");
+    channels.find("ws:client");
+    assertEquals(2, reads.get());
+
+    channels.joinChannel("channel", "client", "ws:client", "client");
+    channels.find("ws:client");
+    assertEquals(3, reads.get());
+
+    now.addAndGet(100);
+    channels.find("channel", "client");
+    assertEquals(4, reads.get());
+  }
+
+  @Test
+  void copiesMembersAndKeepsOnlySuccessfulWrites() {
+    DynamoDbMember stored =
+        new DynamoDbMember.DynamoDbMemberBuilder()
+            .withId("client")
+            .withChannelName("channel")
+            .withWsUri("c1")
+            .withPeerMemberId("host")
+            .build();
+    stored.setVersion(1L);
+    Channels store =
+        (Channels)
+            Proxy.newProxyInstance(
+                Channels.class.getClassLoader(),
+                new Class<?>[] {Channels.class},
+                (proxy, method, args) -> {
+                  if ("find".equals(method.getName())) {
+                    reads.incrementAndGet();
+                    return stored.copy();
+                  }
+                  if ("failing".equals(args[1])) {
+                    throw new ConflictException("Member client is changed concurrently");
+                  }
+                  // the write assigns the returned item to the member
+                  DynamoDbMember member = (DynamoDbMember) args[0];
+                  member.setPeerMemberId((String) args[1]);
+                  member.setVersion(member.getVersion() + 1);
+                  return null;
+                });
+    var channels = new CachingChannels(store, 10, Duration.ofMinutes(1), metrics);
+
+    Member first = channels.find("channel", "client");
+    Member second = channels.find("channel", "client");
+    assertNotSame(first, second);
+    channels.updatePeer(first, "other");
+    assertEquals("host", second.getPeerMemberId());
+    assertEquals("other", channels.find("channel", "client").getPeerMemberId());
+
+    assertThrows(ConflictException.class, () -> channels.updatePeer(second, "failing"));
+    assertEquals("host", channels.find("channel", "client").getPeerMemberId());
+    assertEquals(2, reads.get());
+  }
+}
@@ -0,0 +1,70 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.BinaryMessage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+import ua.com.pragmasoft.k1te.backend.ws.PayloadEncoder;
+
+class HistoryContentTest {
+
+  static final Instant CREATED = Instant.parse("2023-10-17T10:15:30.125Z");
+  static final PayloadEncoder ENCODER = new PayloadEncoder();
+
+  @Test
+  void packsPlaintextSmallerThanJson() {
+    var message = new PlaintextMessage("Hello, I can't find my order", "0b2c5e6f", CREATED);
+    byte[] content = HistoryContent.encode(message);
+    assertTrue(content.length < ENCODER.encode(message).length);
+    assertEquals(Payload.Type.TXT, HistoryContent.type(content));
+    assertEquals(message, HistoryContent.decode(content));
+
+    var old = new PlaintextMessage("-", "1", Instant.ofEpochSecond(-100, 5));
+    assertEquals(old, HistoryContent.decode(HistoryContent.encode(old)));
+  }
+
+  @Test
+  void deflatesLongText() {
+    var message = new PlaintextMessage("Could you check my order? 🪁 ".repeat(40), "42", CREATED);
+    byte[] content = HistoryContent.encode(message);
+    int textLength = message.text().getBytes(StandardCharsets.UTF_8).length;
+    assertTrue(content.length < textLength / 4);
+    assertEquals(message, HistoryContent.decode(content));
+  }
+
+  @Test
+  void internsKnownMediaTypes() {
+    var pdf =
+        new BinaryMessage(
+            "https://k1te.s3.amazonaws.com/channel/k7bnx3/invoice.pdf",
+            "invoice.pdf",
+            "application/pdf",
+            102400,
+            "0b2c5e70",
+            CREATED);
+    var other = new BinaryMessage(pdf.uri(), "a.x", "application/x-k1te", 1, "0b2c5e71", CREATED);
+    byte[] content = HistoryContent.encode(pdf);
+    assertEquals(Payload.Type.BIN, HistoryContent.type(content));
+    assertEquals(pdf, HistoryContent.decode(content));
+    assertEquals(other, HistoryContent.decode(HistoryContent.encode(other)));
+    assertTrue(content.length < HistoryContent.encode(other).length);
+  }
+
+  @Test
+  void rejectsUnknownVersionAndTruncatedContent() {
+    byte[] content = HistoryContent.encode(new PlaintextMessage("text", "1", CREATED));
+    byte[] truncated = Arrays.copyOf(content, content.length - 2);
+    assertThrows(KiteException.class, () -> HistoryContent.decode(truncated));
+    content[0] = 2;
+    assertThrows(KiteException.class, () -> HistoryContent.type(content));
+  }
+}
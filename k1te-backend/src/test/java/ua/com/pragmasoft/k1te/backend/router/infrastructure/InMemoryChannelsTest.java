@@ -0,0 +1,108 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ua.com.pragmasoft.k1te.backend.router.domain.ConnectionUri;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.MemberChanges;
+import ua.com.pragmasoft.k1te.backend.shared.ConflictException;
+import ua.com.pragmasoft.k1te.backend.shared.NotFoundException;
+import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+
+class InMemoryChannelsTest {
+
+  static final String CHANNEL = "testChannel";
+
+  @TempDir Path directory;
+
+  @Test
+  void findsMembersAndCommitsChanges() {
+    var channels = new InMemoryChannels();
+    Member host = channels.hostChannel(CHANNEL, "host", "tg:host", null);
+    Member client = channels.joinChannel(CHANNEL, "client", "ws:client", "Client");
+
+    assertThrows(
+        ConflictException.class, () -> channels.hostChannel(CHANNEL, "other", "tg:other", null));
+    assertEquals("host", client.getPeerMemberId());
+    assertEquals("client", channels.find("ws:client").getId());
+    assertEquals("host", channels.findHost(CHANNEL).getId());
+    assertEquals(2, channels.findMembers(CHANNEL).size());
+
+    Instant now = Instant.now();
+    channels.commit(
+        new MemberChanges()
+            .updatePeer(host, "client")
+            .updateConnection(client, ConnectionUri.parse("tg:client"), "42", now));
+
+    Member updated = channels.find(CHANNEL, "client");
+    assertEquals("tg:client", updated.getConnectionUri());
+    assertEquals("42", updated.getLastMessageId());
+    assertEquals(updated.getId(), channels.find("ws:client").getId());
+    assertEquals("client", channels.find(CHANNEL, "host").getPeerMemberId());
+
+    channels.leaveChannel("tg:client");
+    assertThrows(NotFoundException.class, () -> channels.find("ws:client"));
+    channels.dropChannel("tg:host");
+    assertEquals(0, channels.findMembers(CHANNEL).size());
+  }
+
+  @Test
+  void sweepsConnectionsNotRefreshedWithinTtl() throws InterruptedException {
+    var channels = new InMemoryChannels(Duration.ofMillis(50));
+    channels.hostChannel(CHANNEL, "host", "tg:host", null);
+    channels.joinChannel(CHANNEL, "alive", "ws:alive", "Alive");
+    channels.joinChannel(CHANNEL, "closed", "ws:closed", "Closed");
+
+    Thread.sleep(100);
+    channels.refreshConnection("ws:alive");
+    assertEquals(1, channels.sweepConnections());
+    assertEquals("alive", channels.find("ws:alive").getId());
+    assertThrows(NotFoundException.class, () -> channels.find("ws:closed"));
+    // the member stays in the channel, without the connection
+    assertEquals(3, channels.findMembers(CHANNEL).size());
+    assertEquals(0, channels.sweepConnections());
+  }
+
+  @Test
+  void recoversFromSnapshotAndJournal() throws IOException {
+    var channels = new InMemoryChannels(this.directory, Duration.ZERO);
+    Member host = channels.hostChannel(CHANNEL, "host", "tg:host", "Host");
+    Member client = channels.joinChannel(CHANNEL, "client", "ws:client", "Client");
+    channels.snapshot();
+    channels.updatePeer(host, "client");
+    channels.updateUnAnsweredMessage(client, host, "7");
+    channels.joinChannel(CHANNEL, "late", "ws:late", "Late");
+    channels.joinChannel(CHANNEL, "gone", "ws:gone", "Gone");
+    channels.purgeConnection("ws:gone");
+    try (Stream<Path> files = Files.list(this.directory)) {
+      // record torn by a crash in the middle of the write
+      Path segment =
+          files.filter(file -> file.toString().endsWith(".wal")).sorted().reduce((a, b) -> b).get();
+      Files.write(segment, new byte[] {0, 0, 0, 42, 1}, StandardOpenOption.APPEND);
+    }
+
+    var recovered = new InMemoryChannels(this.directory, Duration.ZERO);
+
+    assertEquals("client", recovered.find("tg:host").getPeerMemberId());
+    assertEquals("7", recovered.findUnAnsweredMessage(client, host));
+    assertNull(recovered.findUnAnsweredMessage(host, client));
+    assertEquals("Late", recovered.find("ws:late").getUserName());
+    assertThrows(NotFoundException.class, () -> recovered.find("ws:gone"));
+    assertThrows(RoutingException.class, () -> recovered.find(CHANNEL, "gone").connectionUri());
+    assertEquals(4, recovered.findMembers(CHANNEL).size());
+    recovered.close();
+    channels.close();
+  }
+}
@@ -0,0 +1,71 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ua.com.pragmasoft.k1te.backend.router.domain.HistoryMessage;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.Messages;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+
+class InMemoryMessagesTest {
+
+  static final Member CLIENT = InMemoryMember.of("channel", "client", null, false, null);
+
+  @TempDir Path directory;
+
+  @Test
+  void keepsMostRecentMessagesAndRecoversThem() throws IOException {
+    var messages = new InMemoryMessages(3, this.directory, Duration.ZERO);
+    Instant time = Instant.now();
+    for (int i = 1; i <= 5; i++) {
+      var content = new PlaintextMessage("content" + i, "m" + i, time);
+      messages.persist(CLIENT, "m" + i, content, time.plusSeconds(i), i % 2 == 0);
+    }
+
+    assertEquals(List.of("m5", "m4", "m3"), ids(messages.findAll(CLIENT, null, 10)));
+    assertEquals(List.of("m5", "m4"), ids(messages.findAll(CLIENT, null, 2)));
+    assertEquals(List.of("m5"), ids(messages.findAll(CLIENT, "m4", 10)));
+    messages.close();
+
+    var recovered = new InMemoryMessages(3, this.directory, Duration.ZERO);
+    List<HistoryMessage> history = recovered.findAll(CLIENT, null, 10);
+    assertEquals(List.of("m5", "m4", "m3"), ids(history));
+    assertEquals(new PlaintextMessage("content4", "m4", time), history.get(1).getPayload());
+    assertEquals(true, history.get(1).isIncoming());
+    recovered.close();
+  }
+
+  @Test
+  void pagesHistoryWithCursors() {
+    var messages = new InMemoryMessages(4);
+    Instant time = Instant.now();
+    for (int i = 1; i <= 5; i++) {
+      var content = new PlaintextMessage("content" + i, "m" + i, time);
+      messages.persist(CLIENT, "m" + i, content, time.plusSeconds(i), false);
+    }
+
+    Messages.Page first = messages.findPage(CLIENT, null, 3);
+    assertEquals(List.of("m5", "m4", "m3"), ids(first.messages()));
+    Messages.Page second = messages.findPage(CLIENT, first.cursor(), 3);
+    assertEquals(List.of("m2"), ids(second.messages()));
+    assertNull(second.cursor());
+
+    // the message of the cursor is no longer kept
+    messages.persist(CLIENT, "m6", new PlaintextMessage("content6", "m6", time), time, false);
+    messages.persist(CLIENT, "m7", new PlaintextMessage("content7", "m7", time), time, false);
+    assertEquals(List.of(), messages.findPage(CLIENT, first.cursor(), 3).messages());
+  }
+
+  private static List<String> ids(List<HistoryMessage> messages) {
+    return messages.stream().map(HistoryMessage::getMessageId).toList();
+  }
+}
@@ -0,0 +1,47 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.router.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+
+class InMemoryOutboxTest {
+
+  static final Member CLIENT = InMemoryMember.of("channel", "client", null, false, null);
+  static final Member OTHER = InMemoryMember.of("channel", "other", null, false, null);
+
+  @TempDir Path directory;
+
+  @Test
+  void keepsMostRecentMessagesUntilDrained() throws IOException {
+    var outbox = new InMemoryOutbox(3, this.directory, Duration.ZERO);
+    Instant time = Instant.now();
+    for (int i = 1; i <= 4; i++) {
+      outbox.enqueue(CLIENT, new PlaintextMessage("content" + i, "m" + i, time));
+    }
+    outbox.enqueue(OTHER, new PlaintextMessage("other", "o1", time));
+    assertEquals(List.of("o1"), ids(outbox.drain(OTHER)));
+    outbox.close();
+
+    var recovered = new InMemoryOutbox(3, this.directory, Duration.ZERO);
+    assertEquals(List.of(), recovered.drain(OTHER));
+    List<MessagePayload> queued = recovered.drain(CLIENT);
+    assertEquals(List.of("m2", "m3", "m4"), ids(queued));
+    assertEquals(new PlaintextMessage("content2", "m2", time), queued.get(0));
+    assertEquals(List.of(), recovered.drain(CLIENT));
+    recovered.close();
+  }
+
+  private static List<String> ids(List<MessagePayload> messages) {
+    return messages.stream().map(MessagePayload::messageId).toList();
+  }
+}
@@ -0,0 +1,57 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.shared;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+  @Test
+  void runsTimeoutsNotEarlierThanTheirDelay() throws InterruptedException {
+    // 8 buckets of 5 ms, so 100 ms takes more than two revolutions
+    try (var wheel = new TimingWheel("test-wheel", Duration.ofMillis(5), 8)) {
+      var done = new CountDownLatch(3);
+      long[] elapsed = new long[3];
+      long[] delays = {1, 20, 100};
+      long start = System.nanoTime();
+      for (int i = 0; i < delays.length; i++) {
+        int index = i;
+        wheel.schedule(
+            () -> {
+              elapsed[index] = System.nanoTime() - start;
+              done.countDown();
+            },
+            Duration.ofMillis(delays[i]));
+      }
+      assertEquals(3, wheel.size());
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < delays.length; i++) {
+        assertTrue(elapsed[i] >= TimeUnit.MILLISECONDS.toNanos(delays[i]), "early " + i);
+      }
+      assertEquals(0, wheel.size());
+    }
+  }
+
+  @Test
+  void cancelledTimeoutNeverRuns() throws InterruptedException {
+    try (var wheel = new TimingWheel("test-wheel", Duration.ofMillis(5), 8)) {
+      var runs = new AtomicInteger();
+      var cancelled = wheel.schedule(runs::incrementAndGet, Duration.ofMillis(20));
+      var kept = new CountDownLatch(1);
+      wheel.schedule(kept::countDown, Duration.ofMillis(40));
+
+      assertTrue(cancelled.cancel());
+      assertFalse(cancelled.cancel());
+      assertEquals(1, wheel.size());
+      assertTrue(kept.await(5, TimeUnit.SECONDS));
+      assertEquals(0, runs.get());
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.shared;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketsTest {
+
+  final AtomicLong clock = new AtomicLong();
+
+  @Test
+  void refillsTokensOverThePeriod() {
+    // 4 tokens per 4 seconds
+    var buckets = new TokenBuckets("member", 4, Duration.ofSeconds(4), 100, this.clock::get);
+
+    buckets.acquire("a", 3);
+    buckets.acquire("a", 1);
+    var exceeded = assertThrows(RateLimitExceededException.class, () -> buckets.acquire("a", 1));
+    assertEquals(Duration.ofSeconds(1), exceeded.getRetryAfter());
+    assertEquals(429, exceeded.code());
+    buckets.acquire("b", 4);
+
+    this.advance(2);
+    assertEquals(Duration.ofSeconds(1), buckets.tryAcquire("a", 3));
+    assertEquals(Duration.ZERO, buckets.tryAcquire("a", 2));
+    assertThrows(ValidationException.class, () -> buckets.acquire("a", 5));
+  }
+
+  @Test
+  void evictsFullBucketsOverTheMax() {
+    var buckets = new TokenBuckets("channel", 2, Duration.ofSeconds(2), 2, this.clock::get);
+    buckets.acquire("a", 1);
+    buckets.acquire("b", 1);
+    assertEquals(2, buckets.size());
+
+    this.advance(1);
+    // a and b are full again, the new empty one keeps its state
+    buckets.acquire("c", 2);
+    assertEquals(1, buckets.size());
+    assertEquals(Duration.ofSeconds(2), buckets.tryAcquire("c", 2));
+  }
+
+  private void advance(long seconds) {
+    this.clock.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+  }
+}
@@ -0,0 +1,121 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnection;
+import ua.com.pragmasoft.k1te.backend.ws.infrastructure.InMemoryConnectionDirectory;
+import ua.com.pragmasoft.k1te.backend.ws.infrastructure.InProcessNodeTransport;
+
+class TestClusteredConnectionRegistry {
+
+  ConnectionDirectory directory;
+  InProcessNodeTransport transport;
+  Node a;
+  Node b;
+  Node c;
+
+  @BeforeEach
+  void setUp() {
+    this.directory = new InMemoryConnectionDirectory();
+    this.transport = new InProcessNodeTransport();
+    this.a = new Node("a");
+    this.b = new Node("b");
+    this.c = new Node("c");
+  }
+
+  @Test
+  void testLocalConnectionIsReturnedAsIs() {
+    var connection = this.a.open("c1");
+    assertSame(connection, this.a.registry.getConnection("c1"));
+  }
+
+  @Test
+  void testPayloadIsForwardedToOwningNode() throws Exception {
+    var connection = this.c.open("c1");
+    var message = new PlaintextMessage("hello", "m1");
+
+    this.a.registry.getConnection("c1").sendObject(message);
+    this.b.registry.getConnection("c1").sendAsync(message).toCompletableFuture().join();
+
+    assertEquals(List.of(message, message), connection.received);
+  }
+
+  @Test
+  void testUnknownConnectionIsDisconnected() {
+    assertNull(this.a.registry.getConnection("c1"));
+    this.b.open("c1");
+    this.b.close("c1");
+    assertNull(this.a.registry.getConnection("c1"));
+    assertNull(this.b.registry.getConnection("c1"));
+  }
+
+  @Test
+  void testStaleOwnerFailsDelivery() {
+    this.b.open("c1");
+    this.b.local.remove("c1");
+    var remote = this.a.registry.getConnection("c1");
+    var e =
+        assertThrows(
+            CompletionException.class,
+            () -> remote.sendAsync(new PlaintextMessage("hello")).toCompletableFuture().join());
+    assertInstanceOf(RoutingException.class, e.getCause());
+
+    this.transport.leave(this.b.registry);
+    assertThrows(RoutingException.class, () -> remote.sendObject(new PlaintextMessage("hello")));
+  }
+
+  class Node {
+
+    final String id;
+    final Map<String, WsConnection> local = new ConcurrentHashMap<>();
+    final ClusteredConnectionRegistry registry;
+
+    Node(String id) {
+      this.id = id;
+      this.registry = new ClusteredConnectionRegistry(id, local::get, directory, transport);
+      transport.join(this.registry);
+    }
+
+    TestConnection open(String connectionUri) {
+      var connection = new TestConnection(connectionUri);
+      this.local.put(connectionUri, connection);
+      directory.register(connectionUri, this.id);
+      return connection;
+    }
+
+    void close(String connectionUri) {
+      this.local.remove(connectionUri);
+      directory.unregister(connectionUri, this.id);
+    }
+  }
+
+  record TestConnection(String connectionUri, List<Payload> received) implements WsConnection {
+
+    TestConnection(String connectionUri) {
+      this(connectionUri, new CopyOnWriteArrayList<>());
+    }
+
+    @Override
+    public void sendObject(Payload payload) {
+      this.received.add(payload);
+    }
+
+    @Override
+    public void close() {}
+  }
+}
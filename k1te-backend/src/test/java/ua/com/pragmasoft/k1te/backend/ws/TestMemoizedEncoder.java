@@ -0,0 +1,63 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.BinaryMessage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+
+class TestMemoizedEncoder {
+
+  static final PayloadEncoder ENCODER = new PayloadEncoder();
+
+  @Test
+  void testMessageIsEncodedOnce() {
+    var encoded = new AtomicInteger();
+    var memoized = new MemoizedEncoder<>((Payload p) -> countEncoded(encoded, p));
+    var message = new PlaintextMessage("text", "messageId", Instant.ofEpochSecond(100000));
+
+    String frame = memoized.apply(message);
+    assertEquals(ENCODER.apply(message), frame);
+    assertSame(frame, memoized.apply(message));
+    assertSame(frame, memoized.apply(new PlaintextMessage("text", "messageId", message.created())));
+    assertEquals(1, encoded.get());
+  }
+
+  @Test
+  void testDerivedCopyIsEncodedAgain() {
+    var encoded = new AtomicInteger();
+    var memoized = new MemoizedEncoder<>((Payload p) -> countEncoded(encoded, p));
+    var created = Instant.ofEpochSecond(100000);
+    var transientMessage =
+        new BinaryMessage("https://api.telegram.org/file", "a.png", "image/png", 1, "id", created);
+    var copy =
+        new BinaryMessage("https://example.com/a.png", "a.png", "image/png", 1, "id", created);
+
+    assertNotSame(memoized.apply(transientMessage), memoized.apply(copy));
+    assertEquals(ENCODER.apply(copy), memoized.apply(copy));
+    assertEquals(2, encoded.get());
+  }
+
+  @Test
+  void testResponsesAreNotMemoized() {
+    var encoded = new AtomicInteger();
+    var memoized = new MemoizedEncoder<>((Payload p) -> countEncoded(encoded, p));
+    var ack = new MessageAck("messageId", "destinationId", Instant.ofEpochSecond(100000));
+
+    memoized.apply(ack);
+    memoized.apply(ack);
+    assertEquals(2, encoded.get());
+  }
+
+  private static String countEncoded(AtomicInteger encoded, Payload payload) {
+    encoded.incrementAndGet();
+    return ENCODER.apply(payload);
+  }
+}
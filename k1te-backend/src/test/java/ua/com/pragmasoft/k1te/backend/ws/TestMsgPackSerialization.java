@@ -0,0 +1,146 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.BinaryMessage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.BatchAck;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.HistoryRequest;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.JoinChannel;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.LeaveChannel;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageBatch;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Ping;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.shared.TooLargeException;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
+
+class TestMsgPackSerialization {
+
+  static final MsgPackPayloadEncoder ENCODER = new MsgPackPayloadEncoder();
+  static final MsgPackPayloadDecoder DECODER = new MsgPackPayloadDecoder();
+
+  @Test
+  void testSerializeAndDeserialize() {
+    final var plaintext =
+        new PlaintextMessage("payload", "messageId", Instant.ofEpochSecond(100000));
+    final byte[] serialized = ENCODER.apply(plaintext);
+    // fixarray, "TXT", "messageId", "payload", 32 bit timestamp
+    assertEquals(1 + 4 + 10 + 8 + 6, serialized.length);
+    assertTrue(serialized.length < new PayloadEncoder().encode(plaintext).length);
+    assertEquals(plaintext, DECODER.apply(serialized));
+
+    for (var created :
+        new Instant[] {
+          Instant.parse("2023-10-17T10:15:30.125Z"), Instant.ofEpochSecond(-1, 5), Instant.MAX
+        }) {
+      final var message = new PlaintextMessage("🪁".repeat(100), "large", created);
+      assertEquals(message, DECODER.apply(ENCODER.apply(message)));
+    }
+
+    final var binary =
+        new BinaryMessage(
+            "https://k1te.chat/file.pdf",
+            "file.pdf",
+            "application/pdf",
+            102400,
+            "messageId",
+            Instant.EPOCH);
+    final ByteBuffer frame = ByteBuffer.wrap(ENCODER.apply(binary));
+    assertEquals(binary, DECODER.decode(frame));
+    assertEquals(0, frame.position());
+  }
+
+  @Test
+  void testDeserializeCommands() {
+    // ["JOIN", "memberId", nil, "channel", {"trailing": [1]}]
+    final byte[] join =
+        concat(
+            new byte[] {(byte) 0x95},
+            str("JOIN"),
+            str("memberId"),
+            new byte[] {(byte) 0xc0},
+            str("channel"),
+            new byte[] {(byte) 0x81},
+            str("trailing"),
+            new byte[] {(byte) 0x91, 0x01});
+    assertEquals(new JoinChannel("memberId", "memberId", "channel"), DECODER.apply(join));
+    assertTrue(DECODER.apply(concat(new byte[] {(byte) 0x91}, str("PING"))) instanceof Ping);
+    assertTrue(
+        DECODER.apply(concat(new byte[] {(byte) 0x91}, str("LEAVE"))) instanceof LeaveChannel);
+    // ["HIST", nil, 20]
+    final byte[] history =
+        concat(new byte[] {(byte) 0x93}, str("HIST"), new byte[] {(byte) 0xc0, 0x14});
+    assertEquals(new HistoryRequest(null, 20), DECODER.apply(history));
+  }
+
+  @Test
+  void testBatch() {
+    final var first = new PlaintextMessage("first", "m1", Instant.EPOCH);
+    final var second = new PlaintextMessage("second", "m2", Instant.EPOCH);
+    final byte[] packed = ENCODER.apply(first);
+    // ["BATCH", ["TXT", "m1", "first", ts, "trailing"], ["TXT", "m2", "second", ts]]
+    final byte[] batch =
+        concat(
+            new byte[] {(byte) 0x93, (byte) 0xa5},
+            "BATCH".getBytes(StandardCharsets.UTF_8),
+            new byte[] {(byte) 0x95},
+            Arrays.copyOfRange(packed, 1, packed.length),
+            str("trailing"),
+            ENCODER.apply(second));
+    assertEquals(new MessageBatch(List.of(first, second)), DECODER.apply(batch));
+    final var queued = new MessageBatch(List.of(first, second));
+    assertEquals(queued, DECODER.apply(ENCODER.apply(queued)));
+    final byte[] ping = concat(new byte[] {(byte) 0x92}, str("BATCH"), new byte[] {(byte) 0x91});
+    assertThrows(ValidationException.class, () -> DECODER.apply(concat(ping, str("PING"))));
+
+    final var acks = new BatchAck(List.of(new MessageAck("m1", "1", Instant.EPOCH)));
+    // ["ACKS", ["m1", "1", ts]]
+    final byte[] expected =
+        concat(
+            new byte[] {(byte) 0x92},
+            str("ACKS"),
+            new byte[] {(byte) 0x93},
+            str("m1"),
+            str("1"),
+            new byte[] {(byte) 0xd6, -1, 0, 0, 0, 0});
+    assertArrayEquals(expected, ENCODER.apply(acks));
+  }
+
+  @Test
+  void testRejectMalformedAndOversizedFrames() {
+    final byte[] plaintext = ENCODER.apply(new PlaintextMessage("x".repeat(64), "messageId"));
+    final byte[] incomplete = concat(new byte[] {(byte) 0x92}, str("TXT"));
+    final byte[] ack = concat(new byte[] {(byte) 0x91}, str("ACK"));
+    final byte[] trailing = concat(plaintext, new byte[] {(byte) 0x90});
+    final byte[] truncated = Arrays.copyOf(plaintext, plaintext.length - 1);
+    assertThrows(ValidationException.class, () -> DECODER.apply(incomplete));
+    assertThrows(ValidationException.class, () -> DECODER.apply(ack));
+    assertThrows(ValidationException.class, () -> DECODER.apply(trailing));
+    assertThrows(ValidationException.class, () -> DECODER.apply(truncated));
+    assertThrows(ValidationException.class, () -> DECODER.apply(new byte[0]));
+    assertThrows(TooLargeException.class, () -> new MsgPackPayloadDecoder(64).apply(plaintext));
+  }
+
+  private static byte[] str(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    return concat(new byte[] {(byte) (0xa0 | bytes.length)}, bytes);
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    var buffer = ByteBuffer.allocate(Arrays.stream(parts).mapToInt(p -> p.length).sum());
+    for (byte[] part : parts) {
+      buffer.put(part);
+    }
+    return buffer.array();
+  }
+}
@@ -1,14 +1,27 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.backend.ws;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.BatchAck;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.HistoryPage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.HistoryRequest;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageBatch;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.shared.TooLargeException;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
 
 class TestSerialization {
 
@@ -27,4 +40,87 @@ class TestSerialization {
     final Payload deserialized = DECODER.apply(serialized);
     assertEquals(PLAINTEXT_MSG, deserialized);
   }
+
+  @Test
+  void testSerializeBytes() {
+    final String expected = "[\"TXT\",\"messageId\",\"payload\",\"1970-01-02T03:46:40Z\"]";
+    assertEquals(expected, ENCODER.apply(PLAINTEXT_MSG));
+    final var large = new PlaintextMessage("🪁".repeat(50_000), "large", Instant.EPOCH);
+    assertArrayEquals(
+        ENCODER.apply(large).getBytes(StandardCharsets.UTF_8), ENCODER.encode(large));
+    assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), ENCODER.encode(PLAINTEXT_MSG));
+  }
+
+  @Test
+  void testDeserializeBytes() {
+    final byte[] serialized =
+        "[\"TXT\",\"messageId\",\"payload\",\"1970-01-02T03:46:40Z\"]"
+            .getBytes(StandardCharsets.UTF_8);
+    final ByteBuffer frame = ByteBuffer.wrap(serialized);
+    assertEquals(PLAINTEXT_MSG, DECODER.decode(frame));
+    assertEquals(0, frame.position());
+    assertEquals(PLAINTEXT_MSG, DECODER.decode(new ByteArrayInputStream(serialized)));
+    final String trailing =
+        "[\"TXT\",\"messageId\",\"payload\",\"1970-01-02T03:46:40Z\",[1,{\"a\":[2]}],3]";
+    assertEquals(PLAINTEXT_MSG, DECODER.apply(trailing));
+    assertEquals(Payload.Type.PING, DECODER.apply("[\"PING\"]").type());
+    assertEquals(Payload.Type.LEAVE, DECODER.apply("[\"LEAVE\"]").type());
+  }
+
+  @Test
+  void testBatch() {
+    final String batch =
+        "[\"BATCH\",[\"TXT\",\"messageId\",\"payload\",\"1970-01-02T03:46:40Z\",\"trailing\"],"
+            + "[\"TXT\",\"m2\",\"second\",\"1970-01-01T00:00:00Z\",[[]],{}]]";
+    final var second = new PlaintextMessage("second", "m2", Instant.EPOCH);
+    assertEquals(new MessageBatch(List.of(PLAINTEXT_MSG, second)), DECODER.apply(batch));
+    assertEquals(new MessageBatch(List.of()), DECODER.apply("[\"BATCH\"]"));
+    final var queued = new MessageBatch(List.of(PLAINTEXT_MSG, second));
+    assertEquals(queued, DECODER.apply(ENCODER.apply(queued)));
+    assertThrows(ValidationException.class, () -> DECODER.apply("[\"BATCH\",[\"PING\"]]"));
+    assertThrows(ValidationException.class, () -> DECODER.apply("[\"BATCH\",\"TXT\"]"));
+
+    final var acks =
+        new BatchAck(
+            List.of(
+                new MessageAck("messageId", "1", Instant.EPOCH),
+                new MessageAck("m2", "2", Instant.EPOCH)));
+    assertEquals(
+        "[\"ACKS\",[\"messageId\",\"1\",\"1970-01-01T00:00:00Z\"],"
+            + "[\"m2\",\"2\",\"1970-01-01T00:00:00Z\"]]",
+        ENCODER.apply(acks));
+  }
+
+  @Test
+  void testHistory() {
+    assertEquals(new HistoryRequest(null, 20), DECODER.apply("[\"HIST\",null,20]"));
+    assertEquals(new HistoryRequest("bTQ", 5), DECODER.apply("[\"HIST\",\"bTQ\",5]"));
+    assertThrows(ValidationException.class, () -> DECODER.apply("[\"HIST\",null]"));
+
+    final var page =
+        new HistoryPage(
+            List.of(
+                new HistoryPage.Entry(PLAINTEXT_MSG, true),
+                new HistoryPage.Entry(new PlaintextMessage("second", "m2", Instant.EPOCH), false)),
+            "bTI");
+    assertEquals(
+        "[\"PAGE\",\"bTI\",[true,[\"TXT\",\"messageId\",\"payload\",\"1970-01-02T03:46:40Z\"]],"
+            + "[false,[\"TXT\",\"m2\",\"second\",\"1970-01-01T00:00:00Z\"]]]",
+        ENCODER.apply(page));
+    assertEquals("[\"PAGE\",null]", ENCODER.apply(new HistoryPage(List.of(), null)));
+  }
+
+  @Test
+  void testRejectMalformedAndOversizedFrames() {
+    assertThrows(ValidationException.class, () -> DECODER.apply("[\"TXT\",\"messageId\"]"));
+    assertThrows(ValidationException.class, () -> DECODER.apply("[\"ACK\",\"messageId\"]"));
+    assertThrows(ValidationException.class, () -> DECODER.apply("{\"type\":\"PING\"}"));
+    assertThrows(ValidationException.class, () -> DECODER.apply("[\"PING\"] []"));
+
+    final var decoder = new PayloadDecoder(64);
+    final String large = "[\"TXT\",\"messageId\",\"" + "x".repeat(64) + "\",\"\"]";
+    assertThrows(TooLargeException.class, () -> decoder.apply(large));
+    final byte[] bytes = large.getBytes(StandardCharsets.UTF_8);
+    assertThrows(TooLargeException.class, () -> decoder.decode(new ByteArrayInputStream(bytes)));
+  }
 }
@@ -0,0 +1,105 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.router.domain.KiteRouter;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.RateLimits;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.HistoryPage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryChannels;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryMessages;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnection;
+
+class TestWsHistory {
+
+  static final PayloadDecoder DECODER = new PayloadDecoder();
+  static final PayloadEncoder ENCODER = new PayloadEncoder();
+
+  WsConnector connector;
+  Connection connection;
+
+  @BeforeEach
+  void setUp() {
+    var channels = new InMemoryChannels();
+    var messages = new InMemoryMessages(50);
+    channels.hostChannel("history-channel", "host", "tg:1", null);
+    Member client = channels.joinChannel("history-channel", "client", "ws:c1", "client");
+    Instant time = Instant.EPOCH;
+    for (int i = 1; i <= 20; i++) {
+      var content = new PlaintextMessage("text" + i, "m" + i, time);
+      messages.persist(client, "m" + i, content, time, i % 2 == 0);
+    }
+    this.connection = new Connection();
+    this.connector =
+        new WsConnector(
+            new KiteRouter(channels, List.of()),
+            channels,
+            raw -> this.connection,
+            null,
+            RateLimits.unlimited(),
+            null,
+            messages);
+  }
+
+  @Test
+  void testPageIsStreamedInFrames() {
+    var response = (HistoryPage) this.request("[\"HIST\",null,20]");
+    assertEquals(1, this.connection.sent.size());
+    var first = (HistoryPage) this.connection.sent.get(0);
+    assertEquals(WsConnector.HISTORY_FRAME_SIZE, first.entries().size());
+    assertEquals("m20", first.entries().get(0).message().messageId());
+    assertEquals(true, first.entries().get(0).incoming());
+    assertEquals(4, response.entries().size());
+    assertEquals("m1", response.entries().get(3).message().messageId());
+    assertNull(response.cursor());
+    assertEquals(
+        "[\"PAGE\",null,[true,[\"TXT\",\"m4\",\"text4\",\"1970-01-01T00:00:00Z\"]],",
+        ENCODER.apply(response).substring(0, 64));
+
+    var next = (HistoryPage) this.request("[\"HIST\",\"" + first.cursor() + "\",2]");
+    assertEquals(
+        List.of("m4", "m3"),
+        next.entries().stream().map(entry -> entry.message().messageId()).toList());
+    assertEquals(1, this.connection.sent.size());
+  }
+
+  @Test
+  void testRejectsInvalidRequests() {
+    assertThrows(ValidationException.class, () -> this.request("[\"HIST\",null,0]"));
+    assertThrows(ValidationException.class, () -> this.request("[\"HIST\",null,101]"));
+    assertThrows(ValidationException.class, () -> this.request("[\"HIST\",\"*\",10]"));
+  }
+
+  private Payload request(String frame) {
+    return this.connector.onPayload(DECODER.apply(frame), this.connection);
+  }
+
+  static class Connection implements WsConnection {
+
+    final List<Payload> sent = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String connectionUri() {
+      return "c1";
+    }
+
+    @Override
+    public void sendObject(Payload payload) {
+      this.sent.add(payload);
+    }
+
+    @Override
+    public void close() {}
+  }
+}
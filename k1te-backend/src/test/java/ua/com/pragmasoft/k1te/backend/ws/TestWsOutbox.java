@@ -0,0 +1,144 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.backend.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.k1te.backend.router.domain.CommitChangesPostProcessor;
+import ua.com.pragmasoft.k1te.backend.router.domain.KiteRouter;
+import ua.com.pragmasoft.k1te.backend.router.domain.PeerUpdatePostProcessor;
+import ua.com.pragmasoft.k1te.backend.router.domain.RateLimits;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.JoinChannel;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.LeaveChannel;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageBatch;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.OkResponse;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryChannels;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryOutbox;
+import ua.com.pragmasoft.k1te.backend.shared.NotFoundException;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnection;
+
+class TestWsOutbox {
+
+  final Map<String, Connection> open = new ConcurrentHashMap<>();
+  InMemoryChannels channels;
+  WsConnector connector;
+
+  @BeforeEach
+  void setUp() {
+    this.channels = new InMemoryChannels();
+    this.channels.hostChannel("outbox-channel", "host", "ws:h1", null);
+    this.connector =
+        new WsConnector(
+            new KiteRouter(
+                this.channels,
+                List.of(
+                    new PeerUpdatePostProcessor(), new CommitChangesPostProcessor(this.channels))),
+            this.channels,
+            this.open::get,
+            null,
+            RateLimits.unlimited(),
+            new InMemoryOutbox(10));
+  }
+
+  @Test
+  void testClosedMemberReceivesQueuedMessagesOnJoin() {
+    var host = this.open("h1");
+    var client = this.open("c1");
+    this.connector.onPayload(new JoinChannel("client", "client", "outbox-channel"), client);
+
+    this.open.remove("c1");
+    this.connector.onClose(client);
+    assertEquals("client", this.channels.find("ws:c1").getId());
+
+    var reply = new PlaintextMessage("reply", "r1", Instant.now());
+    this.connector.onPayload(reply, host);
+
+    var rejoined = this.open("c2");
+    this.connector.onPayload(new JoinChannel("client", "client", "outbox-channel"), rejoined);
+    var queued = assertInstanceOf(MessageBatch.class, rejoined.sent.get(0));
+    assertEquals("r1", queued.messages().get(0).messageId());
+  }
+
+  @Test
+  void leftMemberIsRemovedWithItsQueuedMessages() {
+    var host = this.open("h1");
+    var client = this.open("c1");
+    this.connector.onPayload(new JoinChannel("client", "client", "outbox-channel"), client);
+
+    assertInstanceOf(OkResponse.class, this.connector.onPayload(new LeaveChannel(), client));
+    assertThrows(NotFoundException.class, () -> this.channels.find("ws:c1"));
+    var left = assertInstanceOf(PlaintextMessage.class, host.sent.get(host.sent.size() - 1));
+    assertEquals("✅ client left channel outbox-channel", left.text());
+  }
+
+  @Test
+  void originIsAckedOnceTheQueuedFrameIsWritten() {
+    var pending = new CompletableFuture<Instant>();
+    var host =
+        new Connection("h1") {
+          @Override
+          public CompletionStage<Instant> sendAsync(Payload payload) {
+            return pending;
+          }
+        };
+    this.open.put("h1", host);
+    var client = this.open("c1");
+    this.connector.onPayload(new JoinChannel("client", "client", "outbox-channel"), client);
+
+    var message = new PlaintextMessage("question", "q1", Instant.now());
+    assertInstanceOf(MessageAck.class, this.connector.onPayload(message, client));
+    assertEquals(0, client.sent.size());
+    Instant written = Instant.parse("2023-10-17T10:15:32Z");
+    pending.complete(written);
+    // the join notification written meanwhile is acked as well
+    var ack =
+        client.sent.stream()
+            .map(MessageAck.class::cast)
+            .filter(sent -> "q1".equals(sent.messageId()))
+            .findFirst()
+            .orElseThrow();
+    assertEquals(written, ack.delivered());
+  }
+
+  private Connection open(String raw) {
+    var connection = new Connection(raw);
+    this.open.put(raw, connection);
+    return connection;
+  }
+
+  static class Connection implements WsConnection {
+
+    final String connectionUri;
+    final List<Payload> sent = new CopyOnWriteArrayList<>();
+
+    Connection(String connectionUri) {
+      this.connectionUri = connectionUri;
+    }
+
+    @Override
+    public String connectionUri() {
+      return this.connectionUri;
+    }
+
+    @Override
+    public void sendObject(Payload payload) {
+      this.sent.add(payload);
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,66 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.benchmarks;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import ua.com.pragmasoft.k1te.backend.router.domain.ConnectionUri;
+import ua.com.pragmasoft.k1te.backend.router.domain.Member;
+import ua.com.pragmasoft.k1te.backend.router.domain.MemberChanges;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryChannels;
+
+/** Member lookups and updates of {@link InMemoryChannels} with many channels of a few members */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChannelsBenchmark {
+
+  static final int CHANNELS = 10_000;
+  static final int CLIENTS = 4;
+
+  InMemoryChannels channels;
+  String clientConnection;
+  String channel;
+  String clientId;
+  Member host;
+  Member client;
+
+  @Setup
+  public void setUp() {
+    this.channels = new InMemoryChannels();
+    for (int c = 0; c < CHANNELS; c++) {
+      this.channels.hostChannel("channel-" + c, "host-" + c, "tg:host-" + c, null);
+      for (int m = 0; m < CLIENTS; m++) {
+        String id = "client-" + c + '-' + m;
+        this.channels.joinChannel("channel-" + c, id, "ws:" + id, null);
+      }
+    }
+    int c = CHANNELS / 2;
+    this.channel = "channel-" + c;
+    this.clientId = "client-" + c + "-0";
+    this.clientConnection = "ws:" + this.clientId;
+    this.host = this.channels.find(this.channel, "host-" + c);
+    this.client = this.channels.find(this.channel, this.clientId);
+  }
+
+  @Benchmark
+  public Member findByConnection() {
+    return this.channels.find(this.clientConnection);
+  }
+
+  @Benchmark
+  public Member findByMemberId() {
+    return this.channels.find(this.channel, this.clientId);
+  }
+
+  @Benchmark
+  public void commitConnectionUpdate() {
+    this.channels.commit(
+        new MemberChanges()
+            .updateConnection(
+                this.client, ConnectionUri.parse(this.clientConnection), "1", Instant.now()));
+  }
+}
@@ -0,0 +1,94 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.benchmarks;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import ua.com.pragmasoft.k1te.backend.shared.Bulkhead;
+import ua.com.pragmasoft.k1te.backend.shared.VirtualThreads;
+
+/**
+ * Compares the server execution modes under the burst of messages from many chats at once, each
+ * message waiting for blocking downstream calls, like the DynamoDB lookup, the history write and
+ * the Telegram send. Worker mode is the bounded worker pool, virtual mode is the thread per task
+ * executor behind the bulkhead, with the defaults of the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+  /** Default max size of the Quarkus worker pool */
+  static final int WORKER_POOL_SIZE = 200;
+  /** Default execution.max-concurrency */
+  static final int MAX_CONCURRENCY = 512;
+
+  static final int DOWNSTREAM_CALLS = 3;
+  static final long DOWNSTREAM_LATENCY_MILLIS = 10;
+
+  @Param({"worker", "virtual"})
+  String mode;
+
+  @Param({"1000", "5000"})
+  int chats;
+
+  ExecutorService executor;
+  Bulkhead bulkhead;
+
+  @Setup
+  public void setUp() {
+    if ("virtual".equals(this.mode)) {
+      this.executor = VirtualThreads.newThreadPerTaskExecutor("k1te-benchmark");
+      this.bulkhead = new Bulkhead("downstream services", MAX_CONCURRENCY, Duration.ofMinutes(1));
+    } else {
+      this.executor = Executors.newFixedThreadPool(WORKER_POOL_SIZE);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.executor.shutdownNow();
+  }
+
+  /** Every chat sends one message at once, completes when all of them are handled */
+  @Benchmark
+  public int burst() throws InterruptedException {
+    var handled = new CountDownLatch(this.chats);
+    for (int i = 0; i < this.chats; i++) {
+      this.executor.execute(
+          () -> {
+            try {
+              this.handle();
+            } finally {
+              handled.countDown();
+            }
+          });
+    }
+    handled.await();
+    return this.chats;
+  }
+
+  private void handle() {
+    if (null != this.bulkhead) {
+      this.bulkhead.run(ExecutionModeBenchmark::callDownstream);
+    } else {
+      callDownstream();
+    }
+  }
+
+  private static void callDownstream() {
+    try {
+      for (int i = 0; i < DOWNSTREAM_CALLS; i++) {
+        Thread.sleep(DOWNSTREAM_LATENCY_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
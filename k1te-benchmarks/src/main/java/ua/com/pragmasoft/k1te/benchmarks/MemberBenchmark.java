@@ -0,0 +1,48 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.benchmarks;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.DynamoDbMember;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemberBenchmark {
+
+  static final Instant TG_TIME = Instant.parse("2023-10-17T10:15:30Z");
+  static final Instant WS_TIME = TG_TIME.plusSeconds(60);
+
+  DynamoDbMember member;
+
+  @Setup
+  public void setUp() {
+    this.member =
+        new DynamoDbMember.DynamoDbMemberBuilder()
+            .withChannelName("support-channel")
+            .withId("k7bnx3")
+            .withUserName("Jane Doe")
+            .withTgUri("2bqrzvp")
+            .withTgLastTime(TG_TIME)
+            .withWsUri("NkdV5cPvIAMCJpw=")
+            .withWsLastTime(WS_TIME)
+            .build();
+  }
+
+  /** Connection is resolved once and then served from the member */
+  @Benchmark
+  public String getConnectionUri() {
+    return this.member.getConnectionUri();
+  }
+
+  /** Every call follows a connection update, like the first lookup after a member is loaded */
+  @Benchmark
+  public String getConnectionUriAfterUpdate() {
+    this.member.setWsLastTime(WS_TIME);
+    return this.member.getConnectionUri();
+  }
+}
@@ -0,0 +1,28 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.benchmarks;
+
+import java.time.Instant;
+import ua.com.pragmasoft.k1te.backend.router.domain.Connector;
+import ua.com.pragmasoft.k1te.backend.router.domain.RoutingContext;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+
+/** Acknowledges every message without delivering it anywhere */
+class NoopConnector implements Connector {
+
+  private final String id;
+
+  NoopConnector(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String id() {
+    return this.id;
+  }
+
+  @Override
+  public void dispatch(RoutingContext context) {
+    String messageId = context.request.messageId();
+    context.response = new MessageAck(messageId, messageId, Instant.now());
+  }
+}
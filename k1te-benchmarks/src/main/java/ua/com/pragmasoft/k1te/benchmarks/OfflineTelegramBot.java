@@ -0,0 +1,43 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.benchmarks;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.response.BaseResponse;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers every bot api request with a successful response without any network call. Responses
+ * are parsed once per response type, so benchmarks measure the connector rather than the bot api
+ * client.
+ */
+class OfflineTelegramBot extends TelegramBot {
+
+  private static final String SENT_MESSAGE =
+      """
+      {"ok":true,"result":{"message_id":4242,"date":1697537731,\
+      "chat":{"id":-1001234567890,"title":"Support","type":"supergroup"}}}\
+      """;
+
+  private final Map<Class<?>, BaseResponse> responses = new ConcurrentHashMap<>();
+
+  OfflineTelegramBot() {
+    super("0:offline");
+  }
+
+  @Override
+  public <T extends BaseRequest<T, R>, R extends BaseResponse> R execute(
+      BaseRequest<T, R> request) {
+    Class<R> responseType = request.getResponseType();
+    return responseType.cast(
+        this.responses.computeIfAbsent(
+            responseType, type -> BotUtils.fromJson(SENT_MESSAGE, responseType)));
+  }
+
+  @Override
+  public void shutdown() {
+    // nothing to release
+  }
+}
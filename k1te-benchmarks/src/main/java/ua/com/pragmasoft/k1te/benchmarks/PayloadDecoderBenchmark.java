@@ -0,0 +1,62 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload.Type;
+import ua.com.pragmasoft.k1te.backend.ws.PayloadDecoder;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadDecoderBenchmark {
+
+  static final Map<Type, String> FRAMES = new EnumMap<>(Type.class);
+
+  static {
+    FRAMES.put(Type.JOIN, "[\"JOIN\",\"k7bnx3\",\"Jane Doe\",\"support-channel\"]");
+    FRAMES.put(
+        Type.TXT,
+        "[\"TXT\",\"0b2c5e6f\",\"Hello, I can't find my order\",\"2023-10-17T10:15:30.125Z\"]");
+    FRAMES.put(
+        Type.BIN,
+        "[\"BIN\",\"0b2c5e70\",\"https://k1te.s3.amazonaws.com/support-channel/k7bnx3/invoice.pdf\","
+            + "\"invoice.pdf\",\"application/pdf\",102400,\"2023-10-17T10:15:31.250Z\"]");
+    FRAMES.put(
+        Type.UPL,
+        "[\"UPL\",\"0b2c5e71\",\"screenshot.png\",\"image/png\",2097152,\"2023-10-17T10:15:32.375Z\"]");
+    FRAMES.put(Type.PING, "[\"PING\"]");
+  }
+
+  @Param({"JOIN", "TXT", "BIN", "UPL", "PING"})
+  Type type;
+
+  PayloadDecoder decoder;
+  String frame;
+  ByteBuffer bytes;
+
+  @Setup
+  public void setUp() {
+    this.decoder = new PayloadDecoder();
+    this.frame = FRAMES.get(this.type);
+    this.bytes = ByteBuffer.wrap(this.frame.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public Payload decode() {
+    return this.decoder.apply(this.frame);
+  }
+
+  @Benchmark
+  public Payload decodeBytes() {
+    return this.decoder.decode(this.bytes);
+  }
+}
@@ -0,0 +1,71 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.benchmarks;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.*;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload.Type;
+import ua.com.pragmasoft.k1te.backend.ws.PayloadEncoder;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadEncoderBenchmark {
+
+  static final Instant CREATED = Instant.parse("2023-10-17T10:15:30.125Z");
+  static final Map<Type, Payload> PAYLOADS = new EnumMap<>(Type.class);
+
+  static {
+    PAYLOADS.put(Type.ACK, new MessageAck("0b2c5e6f", "1y2p", CREATED));
+    PAYLOADS.put(Type.OK, new OkResponse());
+    PAYLOADS.put(Type.ERR, new ErrorResponse("Channel not found", 404));
+    PAYLOADS.put(Type.TXT, new PlaintextMessage("Hello, I can't find my order", "0b2c5e6f", CREATED));
+    PAYLOADS.put(
+        Type.BIN,
+        new BinaryMessage(
+            "https://k1te.s3.amazonaws.com/support-channel/k7bnx3/invoice.pdf",
+            "invoice.pdf",
+            "application/pdf",
+            102400,
+            "0b2c5e70",
+            CREATED));
+    PAYLOADS.put(
+        Type.UPL,
+        new UploadResponse(
+            "0b2c5e71",
+            URI.create("https://k1te.s3.amazonaws.com/support-channel/k7bnx3/screenshot.png"),
+            URI.create(
+                "https://k1te.s3.amazonaws.com/support-channel/k7bnx3/screenshot.png"
+                    + "?X-Amz-Algorithm=AWS4-HMAC-SHA256&X-Amz-Expires=600")));
+    PAYLOADS.put(Type.PONG, new Pong());
+  }
+
+  @Param({"ACK", "OK", "ERR", "TXT", "BIN", "UPL", "PONG"})
+  Type type;
+
+  PayloadEncoder encoder;
+  Payload payload;
+
+  @Setup
+  public void setUp() {
+    this.encoder = new PayloadEncoder();
+    this.payload = PAYLOADS.get(this.type);
+  }
+
+  @Benchmark
+  public String encode() {
+    return this.encoder.apply(this.payload);
+  }
+
+  @Benchmark
+  public byte[] encodeBytes() {
+    return this.encoder.encode(this.payload);
+  }
+}
@@ -0,0 +1,81 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import ua.com.pragmasoft.k1te.backend.router.domain.*;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessageAck;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.PlaintextMessage;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryChannels;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryMessages;
+import ua.com.pragmasoft.k1te.backend.tg.TelegramConnector;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector;
+
+/**
+ * Routes plaintext messages between a websocket client and a telegram host through the full post
+ * processors chain, with in-memory channels and messages and connectors which only acknowledge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouterBenchmark {
+
+  static final String CHANNEL = "support-channel";
+  static final int HISTORY_LIMIT = InMemoryMessages.DEFAULT_CAPACITY;
+
+  KiteRouter router;
+  ConnectionUri clientConnection;
+  ConnectionUri hostConnection;
+  PlaintextMessage question;
+  PlaintextMessage answer;
+
+  @Setup
+  public void setUp() {
+    var channels = new InMemoryChannels();
+    var messages = new InMemoryMessages(HISTORY_LIMIT);
+    this.router =
+        new KiteRouter(
+            channels,
+            List.of(
+                new PeerUpdatePostProcessor(),
+                new HistoryPostProcessor(messages),
+                new CommitChangesPostProcessor(channels)));
+    this.router.registerConnector(new NoopConnector(WsConnector.WS));
+    this.router.registerConnector(new NoopConnector(TelegramConnector.TG));
+    this.hostConnection = ConnectionUri.of(TelegramConnector.TG, "2bqrzvp");
+    this.clientConnection = ConnectionUri.of(WsConnector.WS, "NkdV5cPvIAMCJpw=");
+    Member host =
+        channels.hostChannel(CHANNEL, "2bqrzvp", this.hostConnection.toString(), "Support");
+    Member client =
+        channels.joinChannel(CHANNEL, "k7bnx3", this.clientConnection.toString(), "Jane Doe");
+    channels.updatePeer(host, client.getId());
+    this.question = new PlaintextMessage("Hello, I can't find my order", "0b2c5e6f");
+    this.answer = new PlaintextMessage("Could you share the order number, please?", "1y2p");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    this.router.close();
+  }
+
+  @Benchmark
+  public MessageAck clientToHost() {
+    return this.dispatch(this.clientConnection, this.question);
+  }
+
+  @Benchmark
+  public MessageAck hostToClient() {
+    return this.dispatch(this.hostConnection, this.answer);
+  }
+
+  private MessageAck dispatch(ConnectionUri origin, PlaintextMessage message) {
+    var ctx = RoutingContext.create().withOriginConnection(origin).withRequest(message);
+    this.router.dispatch(ctx);
+    return ctx.response;
+  }
+}
@@ -0,0 +1,91 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.benchmarks;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import ua.com.pragmasoft.k1te.backend.router.domain.*;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryChannels;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryMessages;
+import ua.com.pragmasoft.k1te.backend.tg.TelegramConnector;
+
+/**
+ * Handles recorded telegram updates of a conversation between a private chat client and a
+ * supergroup host, from the update to the bot api requests it causes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TelegramConnectorBenchmark {
+
+  static final String CHANNEL = "support-channel";
+  static final String HOST_ID = "3w5e0oa7jkvu6";
+  static final String CLIENT_ID = "2ekiyfm";
+
+  @Param({"client-text", "client-photo", "host-reply", "info-command"})
+  String fixture;
+
+  KiteRouter router;
+  TelegramConnector connector;
+  Update update;
+
+  @Setup
+  public void setUp() {
+    var channels = new InMemoryChannels();
+    var messages = new InMemoryMessages(RouterBenchmark.HISTORY_LIMIT);
+    this.router =
+        new KiteRouter(
+            channels,
+            List.of(
+                new PeerUpdatePostProcessor(),
+                new HistoryPostProcessor(messages),
+                new CommitChangesPostProcessor(channels)));
+    this.connector =
+        new TelegramConnector(
+            new OfflineTelegramBot(),
+            this.router,
+            channels,
+            messages,
+            URI.create("https://k1te.chat/tg"),
+            URI.create("wss://ws.k1te.chat"));
+    Member host =
+        channels.hostChannel(CHANNEL, HOST_ID, this.connector.connectionUri(HOST_ID), "Support");
+    Member client =
+        channels.joinChannel(
+            CHANNEL, CLIENT_ID, this.connector.connectionUri(CLIENT_ID), "Jane Doe");
+    channels.updatePeer(host, client.getId());
+    this.update = BotUtils.parseUpdate(load("/updates/" + this.fixture + ".json"));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    this.connector.close();
+    this.router.close();
+  }
+
+  @Benchmark
+  public String onUpdate() {
+    return this.connector.onUpdate(this.update);
+  }
+
+  private static String load(String resource) {
+    try (InputStream in = TelegramConnectorBenchmark.class.getResourceAsStream(resource)) {
+      if (null == in) {
+        throw new IllegalArgumentException("Missing fixture " + resource);
+      }
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.cluster.application;
+
+import io.quarkus.arc.DefaultBean;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Singleton;
+import java.time.Duration;
+import java.util.Optional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import ua.com.pragmasoft.k1te.backend.ws.ClusteredConnectionRegistry;
+import ua.com.pragmasoft.k1te.backend.ws.ConnectionDirectory;
+import ua.com.pragmasoft.k1te.backend.ws.NodeTransport;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnectionRegistry;
+import ua.com.pragmasoft.k1te.backend.ws.infrastructure.NodePrefixConnectionDirectory;
+import ua.com.pragmasoft.k1te.server.cluster.infrastructure.HttpNodeTransport;
+import ua.com.pragmasoft.k1te.server.ws.application.JakartaWebsocketConnectionRegistry;
+
+public class ClusterConfiguration {
+
+  @Produces
+  @ApplicationScoped
+  @DefaultBean
+  public ConnectionDirectory connectionDirectory() {
+    return new NodePrefixConnectionDirectory();
+  }
+
+  @Produces
+  @ApplicationScoped
+  @DefaultBean
+  public NodeTransport nodeTransport(
+      @ConfigProperty(name = "cluster.node-url") Optional<String> nodeUrl,
+      @ConfigProperty(name = "cluster.secret") Optional<String> secret,
+      @ConfigProperty(name = "cluster.forward-timeout", defaultValue = "5s") Duration timeout) {
+    return new HttpNodeTransport(nodeUrl.orElse(""), secret.orElse(""), timeout);
+  }
+
+  /**
+   * Singleton rather than the client proxy, so the cluster endpoint can tell the registry type. The
+   * node url has no default, as a bare pod host name rarely resolves, see cluster.node-url
+   */
+  @Produces
+  @Singleton
+  public WsConnectionRegistry connectionRegistry(
+      @ConfigProperty(name = "cluster.enabled", defaultValue = "false") boolean enabled,
+      @ConfigProperty(name = "cluster.node-id", defaultValue = "local") String nodeId,
+      @ConfigProperty(name = "cluster.node-url") Optional<String> nodeUrl,
+      JakartaWebsocketConnectionRegistry local,
+      ConnectionDirectory directory,
+      NodeTransport transport) {
+    if (!enabled) {
+      return local;
+    }
+    if (nodeUrl.filter(url -> url.contains("%s")).isEmpty()) {
+      throw new IllegalStateException(
+          "cluster.node-url with %s for the node id is required when the cluster is enabled");
+    }
+    return new ClusteredConnectionRegistry(nodeId, local, directory, transport);
+  }
+}
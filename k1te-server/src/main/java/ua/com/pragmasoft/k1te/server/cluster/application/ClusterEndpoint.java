@@ -0,0 +1,112 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.cluster.application;
+
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+import ua.com.pragmasoft.k1te.backend.ws.ClusteredConnectionRegistry;
+import ua.com.pragmasoft.k1te.backend.ws.PayloadDecoder;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnectionRegistry;
+import ua.com.pragmasoft.k1te.server.cluster.infrastructure.HttpNodeTransport;
+
+/**
+ * Receives payloads forwarded by other nodes to the connections of this node. It listens on the
+ * cluster port rather than the public http one, so the route does not expose it.
+ */
+@ApplicationScoped
+public class ClusterEndpoint {
+
+  private static final PayloadDecoder DECODER = new PayloadDecoder();
+
+  private final WsConnectionRegistry connections;
+  private final byte[] secret;
+  private final int port;
+  private HttpServer server;
+
+  public ClusterEndpoint(
+      WsConnectionRegistry connections,
+      @ConfigProperty(name = "cluster.secret") Optional<String> secret,
+      @ConfigProperty(name = "cluster.port", defaultValue = "8081") int port) {
+    this.connections = connections;
+    this.secret = secret.orElse("").getBytes(StandardCharsets.UTF_8);
+    this.port = port;
+  }
+
+  void startup(@Observes StartupEvent event, Vertx vertx) {
+    if (!(this.connections instanceof ClusteredConnectionRegistry cluster)) {
+      return;
+    }
+    if (this.secret.length == 0) {
+      throw new IllegalStateException("cluster.secret is required when the cluster is enabled");
+    }
+    this.server = vertx.createHttpServer().requestHandler(request -> this.handle(request, cluster));
+    this.server.listen(this.port).toCompletionStage().toCompletableFuture().join();
+    Log.infof("Cluster endpoint listens on port %d", this.port);
+  }
+
+  void shutdown(@Observes ShutdownEvent event) {
+    if (null != this.server) {
+      this.server.close();
+    }
+  }
+
+  private void handle(HttpServerRequest request, ClusteredConnectionRegistry cluster) {
+    if (request.method() != HttpMethod.POST || !HttpNodeTransport.PATH.equals(request.path())) {
+      respond(request, 404, "");
+      return;
+    }
+    String secret = request.getHeader(HttpNodeTransport.SECRET_HEADER);
+    if (null == secret
+        || !MessageDigest.isEqual(this.secret, secret.getBytes(StandardCharsets.UTF_8))) {
+      respond(request, 403, "");
+      return;
+    }
+    String connectionUri = request.getParam(HttpNodeTransport.CONNECTION_PARAM);
+    request
+        .body()
+        .onSuccess(
+            frame -> {
+              try {
+                cluster
+                    .deliver(connectionUri, DECODER.apply(frame.toString(StandardCharsets.UTF_8)))
+                    .whenComplete(
+                        (written, e) -> {
+                          if (null != e) {
+                            failed(request, e);
+                          } else {
+                            respond(request, 200, written.toString());
+                          }
+                        });
+              } catch (RuntimeException e) {
+                failed(request, e);
+              }
+            })
+        .onFailure(e -> failed(request, e));
+  }
+
+  private static void failed(HttpServerRequest request, Throwable e) {
+    Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+    int status = cause instanceof KiteException ke ? ke.code() : KiteException.SERVER_ERROR;
+    respond(request, status, String.valueOf(cause.getMessage()));
+  }
+
+  private static void respond(HttpServerRequest request, int status, String body) {
+    request
+        .response()
+        .setStatusCode(status)
+        .putHeader("Content-Type", "text/plain")
+        .end(body);
+  }
+}
@@ -0,0 +1,78 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.cluster.infrastructure;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletionStage;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+import ua.com.pragmasoft.k1te.backend.ws.NodeTransport;
+import ua.com.pragmasoft.k1te.backend.ws.PayloadEncoder;
+
+/**
+ * Posts payloads as json frames to the cluster port of the owning node, which answers with the
+ * time the frame was written. Requests are authenticated with the secret shared by the nodes.
+ */
+public class HttpNodeTransport implements NodeTransport {
+
+  public static final String PATH = "/internal/cluster/deliveries";
+  public static final String CONNECTION_PARAM = "connection";
+  public static final String SECRET_HEADER = "X-K1te-Cluster-Secret";
+
+  /** Encoding is cheap next to the request, so the broadcasted frame is encoded per connection */
+  private static final PayloadEncoder ENCODER = new PayloadEncoder();
+
+  private final String nodeUrl;
+  private final String secret;
+  private final Duration timeout;
+  private final HttpClient client;
+
+  /**
+   * @param nodeUrl base url of the cluster port of the node, with %s for the node id
+   * @param secret shared by the nodes of the cluster
+   * @param timeout max time to wait for the node
+   */
+  public HttpNodeTransport(String nodeUrl, String secret, Duration timeout) {
+    this.nodeUrl = nodeUrl;
+    this.secret = secret;
+    this.timeout = timeout;
+    this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+  }
+
+  @Override
+  public CompletionStage<Instant> forward(String nodeId, String connectionUri, Payload payload) {
+    var uri =
+        URI.create(
+            this.nodeUrl.formatted(nodeId)
+                + PATH
+                + "?"
+                + CONNECTION_PARAM
+                + "="
+                + URLEncoder.encode(connectionUri, StandardCharsets.UTF_8));
+    var request =
+        HttpRequest.newBuilder(uri)
+            .timeout(this.timeout)
+            .header("Content-Type", "application/json")
+            .header(SECRET_HEADER, this.secret)
+            .POST(HttpRequest.BodyPublishers.ofString(ENCODER.apply(payload)))
+            .build();
+    return this.client
+        .sendAsync(request, HttpResponse.BodyHandlers.ofString())
+        .handle(
+            (response, e) -> {
+              if (null != e) {
+                throw new RoutingException("Node %s is unavailable".formatted(nodeId), e);
+              }
+              if (response.statusCode() != 200) {
+                throw new RoutingException(response.body());
+              }
+              return Instant.parse(response.body());
+            });
+  }
+}
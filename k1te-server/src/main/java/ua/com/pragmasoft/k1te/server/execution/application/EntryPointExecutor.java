@@ -0,0 +1,92 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.execution.application;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import ua.com.pragmasoft.k1te.backend.shared.Bulkhead;
+import ua.com.pragmasoft.k1te.backend.shared.VirtualThreads;
+
+/**
+ * Runs websocket messages and telegram updates in the configured execution mode. Worker mode runs
+ * them on the calling worker thread, like before. Virtual mode runs each of them on its own virtual
+ * thread, as they mostly wait for blocking DynamoDB, S3 and Telegram calls, with the bulkhead
+ * limiting how many of them call downstream services at once.
+ */
+public class EntryPointExecutor implements Executor, Closeable {
+
+  public enum Mode {
+    WORKER,
+    VIRTUAL
+  }
+
+  private final Mode mode;
+  private final ExecutorService executor;
+  private final Bulkhead bulkhead;
+  private final Duration shutdownTimeout;
+
+  /**
+   * @param mode execution mode
+   * @param maxConcurrency max number of tasks running at once in virtual mode
+   * @param waitTimeout max time the task waits to start in virtual mode
+   * @param shutdownTimeout max time to wait for running tasks on close
+   * @throws IllegalStateException in virtual mode on the runtime without virtual threads
+   */
+  public EntryPointExecutor(
+      Mode mode, int maxConcurrency, Duration waitTimeout, Duration shutdownTimeout) {
+    if (mode == Mode.VIRTUAL && !VirtualThreads.isSupported()) {
+      throw new IllegalStateException(
+          "Virtual execution mode needs Java 21, use the worker mode on " + Runtime.version());
+    }
+    this.mode = mode;
+    this.executor =
+        mode == Mode.VIRTUAL ? VirtualThreads.newThreadPerTaskExecutor("k1te-entry") : null;
+    this.bulkhead = new Bulkhead("downstream services", maxConcurrency, waitTimeout);
+    this.shutdownTimeout = shutdownTimeout;
+  }
+
+  public boolean isVirtual() {
+    return this.mode == Mode.VIRTUAL;
+  }
+
+  /** Runs the command on the new virtual thread in virtual mode and on the caller otherwise */
+  @Override
+  public void execute(Runnable command) {
+    if (this.isVirtual()) {
+      this.executor.execute(command);
+    } else {
+      command.run();
+    }
+  }
+
+  /** Runs the task within the bulkhead in virtual mode */
+  public <T> T limited(Supplier<T> task) {
+    return this.isVirtual() ? this.bulkhead.call(task) : task.get();
+  }
+
+  /** Completes before returning in worker mode */
+  public <T> CompletionStage<T> submit(Supplier<T> task) {
+    return CompletableFuture.supplyAsync(() -> this.limited(task), this);
+  }
+
+  @Override
+  public void close() {
+    if (null == this.executor) {
+      return;
+    }
+    this.executor.shutdown();
+    try {
+      if (!this.executor.awaitTermination(this.shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        this.executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.executor.shutdownNow();
+    }
+  }
+}
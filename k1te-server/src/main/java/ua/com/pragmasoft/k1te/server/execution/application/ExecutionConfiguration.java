@@ -0,0 +1,39 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.execution.application;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.inject.Disposes;
+import jakarta.enterprise.inject.Produces;
+import java.time.Duration;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+public class ExecutionConfiguration {
+
+  @Produces
+  @ApplicationScoped
+  public EntryPointExecutor entryPointExecutor(
+      @ConfigProperty(name = "execution.mode", defaultValue = "worker") String mode,
+      @ConfigProperty(name = "execution.max-concurrency", defaultValue = "512")
+          int maxConcurrency,
+      @ConfigProperty(name = "execution.wait-timeout", defaultValue = "10s") Duration waitTimeout,
+      @ConfigProperty(name = "quarkus.shutdown.timeout", defaultValue = "5")
+          Duration shutdownTimeout) {
+    return new EntryPointExecutor(
+        EntryPointExecutor.Mode.valueOf(mode.toUpperCase()),
+        maxConcurrency,
+        waitTimeout,
+        shutdownTimeout);
+  }
+
+  /** Creates the executor on startup, so the mode the runtime does not support fails the start */
+  void startup(@Observes StartupEvent event, EntryPointExecutor executor) {
+    executor.isVirtual();
+  }
+
+  /** Waits for the running tasks on shutdown */
+  void closeEntryPointExecutor(@Disposes EntryPointExecutor executor) {
+    executor.close();
+  }
+}
@@ -0,0 +1,18 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.metrics.application;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Produces;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
+import ua.com.pragmasoft.k1te.server.metrics.infrastructure.MicrometerMetrics;
+
+public class MetricsConfiguration {
+
+  /** Exposed with the Prometheus endpoint /q/metrics */
+  @Produces
+  @ApplicationScoped
+  public Metrics metrics(MeterRegistry registry) {
+    return new MicrometerMetrics(registry);
+  }
+}
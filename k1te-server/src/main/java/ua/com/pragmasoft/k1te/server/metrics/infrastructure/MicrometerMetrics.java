@@ -0,0 +1,47 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.metrics.infrastructure;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import java.util.concurrent.TimeUnit;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
+
+/** Publishes backend metrics as Micrometer timers and summaries with percentile histograms */
+public class MicrometerMetrics implements Metrics {
+
+  private final MeterRegistry registry;
+
+  public MicrometerMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public void recordTime(String name, long nanos, String... tags) {
+    Timer.builder(name)
+        .tags(tags)
+        .publishPercentileHistogram()
+        .register(this.registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordSize(String name, long bytes, String... tags) {
+    DistributionSummary.builder(name)
+        .baseUnit(BaseUnits.BYTES)
+        .tags(tags)
+        .publishPercentileHistogram()
+        .register(this.registry)
+        .record(bytes);
+  }
+
+  @Override
+  public void recordValue(String name, long value, String... tags) {
+    DistributionSummary.builder(name)
+        .tags(tags)
+        .publishPercentileHistogram()
+        .register(this.registry)
+        .record(value);
+  }
+}
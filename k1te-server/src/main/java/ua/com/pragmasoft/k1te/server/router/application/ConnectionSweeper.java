@@ -0,0 +1,61 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.router.application;
+
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
+
+/**
+ * Purges websocket connections which expired without frames on the schedule, like the closed
+ * ones kept routed for the outbox and the ones of a crashed node, as close callbacks alone leave
+ * them in the store.
+ */
+@ApplicationScoped
+public class ConnectionSweeper {
+
+  private final Channels channels;
+  private final Duration interval;
+  private ScheduledExecutorService scheduler;
+
+  public ConnectionSweeper(
+      Channels channels,
+      @ConfigProperty(name = "router.connections.sweep.interval", defaultValue = "5m")
+          Duration interval) {
+    this.channels = channels;
+    this.interval = interval;
+  }
+
+  void startup(@Observes StartupEvent event) {
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "k1te-connection-sweeper");
+              thread.setDaemon(true);
+              return thread;
+            });
+    long period = this.interval.toMillis();
+    this.scheduler.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  void shutdown(@Observes ShutdownEvent event) {
+    if (null != this.scheduler) {
+      this.scheduler.shutdownNow();
+    }
+  }
+
+  private void sweep() {
+    try {
+      Log.debugf("Swept %d dead connections", this.channels.sweepConnections());
+    } catch (RuntimeException e) {
+      Log.error("Connection sweep failed", e);
+    }
+  }
+}
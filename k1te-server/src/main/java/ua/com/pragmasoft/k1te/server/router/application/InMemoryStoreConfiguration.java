@@ -0,0 +1,96 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.router.application;
+
+import io.quarkus.arc.properties.IfBuildProperty;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Disposes;
+import jakarta.enterprise.inject.Produces;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredChannels;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredMessages;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
+import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
+import ua.com.pragmasoft.k1te.backend.router.domain.Messages;
+import ua.com.pragmasoft.k1te.backend.router.domain.Outbox;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryChannels;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryMessages;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryOutbox;
+
+/**
+ * Replaces DynamoDB stores with the in-memory ones for single node deployments. Without a
+ * directory the state is lost on restart, otherwise it is journaled there.
+ */
+@IfBuildProperty(name = "router.store", stringValue = "memory")
+public class InMemoryStoreConfiguration {
+
+  @Produces
+  @ApplicationScoped
+  public Channels channels(
+      @ConfigProperty(name = "router.store.memory.directory") Optional<String> directory,
+      @ConfigProperty(name = "router.store.memory.snapshot-interval", defaultValue = "5m")
+          Duration snapshotInterval,
+      @ConfigProperty(name = "router.connections.ttl", defaultValue = "15m")
+          Duration connectionTtl,
+      Metrics metrics) {
+    Channels channels =
+        directory
+            .map(path -> new InMemoryChannels(Path.of(path), snapshotInterval, connectionTtl))
+            .orElseGet(() -> new InMemoryChannels(connectionTtl));
+    return new MeteredChannels(channels, metrics);
+  }
+
+  @Produces
+  @ApplicationScoped
+  public Messages messages(
+      @ConfigProperty(name = "router.store.memory.directory") Optional<String> directory,
+      @ConfigProperty(name = "router.store.memory.snapshot-interval", defaultValue = "5m")
+          Duration snapshotInterval,
+      @ConfigProperty(name = "router.store.memory.history-limit", defaultValue = "10")
+          int historyLimit,
+      Metrics metrics) {
+    Messages messages =
+        directory
+            .map(path -> new InMemoryMessages(historyLimit, Path.of(path), snapshotInterval))
+            .orElseGet(() -> new InMemoryMessages(historyLimit));
+    return new MeteredMessages(messages, metrics);
+  }
+
+  @Produces
+  @ApplicationScoped
+  public Outbox outbox(
+      @ConfigProperty(name = "router.store.memory.directory") Optional<String> directory,
+      @ConfigProperty(name = "router.store.memory.snapshot-interval", defaultValue = "5m")
+          Duration snapshotInterval,
+      @ConfigProperty(name = "router.store.memory.outbox-capacity", defaultValue = "100")
+          int outboxCapacity) {
+    return directory
+        .map(path -> new InMemoryOutbox(outboxCapacity, Path.of(path), snapshotInterval))
+        .orElseGet(() -> new InMemoryOutbox(outboxCapacity));
+  }
+
+  /** Writes the final snapshot on shutdown */
+  void closeChannels(@Disposes Channels channels) throws IOException {
+    if (channels instanceof Closeable closeable) {
+      closeable.close();
+    }
+  }
+
+  /** Writes the final snapshot on shutdown */
+  void closeMessages(@Disposes Messages messages) throws IOException {
+    if (messages instanceof Closeable closeable) {
+      closeable.close();
+    }
+  }
+
+  /** Writes the final snapshot on shutdown */
+  void closeOutbox(@Disposes Outbox outbox) throws IOException {
+    if (outbox instanceof Closeable closeable) {
+      closeable.close();
+    }
+  }
+}
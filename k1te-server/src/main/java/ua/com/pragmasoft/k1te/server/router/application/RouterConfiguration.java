@@ -4,13 +4,28 @@ package ua.com.pragmasoft.k1te.server.router.application;
 import io.quarkus.arc.DefaultBean;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.context.Dependent;
+import jakarta.enterprise.inject.Disposes;
 import jakarta.enterprise.inject.Instance;
 import jakarta.enterprise.inject.Produces;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredChannels;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredMessages;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredPostProcessor;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredRouter;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
 import ua.com.pragmasoft.k1te.backend.router.domain.*;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.CachingChannels;
 import ua.com.pragmasoft.k1te.backend.router.infrastructure.DynamoDbChannels;
 import ua.com.pragmasoft.k1te.backend.router.infrastructure.DynamoDbMessages;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.DynamoDbOutbox;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.InMemoryDispatchLog;
+import ua.com.pragmasoft.k1te.backend.shared.TokenBuckets;
 
 public class RouterConfiguration {
 
@@ -19,8 +34,21 @@ public class RouterConfiguration {
   @DefaultBean
   public Channels channels(
       DynamoDbEnhancedClient ddb,
-      @ConfigProperty(name = "serverless.environment") final String serverlessEnvironmentName) {
-    return new DynamoDbChannels(ddb, serverlessEnvironmentName);
+      @ConfigProperty(name = "serverless.environment") final String serverlessEnvironmentName,
+      @ConfigProperty(name = "router.channels.cache.enabled", defaultValue = "true")
+          boolean cacheEnabled,
+      @ConfigProperty(name = "router.channels.cache.max-size", defaultValue = "10000")
+          int cacheMaxSize,
+      @ConfigProperty(name = "router.channels.cache.ttl", defaultValue = "30s")
+          Duration cacheTtl,
+      @ConfigProperty(name = "router.connections.ttl", defaultValue = "15m")
+          Duration connectionTtl,
+      Metrics metrics) {
+    Channels channels = new DynamoDbChannels(ddb, serverlessEnvironmentName, connectionTtl);
+    if (cacheEnabled) {
+      channels = new CachingChannels(channels, cacheMaxSize, cacheTtl, metrics);
+    }
+    return new MeteredChannels(channels, metrics);
   }
 
   @Produces
@@ -28,25 +56,107 @@ public class RouterConfiguration {
   @DefaultBean
   public Messages messages(
       DynamoDbEnhancedClient ddb,
-      @ConfigProperty(name = "serverless.environment") final String serverlessEnvironmentName) {
-    return new DynamoDbMessages(ddb, serverlessEnvironmentName);
+      @ConfigProperty(name = "serverless.environment") final String serverlessEnvironmentName,
+      Metrics metrics) {
+    return new MeteredMessages(new DynamoDbMessages(ddb, serverlessEnvironmentName), metrics);
+  }
+
+  @Produces
+  @ApplicationScoped
+  @DefaultBean
+  public Outbox outbox(
+      DynamoDbEnhancedClient ddb,
+      @ConfigProperty(name = "serverless.environment") final String serverlessEnvironmentName,
+      @ConfigProperty(name = "router.outbox.ttl", defaultValue = "1d") Duration ttl) {
+    return new DynamoDbOutbox(ddb, serverlessEnvironmentName, ttl);
+  }
+
+  /** Detects messages redelivered to this instance only */
+  @Produces
+  @ApplicationScoped
+  @DefaultBean
+  public DispatchLog dispatchLog(
+      @ConfigProperty(name = "router.idempotency.max-size", defaultValue = "10000") int maxSize,
+      @ConfigProperty(name = "router.idempotency.ttl", defaultValue = "10m") Duration ttl,
+      @ConfigProperty(name = "router.idempotency.wait-timeout", defaultValue = "10s")
+          Duration waitTimeout) {
+    return new InMemoryDispatchLog(maxSize, ttl, waitTimeout);
+  }
+
+  /** Buckets are kept in memory, so each server node counts the limits on its own */
+  @Produces
+  @ApplicationScoped
+  public RateLimits rateLimits(
+      @ConfigProperty(name = "router.rate-limit.enabled", defaultValue = "true") boolean enabled,
+      @ConfigProperty(name = "router.rate-limit.member.capacity", defaultValue = "32")
+          int memberCapacity,
+      @ConfigProperty(name = "router.rate-limit.member.period", defaultValue = "30s")
+          Duration memberPeriod,
+      @ConfigProperty(name = "router.rate-limit.channel.capacity", defaultValue = "300")
+          int channelCapacity,
+      @ConfigProperty(name = "router.rate-limit.channel.period", defaultValue = "1m")
+          Duration channelPeriod,
+      @ConfigProperty(name = "router.rate-limit.max-buckets", defaultValue = "10000")
+          int maxBuckets) {
+    if (!enabled) {
+      return RateLimits.unlimited();
+    }
+    return new RateLimits(
+        new TokenBuckets("member", memberCapacity, memberPeriod, maxBuckets),
+        new TokenBuckets("channel", channelCapacity, channelPeriod, maxBuckets));
   }
 
   @Produces
   @Dependent
-  public PeerUpdatePostProcessor peerUpdatePostProcessor(Channels channels) {
-    return new PeerUpdatePostProcessor(channels);
+  public PeerUpdatePostProcessor peerUpdatePostProcessor() {
+    return new PeerUpdatePostProcessor();
   }
 
   @Produces
   @Dependent
-  public RouterPostProcessor historyPostProcessor(Channels channels, Messages messages) {
-    return new HistoryPostProcessor(channels, messages);
+  public RouterPostProcessor historyPostProcessor(Messages messages) {
+    return new HistoryPostProcessor(messages);
   }
 
   @Produces
   @ApplicationScoped
-  public Router router(Channels channels, Instance<RouterPostProcessor> postProcessors) {
-    return new KiteRouter(channels, postProcessors.stream().toList());
+  public Router router(
+      Channels channels,
+      Instance<RouterPostProcessor> postProcessors,
+      @ConfigProperty(name = "router.post-processing.async", defaultValue = "false")
+          boolean asyncPostProcessing,
+      @ConfigProperty(name = "router.post-processing.lanes", defaultValue = "8") int lanes,
+      @ConfigProperty(name = "router.post-processing.queue-capacity", defaultValue = "1024")
+          int queueCapacity,
+      @ConfigProperty(name = "quarkus.shutdown.timeout", defaultValue = "5")
+          Duration shutdownTimeout,
+      @ConfigProperty(name = "router.broadcast.concurrency", defaultValue = "8")
+          int broadcastConcurrency,
+      @ConfigProperty(name = "router.idempotency.enabled", defaultValue = "true")
+          boolean idempotent,
+      DispatchLog dispatchLog,
+      Metrics metrics) {
+    List<RouterPostProcessor> processors = new ArrayList<>();
+    postProcessors.forEach(
+        postProcessor -> processors.add(new MeteredPostProcessor(postProcessor, metrics)));
+    // commits member changes recorded by the other post processors, so must be the last one
+    processors.add(
+        new MeteredPostProcessor(new CommitChangesPostProcessor(channels), metrics));
+    List<RouterPostProcessor> routerPostProcessors =
+        asyncPostProcessing
+            ? List.of(new AsyncPostProcessor(processors, lanes, queueCapacity, shutdownTimeout))
+            : processors;
+    Router router = new KiteRouter(channels, routerPostProcessors, broadcastConcurrency);
+    if (idempotent) {
+      router = new IdempotentRouter(router, dispatchLog);
+    }
+    return new MeteredRouter(router, metrics);
+  }
+
+  /** Flushes pending post processing on shutdown */
+  void closeRouter(@Disposes Router router) throws IOException {
+    if (router instanceof Closeable closeable) {
+      closeable.close();
+    }
   }
 }
@@ -7,6 +7,7 @@ import io.quarkus.arc.profile.IfBuildProfile;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.transaction.Transactional;
 import java.time.Instant;
+import java.util.List;
 import java.util.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -125,6 +126,12 @@ public class PanacheChannels implements Channels {
     return member;
   }
 
+  @Override
+  public List<Member> findMembers(String channelName) {
+    Objects.requireNonNull(channelName, "channel name");
+    return List.copyOf(PanacheMember.findByChannelName(channelName));
+  }
+
   @Override
   public PanacheMember find(String memberConnection) {
     Objects.requireNonNull(memberConnection, "connection");
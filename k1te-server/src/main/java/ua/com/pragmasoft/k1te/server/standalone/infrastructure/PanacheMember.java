@@ -53,6 +53,10 @@ public class PanacheMember extends PanacheEntityBase implements Member {
     return find("id.memberId", memberId).firstResult();
   }
 
+  public static List<PanacheMember> findByChannelName(String channelName) {
+    return list("memberPK.channelName", channelName);
+  }
+
   public PanacheMember() {}
 
   public PanacheMember(
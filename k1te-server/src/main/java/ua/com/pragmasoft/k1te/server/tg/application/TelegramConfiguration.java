@@ -11,6 +11,7 @@ import okhttp3.OkHttpClient;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
 import ua.com.pragmasoft.k1te.backend.router.domain.Messages;
+import ua.com.pragmasoft.k1te.backend.router.domain.RateLimits;
 import ua.com.pragmasoft.k1te.backend.router.domain.Router;
 import ua.com.pragmasoft.k1te.backend.tg.TelegramConnector;
 
@@ -40,8 +41,9 @@ public class TelegramConfiguration {
       Router router,
       Channels channels,
       Messages messages,
+      RateLimits rateLimits,
       @ConfigProperty(name = "telegram.webhook.endpoint") final URI base,
       @ConfigProperty(name = "ws.api.execution.endpoint") final URI wsApi) {
-    return new TelegramConnector(botClient, router, channels, messages, base, wsApi);
+    return new TelegramConnector(botClient, router, channels, messages, base, wsApi, rateLimits);
   }
 }
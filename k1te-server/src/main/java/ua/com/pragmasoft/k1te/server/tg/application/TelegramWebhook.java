@@ -6,6 +6,7 @@ import com.pengrad.telegrambot.model.Update;
 import io.quarkus.logging.Log;
 import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.runtime.StartupEvent;
+import io.smallrye.common.annotation.Blocking;
 import io.smallrye.faulttolerance.api.RateLimit;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
@@ -16,7 +17,9 @@ import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletionStage;
 import ua.com.pragmasoft.k1te.backend.tg.TelegramConnector;
+import ua.com.pragmasoft.k1te.server.execution.application.EntryPointExecutor;
 
 @ApplicationScoped
 @Path(TelegramWebhook.WEBHOOK_PATH)
@@ -24,10 +27,12 @@ public class TelegramWebhook {
 
   public static final String WEBHOOK_PATH = "/api/telegram";
   private final TelegramConnector connector;
+  private final EntryPointExecutor entryPoints;
 
   @Inject
-  public TelegramWebhook(final TelegramConnector connector) {
+  public TelegramWebhook(final TelegramConnector connector, EntryPointExecutor entryPoints) {
     this.connector = connector;
+    this.entryPoints = entryPoints;
   }
 
   /**
@@ -52,11 +57,16 @@ public class TelegramWebhook {
   @Consumes(MediaType.APPLICATION_JSON)
   @Produces(MediaType.APPLICATION_JSON)
   @RateLimit(value = 600, window = 1, windowUnit = ChronoUnit.MINUTES)
-  public String webhook(String requestBody) {
+  @Blocking
+  public CompletionStage<String> webhook(String requestBody) {
     Log.debug(">> " + requestBody);
     Update update = BotUtils.parseUpdate(requestBody);
-    var responseBody = this.connector.onUpdate(update);
-    Log.debug("<< " + responseBody);
-    return responseBody;
+    // completes on this worker thread in worker mode, frees it at once in virtual mode
+    return this.entryPoints.submit(
+        () -> {
+          var responseBody = this.connector.onUpdate(update);
+          Log.debug("<< " + responseBody);
+          return responseBody;
+        });
   }
 }
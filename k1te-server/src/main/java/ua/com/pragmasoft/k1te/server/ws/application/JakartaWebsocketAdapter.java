@@ -4,37 +4,58 @@ package ua.com.pragmasoft.k1te.server.ws.application;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.websocket.CloseReason;
+import jakarta.websocket.DecodeException;
 import jakarta.websocket.EndpointConfig;
 import jakarta.websocket.OnClose;
 import jakarta.websocket.OnError;
 import jakarta.websocket.OnMessage;
 import jakarta.websocket.OnOpen;
+import jakarta.websocket.PongMessage;
 import jakarta.websocket.Session;
 import jakarta.websocket.server.ServerEndpoint;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
 import ua.com.pragmasoft.k1te.backend.ws.WsConnector;
+import ua.com.pragmasoft.k1te.server.execution.application.EntryPointExecutor;
 import ua.com.pragmasoft.k1te.server.ws.application.JakartaWebsocketConnectionRegistry.JakartaWebsocketConnection;
 
 @ServerEndpoint(
     value = JakartaWebsocketAdapter.CHANNELS_PATH,
     decoders = {PayloadDecoderAdapter.class},
     encoders = {PayloadEncoderAdapter.class},
-    subprotocols = {WsConnector.SUBPROTOCOL})
+    subprotocols = {WsConnector.SUBPROTOCOL, WsConnector.BINARY_SUBPROTOCOL})
 @ApplicationScoped
 public class JakartaWebsocketAdapter {
 
   public static final String CHANNELS_PATH = "/channels";
 
+  private static final Logger log = LoggerFactory.getLogger(JakartaWebsocketAdapter.class);
+
+  /**
+   * Binary frames are decoded explicitly rather than with the declared decoders, as containers
+   * choose the text decoder for the payload parameter when both are declared
+   */
+  private static final PayloadBinaryDecoderAdapter BINARY_DECODER =
+      new PayloadBinaryDecoderAdapter();
+
   private final JakartaWebsocketConnectionRegistry connectionRegistry;
 
   private final WsConnector wsConnector;
 
+  private final EntryPointExecutor entryPoints;
+
   @Inject
   public JakartaWebsocketAdapter(
-      WsConnector wsConnector, JakartaWebsocketConnectionRegistry connectionRegistry) {
+      WsConnector wsConnector,
+      JakartaWebsocketConnectionRegistry connectionRegistry,
+      EntryPointExecutor entryPoints) {
     this.wsConnector = wsConnector;
     this.connectionRegistry = connectionRegistry;
+    this.entryPoints = entryPoints;
   }
 
   @OnOpen
@@ -74,9 +95,54 @@ public class JakartaWebsocketAdapter {
   @OnMessage
   public void onPayload(Payload payload, Session session) throws IOException {
     var connection = this.connectionRegistry.createConnection(session);
+    connection.touch();
+    if (this.entryPoints.isVirtual()) {
+      connection.executeInOrder(
+          () -> this.onPayloadLimited(payload, connection, session), this.entryPoints);
+    } else {
+      this.respond(payload, connection);
+    }
+  }
+
+  /** Errors are reported like the container does, as the worker thread has already returned */
+  private void onPayloadLimited(
+      Payload payload, JakartaWebsocketConnection connection, Session session) {
+    try {
+      this.entryPoints.limited(
+          () -> {
+            this.respond(payload, connection);
+            return null;
+          });
+    } catch (Exception e) {
+      try {
+        this.onError(session, e);
+      } catch (Exception sendError) {
+        log.warn("Failed to report error to {}: {}", session.getId(), sendError.getMessage());
+      }
+    }
+  }
+
+  private void respond(Payload payload, JakartaWebsocketConnection connection) {
     var response = this.wsConnector.onPayload(payload, connection);
     if (null != response) {
-      connection.sendObject(response);
+      try {
+        connection.sendObject(response);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
     }
   }
+
+  @OnMessage
+  public void onPong(PongMessage pong, Session session) {
+    var connection = this.connectionRegistry.createConnection(session);
+    connection.touch();
+    this.wsConnector.onPong(connection);
+  }
+
+  @OnMessage
+  public void onBinaryPayload(ByteBuffer frame, Session session)
+      throws IOException, DecodeException {
+    this.onPayload(BINARY_DECODER.decode(frame), session);
+  }
 }
@@ -1,36 +1,163 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.server.ws.application;
 
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
 import jakarta.websocket.CloseReason;
 import jakarta.websocket.CloseReason.CloseCodes;
 import jakarta.websocket.EncodeException;
+import jakarta.websocket.SendHandler;
 import jakarta.websocket.Session;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.MessagePayload;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+import ua.com.pragmasoft.k1te.backend.shared.TimingWheel;
+import ua.com.pragmasoft.k1te.backend.ws.ConnectionDirectory;
+import ua.com.pragmasoft.k1te.backend.ws.MemoizedEncoder;
+import ua.com.pragmasoft.k1te.backend.ws.MsgPackPayloadEncoder;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector;
 import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnection;
 import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnectionRegistry;
+import ua.com.pragmasoft.k1te.backend.ws.infrastructure.NodePrefixConnectionDirectory;
 
+/**
+ * Frames are sent with the async remote through the bounded outbound queue of the connection, one
+ * frame in flight at a time, so a slow client never blocks the thread which routes the message. The
+ * queue which is full is handled with the {@link SlowConsumerPolicy}.
+ *
+ * <p>Connections are pinged every heartbeat interval, the one which has not sent any frame or pong
+ * since the previous ping is closed, so the member goes offline for routing. Heartbeats of all the
+ * connections are timeouts of the single {@link TimingWheel}.
+ *
+ * <p>The registry holds the connections of this node only. In the cluster their ids are scoped to
+ * the node and their owner is recorded in the {@link ConnectionDirectory}, connections of other
+ * nodes are reached through the registry produced by the cluster configuration.
+ */
 @ApplicationScoped
+@Typed(JakartaWebsocketConnectionRegistry.class)
 public class JakartaWebsocketConnectionRegistry implements WsConnectionRegistry {
 
+  private static final Logger log =
+      LoggerFactory.getLogger(JakartaWebsocketConnectionRegistry.class);
+
+  static final String QUEUE_DEPTH = "ws.outbound.queue.depth";
+  static final String OVERFLOW = "ws.outbound.overflow";
+  static final String DEAD_PEERS = "ws.heartbeat.dead";
+
+  private static final ByteBuffer PING = ByteBuffer.allocate(0);
+  /** Heartbeats are late by a tick at most */
+  private static final Duration HEARTBEAT_TICK = Duration.ofMillis(500);
+  private static final int HEARTBEAT_WHEEL_SIZE = 512;
+
+  private static final PayloadBinaryEncoderAdapter BINARY_ENCODER =
+      new PayloadBinaryEncoderAdapter();
+  /** Broadcasted messages are encoded once for all the connections */
+  private static final MemoizedEncoder<String> FRAMES =
+      new MemoizedEncoder<>(PayloadEncoderAdapter.ENCODER);
+
+  private static final MemoizedEncoder<byte[]> BINARY_FRAMES =
+      new MemoizedEncoder<>(new MsgPackPayloadEncoder());
+
   private final Map<String, JakartaWebsocketConnection> connections = new ConcurrentHashMap<>();
 
+  private final int queueCapacity;
+  private final SlowConsumerPolicy slowConsumerPolicy;
+  private final Metrics metrics;
+  /** Null when heartbeats are disabled */
+  private final TimingWheel heartbeats;
+
+  private final Duration heartbeatInterval;
+
+  /** Null when not clustered */
+  private final String nodeId;
+
+  private final ConnectionDirectory directory;
+
+  @Inject
+  public JakartaWebsocketConnectionRegistry(
+      @ConfigProperty(name = "ws.outbound.queue-capacity", defaultValue = "64") int queueCapacity,
+      @ConfigProperty(name = "ws.outbound.slow-consumer", defaultValue = "close")
+          String slowConsumerPolicy,
+      @ConfigProperty(name = "ws.heartbeat.enabled", defaultValue = "true")
+          boolean heartbeatEnabled,
+      @ConfigProperty(name = "ws.heartbeat.interval", defaultValue = "15s")
+          Duration heartbeatInterval,
+      @ConfigProperty(name = "cluster.enabled", defaultValue = "false") boolean clustered,
+      @ConfigProperty(name = "cluster.node-id", defaultValue = "local") String nodeId,
+      ConnectionDirectory directory,
+      Metrics metrics) {
+    if (queueCapacity < 1) throw new IllegalArgumentException("Queue capacity must be positive");
+    this.queueCapacity = queueCapacity;
+    this.slowConsumerPolicy = SlowConsumerPolicy.valueOf(slowConsumerPolicy.toUpperCase());
+    this.metrics = metrics;
+    this.heartbeatInterval = heartbeatInterval;
+    this.heartbeats =
+        heartbeatEnabled
+            ? new TimingWheel("k1te-heartbeats", HEARTBEAT_TICK, HEARTBEAT_WHEEL_SIZE)
+            : null;
+    this.nodeId = clustered ? nodeId : null;
+    this.directory = directory;
+  }
+
+  @PreDestroy
+  void close() {
+    if (null != this.heartbeats) {
+      this.heartbeats.close();
+    }
+  }
+
   void unregisterConnection(JakartaWebsocketConnection connection) {
     var done = this.connections.remove(connection.connectionUri());
     assert null != done : "Already unregistered connection";
+    connection.discardQueue();
+    connection.stopHeartbeat();
+    if (null != this.nodeId) {
+      this.directory.unregister(connection.connectionUri(), this.nodeId);
+    }
   }
 
+  /** Returns the registered connection of the session, so its frames share the same queue */
   JakartaWebsocketConnection createConnection(Session session) {
-    return new JakartaWebsocketConnection(session);
+    var registered = this.connections.get(this.connectionUriOf(session));
+    return null != registered ? registered : new JakartaWebsocketConnection(session);
   }
 
   void registerConnection(JakartaWebsocketConnection connection) {
 
     var existing = this.connections.putIfAbsent(connection.connectionUri(), connection);
     assert null == existing : "Already registered connection";
+    if (null != this.nodeId) {
+      this.directory.register(connection.connectionUri(), this.nodeId);
+    }
+    connection.scheduleHeartbeat();
+  }
+
+  /** Session ids are unique within the node only */
+  private String connectionUriOf(Session session) {
+    return null != this.nodeId
+        ? NodePrefixConnectionDirectory.scoped(this.nodeId, session.getId())
+        : session.getId();
   }
 
   @Override
@@ -41,12 +168,28 @@ public class JakartaWebsocketConnectionRegistry implements WsConnectionRegistry
   class JakartaWebsocketConnection implements WsConnection {
 
     private final Session session;
+    private final String connectionUri;
+    private final boolean binary;
+    /** Guards the queue and the flags */
+    private final ArrayDeque<OutboundFrame> queue = new ArrayDeque<>();
+
+    private boolean sending;
+    private boolean closed;
+    /** Completes once the last inbound frame is processed */
+    private CompletableFuture<Void> inbound = CompletableFuture.completedFuture(null);
+
+    /** Whether the peer has sent anything since the last ping */
+    private volatile boolean alive = true;
+
+    private volatile TimingWheel.Timeout heartbeat;
 
     /**
      * @param session
      */
     JakartaWebsocketConnection(Session session) {
       this.session = session;
+      this.connectionUri = JakartaWebsocketConnectionRegistry.this.connectionUriOf(session);
+      this.binary = WsConnector.BINARY_SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
     }
 
     @Override
@@ -57,16 +200,261 @@ public class JakartaWebsocketConnectionRegistry implements WsConnectionRegistry
 
     @Override
     public String connectionUri() {
-      return this.session.getId();
+      return this.connectionUri;
     }
 
+    /** Queues the frame, write errors are logged */
     @Override
     public void sendObject(Payload payload) throws IOException {
+      this.sendAsync(payload)
+          .exceptionally(
+              e -> {
+                log.warn("Frame {} was not sent: {}", payload.type(), e.getMessage());
+                return null;
+              });
+    }
+
+    @Override
+    public CompletionStage<Instant> sendAsync(Payload payload) {
+      return this.enqueue(new OutboundFrame(payload, false));
+    }
+
+    @Override
+    public CompletionStage<Instant> broadcastAsync(Payload payload) {
+      return this.enqueue(new OutboundFrame(payload, true));
+    }
+
+    private CompletionStage<Instant> enqueue(OutboundFrame frame) {
+      final var dropped = new ArrayList<OutboundFrame>(1);
+      boolean overflow = false;
+      boolean accepted = true;
+      boolean start = false;
+      int depth;
+      synchronized (this.queue) {
+        if (this.closed) {
+          frame.fail(new IOException("Connection closed"));
+          return frame.written;
+        }
+        if (this.queue.size() >= queueCapacity) {
+          overflow = true;
+          switch (slowConsumerPolicy) {
+            case DROP -> accepted = false;
+            case COALESCE -> accepted = this.coalesce(frame);
+            case CLOSE -> {
+              this.closed = true;
+              accepted = false;
+              dropped.addAll(this.queue);
+              this.queue.clear();
+            }
+          }
+          if (!accepted) {
+            dropped.add(frame);
+          }
+        }
+        if (accepted) {
+          this.queue.add(frame);
+        }
+        if (!this.sending && !this.closed) {
+          this.sending = true;
+          start = true;
+        }
+        depth = this.queue.size();
+      }
+      metrics.recordValue(QUEUE_DEPTH, depth);
+      if (overflow) {
+        this.onOverflow(dropped);
+      }
+      if (start) {
+        this.sendNext();
+      }
+      return frame.written;
+    }
+
+    /**
+     * Processes inbound frames one by one, in the order they arrived, on the executor. The frame
+     * which failed or was rejected by the executor is logged and skipped, the next ones still run.
+     */
+    void executeInOrder(Runnable task, Executor executor) {
+      synchronized (this.queue) {
+        this.inbound =
+            this.inbound
+                .thenRunAsync(task, executor)
+                .handle(
+                    (ok, e) -> {
+                      if (null != e) {
+                        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                        if (cause instanceof RejectedExecutionException) {
+                          log.warn("Frame from {} was rejected", this.connectionUri());
+                        } else {
+                          log.warn("Frame from {} failed", this.connectionUri(), cause);
+                        }
+                      }
+                      return null;
+                    });
+      }
+    }
+
+    /** Any frame from the peer, the pong included, proves the connection is alive */
+    void touch() {
+      this.alive = true;
+    }
+
+    void scheduleHeartbeat() {
+      if (null != heartbeats) {
+        this.heartbeat = heartbeats.schedule(this::onHeartbeat, heartbeatInterval);
+      }
+    }
+
+    void stopHeartbeat() {
+      var timeout = this.heartbeat;
+      if (null != timeout) {
+        timeout.cancel();
+      }
+    }
+
+    /** Closes the peer silent since the last ping, pings the other one, on the wheel thread */
+    private void onHeartbeat() {
+      if (!this.session.isOpen()) {
+        return;
+      }
+      if (!this.alive) {
+        log.debug("No heartbeat from {}, closing", this.connectionUri());
+        metrics.recordValue(DEAD_PEERS, 1);
+        try {
+          this.session.close(new CloseReason(CloseCodes.GOING_AWAY, "Heartbeat timeout"));
+        } catch (IOException e) {
+          log.warn("Failed to close {}: {}", this.connectionUri(), e.getMessage());
+        }
+        return;
+      }
+      // cleared before the ping, so the pong which comes back at once is not lost
+      this.alive = false;
       try {
-        this.session.getBasicRemote().sendObject(payload);
-      } catch (EncodeException e) {
-        throw new IOException(e.getMessage(), e);
+        this.session.getAsyncRemote().sendPing(PING.duplicate());
+      } catch (IOException | RuntimeException e) {
+        // the peer is not to blame for the ping which was not sent
+        this.alive = true;
+        log.debug("Failed to ping {}: {}", this.connectionUri(), e.getMessage());
+      }
+      this.scheduleHeartbeat();
+    }
+
+    /** Fails the queued frames of the closed connection */
+    void discardQueue() {
+      List<OutboundFrame> discarded;
+      synchronized (this.queue) {
+        this.closed = true;
+        discarded = List.copyOf(this.queue);
+        this.queue.clear();
+      }
+      discarded.forEach(frame -> frame.fail(new IOException("Connection closed")));
+    }
+
+    /**
+     * Removes the queued frame superseded by the new one. Other frames, like acks, errors and
+     * history pages, answer their own requests, so none of them is ever replaced
+     *
+     * @return false if no queued frame is superseded, then the new frame is dropped
+     */
+    private boolean coalesce(OutboundFrame frame) {
+      for (Iterator<OutboundFrame> i = this.queue.iterator(); i.hasNext(); ) {
+        var queued = i.next();
+        if (queued.supersededBy(frame)) {
+          i.remove();
+          // the superseded frame is delivered as the new one
+          frame.written.whenComplete(
+              (delivered, e) -> {
+                if (null != e) queued.fail(e);
+                else queued.written.complete(delivered);
+              });
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void onOverflow(List<OutboundFrame> dropped) {
+      log.warn("Slow consumer on {}, {}", this.connectionUri(), slowConsumerPolicy);
+      metrics.recordValue(OVERFLOW, 1, "policy", slowConsumerPolicy.name().toLowerCase());
+      var slowConsumer = new RoutingException("Slow consumer");
+      for (OutboundFrame frame : dropped) {
+        frame.fail(slowConsumer);
       }
+      if (slowConsumerPolicy == SlowConsumerPolicy.CLOSE) {
+        try {
+          this.session.close(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Slow consumer"));
+        } catch (IOException e) {
+          log.warn("Failed to close slow consumer {}: {}", this.connectionUri(), e.getMessage());
+        }
+      }
+    }
+
+    /** Writes queued frames one by one, the next one is written from the send completion */
+    private void sendNext() {
+      OutboundFrame frame;
+      synchronized (this.queue) {
+        frame = this.closed ? null : this.queue.poll();
+        this.sending = null != frame;
+      }
+      if (null == frame) {
+        return;
+      }
+      SendHandler completion =
+          result -> {
+            if (result.isOK()) {
+              frame.written.complete(Instant.now());
+            } else {
+              frame.fail(result.getException());
+            }
+            this.sendNext();
+          };
+      try {
+        if (this.binary) {
+          // every send gets its own buffer position over the shared frame
+          ByteBuffer data =
+              frame.shared
+                  ? ByteBuffer.wrap(BINARY_FRAMES.apply(frame.payload))
+                  : BINARY_ENCODER.encode(frame.payload);
+          this.session.getAsyncRemote().sendBinary(data, completion);
+        } else if (frame.shared) {
+          this.session.getAsyncRemote().sendText(FRAMES.apply(frame.payload), completion);
+        } else {
+          this.session.getAsyncRemote().sendObject(frame.payload, completion);
+        }
+      } catch (EncodeException | RuntimeException e) {
+        frame.fail(e);
+        this.sendNext();
+      }
+    }
+  }
+
+  private static final class OutboundFrame {
+
+    final Payload payload;
+    /** Sent to many connections, encoded once for all of them */
+    final boolean shared;
+
+    final CompletableFuture<Instant> written = new CompletableFuture<>();
+
+    OutboundFrame(Payload payload, boolean shared) {
+      this.payload = payload;
+      this.shared = shared;
+    }
+
+    /**
+     * Same message, like the edited one. Responses and other frames are never superseded, as each
+     * of them answers its own request
+     */
+    boolean supersededBy(OutboundFrame other) {
+      return this.payload.type() == other.payload.type()
+          && this.payload instanceof MessagePayload message
+          && other.payload instanceof MessagePayload otherMessage
+          && null != message.messageId()
+          && message.messageId().equals(otherMessage.messageId());
+    }
+
+    void fail(Throwable e) {
+      this.written.completeExceptionally(e);
     }
   }
 }
@@ -0,0 +1,39 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.ws.application;
+
+import jakarta.websocket.DecodeException;
+import jakarta.websocket.Decoder;
+import jakarta.websocket.EndpointConfig;
+import java.nio.ByteBuffer;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.ws.MsgPackPayloadDecoder;
+
+/** Decodes binary frames of the {@code k1te.chat.v2} subprotocol */
+public class PayloadBinaryDecoderAdapter implements Decoder.Binary<Payload> {
+
+  static final MsgPackPayloadDecoder DECODER = new MsgPackPayloadDecoder();
+
+  @Override
+  public void init(EndpointConfig config) {
+    // empty init
+  }
+
+  @Override
+  public void destroy() {
+    // empty destroy
+  }
+
+  @Override
+  public Payload decode(ByteBuffer frame) throws DecodeException {
+    try {
+      return DECODER.decode(frame);
+    } catch (Exception e) {
+      throw new DecodeException(frame, e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public boolean willDecode(ByteBuffer frame) {
+    return true;
+  }
+}
@@ -0,0 +1,34 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.ws.application;
+
+import jakarta.websocket.EncodeException;
+import jakarta.websocket.Encoder;
+import jakarta.websocket.EndpointConfig;
+import java.nio.ByteBuffer;
+import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.ws.MsgPackPayloadEncoder;
+
+/** Encodes binary frames of the {@code k1te.chat.v2} subprotocol */
+public class PayloadBinaryEncoderAdapter implements Encoder.Binary<Payload> {
+
+  static final MsgPackPayloadEncoder ENCODER = new MsgPackPayloadEncoder();
+
+  @Override
+  public void init(EndpointConfig config) {
+    // Empty init
+  }
+
+  @Override
+  public void destroy() {
+    // Empty destroy
+  }
+
+  @Override
+  public ByteBuffer encode(Payload payload) throws EncodeException {
+    try {
+      return ByteBuffer.wrap(ENCODER.apply(payload));
+    } catch (Exception e) {
+      throw new EncodeException(payload, e.getMessage(), e);
+    }
+  }
+}
@@ -4,10 +4,16 @@ package ua.com.pragmasoft.k1te.server.ws.application;
 import jakarta.websocket.EncodeException;
 import jakarta.websocket.Encoder;
 import jakarta.websocket.EndpointConfig;
+import java.io.Writer;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
 import ua.com.pragmasoft.k1te.backend.ws.PayloadEncoder;
 
-public class PayloadEncoderAdapter implements Encoder.Text<Payload> {
+/**
+ * Streams the frame to the websocket writer, without creating the intermediate string. Broadcasted
+ * messages are sent as the memoized text frame instead, see {@link
+ * JakartaWebsocketConnectionRegistry}.
+ */
+public class PayloadEncoderAdapter implements Encoder.TextStream<Payload> {
 
   static final PayloadEncoder ENCODER = new PayloadEncoder();
 
@@ -22,9 +28,9 @@ public class PayloadEncoderAdapter implements Encoder.Text<Payload> {
   }
 
   @Override
-  public String encode(Payload payload) throws EncodeException {
+  public void encode(Payload payload, Writer writer) throws EncodeException {
     try {
-      return ENCODER.apply(payload);
+      ENCODER.encode(payload, writer);
     } catch (Exception e) {
       throw new EncodeException(payload, e.getMessage(), e);
     }
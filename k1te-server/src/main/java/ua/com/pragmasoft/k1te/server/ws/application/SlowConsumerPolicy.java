@@ -0,0 +1,16 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.server.ws.application;
+
+/** What the connection does with the frame sent when its outbound queue is full */
+public enum SlowConsumerPolicy {
+
+  /** The new frame is dropped, the queued frames are kept */
+  DROP,
+  /**
+   * The new frame replaces the queued frame of the same message, like the edited one. Without such
+   * frame the new frame is dropped, as with {@link #DROP}
+   */
+  COALESCE,
+  /** The connection is closed, so the client reconnects and reloads the history */
+  CLOSE
+}
@@ -9,7 +9,12 @@ import java.nio.file.FileSystems;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredObjectStore;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
 import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
+import ua.com.pragmasoft.k1te.backend.router.domain.Messages;
+import ua.com.pragmasoft.k1te.backend.router.domain.Outbox;
+import ua.com.pragmasoft.k1te.backend.router.domain.RateLimits;
 import ua.com.pragmasoft.k1te.backend.router.domain.Router;
 import ua.com.pragmasoft.k1te.backend.ws.ObjectStore;
 import ua.com.pragmasoft.k1te.backend.ws.WsConnector;
@@ -40,7 +45,19 @@ public class WsConfiguration {
       Router router,
       Channels channels,
       WsConnector.WsConnectionRegistry connections,
-      ObjectStore objectStore) {
-    return new WsConnector(router, channels, connections, objectStore);
+      ObjectStore objectStore,
+      RateLimits rateLimits,
+      Outbox outbox,
+      @ConfigProperty(name = "router.outbox.enabled", defaultValue = "true") boolean outboxEnabled,
+      Messages messages,
+      Metrics metrics) {
+    return new WsConnector(
+        router,
+        channels,
+        connections,
+        new MeteredObjectStore(objectStore, metrics),
+        rateLimits,
+        outboxEnabled ? outbox : null,
+        messages);
   }
 }
@@ -72,6 +72,11 @@ export class DynamoDbSchema extends Construct {
       pointInTimeRecovery: {
         enabled: pointInTimeRecovery!,
       },
+      // websocket connections not refreshed by heartbeats
+      ttl: {
+        enabled: true,
+        attributeName: "ttl",
+      },
       hashKey: "connector",
       rangeKey: "rawId",
       attribute: [
@@ -102,7 +107,38 @@ export class DynamoDbSchema extends Construct {
       ],
     });
 
-    this.tables = [channels, members, connections, messages];
+    const dispatches = new DynamodbTable(this, "Dispatches", {
+      name: `${id}.Dispatches`,
+      dependsOn,
+      billingMode,
+      ttl: {
+        enabled: true,
+        attributeName: "ttl",
+      },
+      hashKey: "key",
+      attribute: [{ name: "key", type: STRING }],
+    });
+
+    const outbox = new DynamodbTable(this, "Outbox", {
+      name: `${id}.Outbox`,
+      dependsOn: [members],
+      lifecycle: {
+        preventDestroy,
+      },
+      billingMode,
+      ttl: {
+        enabled: true,
+        attributeName: "ttl",
+      },
+      hashKey: "id",
+      rangeKey: "seq",
+      attribute: [
+        { name: "id", type: STRING },
+        { name: "seq", type: STRING },
+      ],
+    });
+
+    this.tables = [channels, members, connections, messages, dispatches, outbox];
   }
   public allowAll(to: Grantable) {
     const policyStatement = new Dynamodb()
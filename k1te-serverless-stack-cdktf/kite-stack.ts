@@ -1,3 +1,5 @@
+import { CloudwatchEventRule } from "@cdktf/provider-aws/lib/cloudwatch-event-rule";
+import { CloudwatchEventTarget } from "@cdktf/provider-aws/lib/cloudwatch-event-target";
 import { LambdaInvocation } from "@cdktf/provider-aws/lib/lambda-invocation";
 import { AwsProvider } from "@cdktf/provider-aws/lib/provider";
 import {
@@ -163,6 +165,22 @@ export class KiteStack extends TerraformStack {
     wsApiStage.addDefaultRoutes(mainHandler, apiGatewayPrincipal);
     restApiStage.addHandler(telegramRoute, "POST", mainHandler);
 
+    // purges members of the websocket connections which died without the disconnect
+    const sweepSchedule = new CloudwatchEventRule(this, "connection-sweep", {
+      name: "k1te-connection-sweep",
+      scheduleExpression: "rate(15 minutes)",
+    });
+
+    new CloudwatchEventTarget(this, "connection-sweep-target", {
+      rule: sweepSchedule.name,
+      arn: mainHandler.arn,
+    });
+
+    mainHandler.allowInvocationForService({
+      principal: "events.amazonaws.com",
+      sourceArn: sweepSchedule.arn,
+    });
+
     const lifecycleHandler = new Lambda(this, "lifecycle-handler", {
       role,
       asset: archiveResource,
@@ -16,10 +16,6 @@ import { Lambda } from "./lambda";
 import { TlsCertificate } from "./tls-certificate";
 import { ApiGatewayPrincipal } from "./apigateway-principal";
 
-const PING_REQUEST_TEMPLATE = JSON.stringify({ statusCode: 200 });
-
-const PONG_RESPONSE_TEMPLATE = JSON.stringify(["PONG"]);
-
 export type WebsocketApiStageProps = {
   stage: string;
   logRetentionDays?: number;
@@ -153,43 +149,8 @@ export class WebsocketApiStage extends Construct {
       routeResponseKey: "$default",
     });
 
-    // PING
-
-    const pingIntegration = new Apigatewayv2Integration(
-      this,
-      "ping-integration",
-      {
-        apiId: scope.api.id,
-        integrationType: "MOCK",
-        templateSelectionExpression: "200",
-        requestTemplates: {
-          "200": PING_REQUEST_TEMPLATE,
-        },
-      }
-    );
-
-    new Apigatewayv2IntegrationResponse(this, "ping-integration-response", {
-      apiId: scope.api.id,
-      integrationId: pingIntegration.id,
-      integrationResponseKey: "/200/",
-      templateSelectionExpression: "200",
-      responseTemplates: {
-        "200": PONG_RESPONSE_TEMPLATE,
-      },
-    });
-
-    const pingRoute = new Apigatewayv2Route(this, "ping-route", {
-      apiId: scope.api.id,
-      routeKey: "PING",
-      routeResponseSelectionExpression: "$default",
-      target: "integrations/" + pingIntegration.id,
-    });
-
-    new Apigatewayv2RouteResponse(this, "ping-route-response", {
-      apiId: scope.api.id,
-      routeId: pingRoute.id,
-      routeResponseKey: "$default",
-    });
+    // PING frames go to the handler like any other frame, rather than to a mock integration, as
+    // they keep the connection from expiring while the member is idle
 
     handler.allowToInvoke(principal.role);
 
@@ -0,0 +1,36 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.serverless.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Named;
+import java.util.Map;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.DynamoDbChannels;
+import ua.com.pragmasoft.k1te.serverless.handler.event.ScheduledLambdaEvent;
+
+/** Removes websocket connections which died without the disconnect, on the schedule */
+@ApplicationScoped
+@Named("sweeper")
+public class ConnectionSweeper
+    implements RequestHandler<ScheduledLambdaEvent, Map<String, Integer>> {
+
+  private final DynamoDbChannels channels;
+  private final int pageSize;
+
+  public ConnectionSweeper(
+      DynamoDbChannels channels,
+      @ConfigProperty(name = "router.connections.sweep.page-size", defaultValue = "100")
+          int pageSize) {
+    this.channels = channels;
+    this.pageSize = pageSize;
+  }
+
+  @Override
+  public Map<String, Integer> handleRequest(ScheduledLambdaEvent input, Context context) {
+    Log.debug(input.toString());
+    return Map.of("purged", this.channels.sweepConnections(this.pageSize));
+  }
+}
@@ -11,8 +11,13 @@ import jakarta.inject.Named;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.time.Duration;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import ua.com.pragmasoft.k1te.backend.shared.KiteException;
 import ua.com.pragmasoft.k1te.serverless.handler.event.LambdaEvent;
+import ua.com.pragmasoft.k1te.serverless.handler.event.ScheduledLambdaEvent;
+import ua.com.pragmasoft.k1te.serverless.metrics.infrastructure.EmfMetrics;
+import ua.com.pragmasoft.k1te.serverless.ws.application.AwsApiGwConnectionRegistry;
 
 @Named(value = "main")
 public class RequestDispatcher implements RequestStreamHandler {
@@ -20,12 +25,27 @@ public class RequestDispatcher implements RequestStreamHandler {
   private final ObjectMapper objectMapper;
   private final TgWebhook tg;
   private final WsHandler ws;
+  private final ConnectionSweeper sweeper;
+  private final EmfMetrics metrics;
+  private final AwsApiGwConnectionRegistry connections;
+  private final Duration sendTimeout;
 
   @Inject
-  public RequestDispatcher(ObjectMapper objectMapper, TgWebhook tg, WsHandler ws) {
+  public RequestDispatcher(
+      ObjectMapper objectMapper,
+      TgWebhook tg,
+      WsHandler ws,
+      ConnectionSweeper sweeper,
+      EmfMetrics metrics,
+      AwsApiGwConnectionRegistry connections,
+      @ConfigProperty(name = "ws.api.send-timeout", defaultValue = "10s") Duration sendTimeout) {
     this.objectMapper = objectMapper;
     this.tg = tg;
     this.ws = ws;
+    this.sweeper = sweeper;
+    this.metrics = metrics;
+    this.connections = connections;
+    this.sendTimeout = sendTimeout;
   }
 
   @Override
@@ -38,12 +58,20 @@ public class RequestDispatcher implements RequestStreamHandler {
       throw new KiteException("Event deserialization error", exception);
     }
     final Object response;
-    if (lambdaEvent instanceof APIGatewayV2HTTPEvent httpEvent) {
-      response = this.tg.handleRequest(httpEvent, context);
-    } else if (lambdaEvent instanceof APIGatewayV2WebSocketEvent wsEvent) {
-      response = this.ws.handleRequest(wsEvent, context);
-    } else {
-      throw new KiteException("Unsupported event: " + lambdaEvent);
+    try {
+      if (lambdaEvent instanceof APIGatewayV2HTTPEvent httpEvent) {
+        response = this.tg.handleRequest(httpEvent, context);
+      } else if (lambdaEvent instanceof APIGatewayV2WebSocketEvent wsEvent) {
+        response = this.ws.handleRequest(wsEvent, context);
+      } else if (lambdaEvent instanceof ScheduledLambdaEvent scheduledEvent) {
+        response = this.sweeper.handleRequest(scheduledEvent, context);
+      } else {
+        throw new KiteException("Unsupported event: " + lambdaEvent);
+      }
+    } finally {
+      // the environment is frozen once the invocation returns
+      this.connections.awaitPending(this.sendTimeout);
+      this.metrics.flush();
     }
     objectMapper.writeValue(output, response);
   }
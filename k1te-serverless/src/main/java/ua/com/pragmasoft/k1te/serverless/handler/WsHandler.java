@@ -7,8 +7,14 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayV2WebSocketEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2WebSocketResponse;
 import io.quarkus.logging.Log;
 import jakarta.inject.Named;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Map;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.shared.NotFoundException;
+import ua.com.pragmasoft.k1te.backend.shared.ValidationException;
+import ua.com.pragmasoft.k1te.backend.ws.MsgPackPayloadDecoder;
+import ua.com.pragmasoft.k1te.backend.ws.MsgPackPayloadEncoder;
 import ua.com.pragmasoft.k1te.backend.ws.PayloadDecoder;
 import ua.com.pragmasoft.k1te.backend.ws.PayloadEncoder;
 import ua.com.pragmasoft.k1te.backend.ws.WsConnector;
@@ -20,6 +26,9 @@ public class WsHandler
 
   private static final PayloadDecoder DECODER = new PayloadDecoder();
   private static final PayloadEncoder ENCODER = new PayloadEncoder();
+  private static final MsgPackPayloadDecoder BINARY_DECODER = new MsgPackPayloadDecoder();
+  private static final MsgPackPayloadEncoder BINARY_ENCODER = new MsgPackPayloadEncoder();
+  private static final String SUBPROTOCOL_HEADER = "Sec-WebSocket-Protocol";
 
   private final WsConnector wsConnector;
   private final AwsApiGwConnectionRegistry connectionRegistry;
@@ -39,27 +48,74 @@ public class WsHandler
     Log.debug(input.toString());
     final var eventType = input.getRequestContext().getEventType();
     final var connectionId = input.getRequestContext().getConnectionId();
-    final var body = input.getBody();
-    final var connection = this.connectionRegistry.getConnection(connectionId);
+    final var subprotocol = subprotocolOf(input);
+    final var binary = WsConnector.BINARY_SUBPROTOCOL.equals(subprotocol);
+    final var connection = this.connectionRegistry.getConnection(connectionId, subprotocol);
     Payload responsePayload;
     try {
       responsePayload =
           switch (eventType) {
             case "CONNECT" -> this.wsConnector.onOpen(connection);
-            case "DISCONNECT" -> this.wsConnector.onClose(connection);
-            case "MESSAGE" -> this.wsConnector.onPayload(DECODER.apply(body), connection);
+            case "DISCONNECT" -> this.onClose(connectionId);
+            case "MESSAGE" -> this.wsConnector.onPayload(decode(input, binary), connection);
             default -> throw new IllegalStateException("Unsupported event type: " + eventType);
           };
     } catch (Exception e) {
       responsePayload = this.wsConnector.onError(connection, e);
     }
     final var response = new APIGatewayV2WebSocketResponse();
-    response.setHeaders(Map.of("Sec-WebSocket-Protocol", WsConnector.SUBPROTOCOL));
-    if (null != responsePayload) {
+    response.setHeaders(Map.of(SUBPROTOCOL_HEADER, subprotocol));
+    if (null != responsePayload && binary) {
+      response.setBody(Base64.getEncoder().encodeToString(BINARY_ENCODER.apply(responsePayload)));
+      response.setIsBase64Encoded(true);
+    } else if (null != responsePayload) {
       response.setBody(ENCODER.apply(responsePayload));
     }
     response.setStatusCode(200);
     Log.debugf("ws %s (%s) -> %s", input, context, response);
     return response;
   }
+
+  /**
+   * The subprotocol is negotiated on connect, binary frames of the {@code k1te.chat.v2}
+   * subprotocol are passed base64 encoded
+   */
+  private static String subprotocolOf(APIGatewayV2WebSocketEvent input) {
+    if ("CONNECT".equals(input.getRequestContext().getEventType())) {
+      final var headers = input.getHeaders();
+      final var offered =
+          null != headers
+              && headers.entrySet().stream()
+                  .filter(header -> SUBPROTOCOL_HEADER.equalsIgnoreCase(header.getKey()))
+                  .flatMap(header -> Arrays.stream(header.getValue().split(",")))
+                  .map(String::trim)
+                  .anyMatch(WsConnector.BINARY_SUBPROTOCOL::equals);
+      return offered ? WsConnector.BINARY_SUBPROTOCOL : WsConnector.SUBPROTOCOL;
+    }
+    return input.getIsBase64Encoded() ? WsConnector.BINARY_SUBPROTOCOL : WsConnector.SUBPROTOCOL;
+  }
+
+  private static Payload decode(APIGatewayV2WebSocketEvent input, boolean binary) {
+    if (binary) {
+      final byte[] frame;
+      try {
+        frame = Base64.getDecoder().decode(input.getBody());
+      } catch (IllegalArgumentException e) {
+        throw new ValidationException("Malformed payload: " + e.getMessage(), e);
+      }
+      return BINARY_DECODER.apply(frame);
+    }
+    return DECODER.apply(input.getBody());
+  }
+
+  /** Disconnect does not tell the subprotocol, so the binary connection is looked up next */
+  private Payload onClose(String connectionId) {
+    try {
+      return this.wsConnector.onClose(
+          this.connectionRegistry.getConnection(connectionId, WsConnector.SUBPROTOCOL));
+    } catch (NotFoundException e) {
+      return this.wsConnector.onClose(
+          this.connectionRegistry.getConnection(connectionId, WsConnector.BINARY_SUBPROTOCOL));
+    }
+  }
 }
@@ -6,5 +6,10 @@ import com.fasterxml.jackson.annotation.JsonSubTypes.Type;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
 @JsonTypeInfo(use = JsonTypeInfo.Id.DEDUCTION)
-@JsonSubTypes(value = {@Type(WebSocketLambdaEvent.class), @Type(HttpV2LambdaEvent.class)})
+@JsonSubTypes(
+    value = {
+      @Type(WebSocketLambdaEvent.class),
+      @Type(HttpV2LambdaEvent.class),
+      @Type(ScheduledLambdaEvent.class)
+    })
 public interface LambdaEvent {}
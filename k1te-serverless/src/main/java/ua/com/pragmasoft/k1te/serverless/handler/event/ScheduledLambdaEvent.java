@@ -0,0 +1,58 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.serverless.handler.event;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+/**
+ * EventBridge scheduled event. The lambda events library maps it to joda time and misses the
+ * detail-type, so only the fields needed to tell it apart are mapped here.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ScheduledLambdaEvent implements LambdaEvent {
+
+  @JsonProperty("detail-type")
+  private String detailType;
+
+  private String source;
+  private String time;
+  private List<String> resources;
+
+  public String getDetailType() {
+    return detailType;
+  }
+
+  public void setDetailType(String detailType) {
+    this.detailType = detailType;
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  public void setSource(String source) {
+    this.source = source;
+  }
+
+  public String getTime() {
+    return time;
+  }
+
+  public void setTime(String time) {
+    this.time = time;
+  }
+
+  public List<String> getResources() {
+    return resources;
+  }
+
+  public void setResources(List<String> resources) {
+    this.resources = resources;
+  }
+
+  @Override
+  public String toString() {
+    return "ScheduledLambdaEvent [detailType=" + detailType + ", resources=" + resources + "]";
+  }
+}
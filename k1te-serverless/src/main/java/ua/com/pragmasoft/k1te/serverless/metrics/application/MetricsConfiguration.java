@@ -0,0 +1,18 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.serverless.metrics.application;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Produces;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import ua.com.pragmasoft.k1te.serverless.metrics.infrastructure.EmfMetrics;
+
+public class MetricsConfiguration {
+
+  /** Flushed to the function log at the end of every invocation */
+  @Produces
+  @ApplicationScoped
+  public EmfMetrics metrics(
+      @ConfigProperty(name = "metrics.namespace", defaultValue = "k1te") String namespace) {
+    return new EmfMetrics(namespace);
+  }
+}
@@ -0,0 +1,147 @@
+/* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
+package ua.com.pragmasoft.k1te.serverless.metrics.infrastructure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
+
+/**
+ * Collects metrics during the lambda invocation and writes them as CloudWatch Embedded Metric
+ * Format log lines on {@link #flush()}, so CloudWatch extracts metrics from the function logs
+ * without any extra network call.
+ *
+ * <p>Values with the same name and tags are written as a single line with an array of values.
+ *
+ * @see <a
+ *     href="https://docs.aws.amazon.com/AmazonCloudWatch/latest/monitoring/CloudWatch_Embedded_Metric_Format_Specification.html">EMF
+ *     specification</a>
+ */
+public class EmfMetrics implements Metrics {
+
+  /** CloudWatch accepts at most 100 values of a metric in a single log line */
+  private static final int MAX_VALUES = 100;
+
+  private static final String MILLISECONDS = "Milliseconds";
+  private static final String BYTES = "Bytes";
+  private static final String COUNT = "Count";
+
+  private final String namespace;
+  private final Consumer<String> sink;
+  private final Map<Series, List<Double>> series = new ConcurrentHashMap<>();
+
+  public EmfMetrics(String namespace) {
+    this(namespace, System.out::println);
+  }
+
+  /**
+   * @param namespace CloudWatch metrics namespace
+   * @param sink receives log lines, lambda runtime forwards standard output to CloudWatch logs
+   */
+  public EmfMetrics(String namespace, Consumer<String> sink) {
+    this.namespace = namespace;
+    this.sink = sink;
+  }
+
+  @Override
+  public void recordTime(String name, long nanos, String... tags) {
+    this.record(new Series(name, MILLISECONDS, tags), nanos / 1_000_000.0);
+  }
+
+  @Override
+  public void recordSize(String name, long bytes, String... tags) {
+    this.record(new Series(name, BYTES, tags), bytes);
+  }
+
+  @Override
+  public void recordValue(String name, long value, String... tags) {
+    this.record(new Series(name, COUNT, tags), value);
+  }
+
+  /** Writes collected metrics, should be called at the end of every invocation */
+  public void flush() {
+    long timestamp = System.currentTimeMillis();
+    for (Series key : List.copyOf(this.series.keySet())) {
+      List<Double> values = this.series.remove(key);
+      if (null == values) {
+        continue;
+      }
+      synchronized (values) {
+        for (int from = 0; from < values.size(); from += MAX_VALUES) {
+          List<Double> chunk = values.subList(from, Math.min(values.size(), from + MAX_VALUES));
+          this.sink.accept(this.line(key, chunk, timestamp));
+        }
+      }
+    }
+  }
+
+  private void record(Series key, double value) {
+    List<Double> values = this.series.computeIfAbsent(key, k -> new ArrayList<>());
+    synchronized (values) {
+      values.add(value);
+    }
+  }
+
+  private String line(Series key, List<Double> values, long timestamp) {
+    String[] tags = key.tags();
+    StringBuilder line = new StringBuilder(256);
+    line.append("{\"_aws\":{\"Timestamp\":")
+        .append(timestamp)
+        .append(",\"CloudWatchMetrics\":[{\"Namespace\":");
+    quote(line, this.namespace).append(",\"Dimensions\":[[");
+    for (int i = 0; i + 1 < tags.length; i += 2) {
+      if (i > 0) line.append(',');
+      quote(line, tags[i]);
+    }
+    line.append("]],\"Metrics\":[{\"Name\":");
+    quote(line, key.name()).append(",\"Unit\":");
+    quote(line, key.unit()).append("}]}]}");
+    for (int i = 0; i + 1 < tags.length; i += 2) {
+      line.append(',');
+      quote(line, tags[i]).append(':');
+      quote(line, tags[i + 1]);
+    }
+    line.append(',');
+    quote(line, key.name()).append(':').append(values);
+    return line.append('}').toString();
+  }
+
+  private static StringBuilder quote(StringBuilder line, String value) {
+    line.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        line.append('\\').append(c);
+      } else if (c < 0x20) {
+        line.append(String.format("\\u%04x", (int) c));
+      } else {
+        line.append(c);
+      }
+    }
+    return line.append('"');
+  }
+
+  private record Series(String name, String unit, String[] tags) {
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Series other
+          && this.name.equals(other.name)
+          && this.unit.equals(other.unit)
+          && Arrays.equals(this.tags, other.tags);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.name.hashCode() + Arrays.hashCode(this.tags);
+    }
+
+    @Override
+    public String toString() {
+      return this.name + Arrays.toString(this.tags);
+    }
+  }
+}
@@ -3,26 +3,139 @@ package ua.com.pragmasoft.k1te.serverless.router.application;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.inject.Produces;
+import jakarta.enterprise.inject.Typed;
+import java.time.Duration;
+import java.util.List;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredChannels;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredMessages;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredPostProcessor;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredRouter;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
 import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
+import ua.com.pragmasoft.k1te.backend.router.domain.CommitChangesPostProcessor;
+import ua.com.pragmasoft.k1te.backend.router.domain.DispatchLog;
+import ua.com.pragmasoft.k1te.backend.router.domain.IdempotentRouter;
 import ua.com.pragmasoft.k1te.backend.router.domain.KiteRouter;
+import ua.com.pragmasoft.k1te.backend.router.domain.Messages;
+import ua.com.pragmasoft.k1te.backend.router.domain.Outbox;
+import ua.com.pragmasoft.k1te.backend.router.domain.PeerUpdatePostProcessor;
+import ua.com.pragmasoft.k1te.backend.router.domain.RateLimits;
 import ua.com.pragmasoft.k1te.backend.router.domain.Router;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.CachingChannels;
 import ua.com.pragmasoft.k1te.backend.router.infrastructure.DynamoDbChannels;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.DynamoDbDispatchLog;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.DynamoDbMessages;
+import ua.com.pragmasoft.k1te.backend.router.infrastructure.DynamoDbOutbox;
+import ua.com.pragmasoft.k1te.backend.shared.TokenBuckets;
 
 public class RouterConfiguration {
 
+  /** Exposed apart from the channels for the connection sweeper */
+  @Produces
+  @ApplicationScoped
+  @Typed(DynamoDbChannels.class)
+  public DynamoDbChannels dynamoDbChannels(
+      DynamoDbEnhancedClient ddb,
+      @ConfigProperty(name = "serverless.environment") final String serverlessEnvironmentName,
+      @ConfigProperty(name = "router.connections.ttl", defaultValue = "15m")
+          Duration connectionTtl) {
+    return new DynamoDbChannels(ddb, serverlessEnvironmentName, connectionTtl);
+  }
+
+  /** Cache lives across warm invocations of the same lambda container */
   @Produces
   @ApplicationScoped
   public Channels channels(
+      DynamoDbChannels dynamoDbChannels,
+      @ConfigProperty(name = "router.channels.cache.enabled", defaultValue = "true")
+          boolean cacheEnabled,
+      @ConfigProperty(name = "router.channels.cache.max-size", defaultValue = "1000")
+          int cacheMaxSize,
+      @ConfigProperty(name = "router.channels.cache.ttl", defaultValue = "5s")
+          Duration cacheTtl,
+      Metrics metrics) {
+    Channels channels = dynamoDbChannels;
+    if (cacheEnabled) {
+      channels = new CachingChannels(channels, cacheMaxSize, cacheTtl, metrics);
+    }
+    return new MeteredChannels(channels, metrics);
+  }
+
+  @Produces
+  @ApplicationScoped
+  public Messages messages(
       DynamoDbEnhancedClient ddb,
-      @ConfigProperty(name = "serverless.environment") final String serverlessEnvironmentName) {
-    return new DynamoDbChannels(ddb, serverlessEnvironmentName);
+      @ConfigProperty(name = "serverless.environment") final String serverlessEnvironmentName,
+      Metrics metrics) {
+    return new MeteredMessages(new DynamoDbMessages(ddb, serverlessEnvironmentName), metrics);
+  }
+
+  /** Shared by the lambda containers, as the member may join again through another one */
+  @Produces
+  @ApplicationScoped
+  public Outbox outbox(
+      DynamoDbEnhancedClient ddb,
+      @ConfigProperty(name = "serverless.environment") final String serverlessEnvironmentName,
+      @ConfigProperty(name = "router.outbox.ttl", defaultValue = "1d") Duration ttl) {
+    return new DynamoDbOutbox(ddb, serverlessEnvironmentName, ttl);
+  }
+
+  /** Redelivered webhook updates may reach another lambda container, so the log is shared */
+  @Produces
+  @ApplicationScoped
+  public DispatchLog dispatchLog(
+      DynamoDbEnhancedClient ddb,
+      @ConfigProperty(name = "serverless.environment") final String serverlessEnvironmentName,
+      @ConfigProperty(name = "router.idempotency.ttl", defaultValue = "10m") Duration ttl,
+      @ConfigProperty(name = "router.idempotency.claim-ttl", defaultValue = "1m")
+          Duration claimTtl,
+      @ConfigProperty(name = "router.idempotency.wait-timeout", defaultValue = "10s")
+          Duration waitTimeout) {
+    return new DynamoDbDispatchLog(ddb, serverlessEnvironmentName, ttl, claimTtl, waitTimeout);
+  }
+
+  /** Buckets are kept in memory, so each lambda container counts the limits on its own */
+  @Produces
+  @ApplicationScoped
+  public RateLimits rateLimits(
+      @ConfigProperty(name = "router.rate-limit.enabled", defaultValue = "true") boolean enabled,
+      @ConfigProperty(name = "router.rate-limit.member.capacity", defaultValue = "32")
+          int memberCapacity,
+      @ConfigProperty(name = "router.rate-limit.member.period", defaultValue = "30s")
+          Duration memberPeriod,
+      @ConfigProperty(name = "router.rate-limit.channel.capacity", defaultValue = "300")
+          int channelCapacity,
+      @ConfigProperty(name = "router.rate-limit.channel.period", defaultValue = "1m")
+          Duration channelPeriod,
+      @ConfigProperty(name = "router.rate-limit.max-buckets", defaultValue = "10000")
+          int maxBuckets) {
+    if (!enabled) {
+      return RateLimits.unlimited();
+    }
+    return new RateLimits(
+        new TokenBuckets("member", memberCapacity, memberPeriod, maxBuckets),
+        new TokenBuckets("channel", channelCapacity, channelPeriod, maxBuckets));
   }
 
   @Produces
   @ApplicationScoped
-  public Router router(Channels channels) {
-    return new KiteRouter(channels);
+  public Router router(
+      Channels channels,
+      @ConfigProperty(name = "router.idempotency.enabled", defaultValue = "true")
+          boolean idempotent,
+      DispatchLog dispatchLog,
+      Metrics metrics) {
+    Router router =
+        new KiteRouter(
+            channels,
+            List.of(
+                new MeteredPostProcessor(new PeerUpdatePostProcessor(), metrics),
+                new MeteredPostProcessor(new CommitChangesPostProcessor(channels), metrics)));
+    if (idempotent) {
+      router = new IdempotentRouter(router, dispatchLog);
+    }
+    return new MeteredRouter(router, metrics);
   }
 }
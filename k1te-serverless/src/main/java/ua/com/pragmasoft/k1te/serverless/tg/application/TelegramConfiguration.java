@@ -7,6 +7,8 @@ import jakarta.enterprise.inject.Produces;
 import java.net.URI;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
+import ua.com.pragmasoft.k1te.backend.router.domain.Messages;
+import ua.com.pragmasoft.k1te.backend.router.domain.RateLimits;
 import ua.com.pragmasoft.k1te.backend.router.domain.Router;
 import ua.com.pragmasoft.k1te.backend.tg.TelegramConnector;
 
@@ -24,8 +26,10 @@ public class TelegramConfiguration {
       TelegramBot botClient,
       Router router,
       Channels channels,
+      Messages messages,
+      RateLimits rateLimits,
       @ConfigProperty(name = "telegram.webhook.endpoint") final URI base,
       @ConfigProperty(name = "ws.api.execution.endpoint") final URI wsApi) {
-    return new TelegramConnector(botClient, router, channels, base, wsApi);
+    return new TelegramConnector(botClient, router, channels, messages, base, wsApi, rateLimits);
   }
 }
@@ -1,66 +1,192 @@
 /* LGPL 3.0 ©️ Dmytro Zemnytskyi, pragmasoft@gmail.com, 2023 */
 package ua.com.pragmasoft.k1te.serverless.ws.application;
 
+import io.quarkus.logging.Log;
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import software.amazon.awssdk.core.SdkBytes;
-import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiAsyncClient;
 import software.amazon.awssdk.services.apigatewaymanagementapi.model.DeleteConnectionRequest;
+import software.amazon.awssdk.services.apigatewaymanagementapi.model.GoneException;
 import software.amazon.awssdk.services.apigatewaymanagementapi.model.PostToConnectionRequest;
 import ua.com.pragmasoft.k1te.backend.router.domain.payload.Payload;
+import ua.com.pragmasoft.k1te.backend.shared.DisconnectedException;
+import ua.com.pragmasoft.k1te.backend.shared.KiteException;
+import ua.com.pragmasoft.k1te.backend.shared.RoutingException;
+import ua.com.pragmasoft.k1te.backend.ws.MemoizedEncoder;
+import ua.com.pragmasoft.k1te.backend.ws.MsgPackPayloadEncoder;
 import ua.com.pragmasoft.k1te.backend.ws.PayloadEncoder;
+import ua.com.pragmasoft.k1te.backend.ws.WsConnector;
 import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnection;
 import ua.com.pragmasoft.k1te.backend.ws.WsConnector.WsConnectionRegistry;
 
+/**
+ * Connections of the {@code k1te.chat.v2} subprotocol are told apart by the suffix of their
+ * connection uri, as API Gateway does not keep the subprotocol negotiated on connect.
+ *
+ * <p>Frames are posted with the async client without waiting for each other, so the message to
+ * several recipients is posted to all of them at once. The posts which are still in flight are
+ * awaited with {@link #awaitPending(Duration)} before the invocation returns, as the Lambda
+ * environment is frozen in between.
+ */
 public final class AwsApiGwConnectionRegistry implements WsConnectionRegistry {
 
-  private static final PayloadEncoder ENCODER = new PayloadEncoder();
+  private static final String BINARY_SUFFIX = ";v2";
+  private static final Function<Payload, byte[]> ENCODER = new PayloadEncoder()::encode;
+  private static final Function<Payload, byte[]> BINARY_ENCODER = new MsgPackPayloadEncoder();
+  /** Broadcasted messages are encoded once for all the connections */
+  private static final Function<Payload, byte[]> FRAMES = new MemoizedEncoder<>(ENCODER);
 
-  private final ApiGatewayManagementApiClient apiClient;
+  private static final Function<Payload, byte[]> BINARY_FRAMES =
+      new MemoizedEncoder<>(BINARY_ENCODER);
+
+  private final ApiGatewayManagementApiAsyncClient apiClient;
+  private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
 
   /**
    * @param apiClient
    */
-  public AwsApiGwConnectionRegistry(ApiGatewayManagementApiClient apiClient) {
+  public AwsApiGwConnectionRegistry(ApiGatewayManagementApiAsyncClient apiClient) {
     this.apiClient = apiClient;
   }
 
+  /** Waits for the posts in flight, their failures are reported by the stages of the sends */
+  public void awaitPending(Duration timeout) {
+    if (this.pending.isEmpty()) {
+      return;
+    }
+    try {
+      CompletableFuture.allOf(this.pending.toArray(CompletableFuture[]::new))
+          .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // the failed post is logged by the connector
+    } catch (TimeoutException e) {
+      Log.warnf("%d posts to connections still in flight after %s", this.pending.size(), timeout);
+    }
+  }
+
+  /** Queueing of the undelivered message runs after the post, so it is awaited as well */
+  @Override
+  public void track(CompletionStage<?> stage) {
+    this.tracked(stage.toCompletableFuture());
+  }
+
+  private <T> CompletableFuture<T> tracked(CompletableFuture<T> request) {
+    this.pending.add(request);
+    request.whenComplete((result, e) -> this.pending.remove(request));
+    return request;
+  }
+
   final class AwsApiGwWebsocketConnection implements WsConnection {
 
-    private final String connectionUri;
+    private final String connectionId;
+    private final boolean binary;
 
     /**
-     * @param connectionUri
+     * @param connectionId
+     * @param binary whether the connection uses the binary subprotocol
      */
-    public AwsApiGwWebsocketConnection(String connectionUri) {
-      this.connectionUri = connectionUri;
+    public AwsApiGwWebsocketConnection(String connectionId, boolean binary) {
+      this.connectionId = connectionId;
+      this.binary = binary;
     }
 
     @Override
     public void close() throws IOException {
       final var request =
-          DeleteConnectionRequest.builder().connectionId(this.connectionUri).build();
-      AwsApiGwConnectionRegistry.this.apiClient.deleteConnection(request);
+          DeleteConnectionRequest.builder().connectionId(this.connectionId).build();
+      join(tracked(AwsApiGwConnectionRegistry.this.apiClient.deleteConnection(request)));
     }
 
     @Override
     public String connectionUri() {
-      return this.connectionUri;
+      return this.binary ? this.connectionId + BINARY_SUFFIX : this.connectionId;
     }
 
     @Override
     public void sendObject(Payload payload) throws IOException {
-      final var serializedPayload = SdkBytes.fromUtf8String(ENCODER.apply(payload));
+      join(this.sendAsync(payload).toCompletableFuture());
+    }
+
+    /** Fails with {@link DisconnectedException} when API Gateway tells the connection is gone */
+    @Override
+    public CompletionStage<Instant> sendAsync(Payload payload) {
+      return this.post(this.binary ? BINARY_ENCODER.apply(payload) : ENCODER.apply(payload));
+    }
+
+    @Override
+    public CompletionStage<Instant> broadcastAsync(Payload payload) {
+      return this.post(this.binary ? BINARY_FRAMES.apply(payload) : FRAMES.apply(payload));
+    }
+
+    private CompletionStage<Instant> post(byte[] frame) {
+      // the frame is never modified, neither by the request nor by the memoized encoder
+      final var serializedPayload = SdkBytes.fromByteArrayUnsafe(frame);
       final var request =
           PostToConnectionRequest.builder()
-              .connectionId(this.connectionUri)
+              .connectionId(this.connectionId)
               .data(serializedPayload)
               .build();
-      AwsApiGwConnectionRegistry.this.apiClient.postToConnection(request);
+      return tracked(
+          AwsApiGwConnectionRegistry.this
+              .apiClient
+              .postToConnection(request)
+              .handle(
+                  (response, e) -> {
+                    if (null != e) {
+                      throw this.failure(e);
+                    }
+                    return Instant.now();
+                  }));
+    }
+
+    private KiteException failure(Throwable e) {
+      Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+      if (cause instanceof GoneException) {
+        return new DisconnectedException(this.connectionUri(), cause);
+      }
+      if (cause instanceof KiteException kiteException) {
+        return kiteException;
+      }
+      return new RoutingException(cause.getMessage(), cause);
+    }
+  }
+
+  private static void join(CompletableFuture<?> request) throws IOException {
+    try {
+      request.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new IOException(e.getCause());
     }
   }
 
   @Override
   public WsConnection getConnection(String connectionUri) {
-    return new AwsApiGwWebsocketConnection(connectionUri);
+    if (connectionUri.endsWith(BINARY_SUFFIX)) {
+      final var connectionId =
+          connectionUri.substring(0, connectionUri.length() - BINARY_SUFFIX.length());
+      return new AwsApiGwWebsocketConnection(connectionId, true);
+    }
+    return new AwsApiGwWebsocketConnection(connectionUri, false);
+  }
+
+  public WsConnection getConnection(String connectionId, String subprotocol) {
+    return new AwsApiGwWebsocketConnection(
+        connectionId, WsConnector.BINARY_SUBPROTOCOL.equals(subprotocol));
   }
 }
@@ -6,13 +6,19 @@ import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.inject.Produces;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
-import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.services.apigatewaymanagementapi.ApiGatewayManagementApiAsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import ua.com.pragmasoft.k1te.backend.metrics.MeteredObjectStore;
+import ua.com.pragmasoft.k1te.backend.metrics.Metrics;
 import ua.com.pragmasoft.k1te.backend.router.domain.Channels;
+import ua.com.pragmasoft.k1te.backend.router.domain.Messages;
+import ua.com.pragmasoft.k1te.backend.router.domain.Outbox;
+import ua.com.pragmasoft.k1te.backend.router.domain.RateLimits;
 import ua.com.pragmasoft.k1te.backend.router.domain.Router;
 import ua.com.pragmasoft.k1te.backend.ws.ObjectStore;
 import ua.com.pragmasoft.k1te.backend.ws.WsConnector;
@@ -21,11 +27,15 @@ import ua.com.pragmasoft.k1te.backend.ws.infrastructure.S3ObjectStore;
 
 public class WsConfiguration {
 
+  /** Connections are kept alive between the invocations of the same Lambda environment */
   @Produces
   @ApplicationScoped
   @SuppressWarnings("java:S6241") // Region is encoded in the endpoint uri.
-  public ApiGatewayManagementApiClient apiClient(
-      @ConfigProperty(name = "ws.api.execution.endpoint") URI wsApiExecutionEndpoint) {
+  public ApiGatewayManagementApiAsyncClient apiClient(
+      @ConfigProperty(name = "ws.api.execution.endpoint") URI wsApiExecutionEndpoint,
+      @ConfigProperty(name = "ws.api.max-concurrency", defaultValue = "50") int maxConcurrency,
+      @ConfigProperty(name = "ws.api.connection-max-idle-time", defaultValue = "5m")
+          Duration connectionMaxIdleTime) {
     if (wsApiExecutionEndpoint.getScheme().equals("wss")) {
       try {
         wsApiExecutionEndpoint =
@@ -37,9 +47,14 @@ public class WsConfiguration {
         throw new IllegalStateException(e.getMessage(), e);
       }
     }
-    Log.infof("ApiGatewayManagementApiClient endpoint: %s", wsApiExecutionEndpoint);
-    return ApiGatewayManagementApiClient.builder()
-        .httpClient(UrlConnectionHttpClient.builder().build())
+    Log.infof("ApiGatewayManagementApiAsyncClient endpoint: %s", wsApiExecutionEndpoint);
+    return ApiGatewayManagementApiAsyncClient.builder()
+        .httpClient(
+            NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(maxConcurrency)
+                .tcpKeepAlive(true)
+                .connectionMaxIdleTime(connectionMaxIdleTime)
+                .build())
         .credentialsProvider(DefaultCredentialsProvider.create())
         .endpointOverride(wsApiExecutionEndpoint)
         .build();
@@ -48,10 +63,11 @@ public class WsConfiguration {
   @Produces
   @ApplicationScoped
   public AwsApiGwConnectionRegistry awsApiGwConnectionRegistry(
-      ApiGatewayManagementApiClient apiClient) {
+      ApiGatewayManagementApiAsyncClient apiClient) {
     return new AwsApiGwConnectionRegistry(apiClient);
   }
 
+  @Produces
   @ApplicationScoped
   public S3ObjectStore objectStore(
       @ConfigProperty(name = "bucket.name") String bucketName,
@@ -63,7 +79,22 @@ public class WsConfiguration {
   @Produces
   @ApplicationScoped
   public WsConnector websocketConnector(
-      Router router, Channels channels, WsConnectionRegistry connections, ObjectStore objectStore) {
-    return new WsConnector(router, channels, connections, objectStore);
+      Router router,
+      Channels channels,
+      WsConnectionRegistry connections,
+      ObjectStore objectStore,
+      RateLimits rateLimits,
+      Outbox outbox,
+      @ConfigProperty(name = "router.outbox.enabled", defaultValue = "true") boolean outboxEnabled,
+      Messages messages,
+      Metrics metrics) {
+    return new WsConnector(
+        router,
+        channels,
+        connections,
+        new MeteredObjectStore(objectStore, metrics),
+        rateLimits,
+        outboxEnabled ? outbox : null,
+        messages);
   }
 }